@@ -1,8 +1,14 @@
 package au.org.ala.config;
 
 import java.net.URL;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.configuration2.io.FileLocationStrategy;
 import org.apache.commons.configuration2.io.FileLocator;
@@ -13,10 +19,25 @@ import org.slf4j.LoggerFactory;
 /**
  * Attempts to look up the entire path and filename on the classpath.
  * 
+ * The result of each lookup, including lookups that did not find anything, is
+ * cached for each ClassLoader and resource name, as each miss can require a
+ * scan of every jar on the classpath. The ClassLoaders are weakly referenced so
+ * that the cache does not prevent them from being unloaded.
+ * 
  * @author Peter Ansell p_ansell@yahoo.com
  */
 class AbsoluteClasspathLocationStrategy implements FileLocationStrategy {
 	private static final Logger log = LoggerFactory.getLogger(AbsoluteClasspathLocationStrategy.class);
+
+	private static final Map<ClassLoader, ConcurrentMap<String, Optional<URL>>> LOADER_CACHE = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Resources found using {@link Class#getResource(String)}, which resolves
+	 * names differently to {@link ClassLoader#getResource(String)}.
+	 */
+	private static final ConcurrentMap<String, Optional<URL>> CLASS_CACHE = new ConcurrentHashMap<>();
+
 	private final List<ClassLoader> customClassLoaders;
 
 	public AbsoluteClasspathLocationStrategy() {
@@ -32,9 +53,31 @@ class AbsoluteClasspathLocationStrategy implements FileLocationStrategy {
 		return locateFromClasspath(locator.getFileName());
 	}
 
+	/**
+	 * Looks up each of the given resource names, so that later lookups for them
+	 * are answered from the cache.
+	 * 
+	 * @param resourceNames
+	 *            The names of the resources to look up
+	 */
+	void prefetch(Collection<String> resourceNames) {
+		for (String nextName : resourceNames) {
+			locateFromClasspath(nextName);
+		}
+	}
+
+	/**
+	 * Removes all cached lookups, for example after resources have been added to
+	 * a ClassLoader.
+	 */
+	static void clearCache() {
+		LOADER_CACHE.clear();
+		CLASS_CACHE.clear();
+	}
+
 	URL locateFromClasspath(String resourceName) {
 		for (ClassLoader cl : customClassLoaders) {
-			URL nextUrl = cl.getResource(resourceName);
+			URL nextUrl = getResource(cl, resourceName);
 			if (nextUrl != null) {
 				return nextUrl;
 			}
@@ -43,7 +86,7 @@ class AbsoluteClasspathLocationStrategy implements FileLocationStrategy {
 		URL url = null;
 		ClassLoader loader = Thread.currentThread().getContextClassLoader();
 		if (loader != null) {
-			url = loader.getResource(resourceName);
+			url = getResource(loader, resourceName);
 
 			if (url != null && log.isDebugEnabled()) {
 				log.debug("Loading configuration from the context classpath (" + resourceName + ")");
@@ -51,7 +94,7 @@ class AbsoluteClasspathLocationStrategy implements FileLocationStrategy {
 		}
 
 		if (url == null) {
-			url = ClassLoader.getSystemResource(resourceName);
+			url = getResource(ClassLoader.getSystemClassLoader(), resourceName);
 
 			if (url != null && log.isDebugEnabled()) {
 				log.debug("Loading configuration from the system classpath (" + resourceName + ")");
@@ -59,7 +102,9 @@ class AbsoluteClasspathLocationStrategy implements FileLocationStrategy {
 		}
 
 		if (url == null) {
-			url = AbsoluteClasspathLocationStrategy.class.getResource(resourceName);
+			url = CLASS_CACHE.computeIfAbsent(resourceName,
+					name -> Optional.ofNullable(AbsoluteClasspathLocationStrategy.class.getResource(name)))
+					.orElse(null);
 
 			if (url != null && log.isDebugEnabled()) {
 				log.debug("Loading configuration from the AbsoluteClasspathLocationStrategy classpath (" + resourceName
@@ -69,4 +114,11 @@ class AbsoluteClasspathLocationStrategy implements FileLocationStrategy {
 
 		return url;
 	}
+
+	private static URL getResource(ClassLoader loader, String resourceName) {
+		ConcurrentMap<String, Optional<URL>> cache = LOADER_CACHE.computeIfAbsent(loader,
+				l -> new ConcurrentHashMap<>());
+		return cache.computeIfAbsent(resourceName, name -> Optional.ofNullable(loader.getResource(name)))
+				.orElse(null);
+	}
 }
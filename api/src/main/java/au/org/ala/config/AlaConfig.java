@@ -5,32 +5,44 @@ package au.org.ala.config;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.OffsetDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.configuration2.CompositeConfiguration;
-import org.apache.commons.configuration2.ConfigurationConverter;
+import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ConfigurationUtils;
 import org.apache.commons.configuration2.FileBasedConfiguration;
 import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.MapConfiguration;
 import org.apache.commons.configuration2.PropertiesConfiguration;
 import org.apache.commons.configuration2.builder.FileBasedConfigurationBuilder;
 import org.apache.commons.configuration2.builder.fluent.Parameters;
+import org.apache.commons.configuration2.builder.fluent.PropertiesBuilderParameters;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.apache.commons.configuration2.ex.ConversionException;
 import org.apache.commons.configuration2.io.AbsoluteNameLocationStrategy;
 import org.apache.commons.configuration2.io.CombinedLocationStrategy;
 import org.apache.commons.configuration2.io.FileLocationStrategy;
+import org.apache.commons.configuration2.io.FileLocator;
+import org.apache.commons.configuration2.io.FileLocatorUtils;
+import org.apache.commons.configuration2.io.FileSystem;
 import org.apache.commons.configuration2.io.FileSystemLocationStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +50,7 @@ import org.slf4j.LoggerFactory;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Stage;
 
 /**
  * Provides access to configuration information used by Biocache Store NG.
@@ -69,24 +82,60 @@ public abstract class AlaConfig {
 	 */
 	public static final String OVERRIDES_PROPERTIES = "/data/biocache/config/biocache-config.properties";
 
+	/**
+	 * The name recorded by {@link ConfigSnapshot#layerOf(String)} for values
+	 * that came from the overrides.
+	 */
+	public static final String OVERRIDES_LAYER = "overrides";
+
+	/**
+	 * The name recorded by {@link ConfigSnapshot#layerOf(String)} for values
+	 * that came from the defaults.
+	 */
+	public static final String DEFAULTS_LAYER = "defaults";
+
+	/**
+	 * The configuration this instance was created with. If reloading has been
+	 * enabled using {@link #enableReload(Path, Path, long)}, use
+	 * {@link #snapshot()} to find the current configuration.
+	 */
 	protected final ImmutableConfiguration immutableConfig;
 
+	/**
+	 * The only mutable reference to the configuration. Reloads replace the whole
+	 * snapshot at once, so readers never see a partially applied configuration.
+	 */
+	private volatile ConfigSnapshot snapshot;
+
 	private volatile Injector internalInjector;
 
+	/**
+	 * Null unless access metrics have been enabled, so lookups only pay for a
+	 * null check by default.
+	 */
+	private volatile ConfigAccessMetrics accessMetrics;
+
+	private final List<ConfigSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
 	/**
 	 * Use static helper methods instead.
 	 * 
 	 * @param immutableConfig
-	 *            The ImmutableConfiguration to use to find properties.
+	 *            The ImmutableConfiguration to use to find properties. If it is
+	 *            not already a {@link ConfigSnapshot} it is flattened into one
+	 *            here, so that lookups do not need to walk the original layers.
 	 */
 	protected AlaConfig(ImmutableConfiguration immutableConfig) {
-		this.immutableConfig = immutableConfig;
+		this.snapshot = ConfigSnapshot.of(immutableConfig);
+		this.immutableConfig = this.snapshot;
 	}
 
 	/**
 	 * Gets a configuration using the hardcoded defaults and override properties
 	 * locations, checking the system property biocache.config to optionally
-	 * override {@link #OVERRIDES_PROPERTIES}
+	 * override {@link #OVERRIDES_PROPERTIES} with one or more files separated by
+	 * commas. Individual values can also be overridden using system properties
+	 * or environment variables, see {@link ConfigLayers#standard()}.
 	 * 
 	 * @return An ImmutableConfiguration object that will use the override
 	 *         properties were possible, but default to the defaults otherwise.
@@ -94,8 +143,7 @@ public abstract class AlaConfig {
 	 *             If there is an issue setting up the configuration.
 	 */
 	public static ImmutableConfiguration getConfig() throws AlaConfigException {
-		Optional<String> overridesLocation = Optional.ofNullable(System.getProperty(DEFAULT_SYSTEM_PROPERTY));
-		return getConfig(Paths.get(overridesLocation.orElse(OVERRIDES_PROPERTIES)));
+		return getConfig(ConfigLayers.standard());
 	}
 
 	/**
@@ -123,49 +171,466 @@ public abstract class AlaConfig {
 	 *            The path to the default properties locations
 	 * @return An ImmutableConfiguration object that will use the override
 	 *         properties were possible, but default to the defaults otherwise.
+	 *         The layers are merged into a {@link ConfigSnapshot} once, so later
+	 *         lookups do not need to check each layer in turn.
 	 * @throws AlaConfigException
 	 *             If there is an issue setting up the configuration.
 	 */
 	public static ImmutableConfiguration getConfig(Path pathToOverrides, Path pathToDefaults)
 			throws AlaConfigException {
+		return getConfig(pathToOverrides, pathToDefaults, Collections.<ConfigLayerSource>emptyList());
+	}
+
+	/**
+	 * Gets a configuration using the given layers ahead of the given override
+	 * properties, followed by the given defaults.
+	 * 
+	 * @param pathToOverrides
+	 *            The path to the override properties locations
+	 * @param pathToDefaults
+	 *            The path to the default properties locations
+	 * @param priorityLayers
+	 *            The layers to use ahead of the overrides, from the highest
+	 *            priority to the lowest. Their current values are used, so this
+	 *            does not wait for any remote lookups.
+	 * @return An ImmutableConfiguration object that will use the values from the
+	 *         layers and the override properties were possible, but default to
+	 *         the defaults otherwise.
+	 * @throws AlaConfigException
+	 *             If there is an issue setting up the configuration.
+	 */
+	public static ImmutableConfiguration getConfig(Path pathToOverrides, Path pathToDefaults,
+			List<? extends ConfigLayerSource> priorityLayers) throws AlaConfigException {
+		List<String> layerNames = new ArrayList<>(priorityLayers.size() + 2);
+		List<Configuration> layers = new ArrayList<>(priorityLayers.size() + 2);
+		for (ConfigLayerSource nextLayer : priorityLayers) {
+			layerNames.add(nextLayer.name());
+			layers.add(new MapConfiguration(nextLayer.values()));
+		}
+		layerNames.add(OVERRIDES_LAYER);
+		layerNames.add(DEFAULTS_LAYER);
+		layers.addAll(ParallelConfigLoader.load(Collections.singletonList(pathToOverrides), pathToDefaults,
+				ParallelConfigLoader.enabledByDefault()));
+
+		CompositeConfiguration combinedConfiguration = new CompositeConfiguration();
+		// Important: Layers must be added from the highest priority to the lowest
+		for (Configuration nextLayer : layers) {
+			combinedConfiguration.addConfiguration(nextLayer);
+		}
+
+		return ConfigSnapshot.of(ConfigurationUtils.unmodifiableConfiguration(combinedConfiguration),
+				layerNames, layers);
+	}
+
+	/**
+	 * Gets a configuration by merging the given layers.
+	 * 
+	 * @param layers
+	 *            The layers to merge
+	 * @return An ImmutableConfiguration object that uses the value from the
+	 *         highest priority layer that contains each key. The layers are
+	 *         merged into a {@link ConfigSnapshot} once, which records the layer
+	 *         that supplied each value.
+	 * @throws AlaConfigException
+	 *             If there is an issue setting up the configuration.
+	 */
+	public static ImmutableConfiguration getConfig(ConfigLayers layers) throws AlaConfigException {
+		return layers.load();
+	}
+
+	/**
+	 * Loads an override properties file, searching the file-system and then the
+	 * classpath, using the given FileSystem, or the default if it is null.
+	 */
+	static FileBasedConfiguration loadOverrides(Path pathToOverrides, FileSystem fileSystem)
+			throws AlaConfigException {
+		return loadProperties(pathToOverrides, overridesLocationStrategy(), false, fileSystem);
+	}
+
+	/**
+	 * Loads a default properties file from the classpath, using the given
+	 * FileSystem, or the default if it is null.
+	 */
+	static FileBasedConfiguration loadDefaults(Path pathToDefaults, FileSystem fileSystem)
+			throws AlaConfigException {
+		return loadProperties(pathToDefaults, defaultsLocationStrategy(), true, fileSystem);
+	}
+
+	private static FileBasedConfiguration loadProperties(Path path, FileLocationStrategy locationStrategy,
+			boolean throwExceptionOnMissing, FileSystem fileSystem) throws AlaConfigException {
 		try {
-			List<ClassLoader> customClassLoaders = Arrays.asList(AlaConfig.class.getClassLoader());
-
-			List<FileLocationStrategy> locationsOverrides = Arrays.asList(new AbsoluteNameLocationStrategy(),
-					new FileSystemLocationStrategy(), new AbsoluteClasspathLocationStrategy(customClassLoaders));
-			FileLocationStrategy locationStrategiesOverrides = new CombinedLocationStrategy(locationsOverrides);
-			Parameters paramsOverride = new Parameters();
-			FileBasedConfigurationBuilder<FileBasedConfiguration> builderOverride = new FileBasedConfigurationBuilder<FileBasedConfiguration>(
-					PropertiesConfiguration.class)
-							.configure(paramsOverride.properties().setFileName(pathToOverrides.toString())
-
-									.setThrowExceptionOnMissing(false).setEncoding(StandardCharsets.UTF_8.name())
-									.setLocationStrategy(locationStrategiesOverrides));
-
-			List<FileLocationStrategy> locationsDefaults = Arrays
-					.asList(new AbsoluteClasspathLocationStrategy(customClassLoaders));
-			FileLocationStrategy locationStrategiesDefaults = new CombinedLocationStrategy(locationsDefaults);
-			Parameters paramsDefaults = new Parameters();
-			FileBasedConfigurationBuilder<FileBasedConfiguration> builderDefaults = new FileBasedConfigurationBuilder<FileBasedConfiguration>(
-					PropertiesConfiguration.class)
-							.configure(paramsDefaults.properties().setFileName(pathToDefaults.toString())
-
-									.setThrowExceptionOnMissing(true).setEncoding(StandardCharsets.UTF_8.name())
-									.setLocationStrategy(locationStrategiesDefaults));
-
-			CompositeConfiguration combinedConfiguration = new CompositeConfiguration();
-			// Important: Overrides must be added first
-			combinedConfiguration.addConfiguration(builderOverride.getConfiguration());
-			combinedConfiguration.addConfiguration(builderDefaults.getConfiguration());
-
-			// return new
-			// AlaConfig(ConfigurationUtils.unmodifiableConfiguration(combinedConfiguration));
-			return ConfigurationUtils.unmodifiableConfiguration(combinedConfiguration);
+			Parameters params = new Parameters();
+			PropertiesBuilderParameters properties = params.properties().setFileName(path.toString())
+					.setThrowExceptionOnMissing(throwExceptionOnMissing).setEncoding(StandardCharsets.UTF_8.name())
+					.setLocationStrategy(locationStrategy);
+			if (fileSystem != null) {
+				properties.setFileSystem(fileSystem);
+			}
+			FileBasedConfigurationBuilder<FileBasedConfiguration> builder = new FileBasedConfigurationBuilder<FileBasedConfiguration>(
+					PropertiesConfiguration.class).configure(properties);
+			return builder.getConfiguration();
 		} catch (ConfigurationException e) {
 			throw new AlaConfigException(e);
 		}
 	}
 
+	/**
+	 * Gets a configuration using the given defaults and the given override
+	 * properties locations, using a compiled snapshot of them if one exists and
+	 * was compiled from the current contents of both files.
+	 * 
+	 * If the compiled snapshot is missing or out of date, the properties files are
+	 * parsed as usual and the compiled snapshot is rewritten so that the next
+	 * process can use it. Failures to read or write the compiled snapshot are
+	 * logged and otherwise ignored. Files included from the properties files are
+	 * part of the source hash, but if the name of an include uses interpolation
+	 * the included file is not known until the sources are parsed, so the
+	 * compiled snapshot is neither read nor written.
+	 * 
+	 * @param pathToOverrides
+	 *            The path to the override properties locations
+	 * @param pathToDefaults
+	 *            The path to the default properties locations
+	 * @param compiledSnapshot
+	 *            The path to the compiled snapshot file, see
+	 *            {@link ConfigSnapshotFile}
+	 * @return An ImmutableConfiguration object that will use the override
+	 *         properties were possible, but default to the defaults otherwise.
+	 * @throws AlaConfigException
+	 *             If there is an issue setting up the configuration.
+	 */
+	public static ImmutableConfiguration getConfig(Path pathToOverrides, Path pathToDefaults, Path compiledSnapshot)
+			throws AlaConfigException {
+		byte[] sourceHash;
+		try {
+			Optional<List<URL>> sources = locateSourcesWithIncludes(pathToOverrides, pathToDefaults);
+			if (!sources.isPresent()) {
+				logger.info("Not using a compiled configuration snapshot as an include uses interpolation: {}",
+						compiledSnapshot);
+				return ConfigSnapshot.of(getConfig(pathToOverrides, pathToDefaults));
+			}
+			sourceHash = ConfigSnapshotFile.sourceHash(sources.get());
+		} catch (IOException e) {
+			throw new AlaConfigException("Could not read configuration sources", e);
+		}
+		try {
+			Optional<ConfigSnapshot> compiled = ConfigSnapshotFile.read(compiledSnapshot, sourceHash);
+			if (compiled.isPresent()) {
+				return compiled.get();
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read compiled configuration snapshot, parsing sources instead: {}",
+					compiledSnapshot, e);
+		}
+		ConfigSnapshot result = ConfigSnapshot.of(getConfig(pathToOverrides, pathToDefaults));
+		try {
+			ConfigSnapshotFile.write(result, sourceHash, compiledSnapshot);
+		} catch (IOException e) {
+			logger.warn("Could not write compiled configuration snapshot: {}", compiledSnapshot, e);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the override and default properties using the same location
+	 * strategies as {@link #getConfig(Path, Path)}.
+	 * 
+	 * @return The locations of the overrides and the defaults, in that order,
+	 *         with null for either one that could not be located.
+	 */
+	static List<URL> locateSources(Path pathToOverrides, Path pathToDefaults) {
+		FileLocator overrides = FileLocatorUtils.fileLocator().fileName(pathToOverrides.toString())
+				.locationStrategy(overridesLocationStrategy()).create();
+		FileLocator defaults = FileLocatorUtils.fileLocator().fileName(pathToDefaults.toString())
+				.locationStrategy(defaultsLocationStrategy()).create();
+		return Arrays.asList(FileLocatorUtils.locate(overrides), FileLocatorUtils.locate(defaults));
+	}
+
+	/**
+	 * Finds the override and default properties in the same way as
+	 * {@link #locateSources(Path, Path)}, along with every file that they
+	 * include, directly or indirectly.
+	 * 
+	 * @return The locations of the overrides and its includes, followed by the
+	 *         defaults and its includes, with null for any file that could not be
+	 *         located, or empty if the name of an include uses interpolation.
+	 * @throws IOException
+	 *             If one of the files could not be read.
+	 */
+	static Optional<List<URL>> locateSourcesWithIncludes(Path pathToOverrides, Path pathToDefaults)
+			throws IOException {
+		List<URL> sources = locateSources(pathToOverrides, pathToDefaults);
+		Optional<List<URL>> overrides = ParallelConfigLoader.locateWithIncludes(sources.get(0),
+				overridesLocationStrategy());
+		Optional<List<URL>> defaults = ParallelConfigLoader.locateWithIncludes(sources.get(1),
+				defaultsLocationStrategy());
+		if (!overrides.isPresent() || !defaults.isPresent()) {
+			return Optional.empty();
+		}
+		List<URL> result = new ArrayList<>(overrides.get());
+		result.addAll(defaults.get());
+		return Optional.of(result);
+	}
+
+	/**
+	 * Looks up the given resource names on the classpath so that later calls to
+	 * {@link #getConfig(Path, Path)} that use them do not need to search the
+	 * classpath again. Lookups are cached even without calling this method, so
+	 * this only moves the cost to a convenient point during startup.
+	 * 
+	 * @param resourceNames
+	 *            The resource names to look up. If none are given,
+	 *            {@link #DEFAULTS_PROPERTIES} and {@link #OVERRIDES_PROPERTIES}
+	 *            are looked up.
+	 */
+	public static void prefetchConfigResources(String... resourceNames) {
+		List<String> names = resourceNames.length == 0 ? Arrays.asList(DEFAULTS_PROPERTIES, OVERRIDES_PROPERTIES)
+				: Arrays.asList(resourceNames);
+		classpathLocationStrategy().prefetch(names);
+	}
+
+	/**
+	 * Clears the cached classpath lookups used by {@link #getConfig(Path, Path)},
+	 * which is only necessary if configuration files are added to the classpath
+	 * after they were first looked for.
+	 */
+	public static void clearConfigResourceCache() {
+		AbsoluteClasspathLocationStrategy.clearCache();
+	}
+
+	private static AbsoluteClasspathLocationStrategy classpathLocationStrategy() {
+		return new AbsoluteClasspathLocationStrategy(Arrays.asList(AlaConfig.class.getClassLoader()));
+	}
+
+	static FileLocationStrategy overridesLocationStrategy() {
+		List<FileLocationStrategy> locationsOverrides = Arrays.asList(new AbsoluteNameLocationStrategy(),
+				new FileSystemLocationStrategy(), classpathLocationStrategy());
+		return new CombinedLocationStrategy(locationsOverrides);
+	}
+
+	static FileLocationStrategy defaultsLocationStrategy() {
+		List<FileLocationStrategy> locationsDefaults = Arrays.<FileLocationStrategy>asList(classpathLocationStrategy());
+		return new CombinedLocationStrategy(locationsDefaults);
+	}
+
+	/**
+	 * Finds the file on the file-system that {@link #getConfig(Path, Path)} would
+	 * load the overrides from, using the same location strategies.
+	 * 
+	 * @param pathToOverrides
+	 *            The path to the override properties locations
+	 * @return The absolute path to the overrides file, or the given path made
+	 *         absolute if it could not be located, so that it can be watched for
+	 *         creation. Empty if the overrides were located somewhere other than
+	 *         the file-system, such as inside a jar file.
+	 */
+	static Optional<Path> locateOverridesFile(Path pathToOverrides) {
+		URL located = locateSources(pathToOverrides, Paths.get(DEFAULTS_PROPERTIES)).get(0);
+		if (located == null) {
+			return Optional.of(pathToOverrides.toAbsolutePath());
+		}
+		if (!"file".equals(located.getProtocol())) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(Paths.get(located.toURI()));
+		} catch (URISyntaxException e) {
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Watches the overrides file for changes and replaces the configuration used
+	 * by this instance each time it changes. A burst of changes within the
+	 * debounce interval only causes a single reload, which happens on a
+	 * background thread. If the new configuration cannot be loaded, or fails
+	 * {@link #validate(ConfigSnapshot)}, the current configuration is kept.
+	 * 
+	 * Lookups are not affected by reloading, other than seeing the new values
+	 * after the reload completes.
+	 * 
+	 * @param pathToOverrides
+	 *            The path to the override properties locations
+	 * @param pathToDefaults
+	 *            The path to the default properties locations
+	 * @param debounceMillis
+	 *            The number of milliseconds to wait after the last change before
+	 *            reloading
+	 * @return The {@link ConfigReloader}, which must be closed to stop watching
+	 *         for changes.
+	 * @throws AlaConfigException
+	 *             If the overrides file could not be watched.
+	 */
+	public ConfigReloader enableReload(Path pathToOverrides, Path pathToDefaults, long debounceMillis)
+			throws AlaConfigException {
+		return enableReload(pathToOverrides, pathToDefaults, debounceMillis,
+				Collections.<ConfigLayerSource>emptyList());
+	}
+
+	/**
+	 * Reloads the configuration as for {@link #enableReload(Path, Path, long)},
+	 * using the given layers ahead of the overrides as for
+	 * {@link #getConfig(Path, Path, List)}. The configuration is also reloaded
+	 * each time one of the layers reports a change.
+	 * 
+	 * @param pathToOverrides
+	 *            The path to the override properties locations
+	 * @param pathToDefaults
+	 *            The path to the default properties locations
+	 * @param debounceMillis
+	 *            The number of milliseconds to wait after the last change before
+	 *            reloading
+	 * @param priorityLayers
+	 *            The layers to use ahead of the overrides, from the highest
+	 *            priority to the lowest
+	 * @return The {@link ConfigReloader}, which must be closed to stop watching
+	 *         for changes.
+	 * @throws AlaConfigException
+	 *             If the overrides file could not be watched.
+	 */
+	public ConfigReloader enableReload(Path pathToOverrides, Path pathToDefaults, long debounceMillis,
+			List<? extends ConfigLayerSource> priorityLayers) throws AlaConfigException {
+		List<Path> watched = new ArrayList<>(1);
+		locateOverridesFile(pathToOverrides).ifPresent(watched::add);
+		if (watched.isEmpty()) {
+			logger().warn("Overrides are not on the file-system, only explicit reloads will be possible: {}",
+					pathToOverrides);
+		}
+		ConfigReloader result = new ConfigReloader(this,
+				() -> getConfig(pathToOverrides, pathToDefaults, priorityLayers), watched, debounceMillis);
+		result.start();
+		result.listenTo(priorityLayers);
+		return result;
+	}
+
+	/**
+	 * Reloads the configuration as for {@link #enableReload(Path, Path, long)},
+	 * using the given layers. Every override file on the file-system is watched,
+	 * and the configuration is also reloaded each time one of the
+	 * {@link ConfigLayerSource} layers reports a change. System properties and
+	 * environment variables are read again on each reload.
+	 * 
+	 * @param layers
+	 *            The layers to merge on each reload
+	 * @param debounceMillis
+	 *            The number of milliseconds to wait after the last change before
+	 *            reloading
+	 * @return The {@link ConfigReloader}, which must be closed to stop watching
+	 *         for changes.
+	 * @throws AlaConfigException
+	 *             If the override files could not be watched.
+	 */
+	public ConfigReloader enableReload(ConfigLayers layers, long debounceMillis) throws AlaConfigException {
+		List<Path> watched = layers.watchableFiles();
+		if (watched.isEmpty()) {
+			logger().warn("No overrides are on the file-system, only explicit reloads will be possible: {}", layers);
+		}
+		ConfigReloader result = new ConfigReloader(this, () -> getConfig(layers), watched, debounceMillis);
+		result.start();
+		result.listenTo(layers.sources());
+		return result;
+	}
+
+	/**
+	 * Called with each new configuration before it replaces the current one
+	 * during a reload. Subclasses can override this to reject configurations that
+	 * are not valid for them.
+	 * 
+	 * @param candidate
+	 *            The configuration that is about to be used
+	 * @throws AlaConfigException
+	 *             If the configuration should not be used
+	 */
+	protected void validate(ConfigSnapshot candidate) throws AlaConfigException {
+	}
+
+	/**
+	 * Replaces the current configuration for this instance.
+	 * 
+	 * @param next
+	 *            The new configuration
+	 */
+	void publish(ConfigSnapshot next) {
+		validate(next);
+		this.snapshot = next;
+		try {
+			reloaded(next);
+		} catch (RuntimeException e) {
+			logger().warn("Failed to apply reloaded configuration", e);
+		}
+		for (ConfigSubscription nextSubscription : subscriptions) {
+			nextSubscription.published();
+		}
+	}
+
+	/**
+	 * Registers a listener for changes to keys starting with the given prefix,
+	 * such as <code>solr.</code>, or to a single key. Changes are delivered on a
+	 * shared background thread, see
+	 * {@link #subscribe(Collection, Executor, ConfigChangeListener)}.
+	 * 
+	 * @param prefix
+	 *            The prefix of the keys to receive changes for
+	 * @param listener
+	 *            The listener to call with the keys that changed
+	 * @return The subscription, which must be closed to stop receiving changes.
+	 */
+	public ConfigSubscription subscribe(String prefix, ConfigChangeListener listener) {
+		return subscribe(Collections.singletonList(prefix), ChangeExecutorHolder.EXECUTOR, listener);
+	}
+
+	/**
+	 * Registers a listener for changes to keys starting with any of the given
+	 * prefixes. Each time the configuration is replaced, the listener is called
+	 * on the given executor with only the matching keys that differ from the
+	 * configuration it last saw. Changes published while a call is queued or
+	 * running are coalesced into the next call, so a slow listener never blocks
+	 * reloading and never falls behind by more than one call.
+	 * 
+	 * @param prefixes
+	 *            The prefixes of the keys to receive changes for
+	 * @param executor
+	 *            The executor to call the listener on
+	 * @param listener
+	 *            The listener to call with the keys that changed
+	 * @return The subscription, which must be closed to stop receiving changes.
+	 */
+	public ConfigSubscription subscribe(Collection<String> prefixes, Executor executor,
+			ConfigChangeListener listener) {
+		ConfigSubscription result = new ConfigSubscription(prefixes, executor, listener, this::snapshot,
+				subscriptions);
+		subscriptions.add(result);
+		// A configuration published after the subscription captured the current
+		// one, but before it was registered, would otherwise never be delivered.
+		// If nothing was published in between, this delivers nothing.
+		result.published();
+		return result;
+	}
+
+	/**
+	 * The executor used when a subscription does not give one, only created if
+	 * it is needed.
+	 */
+	private static final class ChangeExecutorHolder {
+		private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+			Thread result = new Thread(r, "ala-config-changes");
+			result.setDaemon(true);
+			return result;
+		});
+	}
+
+	/**
+	 * Called after a reload has replaced the configuration. Subclasses can
+	 * override this to update resources that were created from the previous
+	 * configuration. Exceptions thrown here are logged, but do not undo the
+	 * reload.
+	 * 
+	 * @param current
+	 *            The configuration that is now in use
+	 */
+	protected void reloaded(ConfigSnapshot current) {
+	}
+
 	/**
 	 * Get a config property as a boolean.
 	 * 
@@ -177,11 +642,13 @@ public abstract class AlaConfig {
 	 *             represented as a boolean
 	 */
 	public boolean getBoolean(String propertyName) throws AlaConfigException {
-		try {
-			return immutableConfig.getBoolean(propertyName);
-		} catch (ConversionException | NoSuchElementException e) {
-			throw new AlaConfigException(e);
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
+		Optional<Boolean> result = current.findBoolean(propertyName);
+		if (result.isPresent()) {
+			return result.get();
 		}
+		throw lookupFailure(propertyName, current, "boolean");
 	}
 
 	/**
@@ -199,11 +666,16 @@ public abstract class AlaConfig {
 	 */
 	public boolean getBooleanOrDefault(String propertyName, boolean defaultValue)
 			throws ConversionException, NoSuchElementException {
-		try {
-			return immutableConfig.getBoolean(propertyName, defaultValue);
-		} catch (ConversionException | NoSuchElementException e) {
-			throw new AlaConfigException(e);
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
+		if (!current.containsKey(propertyName)) {
+			return defaultValue;
+		}
+		Optional<Boolean> result = current.findBoolean(propertyName);
+		if (result.isPresent()) {
+			return result.get();
 		}
+		throw lookupFailure(propertyName, current, "boolean");
 	}
 
 	/**
@@ -216,9 +688,12 @@ public abstract class AlaConfig {
 	 *             If the property cannot be found in the configuration
 	 */
 	public String get(String propertyName) throws AlaConfigException {
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
 		try {
-			return immutableConfig.getString(propertyName);
+			return current.getString(propertyName);
 		} catch (ConversionException e) {
+			recordConversionFailure(propertyName);
 			throw new AlaConfigException(e);
 		}
 	}
@@ -237,9 +712,12 @@ public abstract class AlaConfig {
 	 *             represented as a String.
 	 */
 	public String getOrDefault(String propertyName, String defaultValue) throws AlaConfigException {
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
 		try {
-			return immutableConfig.getString(propertyName, defaultValue);
+			return current.getString(propertyName, defaultValue);
 		} catch (ConversionException e) {
+			recordConversionFailure(propertyName);
 			throw new AlaConfigException(e);
 		}
 	}
@@ -261,16 +739,12 @@ public abstract class AlaConfig {
 	 */
 	public Set<String> getSetOrDefault(String propertyName, String defaultValue, String splitChar)
 			throws AlaConfigException {
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
 		try {
-			Set<String> splitList = Arrays
-					.asList(immutableConfig.getString(propertyName, defaultValue).split(splitChar)).stream()
-					.map(String::trim).collect(Collectors.toSet());
-			if (splitList.isEmpty() || (splitList.size() == 1 && splitList.iterator().next().isEmpty())) {
-				return Collections.emptySet();
-			} else {
-				return Collections.unmodifiableSet(splitList);
-			}
+			return current.getSet(propertyName, defaultValue, splitChar);
 		} catch (ConversionException e) {
+			recordConversionFailure(propertyName);
 			throw new AlaConfigException(e);
 		}
 	}
@@ -286,11 +760,13 @@ public abstract class AlaConfig {
 	 *             represented as an int
 	 */
 	public int getInt(String propertyName) throws AlaConfigException {
-		try {
-			return immutableConfig.getInt(propertyName);
-		} catch (ConversionException | NoSuchElementException e) {
-			throw new AlaConfigException(e);
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
+		OptionalInt result = current.findInt(propertyName);
+		if (result.isPresent()) {
+			return result.getAsInt();
 		}
+		throw lookupFailure(propertyName, current, "int");
 	}
 
 	/**
@@ -307,13 +783,143 @@ public abstract class AlaConfig {
 	 *             represented as an int
 	 */
 	public int getIntOrDefault(String propertyName, int defaultValue) throws AlaConfigException {
-		try {
-			return immutableConfig.getInt(propertyName, defaultValue);
-		} catch (ConversionException | NoSuchElementException e) {
-			throw new AlaConfigException(e);
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
+		if (!current.containsKey(propertyName)) {
+			return defaultValue;
+		}
+		OptionalInt result = current.findInt(propertyName);
+		if (result.isPresent()) {
+			return result.getAsInt();
+		}
+		throw lookupFailure(propertyName, current, "int");
+	}
+
+	/**
+	 * Find a config property as a string, without throwing an exception if it is
+	 * not present.
+	 * 
+	 * @param propertyName
+	 *            The configuration property to find
+	 * @return The value for the configuration property, or empty if it is not
+	 *         present.
+	 */
+	public Optional<String> find(String propertyName) {
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
+		return current.findString(propertyName);
+	}
+
+	/**
+	 * Find a config property as an int, without throwing an exception if it is
+	 * not present or cannot be represented as an int. Values that cannot be
+	 * represented as an int are only converted once.
+	 * 
+	 * @param propertyName
+	 *            The configuration property to find
+	 * @return The value for the configuration property, or empty if it is not
+	 *         present or cannot be represented as an int.
+	 */
+	public OptionalInt findInt(String propertyName) {
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
+		OptionalInt result = current.findInt(propertyName);
+		if (!result.isPresent() && current.containsKey(propertyName)) {
+			recordConversionFailure(propertyName);
+		}
+		return result;
+	}
+
+	/**
+	 * Find a config property as a boolean, without throwing an exception if it is
+	 * not present or cannot be represented as a boolean. Values that cannot be
+	 * represented as a boolean are only converted once.
+	 * 
+	 * @param propertyName
+	 *            The configuration property to find
+	 * @return The value for the configuration property, or empty if it is not
+	 *         present or cannot be represented as a boolean.
+	 */
+	public Optional<Boolean> findBoolean(String propertyName) {
+		ConfigSnapshot current = snapshot;
+		recordRead(propertyName, current);
+		Optional<Boolean> result = current.findBoolean(propertyName);
+		if (!result.isPresent() && current.containsKey(propertyName)) {
+			recordConversionFailure(propertyName);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the exception for a property that was required but is missing, or
+	 * could not be converted, without a stack trace unless debugging is enabled.
+	 */
+	private AlaConfigException lookupFailure(String propertyName, ConfigSnapshot current, String type) {
+		if (!current.containsKey(propertyName)) {
+			return AlaConfigException.lookupFailure("Configuration property not found: " + propertyName);
+		}
+		recordConversionFailure(propertyName);
+		return AlaConfigException
+				.lookupFailure("Configuration property could not be represented as " + type + ": " + propertyName);
+	}
+
+	private void recordRead(String propertyName, ConfigSnapshot current) {
+		ConfigAccessMetrics metrics = accessMetrics;
+		if (metrics != null) {
+			metrics.recordRead(propertyName, current);
+		}
+	}
+
+	private void recordConversionFailure(String propertyName) {
+		ConfigAccessMetrics metrics = accessMetrics;
+		if (metrics != null) {
+			metrics.recordConversionFailure(propertyName);
+		}
+	}
+
+	/**
+	 * Starts counting the lookups made for each key through this instance. If
+	 * metrics are already enabled the existing metrics are returned.
+	 * 
+	 * @return The metrics, which can be queried directly or registered with JMX
+	 *         using {@link ConfigAccessMetrics#registerMBean()}.
+	 */
+	public synchronized ConfigAccessMetrics enableAccessMetrics() {
+		ConfigAccessMetrics result = accessMetrics;
+		if (result == null) {
+			result = accessMetrics = new ConfigAccessMetrics(this::snapshot);
+		}
+		return result;
+	}
+
+	/**
+	 * Stops counting lookups and unregisters the metrics from JMX if they were
+	 * registered.
+	 */
+	public synchronized void disableAccessMetrics() {
+		ConfigAccessMetrics metrics = accessMetrics;
+		accessMetrics = null;
+		if (metrics != null) {
+			metrics.unregisterMBean();
 		}
 	}
 
+	/**
+	 * @return The access metrics for this instance, or empty if they have not
+	 *         been enabled.
+	 */
+	public Optional<ConfigAccessMetrics> accessMetrics() {
+		return Optional.ofNullable(accessMetrics);
+	}
+
+	/**
+	 * @return The flattened snapshot of the configuration currently used by this
+	 *         instance.
+	 */
+	protected ConfigSnapshot snapshot() {
+		return snapshot;
+	}
+
 	protected org.slf4j.Logger logger() {
 		return logger;
 	}
@@ -346,13 +952,49 @@ public abstract class AlaConfig {
 			synchronized (this) {
 				result = internalInjector;
 				if (result == null) {
-					result = internalInjector = Guice.createInjector(getNewModule());
+					result = internalInjector = Guice.createInjector(injectorStage(), getNewModule());
 				}
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * The stage used to create the Injector. Subclasses that bind singletons can
+	 * return {@link Stage#PRODUCTION} so that errors are found when the Injector
+	 * is created rather than on first use.
+	 * 
+	 * @return {@link Stage#DEVELOPMENT}, which is the Guice default.
+	 */
+	protected Stage injectorStage() {
+		return Stage.DEVELOPMENT;
+	}
+
+	/**
+	 * Creates the Injector on a background thread, so that the first call to
+	 * {@link #getInstance(Class)} does not pay the cost of creating it. If
+	 * {@link #getInstance(Class)} is called before the Injector is ready, it
+	 * waits for the Injector being created here rather than creating another.
+	 * 
+	 * @return A future that completes when the Injector has been created, or
+	 *         completes exceptionally if it could not be created.
+	 */
+	public CompletableFuture<Void> prewarmInjector() {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		Thread prewarmThread = new Thread(() -> {
+			try {
+				injector();
+				result.complete(null);
+			} catch (Throwable e) {
+				logger().warn("Failed to create injector in the background", e);
+				result.completeExceptionally(e);
+			}
+		}, "ala-config-injector");
+		prewarmThread.setDaemon(true);
+		prewarmThread.start();
+		return result;
+	}
+
 	public <T> T getInstance(java.lang.Class<T> nextClass) {
 		return injector().getInstance(nextClass);
 	}
@@ -368,9 +1010,50 @@ public abstract class AlaConfig {
 		return get(propertyName);
 	}
 
+	/**
+	 * Writes the current configuration in properties format, sorted by key.
+	 * 
+	 * @param outputWriter
+	 *            The writer to write to
+	 * @throws IOException
+	 *             If there was an issue writing.
+	 */
 	public void outputConfig(Writer outputWriter) throws IOException {
-		ConfigurationConverter.getProperties(immutableConfig).store(outputWriter,
-				"ala-config configuration dump at: " + DateTimeFormatter.ISO_DATE_TIME.format(OffsetDateTime.now()));
+		outputConfig(outputWriter, new ConfigOutput());
+	}
+
+	/**
+	 * Writes the current configuration in properties format, sorted by key.
+	 * 
+	 * @param outputWriter
+	 *            The writer to write to
+	 * @param includeProvenance
+	 *            True to write a comment before each value naming the layer that
+	 *            supplied it, see {@link ConfigSnapshot#layerOf(String)}
+	 * @throws IOException
+	 *             If there was an issue writing.
+	 */
+	public void outputConfig(Writer outputWriter, boolean includeProvenance) throws IOException {
+		ConfigOutput options = new ConfigOutput();
+		if (includeProvenance) {
+			options.withProvenance();
+		}
+		outputConfig(outputWriter, options);
+	}
+
+	/**
+	 * Writes the current configuration, streaming the keys in sorted order
+	 * without copying the configuration first.
+	 * 
+	 * @param outputWriter
+	 *            The writer to write to, which is flushed but not closed
+	 * @param options
+	 *            The format, and the keys and values to write
+	 * @throws IOException
+	 *             If there was an issue writing.
+	 */
+	public void outputConfig(Writer outputWriter, ConfigOutput options) throws IOException {
+		options.write(snapshot, outputWriter);
 	}
 
 	public java.util.Properties versionProperties() {
@@ -3,6 +3,8 @@
  */
 package au.org.ala.config;
 
+import org.slf4j.LoggerFactory;
+
 /**
  * Class of exceptions deriving from ALA Config
  * 
@@ -12,6 +14,15 @@ public class AlaConfigException extends RuntimeException {
 
 	private static final long serialVersionUID = 1272023384358056291L;
 
+	/**
+	 * Set this system property to true to fill in stack traces for exceptions
+	 * created by {@link #lookupFailure(String)}. They are also filled in if
+	 * debug logging is enabled for this class.
+	 */
+	public static final String DEBUG_SYSTEM_PROPERTY = "ala.config.debug";
+
+	private static final boolean DEBUG = Boolean.getBoolean(DEBUG_SYSTEM_PROPERTY);
+
 	/**
 	 * Create a new AlaConfigException with no message or cause.
 	 */
@@ -67,4 +78,21 @@ public class AlaConfigException extends RuntimeException {
 		super(message, cause, enableSuppression, writableStackTrace);
 	}
 
+	/**
+	 * Create a new AlaConfigException for a property that is missing or could not
+	 * be converted. These are expected often enough that the stack trace is not
+	 * filled in, which is most of the cost of creating an exception, unless
+	 * {@link #DEBUG_SYSTEM_PROPERTY} is set or debug logging is enabled for this
+	 * class.
+	 * 
+	 * @param message
+	 *            The message to attach to the exception
+	 * @return A new AlaConfigException, without a stack trace unless debugging
+	 *         is enabled.
+	 */
+	public static AlaConfigException lookupFailure(String message) {
+		boolean debug = DEBUG || LoggerFactory.getLogger(AlaConfigException.class).isDebugEnabled();
+		return new AlaConfigException(message, null, debug, debug);
+	}
+
 }
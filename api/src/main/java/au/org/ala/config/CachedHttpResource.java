@@ -0,0 +1,350 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A file downloaded over HTTP and kept on disk, which is only downloaded again
+ * if it has changed.
+ * 
+ * Each refresh sends the ETag and Last-Modified values from the previous
+ * response using If-None-Match and If-Modified-Since, so an unchanged file
+ * costs a single request with an empty response. Responses are streamed to a
+ * temporary file next to the cached copy and then moved over it, so large
+ * files are never held in memory, and readers never see a partially written
+ * file. A {@link Validator} can check the new copy before it replaces the
+ * cached copy, so a response that cannot be used never replaces the last good
+ * copy. If several threads in the same JVM refresh the same URL into the same
+ * file at once, only one request is made and the others wait for its result.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class CachedHttpResource {
+
+	/**
+	 * The result of a successful refresh.
+	 */
+	public enum Status {
+		/**
+		 * A new copy was downloaded and has replaced the cached copy.
+		 */
+		MODIFIED,
+
+		/**
+		 * The server reported that the cached copy is still current.
+		 */
+		NOT_MODIFIED
+	}
+
+	/**
+	 * Checks a newly downloaded copy before it replaces the cached copy.
+	 */
+	@FunctionalInterface
+	public interface Validator {
+
+		/**
+		 * @param downloaded
+		 *            The temporary file containing the new copy
+		 * @throws IOException
+		 *             If the new copy cannot be used, in which case the cached
+		 *             copy is not changed.
+		 */
+		void validate(Path downloaded) throws IOException;
+	}
+
+	private static final String ETAG = "etag";
+
+	private static final String LAST_MODIFIED = "lastModified";
+
+	private static final String VALIDATED = "validated";
+
+	/**
+	 * Refreshes in progress in this JVM, shared between instances so that
+	 * separate components refreshing the same resource only make one request.
+	 */
+	private static final ConcurrentMap<String, CompletableFuture<Status>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+	private final URL url;
+
+	private final Path cacheFile;
+
+	private final Path metadataFile;
+
+	private final int connectTimeoutMillis;
+
+	private final int readTimeoutMillis;
+
+	private final String flightKey;
+
+	/**
+	 * Create a resource with 10 second connect and 60 second read timeouts.
+	 * 
+	 * @param url
+	 *            The HTTP or HTTPS URL to download
+	 * @param cacheFile
+	 *            The file to keep the downloaded copy in
+	 * @throws AlaConfigException
+	 *             If the URL does not use HTTP or HTTPS.
+	 */
+	public CachedHttpResource(URL url, Path cacheFile) throws AlaConfigException {
+		this(url, cacheFile, 10000, 60000);
+	}
+
+	/**
+	 * @param url
+	 *            The HTTP or HTTPS URL to download
+	 * @param cacheFile
+	 *            The file to keep the downloaded copy in
+	 * @param connectTimeoutMillis
+	 *            The connect timeout, in milliseconds
+	 * @param readTimeoutMillis
+	 *            The timeout for each read, in milliseconds
+	 * @throws AlaConfigException
+	 *             If the URL does not use HTTP or HTTPS.
+	 */
+	public CachedHttpResource(URL url, Path cacheFile, int connectTimeoutMillis, int readTimeoutMillis)
+			throws AlaConfigException {
+		if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+			throw new AlaConfigException("Only HTTP and HTTPS URLs can be cached: " + url);
+		}
+		this.url = url;
+		this.cacheFile = cacheFile.toAbsolutePath();
+		this.metadataFile = this.cacheFile.resolveSibling(this.cacheFile.getFileName() + ".meta");
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.flightKey = url + " " + this.cacheFile;
+	}
+
+	/**
+	 * @return The URL this resource is downloaded from.
+	 */
+	public URL url() {
+		return url;
+	}
+
+	/**
+	 * @return The file containing the downloaded copy, which may not exist yet.
+	 */
+	public Path cacheFile() {
+		return cacheFile;
+	}
+
+	/**
+	 * @return True if a copy has been downloaded.
+	 */
+	public boolean isCached() {
+		return Files.isRegularFile(cacheFile);
+	}
+
+	/**
+	 * @return The time, in milliseconds since the epoch, that the cached copy was
+	 *         last downloaded or confirmed to be current, or zero if it has never
+	 *         been downloaded.
+	 * @throws IOException
+	 *             If the details of the cached copy could not be read.
+	 */
+	public long lastValidatedMillis() throws IOException {
+		if (!isCached()) {
+			return 0;
+		}
+		String validated = readMetadata().getProperty(VALIDATED);
+		try {
+			return validated == null ? 0 : Long.parseLong(validated);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Checks for a new copy of the resource, downloading it if it has changed.
+	 * If a refresh of the same resource is already in progress, this waits for
+	 * it instead of making another request.
+	 * 
+	 * @return Whether a new copy was downloaded.
+	 * @throws IOException
+	 *             If the server could not be reached or returned an error, in
+	 *             which case the cached copy is not changed.
+	 */
+	public Status refresh() throws IOException {
+		return refresh(downloaded -> {
+		});
+	}
+
+	/**
+	 * Checks for a new copy of the resource, downloading it if it has changed
+	 * and replacing the cached copy if the validator accepts it. If a refresh of
+	 * the same resource is already in progress, this waits for it instead of
+	 * making another request, and the new copy is checked by the validator given
+	 * to that refresh.
+	 * 
+	 * @param validator
+	 *            Checks the new copy before it replaces the cached copy
+	 * @return Whether a new copy was downloaded.
+	 * @throws IOException
+	 *             If the server could not be reached, returned an error, or the
+	 *             validator rejected the new copy, in which case the cached copy
+	 *             is not changed.
+	 */
+	public Status refresh(Validator validator) throws IOException {
+		CompletableFuture<Status> mine = new CompletableFuture<>();
+		CompletableFuture<Status> existing = IN_FLIGHT.putIfAbsent(flightKey, mine);
+		if (existing != null) {
+			return await(existing);
+		}
+		try {
+			Status result = fetch(validator);
+			mine.complete(result);
+			return result;
+		} catch (IOException | RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			IN_FLIGHT.remove(flightKey, mine);
+		}
+	}
+
+	private static Status await(CompletableFuture<Status> existing) throws IOException {
+		try {
+			return existing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a refresh in another thread");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw new IOException(cause.getMessage(), cause);
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private Status fetch(Validator validator) throws IOException {
+		Properties metadata = isCached() ? readMetadata() : new Properties();
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(connectTimeoutMillis);
+		connection.setReadTimeout(readTimeoutMillis);
+		connection.setUseCaches(false);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		String etag = metadata.getProperty(ETAG);
+		if (etag != null) {
+			connection.setRequestProperty("If-None-Match", etag);
+		}
+		String lastModified = metadata.getProperty(LAST_MODIFIED);
+		if (lastModified != null) {
+			connection.setRequestProperty("If-Modified-Since", lastModified);
+		}
+		int responseCode = connection.getResponseCode();
+		if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			closeQuietly(connection);
+			metadata.setProperty(VALIDATED, Long.toString(System.currentTimeMillis()));
+			writeMetadata(metadata);
+			return Status.NOT_MODIFIED;
+		}
+		if (responseCode != HttpURLConnection.HTTP_OK) {
+			closeQuietly(connection);
+			throw new IOException("Unexpected response " + responseCode + " from " + url);
+		}
+		Path parent = cacheFile.getParent();
+		Files.createDirectories(parent);
+		Path tempFile = Files.createTempFile(parent, cacheFile.getFileName().toString(), ".tmp");
+		try {
+			try (InputStream body = body(connection)) {
+				Files.copy(body, tempFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			validator.validate(tempFile);
+			Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		Properties nextMetadata = new Properties();
+		if (connection.getHeaderField("ETag") != null) {
+			nextMetadata.setProperty(ETAG, connection.getHeaderField("ETag"));
+		}
+		if (connection.getHeaderField("Last-Modified") != null) {
+			nextMetadata.setProperty(LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+		}
+		nextMetadata.setProperty(VALIDATED, Long.toString(System.currentTimeMillis()));
+		writeMetadata(nextMetadata);
+		return Status.MODIFIED;
+	}
+
+	private static InputStream body(URLConnection connection) throws IOException {
+		InputStream result = connection.getInputStream();
+		if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+			result = new GZIPInputStream(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads and closes the response body, so that the connection can be reused.
+	 */
+	private static void closeQuietly(HttpURLConnection connection) {
+		try {
+			InputStream body = connection.getErrorStream();
+			if (body == null) {
+				body = connection.getInputStream();
+			}
+			try (InputStream toClose = body) {
+				byte[] buffer = new byte[4096];
+				while (toClose.read(buffer) >= 0) {
+					// Discard
+				}
+			}
+		} catch (IOException e) {
+			connection.disconnect();
+		}
+	}
+
+	private Properties readMetadata() throws IOException {
+		Properties result = new Properties();
+		try (Reader reader = Files.newBufferedReader(metadataFile, StandardCharsets.UTF_8)) {
+			result.load(reader);
+		} catch (NoSuchFileException e) {
+			// Downloaded by an older version, or the metadata was removed, so the
+			// next refresh will be unconditional
+		}
+		return result;
+	}
+
+	private void writeMetadata(Properties metadata) throws IOException {
+		Path tempFile = Files.createTempFile(metadataFile.getParent(), metadataFile.getFileName().toString(), ".tmp");
+		try {
+			try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+				metadata.store(writer, url.toString());
+			}
+			Files.move(tempFile, metadataFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CachedHttpResource[" + url + " -> " + cacheFile + "]";
+	}
+}
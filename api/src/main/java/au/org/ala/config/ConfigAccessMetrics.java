@@ -0,0 +1,371 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the lookups made for each key in an {@link AlaConfig}, split by
+ * whether the value came from the overrides, came from the defaults, or was
+ * missing so that the caller's default was used. Values that could not be
+ * converted to the requested type are counted separately.
+ * 
+ * Each key has its own {@link LongAdder} counters, so threads reading the same
+ * key do not contend on a single counter. Metrics are disabled unless
+ * {@link AlaConfig#enableAccessMetrics()} is called, in which case lookups only
+ * pay for a null check.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConfigAccessMetrics implements ConfigAccessMetricsMXBean {
+
+	/**
+	 * The default JMX name used by {@link #registerMBean()}.
+	 */
+	public static final String DEFAULT_OBJECT_NAME = "au.org.ala.config:type=ConfigAccessMetrics";
+
+	private static final int HOTTEST_KEYS = 20;
+
+	private final ConcurrentMap<String, KeyCounters> counters = new ConcurrentHashMap<>();
+
+	private final Supplier<ConfigSnapshot> currentConfig;
+
+	private volatile ObjectName registeredName;
+
+	ConfigAccessMetrics(Supplier<ConfigSnapshot> currentConfig) {
+		this.currentConfig = currentConfig;
+	}
+
+	/**
+	 * Records a lookup for the given key against the configuration it was looked
+	 * up in.
+	 * 
+	 * @param key
+	 *            The key that was looked up
+	 * @param config
+	 *            The configuration used for the lookup
+	 */
+	void recordRead(String key, ConfigSnapshot config) {
+		KeyCounters keyCounters = counters(key);
+		keyCounters.reads.increment();
+		if (!config.containsKey(key)) {
+			keyCounters.missing.increment();
+		} else if (AlaConfig.DEFAULTS_LAYER.equals(config.layerOf(key))) {
+			keyCounters.defaultHits.increment();
+		} else {
+			keyCounters.overrideHits.increment();
+		}
+	}
+
+	/**
+	 * Records that the value for the given key could not be converted.
+	 * 
+	 * @param key
+	 *            The key that was looked up
+	 */
+	void recordConversionFailure(String key) {
+		counters(key).conversionFailures.increment();
+	}
+
+	private KeyCounters counters(String key) {
+		KeyCounters result = counters.get(key);
+		if (result == null) {
+			result = counters.computeIfAbsent(key, k -> new KeyCounters());
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a point in time copy of the counts. Counts recorded while the copy
+	 * is being made may or may not be included.
+	 * 
+	 * @return The counts for each key that has been looked up, sorted by key.
+	 */
+	public Map<String, KeyStats> snapshot() {
+		Map<String, KeyStats> result = new TreeMap<>();
+		counters.forEach((key, keyCounters) -> result.put(key, keyCounters.toStats(key)));
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * @param limit
+	 *            The maximum number of keys to return
+	 * @return The counts for the most frequently read keys, in descending order
+	 *         of reads.
+	 */
+	public List<KeyStats> hottest(int limit) {
+		List<KeyStats> result = new ArrayList<>(snapshot().values());
+		result.sort(Comparator.comparingLong(KeyStats::getReads).reversed().thenComparing(KeyStats::getKey));
+		return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+	}
+
+	/**
+	 * @return The keys in the current configuration that have never been read,
+	 *         sorted by key.
+	 */
+	public List<String> unused() {
+		List<String> result = new ArrayList<>();
+		for (String nextKey : currentConfig.get().sortedKeys()) {
+			if (!counters.containsKey(nextKey)) {
+				result.add(nextKey);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server using
+	 * {@link #DEFAULT_OBJECT_NAME}.
+	 * 
+	 * @return The name the metrics were registered under.
+	 * @throws AlaConfigException
+	 *             If the metrics could not be registered, including if another
+	 *             instance is already registered under the same name.
+	 */
+	public ObjectName registerMBean() throws AlaConfigException {
+		return registerMBean(DEFAULT_OBJECT_NAME);
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 * 
+	 * @param objectName
+	 *            The JMX name to register the metrics under
+	 * @return The name the metrics were registered under.
+	 * @throws AlaConfigException
+	 *             If the metrics could not be registered, including if another
+	 *             instance is already registered under the same name.
+	 */
+	public synchronized ObjectName registerMBean(String objectName) throws AlaConfigException {
+		try {
+			ObjectName name = new ObjectName(objectName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			registeredName = name;
+			return name;
+		} catch (MalformedObjectNameException | InstanceAlreadyExistsException | MBeanRegistrationException
+				| NotCompliantMBeanException e) {
+			throw new AlaConfigException("Could not register configuration access metrics: " + objectName, e);
+		}
+	}
+
+	/**
+	 * Removes these metrics from the platform MBean server if they were
+	 * registered.
+	 */
+	public synchronized void unregisterMBean() {
+		ObjectName name = registeredName;
+		if (name == null) {
+			return;
+		}
+		registeredName = null;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(name);
+		} catch (InstanceNotFoundException | MBeanRegistrationException e) {
+			AlaConfig.logger.debug("Configuration access metrics were already unregistered: {}", name, e);
+		}
+	}
+
+	@Override
+	public long getTotalReads() {
+		long result = 0;
+		for (KeyCounters nextCounters : counters.values()) {
+			result += nextCounters.reads.sum();
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getReadCounts() {
+		Map<String, Long> result = new TreeMap<>();
+		counters.forEach((key, keyCounters) -> result.put(key, keyCounters.reads.sum()));
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getConversionFailureCounts() {
+		Map<String, Long> result = new TreeMap<>();
+		counters.forEach((key, keyCounters) -> {
+			long failures = keyCounters.conversionFailures.sum();
+			if (failures > 0) {
+				result.put(key, failures);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public List<String> getHottestKeys() {
+		List<String> result = new ArrayList<>();
+		for (KeyStats nextStats : hottest(HOTTEST_KEYS)) {
+			result.add(nextStats.getKey());
+		}
+		return result;
+	}
+
+	@Override
+	public List<String> getUnusedKeys() {
+		return unused();
+	}
+
+	@Override
+	public List<String> getMissingKeys() {
+		List<String> result = new ArrayList<>();
+		for (KeyStats nextStats : snapshot().values()) {
+			if (nextStats.getMissing() > 0) {
+				result.add(nextStats.getKey());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String getReport() {
+		return report(HOTTEST_KEYS);
+	}
+
+	/**
+	 * @param limit
+	 *            The maximum number of hot keys to include
+	 * @return A human readable report of the hottest keys, the keys that were
+	 *         looked up but missing, the keys that failed conversion and the keys
+	 *         that were never read.
+	 */
+	public String report(int limit) {
+		StringBuilder result = new StringBuilder();
+		result.append("Hottest configuration keys:\n");
+		for (KeyStats nextStats : hottest(limit)) {
+			result.append("  ").append(nextStats).append('\n');
+		}
+		result.append("Missing configuration keys (caller default used):\n");
+		for (String nextKey : getMissingKeys()) {
+			result.append("  ").append(nextKey).append('\n');
+		}
+		result.append("Configuration keys with conversion failures:\n");
+		for (Map.Entry<String, Long> nextFailure : getConversionFailureCounts().entrySet()) {
+			result.append("  ").append(nextFailure.getKey()).append(" failures=").append(nextFailure.getValue())
+					.append('\n');
+		}
+		result.append("Unused configuration keys:\n");
+		for (String nextKey : unused()) {
+			result.append("  ").append(nextKey).append('\n');
+		}
+		return result.toString();
+	}
+
+	@Override
+	public void reset() {
+		counters.clear();
+	}
+
+	private static final class KeyCounters {
+		final LongAdder reads = new LongAdder();
+		final LongAdder overrideHits = new LongAdder();
+		final LongAdder defaultHits = new LongAdder();
+		final LongAdder missing = new LongAdder();
+		final LongAdder conversionFailures = new LongAdder();
+
+		KeyStats toStats(String key) {
+			return new KeyStats(key, reads.sum(), overrideHits.sum(), defaultHits.sum(), missing.sum(),
+					conversionFailures.sum());
+		}
+	}
+
+	/**
+	 * The counts recorded for a single key.
+	 */
+	public static final class KeyStats {
+		private final String key;
+		private final long reads;
+		private final long overrideHits;
+		private final long defaultHits;
+		private final long missing;
+		private final long conversionFailures;
+
+		KeyStats(String key, long reads, long overrideHits, long defaultHits, long missing,
+				long conversionFailures) {
+			this.key = key;
+			this.reads = reads;
+			this.overrideHits = overrideHits;
+			this.defaultHits = defaultHits;
+			this.missing = missing;
+			this.conversionFailures = conversionFailures;
+		}
+
+		/**
+		 * @return The key these counts are for.
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return The total number of lookups for the key.
+		 */
+		public long getReads() {
+			return reads;
+		}
+
+		/**
+		 * @return The number of lookups where the value came from a layer other
+		 *         than the defaults, including configurations that do not record
+		 *         which layer each value came from.
+		 */
+		public long getOverrideHits() {
+			return overrideHits;
+		}
+
+		/**
+		 * @return The number of lookups where the value came from the defaults.
+		 */
+		public long getDefaultHits() {
+			return defaultHits;
+		}
+
+		/**
+		 * @return The number of lookups where the key was not present.
+		 */
+		public long getMissing() {
+			return missing;
+		}
+
+		/**
+		 * @return The number of lookups where the value could not be converted to
+		 *         the requested type.
+		 */
+		public long getConversionFailures() {
+			return conversionFailures;
+		}
+
+		@Override
+		public String toString() {
+			Map<String, Long> fields = new LinkedHashMap<>();
+			fields.put("reads", reads);
+			fields.put("overrides", overrideHits);
+			fields.put("defaults", defaultHits);
+			fields.put("missing", missing);
+			fields.put("conversionFailures", conversionFailures);
+			return key + " " + fields;
+		}
+	}
+}
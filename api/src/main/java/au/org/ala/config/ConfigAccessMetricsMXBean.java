@@ -0,0 +1,57 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ConfigAccessMetrics} for an {@link AlaConfig}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public interface ConfigAccessMetricsMXBean {
+
+	/**
+	 * @return The total number of lookups recorded across all keys.
+	 */
+	long getTotalReads();
+
+	/**
+	 * @return The number of lookups recorded for each key that has been read.
+	 */
+	Map<String, Long> getReadCounts();
+
+	/**
+	 * @return The number of lookups for each key where the value could not be
+	 *         converted to the requested type, only including keys with at least
+	 *         one failure.
+	 */
+	Map<String, Long> getConversionFailureCounts();
+
+	/**
+	 * @return The most frequently read keys, in descending order of reads.
+	 */
+	List<String> getHottestKeys();
+
+	/**
+	 * @return The keys in the current configuration that have never been read.
+	 */
+	List<String> getUnusedKeys();
+
+	/**
+	 * @return The keys that were looked up but were not in the configuration.
+	 */
+	List<String> getMissingKeys();
+
+	/**
+	 * @return A human readable report of the hottest, missing and unused keys.
+	 */
+	String getReport();
+
+	/**
+	 * Discards all recorded counts.
+	 */
+	void reset();
+}
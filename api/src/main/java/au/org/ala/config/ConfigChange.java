@@ -0,0 +1,76 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The keys that changed between two configurations, as delivered to listeners
+ * registered using {@link AlaConfig#subscribe(String, ConfigChangeListener)}.
+ * 
+ * Only the keys matching the prefixes of the subscription are included. A key
+ * that was added or removed is included along with keys whose values changed.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConfigChange {
+
+	private final ConfigSnapshot previous;
+
+	private final ConfigSnapshot current;
+
+	private final List<String> changedKeys;
+
+	ConfigChange(ConfigSnapshot previous, ConfigSnapshot current, List<String> changedKeys) {
+		this.previous = previous;
+		this.current = current;
+		this.changedKeys = changedKeys;
+	}
+
+	/**
+	 * @return The keys that changed, in their natural String order.
+	 */
+	public List<String> changedKeys() {
+		return changedKeys;
+	}
+
+	/**
+	 * @param key
+	 *            The key to find
+	 * @return The value the listener last saw for the key, or empty if it was not
+	 *         present.
+	 */
+	public Optional<String> previousValue(String key) {
+		return previous.findString(key);
+	}
+
+	/**
+	 * @param key
+	 *            The key to find
+	 * @return The current value for the key, or empty if it was removed.
+	 */
+	public Optional<String> currentValue(String key) {
+		return current.findString(key);
+	}
+
+	/**
+	 * @return The configuration the listener last saw.
+	 */
+	public ConfigSnapshot previous() {
+		return previous;
+	}
+
+	/**
+	 * @return The configuration that the changes were found in.
+	 */
+	public ConfigSnapshot current() {
+		return current;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigChange" + changedKeys;
+	}
+}
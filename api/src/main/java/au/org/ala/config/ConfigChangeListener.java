@@ -0,0 +1,24 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+/**
+ * Receives the keys that changed each time the configuration for an
+ * {@link AlaConfig} is replaced.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@FunctionalInterface
+public interface ConfigChangeListener {
+
+	/**
+	 * Called with the keys that changed since the last call, or since the
+	 * listener was registered. Calls for a single listener never overlap, and
+	 * are never made with an empty set of changed keys.
+	 * 
+	 * @param change
+	 *            The keys that changed, along with their old and new values
+	 */
+	void configChanged(ConfigChange change);
+}
@@ -0,0 +1,53 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A source of configuration values that is not a local properties file, such
+ * as a remote configuration service, which can be layered ahead of the
+ * overrides using {@link AlaConfig#getConfig(Path, Path, List)}.
+ * 
+ * Implementations keep their own local copy of the values and update it in the
+ * background, so that {@link #values()} never needs to wait for the network.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public interface ConfigLayerSource {
+
+	/**
+	 * @return The name of this layer, which is recorded as the source of each
+	 *         value it supplies. See {@link ConfigSnapshot#layerOf(String)}.
+	 */
+	String name();
+
+	/**
+	 * Gets the values currently held by this source, without doing any remote
+	 * lookups.
+	 * 
+	 * @return An immutable copy of the current keys and values.
+	 */
+	Map<String, String> values();
+
+	/**
+	 * Registers a listener to be called after the values in this source change.
+	 * Listeners may be called on a background thread, and should return quickly.
+	 * 
+	 * @param listener
+	 *            The listener to call after each change
+	 */
+	void addChangeListener(Runnable listener);
+
+	/**
+	 * Stops calling a listener that was registered using
+	 * {@link #addChangeListener(Runnable)}.
+	 * 
+	 * @param listener
+	 *            The listener to remove
+	 */
+	void removeChangeListener(Runnable listener);
+}
@@ -0,0 +1,359 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.configuration2.CompositeConfiguration;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.ConfigurationUtils;
+import org.apache.commons.configuration2.MapConfiguration;
+
+/**
+ * The layers that make up a configuration, from the highest priority to the
+ * lowest:
+ * 
+ * <ol>
+ * <li>System properties, if enabled using {@link #withSystemProperties()}</li>
+ * <li>Environment variables, if enabled using {@link #withEnvironment()}</li>
+ * <li>Any {@link ConfigLayerSource} added using
+ * {@link #withLayer(ConfigLayerSource)}, in the order they were added</li>
+ * <li>Override files added using {@link #withOverrides(Path...)}, in the order
+ * they were added</li>
+ * <li>The defaults</li>
+ * </ol>
+ * 
+ * The layers are merged once into a {@link ConfigSnapshot}, which records the
+ * layer that supplied each value, so lookups cost the same however many layers
+ * there are. Configure the layers before passing them to
+ * {@link AlaConfig#getConfig(ConfigLayers)} or
+ * {@link AlaConfig#enableReload(ConfigLayers, long)}.
+ * 
+ * A system property named {@link #SYSTEM_PROPERTY_PREFIX} followed by a key
+ * overrides that key, whether or not any other layer sets it, such as
+ * <code>-Dala.config.key.solr.batch.size=500</code>. A system property with
+ * the same name as a key also overrides it, such as
+ * <code>-Dsolr.home=/opt/solr</code>, as long as the key is set in one of the
+ * lower layers or was declared using {@link #withKeys(Collection)}. This is so
+ * that unrelated system properties do not appear in the configuration.
+ * 
+ * An environment variable overrides a key if its name is
+ * {@link #ENVIRONMENT_PREFIX} followed by the key in upper case, with every
+ * character other than a letter or digit replaced by an underscore, such as
+ * <code>ALA_CONFIG_SOLR_HOME</code> for <code>solr.home</code>. As several
+ * keys can have the same name, environment variables only override keys that
+ * are set in one of the lower layers or were declared using
+ * {@link #withKeys(Collection)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConfigLayers {
+
+	/**
+	 * The name recorded by {@link ConfigSnapshot#layerOf(String)} for values
+	 * that came from system properties.
+	 */
+	public static final String SYSTEM_PROPERTIES_LAYER = "system";
+
+	/**
+	 * The name recorded by {@link ConfigSnapshot#layerOf(String)} for values
+	 * that came from environment variables.
+	 */
+	public static final String ENVIRONMENT_LAYER = "environment";
+
+	/**
+	 * The prefix for environment variables that override configuration values.
+	 */
+	public static final String ENVIRONMENT_PREFIX = "ALA_CONFIG_";
+
+	/**
+	 * The prefix for system properties that override any configuration key.
+	 */
+	public static final String SYSTEM_PROPERTY_PREFIX = "ala.config.key.";
+
+	private final Path pathToDefaults;
+
+	private final List<ConfigLayerSource> sources = new ArrayList<>();
+
+	private final List<Path> overrides = new ArrayList<>();
+
+	private final Set<String> declaredKeys = new HashSet<>();
+
+	private boolean systemProperties;
+
+	private boolean environment;
+
+	private boolean parallelLoading = ParallelConfigLoader.enabledByDefault();
+
+	/**
+	 * @param pathToDefaults
+	 *            The path to the default properties, which are always the lowest
+	 *            priority layer
+	 */
+	public ConfigLayers(Path pathToDefaults) {
+		this.pathToDefaults = pathToDefaults;
+	}
+
+	/**
+	 * The layers used by {@link AlaConfig#getConfig()}: system properties, then
+	 * environment variables, then the override files listed, separated by
+	 * commas, in the {@link AlaConfig#DEFAULT_SYSTEM_PROPERTY} system property,
+	 * or {@link AlaConfig#OVERRIDES_PROPERTIES} if it is not set, then
+	 * {@link AlaConfig#DEFAULTS_PROPERTIES}.
+	 * 
+	 * @return The standard layers.
+	 */
+	public static ConfigLayers standard() {
+		ConfigLayers result = new ConfigLayers(Paths.get(AlaConfig.DEFAULTS_PROPERTIES)).withSystemProperties()
+				.withEnvironment();
+		String overridesLocations = System.getProperty(AlaConfig.DEFAULT_SYSTEM_PROPERTY,
+				AlaConfig.OVERRIDES_PROPERTIES);
+		for (String nextLocation : overridesLocations.split(",")) {
+			if (!nextLocation.trim().isEmpty()) {
+				result.withOverrides(Paths.get(nextLocation.trim()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Use system properties to override values from the lower layers.
+	 * 
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigLayers withSystemProperties() {
+		this.systemProperties = true;
+		return this;
+	}
+
+	/**
+	 * Use environment variables starting with {@link #ENVIRONMENT_PREFIX} to
+	 * override values from the lower layers.
+	 * 
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigLayers withEnvironment() {
+		this.environment = true;
+		return this;
+	}
+
+	/**
+	 * Declare keys that system properties and environment variables with the
+	 * matching names can override, even if none of the files set them, such as
+	 * keys that only have defaults in code.
+	 * 
+	 * @param keys
+	 *            The keys to declare
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigLayers withKeys(Collection<String> keys) {
+		declaredKeys.addAll(keys);
+		return this;
+	}
+
+	/**
+	 * Add a layer below any layers already added, and above the override files.
+	 * 
+	 * @param source
+	 *            The layer to add
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigLayers withLayer(ConfigLayerSource source) {
+		sources.add(source);
+		return this;
+	}
+
+	/**
+	 * Add override files below any override files already added. Files are
+	 * found in the same way as for {@link AlaConfig#getConfig(Path, Path)}.
+	 * 
+	 * @param pathsToOverrides
+	 *            The paths to the override properties, from the highest priority
+	 *            to the lowest
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigLayers withOverrides(Path... pathsToOverrides) {
+		overrides.addAll(Arrays.asList(pathsToOverrides));
+		return this;
+	}
+
+	/**
+	 * Choose whether the override and default files, and the files they
+	 * include, are read in parallel. The result is the same either way.
+	 * Parallel loading is only used by default if the
+	 * <code>ala.config.parallel.load</code> system property is true.
+	 * 
+	 * @param parallelLoading
+	 *            True to read the files in parallel on a small shared pool, and
+	 *            false to read them one after another on the calling thread
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigLayers withParallelLoading(boolean parallelLoading) {
+		this.parallelLoading = parallelLoading;
+		return this;
+	}
+
+	/**
+	 * @param pathToOverrides
+	 *            One of the override files
+	 * @return The name recorded by {@link ConfigSnapshot#layerOf(String)} for
+	 *         values from the given override file.
+	 */
+	public static String overridesLayerName(Path pathToOverrides) {
+		return AlaConfig.OVERRIDES_LAYER + ":" + pathToOverrides;
+	}
+
+	/**
+	 * @return The sources added using {@link #withLayer(ConfigLayerSource)}.
+	 */
+	List<ConfigLayerSource> sources() {
+		return Collections.unmodifiableList(sources);
+	}
+
+	/**
+	 * @return The override files that are on the file-system, and can be watched
+	 *         for changes.
+	 */
+	List<Path> watchableFiles() {
+		List<Path> result = new ArrayList<>(overrides.size());
+		for (Path nextOverrides : overrides) {
+			Optional<Path> located = AlaConfig.locateOverridesFile(nextOverrides);
+			if (located.isPresent()) {
+				result.add(located.get());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads every layer and merges them.
+	 * 
+	 * @return The merged configuration.
+	 * @throws AlaConfigException
+	 *             If the defaults could not be loaded, or an override file could
+	 *             not be parsed.
+	 */
+	ConfigSnapshot load() throws AlaConfigException {
+		List<String> lowerNames = new ArrayList<>(sources.size() + overrides.size() + 1);
+		List<Configuration> lowerLayers = new ArrayList<>(sources.size() + overrides.size() + 1);
+		for (ConfigLayerSource nextSource : sources) {
+			lowerNames.add(nextSource.name());
+			lowerLayers.add(new MapConfiguration(nextSource.values()));
+		}
+		for (Path nextOverrides : overrides) {
+			lowerNames.add(overridesLayerName(nextOverrides));
+		}
+		lowerNames.add(AlaConfig.DEFAULTS_LAYER);
+		lowerLayers.addAll(ParallelConfigLoader.load(overrides, pathToDefaults, parallelLoading));
+
+		Set<String> knownKeys = new HashSet<>(declaredKeys);
+		for (Configuration nextLayer : lowerLayers) {
+			Iterator<String> keys = nextLayer.getKeys();
+			while (keys.hasNext()) {
+				knownKeys.add(keys.next());
+			}
+		}
+
+		List<String> layerNames = new ArrayList<>(lowerNames.size() + 2);
+		List<Configuration> layers = new ArrayList<>(lowerLayers.size() + 2);
+		if (systemProperties) {
+			layerNames.add(SYSTEM_PROPERTIES_LAYER);
+			layers.add(new MapConfiguration(systemPropertyOverrides(knownKeys, System.getProperties())));
+		}
+		if (environment) {
+			layerNames.add(ENVIRONMENT_LAYER);
+			layers.add(new MapConfiguration(environmentOverrides(knownKeys, System.getenv())));
+		}
+		layerNames.addAll(lowerNames);
+		layers.addAll(lowerLayers);
+
+		CompositeConfiguration combinedConfiguration = new CompositeConfiguration();
+		// Important: Layers must be added from the highest priority to the lowest
+		for (Configuration nextLayer : layers) {
+			combinedConfiguration.addConfiguration(nextLayer);
+		}
+		return ConfigSnapshot.of(ConfigurationUtils.unmodifiableConfiguration(combinedConfiguration), layerNames,
+				layers);
+	}
+
+	/**
+	 * @return The values from system properties with the same names as the known
+	 *         keys, replaced by the values from system properties starting with
+	 *         {@link #SYSTEM_PROPERTY_PREFIX}.
+	 */
+	static Map<String, String> systemPropertyOverrides(Set<String> knownKeys, Properties properties) {
+		Map<String, String> result = new HashMap<>();
+		for (String nextKey : knownKeys) {
+			String nextValue = properties.getProperty(nextKey);
+			if (nextValue != null) {
+				result.put(nextKey, nextValue);
+			}
+		}
+		for (String nextName : properties.stringPropertyNames()) {
+			if (nextName.startsWith(SYSTEM_PROPERTY_PREFIX) && nextName.length() > SYSTEM_PROPERTY_PREFIX.length()) {
+				result.put(nextName.substring(SYSTEM_PROPERTY_PREFIX.length()), properties.getProperty(nextName));
+			}
+		}
+		return result;
+	}
+
+	static Map<String, String> environmentOverrides(Set<String> knownKeys, Map<String, String> environment) {
+		Map<String, String> result = new HashMap<>();
+		boolean anyPrefixed = false;
+		for (String nextName : environment.keySet()) {
+			if (nextName.startsWith(ENVIRONMENT_PREFIX)) {
+				anyPrefixed = true;
+				break;
+			}
+		}
+		if (!anyPrefixed) {
+			return result;
+		}
+		for (String nextKey : knownKeys) {
+			String nextValue = environment.get(environmentName(nextKey));
+			if (nextValue != null) {
+				result.put(nextKey, nextValue);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param key
+	 *            A configuration key
+	 * @return The name of the environment variable that overrides the key.
+	 */
+	public static String environmentName(String key) {
+		StringBuilder result = new StringBuilder(ENVIRONMENT_PREFIX.length() + key.length());
+		result.append(ENVIRONMENT_PREFIX);
+		String upperKey = key.toUpperCase(Locale.ROOT);
+		for (int i = 0; i < upperKey.length(); i++) {
+			char nextChar = upperKey.charAt(i);
+			result.append((nextChar >= 'A' && nextChar <= 'Z') || (nextChar >= '0' && nextChar <= '9') ? nextChar
+					: '_');
+		}
+		return result.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigLayers[systemProperties=" + systemProperties + ", environment=" + environment
+				+ ", declaredKeys=" + declaredKeys.size() + ", sources=" + sources + ", overrides=" + overrides
+				+ ", defaults=" + pathToDefaults + "]";
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+
+/**
+ * A Guice module that binds each key in an {@link AlaConfig} so that it can be
+ * injected using {@link Named}.
+ * 
+ * Every key is bound as a String. Keys whose values are integers are also
+ * bound as Long, and as Integer if the value fits in an int, and keys whose
+ * values look like booleans are also bound as Boolean, which allows the
+ * matching primitive types to be injected. Unlike binding every property as a constant, no values are copied
+ * or converted when the injector is created. Each binding is a provider that
+ * converts the value the first time it is used and reuses the converted value
+ * until the configuration is reloaded.
+ * 
+ * Keys are bound when the injector is created, so keys that are only added by
+ * a later reload are not available for injection.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigModule extends AbstractModule {
+
+	private final AlaConfig config;
+
+	/**
+	 * @param config
+	 *            The configuration to bind keys from
+	 */
+	public ConfigModule(AlaConfig config) {
+		this.config = config;
+	}
+
+	@Override
+	protected void configure() {
+		bind(AlaConfig.class).toInstance(config);
+		ConfigSnapshot current = config.snapshot();
+		for (String nextKey : current.sortedKeys()) {
+			Named name = Names.named(nextKey);
+			bind(Key.get(String.class, name)).toProvider(new ValueProvider<>(config, nextKey, String.class));
+			String value = current.getString(nextKey);
+			Class<?> integerType = integerType(value);
+			if (integerType != null) {
+				if (integerType == Integer.class) {
+					bind(Key.get(Integer.class, name)).toProvider(new ValueProvider<>(config, nextKey, Integer.class));
+				}
+				bind(Key.get(Long.class, name)).toProvider(new ValueProvider<>(config, nextKey, Long.class));
+			} else if (looksLikeBoolean(value)) {
+				bind(Key.get(Boolean.class, name)).toProvider(new ValueProvider<>(config, nextKey, Boolean.class));
+			}
+		}
+	}
+
+	/**
+	 * @return {@link Integer} if the value is a decimal integer that fits in an
+	 *         int, {@link Long} if it only fits in a long, or null if it is not
+	 *         an integer that either type can hold.
+	 */
+	static Class<?> integerType(String value) {
+		if (!looksLikeInteger(value)) {
+			return null;
+		}
+		long parsed;
+		try {
+			parsed = Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return parsed >= Integer.MIN_VALUE && parsed <= Integer.MAX_VALUE ? Integer.class : Long.class;
+	}
+
+	/**
+	 * A cheap check for decimal integers, so that typed bindings are only added
+	 * where they are likely to be used, without converting the value.
+	 */
+	static boolean looksLikeInteger(String value) {
+		int length = value.length();
+		int start = length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+		if (start == length) {
+			return false;
+		}
+		for (int i = start; i < length; i++) {
+			char nextChar = value.charAt(i);
+			if (nextChar < '0' || nextChar > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean looksLikeBoolean(String value) {
+		return "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value)
+				|| "no".equalsIgnoreCase(value) || "on".equalsIgnoreCase(value) || "off".equalsIgnoreCase(value);
+	}
+
+	/**
+	 * Converts the value for a key the first time it is requested from each
+	 * snapshot, and returns the same value until the snapshot is replaced.
+	 */
+	private static final class ValueProvider<T> implements Provider<T> {
+
+		private final AlaConfig config;
+
+		private final String key;
+
+		private final Class<T> type;
+
+		private volatile Converted<T> converted;
+
+		ValueProvider(AlaConfig config, String key, Class<T> type) {
+			this.config = config;
+			this.key = key;
+			this.type = type;
+		}
+
+		@Override
+		public T get() {
+			ConfigSnapshot current = config.snapshot();
+			Converted<T> result = converted;
+			if (result == null || result.source != current) {
+				String value = current.getString(key);
+				if (value == null) {
+					throw new AlaConfigException("Configuration property is no longer present: " + key);
+				}
+				result = converted = new Converted<>(current, ConfigSnapshot.convert(value, type));
+			}
+			return result.value;
+		}
+
+		@Override
+		public String toString() {
+			return "ConfigModule.ValueProvider[" + key + " as " + type.getSimpleName() + "]";
+		}
+	}
+
+	private static final class Converted<T> {
+		final ConfigSnapshot source;
+		final T value;
+
+		Converted(ConfigSnapshot source, T value) {
+			this.source = source;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options for writing a configuration using
+ * {@link AlaConfig#outputConfig(Writer, ConfigOutput)}.
+ * 
+ * Keys are written in sorted order, directly from the {@link ConfigSnapshot},
+ * without copying the configuration first, so that large configurations can
+ * be written often, such as from a health check, without large allocations.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConfigOutput {
+
+	/**
+	 * The formats a configuration can be written in.
+	 */
+	public enum Format {
+		/**
+		 * A properties file, which can be read using
+		 * {@link java.util.Properties#load(java.io.Reader)}.
+		 */
+		PROPERTIES,
+
+		/**
+		 * A JSON object with one member for each key.
+		 */
+		JSON,
+
+		/**
+		 * A YAML mapping with one entry for each key.
+		 */
+		YAML
+	}
+
+	/**
+	 * The text written instead of masked values.
+	 */
+	public static final String MASK = "********";
+
+	/**
+	 * The parts of a key, matched ignoring case, that mark its value as a secret
+	 * to be masked by {@link #withSecretsMasked()}.
+	 */
+	public static final List<String> SECRET_KEY_PARTS = Collections
+			.unmodifiableList(Arrays.asList("password", "secret", "api.key", "apikey", "token", "credential"));
+
+	private Format format = Format.PROPERTIES;
+
+	private String prefix = "";
+
+	private boolean provenance;
+
+	private final List<String> maskedKeyParts = new ArrayList<>();
+
+	/**
+	 * @param format
+	 *            The format to write in, which is {@link Format#PROPERTIES} by
+	 *            default
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigOutput withFormat(Format format) {
+		this.format = format;
+		return this;
+	}
+
+	/**
+	 * @param prefix
+	 *            Only write keys starting with this prefix
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigOutput withPrefix(String prefix) {
+		this.prefix = prefix;
+		return this;
+	}
+
+	/**
+	 * Write the name of the layer that supplied each value, see
+	 * {@link ConfigSnapshot#layerOf(String)}.
+	 * 
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigOutput withProvenance() {
+		this.provenance = true;
+		return this;
+	}
+
+	/**
+	 * Mask the values of keys containing any of {@link #SECRET_KEY_PARTS}, such
+	 * as <code>registry.api.key</code>.
+	 * 
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigOutput withSecretsMasked() {
+		maskedKeyParts.addAll(SECRET_KEY_PARTS);
+		return this;
+	}
+
+	/**
+	 * Mask the values of keys containing the given text, ignoring case.
+	 * 
+	 * @param keyPart
+	 *            The text to look for in each key
+	 * @return This object, so that calls can be chained.
+	 */
+	public ConfigOutput withMasked(String keyPart) {
+		maskedKeyParts.add(keyPart);
+		return this;
+	}
+
+	/**
+	 * Writes the matching keys from the given configuration.
+	 * 
+	 * @param snapshot
+	 *            The configuration to write
+	 * @param writer
+	 *            The writer to write to, which is flushed but not closed
+	 * @throws IOException
+	 *             If there was an issue writing.
+	 */
+	void write(ConfigSnapshot snapshot, Writer writer) throws IOException {
+		List<String> keys = snapshot.sortedKeys();
+		int start = 0;
+		if (!prefix.isEmpty()) {
+			start = Collections.binarySearch(keys, prefix);
+			if (start < 0) {
+				start = -start - 1;
+			}
+		}
+		String timestamp = DateTimeFormatter.ISO_DATE_TIME.format(OffsetDateTime.now());
+		switch (format) {
+		case JSON:
+			writer.write('{');
+			break;
+		case YAML:
+			writer.write("# ala-config configuration dump at: ");
+			writer.write(timestamp);
+			writer.write('\n');
+			break;
+		default:
+			writer.write("#ala-config configuration dump at: ");
+			writer.write(timestamp);
+			writer.write('\n');
+		}
+		boolean first = true;
+		for (int i = start; i < keys.size(); i++) {
+			String nextKey = keys.get(i);
+			if (!nextKey.startsWith(prefix)) {
+				break;
+			}
+			String nextValue = isMasked(nextKey) ? MASK : snapshot.getString(nextKey);
+			String layer = provenance ? snapshot.layerOf(nextKey) : null;
+			switch (format) {
+			case JSON:
+				writeJsonEntry(writer, nextKey, nextValue, layer, first);
+				break;
+			case YAML:
+				writeYamlEntry(writer, nextKey, nextValue, layer);
+				break;
+			default:
+				writePropertiesEntry(writer, nextKey, nextValue, layer);
+			}
+			first = false;
+		}
+		if (format == Format.JSON) {
+			writer.write(first ? "}\n" : "\n}\n");
+		}
+		writer.flush();
+	}
+
+	private boolean isMasked(String key) {
+		for (String nextPart : maskedKeyParts) {
+			if (containsIgnoreCase(key, nextPart)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsIgnoreCase(String text, String part) {
+		for (int i = 0; i <= text.length() - part.length(); i++) {
+			if (text.regionMatches(true, i, part, 0, part.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void writePropertiesEntry(Writer writer, String key, String value, String layer) throws IOException {
+		if (provenance) {
+			writer.write("# from: ");
+			writer.write(layer == null ? "unknown" : layer);
+			writer.write('\n');
+		}
+		writePropertiesText(writer, key, true);
+		writer.write('=');
+		writePropertiesText(writer, value, false);
+		writer.write('\n');
+	}
+
+	/**
+	 * Escapes a key or value in the same way as
+	 * {@link java.util.Properties#store(Writer, String)}.
+	 */
+	private static void writePropertiesText(Writer writer, String text, boolean isKey) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char nextChar = text.charAt(i);
+			switch (nextChar) {
+			case ' ':
+				if (isKey || i == 0) {
+					writer.write('\\');
+				}
+				writer.write(' ');
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\f':
+				writer.write("\\f");
+				break;
+			case '\\':
+			case '=':
+			case ':':
+			case '#':
+			case '!':
+				writer.write('\\');
+				writer.write(nextChar);
+				break;
+			default:
+				writer.write(nextChar);
+			}
+		}
+	}
+
+	private void writeJsonEntry(Writer writer, String key, String value, String layer, boolean first)
+			throws IOException {
+		writer.write(first ? "\n  " : ",\n  ");
+		writeQuoted(writer, key);
+		writer.write(": ");
+		if (provenance) {
+			writer.write("{ \"value\": ");
+			writeQuoted(writer, value);
+			writer.write(", \"layer\": ");
+			if (layer == null) {
+				writer.write("null");
+			} else {
+				writeQuoted(writer, layer);
+			}
+			writer.write(" }");
+		} else {
+			writeQuoted(writer, value);
+		}
+	}
+
+	private void writeYamlEntry(Writer writer, String key, String value, String layer) throws IOException {
+		writeQuoted(writer, key);
+		writer.write(": ");
+		writeQuoted(writer, value);
+		if (provenance) {
+			writer.write(" # from: ");
+			writer.write(layer == null ? "unknown" : layer);
+		}
+		writer.write('\n');
+	}
+
+	/**
+	 * Writes a double quoted string, escaped for JSON, which is also a valid
+	 * double quoted scalar in YAML.
+	 */
+	private static void writeQuoted(Writer writer, String text) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < text.length(); i++) {
+			char nextChar = text.charAt(i);
+			switch (nextChar) {
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			default:
+				// Line breaks that YAML recognises are escaped along with other
+				// control characters
+				if (nextChar < 0x20 || nextChar == 0x7f || nextChar == 0x85 || nextChar == '\u2028'
+						|| nextChar == '\u2029' || Character.isSurrogate(nextChar) && !isValidSurrogate(text, i)) {
+					writer.write(String.format("\\u%04x", (int) nextChar));
+				} else {
+					writer.write(nextChar);
+				}
+			}
+		}
+		writer.write('"');
+	}
+
+	private static boolean isValidSurrogate(String text, int index) {
+		char nextChar = text.charAt(index);
+		if (Character.isHighSurrogate(nextChar)) {
+			return index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1));
+		}
+		return index > 0 && Character.isHighSurrogate(text.charAt(index - 1));
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigOutput[format=" + format + ", prefix=" + prefix + ", provenance=" + provenance + ", masked="
+				+ maskedKeyParts + "]";
+	}
+}
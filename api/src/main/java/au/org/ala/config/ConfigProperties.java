@@ -0,0 +1,31 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface whose methods are all annotated with
+ * {@link ConfigProperty}. The ala-config-processor annotation processor
+ * generates a final implementation of the interface that resolves and converts
+ * every property once, when it is constructed, and stores the results in final
+ * fields.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ConfigProperties {
+
+	/**
+	 * @return The simple name of the generated class. If it is empty, the name is
+	 *         "Resolved" followed by the simple name of the interface.
+	 */
+	String generatedName() default "";
+}
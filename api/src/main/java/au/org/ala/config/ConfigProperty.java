@@ -0,0 +1,60 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the configuration key and default value for a method on an
+ * interface annotated with {@link ConfigProperties}.
+ * 
+ * The method must not take any parameters, and must return one of String, int,
+ * long, boolean, double or Set&lt;String&gt;. Values are converted to the
+ * return type using the standard conversions, unless a {@link #parser()} is
+ * given.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface ConfigProperty {
+
+	/**
+	 * Marker for {@link #defaultValue()} to indicate that there is no default. A
+	 * missing String property is then null, a missing Set property is empty and a
+	 * missing primitive property fails validation.
+	 */
+	String NO_DEFAULT = "\u0000ala-config-no-default\u0000";
+
+	/**
+	 * @return The configuration key to look up.
+	 */
+	String key();
+
+	/**
+	 * @return The default value to use if the key is not present, in the same
+	 *         String form that would be used in a properties file. Boolean
+	 *         defaults must be true or false, ignoring case.
+	 */
+	String defaultValue() default NO_DEFAULT;
+
+	/**
+	 * @return The regular expression used to split Set&lt;String&gt; properties.
+	 */
+	String separator() default ",";
+
+	/**
+	 * @return The static method that converts the String value to the return
+	 *         type, such as <code>ExecutorRegistry.threadCount</code>, or an empty
+	 *         String to use the standard conversion. Classes in the same package
+	 *         as the interface do not need to be qualified. The default value is
+	 *         passed to the parser when the key is not present.
+	 */
+	String parser() default "";
+}
@@ -0,0 +1,273 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reloads the configuration for an {@link AlaConfig} when the files it was
+ * loaded from change.
+ * 
+ * File changes are detected using a {@link WatchService} on the directories
+ * containing the files. If a directory does not exist yet, its nearest
+ * existing parent is watched until it is created. Changes are debounced, so
+ * an editor writing a file in several steps only causes one reload, and the
+ * reload is always run on a background thread. The new configuration is
+ * flattened into a {@link ConfigSnapshot} before it replaces the old one, so
+ * threads reading from the configuration never block and never see a
+ * partially applied change.
+ * 
+ * Create instances using {@link AlaConfig#enableReload(Path, Path, long)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConfigReloader implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ConfigReloader.class);
+
+	private final AlaConfig target;
+
+	private final Callable<ImmutableConfiguration> loader;
+
+	private final Map<Path, Set<Path>> watchedFilesByDirectory = new HashMap<>();
+
+	/**
+	 * The directories registered with {@link #watchService}, including the
+	 * nearest existing parents of watched directories that do not exist yet.
+	 */
+	private final Set<Path> registeredDirectories = new HashSet<>();
+
+	/**
+	 * The layers that this reloader is listening to, which stop calling
+	 * {@link #changeListener} when it is closed.
+	 */
+	private final List<ConfigLayerSource> layers = new CopyOnWriteArrayList<>();
+
+	private final Runnable changeListener = this::requestReload;
+
+	private final long debounceMillis;
+
+	private final ScheduledExecutorService reloadExecutor;
+
+	private WatchService watchService;
+
+	private Thread watchThread;
+
+	private ScheduledFuture<?> pendingReload;
+
+	private final Object reloadLock = new Object();
+
+	private volatile boolean closed;
+
+	ConfigReloader(AlaConfig target, Callable<ImmutableConfiguration> loader, Collection<Path> watchedFiles,
+			long debounceMillis) {
+		this.target = target;
+		this.loader = loader;
+		this.debounceMillis = debounceMillis;
+		for (Path nextFile : watchedFiles) {
+			Path absolute = nextFile.toAbsolutePath();
+			Path directory = absolute.getParent();
+			if (directory != null) {
+				watchedFilesByDirectory.computeIfAbsent(directory, d -> new HashSet<>()).add(absolute.getFileName());
+			}
+		}
+		this.reloadExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread result = new Thread(r, "ala-config-reload");
+			result.setDaemon(true);
+			return result;
+		});
+	}
+
+	/**
+	 * Registers the watches and starts the thread that waits for changes.
+	 * 
+	 * @throws AlaConfigException
+	 *             If the directories could not be watched.
+	 */
+	void start() throws AlaConfigException {
+		if (watchedFilesByDirectory.isEmpty()) {
+			return;
+		}
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			registerDirectories();
+		} catch (IOException e) {
+			close();
+			throw new AlaConfigException("Could not watch configuration files for changes", e);
+		}
+		watchThread = new Thread(this::watch, "ala-config-watch");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * Registers each watched directory that is not already registered, or its
+	 * nearest existing parent if it does not exist yet.
+	 * 
+	 * @return True if a watched directory was registered that already contains
+	 *         one of the watched files, which may have been created before the
+	 *         directory was registered.
+	 */
+	private boolean registerDirectories() throws IOException {
+		boolean result = false;
+		for (Map.Entry<Path, Set<Path>> nextEntry : watchedFilesByDirectory.entrySet()) {
+			Path directory = nextEntry.getKey();
+			if (registeredDirectories.contains(directory)) {
+				continue;
+			}
+			Path existing = nearestExisting(directory);
+			while (existing != null && registeredDirectories.add(existing)) {
+				existing.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				if (existing.equals(directory)) {
+					// Check for files created before the directory was registered
+					for (Path nextFile : nextEntry.getValue()) {
+						result |= Files.exists(directory.resolve(nextFile));
+					}
+					break;
+				}
+				log.warn("Configuration directory does not exist yet, watching {} until it is created: {}", existing,
+						directory);
+				// A subdirectory may have been created before the watch was registered
+				existing = nearestExisting(directory);
+			}
+		}
+		return result;
+	}
+
+	private static Path nearestExisting(Path directory) {
+		Path result = directory;
+		while (result != null && !Files.isDirectory(result)) {
+			result = result.getParent();
+		}
+		return result;
+	}
+
+	private void watch() {
+		try {
+			while (!closed) {
+				WatchKey nextKey = watchService.take();
+				Set<Path> watchedFiles = watchedFilesByDirectory.get((Path) nextKey.watchable());
+				boolean changed = false;
+				boolean created = false;
+				for (WatchEvent<?> nextEvent : nextKey.pollEvents()) {
+					if (nextEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
+						changed = true;
+						created = true;
+					} else if (watchedFiles != null && watchedFiles.contains(nextEvent.context())) {
+						changed = true;
+					} else if (nextEvent.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+						created = true;
+					}
+				}
+				nextKey.reset();
+				if (created && !registeredDirectories.containsAll(watchedFilesByDirectory.keySet())) {
+					try {
+						changed |= registerDirectories();
+					} catch (IOException e) {
+						log.warn("Could not watch a configuration directory that was created", e);
+					}
+				}
+				if (changed) {
+					requestReload();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Closed, so exit the watch loop
+		}
+	}
+
+	/**
+	 * Reloads the configuration each time one of the given layers reports a
+	 * change, until this reloader is closed.
+	 * 
+	 * @param sources
+	 *            The layers to listen to
+	 */
+	void listenTo(Collection<? extends ConfigLayerSource> sources) {
+		for (ConfigLayerSource nextSource : sources) {
+			layers.add(nextSource);
+			nextSource.addChangeListener(changeListener);
+		}
+	}
+
+	/**
+	 * Schedules a reload after the debounce interval, replacing any reload that
+	 * is already scheduled but has not started.
+	 */
+	public synchronized void requestReload() {
+		if (closed) {
+			return;
+		}
+		if (pendingReload != null) {
+			pendingReload.cancel(false);
+		}
+		pendingReload = reloadExecutor.schedule(this::reloadNow, debounceMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Loads the configuration on the calling thread and replaces the current
+	 * configuration if it loads successfully.
+	 * 
+	 * @return True if the configuration was replaced, and false if it could not
+	 *         be loaded and the previous configuration is still in use.
+	 */
+	public boolean reloadNow() {
+		// Serialise reloads so that an older configuration can never be published
+		// after a newer one
+		synchronized (reloadLock) {
+			try {
+				ConfigSnapshot next = ConfigSnapshot.of(loader.call());
+				target.publish(next);
+				log.info("Reloaded configuration with {} properties", next.size());
+				return true;
+			} catch (Exception e) {
+				log.warn("Failed to reload configuration, continuing to use the previous configuration", e);
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (ConfigLayerSource nextLayer : layers) {
+			nextLayer.removeChangeListener(changeListener);
+		}
+		layers.clear();
+		reloadExecutor.shutdownNow();
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				log.debug("Failed to close watch service", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,997 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration2.ConfigurationDecoder;
+import org.apache.commons.configuration2.ConfigurationUtils;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.apache.commons.configuration2.convert.DefaultConversionHandler;
+import org.apache.commons.configuration2.ex.ConversionException;
+
+/**
+ * An immutable, flattened view of a configuration, with all of the layers
+ * merged and all of the values interpolated exactly once when the snapshot is
+ * created.
+ * 
+ * Lookups of string values are a single hash probe. Conversions to int, boolean
+ * and Set are memoized after they first succeed, so repeated calls for the same
+ * key from hot loops do not reparse the value.
+ * 
+ * The less commonly used methods from {@link ImmutableConfiguration} are
+ * delegated to a Commons Configuration view over the flattened values, which is
+ * only created if one of those methods is called.
+ * 
+ * A snapshot can also be an overlay, which only holds the keys that differ from
+ * a shared base snapshot, see {@link TenantConfigRegistry}. Lookups in an
+ * overlay check its own keys and then the base, and typed values and sets for
+ * keys that are not overridden are reused from the base.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConfigSnapshot implements ImmutableConfiguration {
+
+	private final Map<String, String> values;
+
+	/**
+	 * Only null for an overlay that has not been asked for its keys yet.
+	 */
+	private volatile String[] sortedKeys;
+
+	/**
+	 * The snapshot an overlay was created on, or null if this is not an overlay.
+	 */
+	private final ConfigSnapshot base;
+
+	/**
+	 * The keys and values that an overlay replaces or adds to its base, or null
+	 * if this is not an overlay.
+	 */
+	private final Map<String, String> overrides;
+
+	/**
+	 * The name of the layer that supplied each key, which is empty if the
+	 * snapshot was not created from named layers.
+	 */
+	private final Map<String, String> layers;
+
+	private final ConcurrentMap<String, Integer> intCache = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Boolean> booleanCache = new ConcurrentHashMap<>();
+
+	/**
+	 * Keys with values that failed to convert, so that later lookups fail
+	 * without converting again and without creating another exception.
+	 */
+	private final Set<String> malformedInts = ConcurrentHashMap.newKeySet();
+
+	private final Set<String> malformedBooleans = ConcurrentHashMap.newKeySet();
+
+	private static final Optional<Boolean> OPTIONAL_TRUE = Optional.of(Boolean.TRUE);
+
+	private static final Optional<Boolean> OPTIONAL_FALSE = Optional.of(Boolean.FALSE);
+
+	/**
+	 * Precompiled splitters, shared between snapshots as they only depend on the
+	 * separator.
+	 */
+	private static final ConcurrentMap<String, Pattern> SPLITTERS = new ConcurrentHashMap<>();
+
+	/**
+	 * Parsed sets, indexed by separator and then by key, so that a cache hit does
+	 * not need to allocate a combined cache key.
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, SetEntry>> setCache = new ConcurrentHashMap<>();
+
+	private volatile ImmutableConfiguration delegate;
+
+	private ConfigSnapshot(Map<String, String> values, Map<String, String> layers) {
+		this.values = values;
+		String[] keys = values.keySet().toArray(new String[values.size()]);
+		Arrays.sort(keys);
+		this.sortedKeys = keys;
+		this.layers = layers;
+		this.base = null;
+		this.overrides = null;
+	}
+
+	private ConfigSnapshot(Map<String, String> values, String[] sortedKeys) {
+		this.values = values;
+		this.sortedKeys = sortedKeys;
+		this.layers = Collections.emptyMap();
+		this.base = null;
+		this.overrides = null;
+	}
+
+	private ConfigSnapshot(ConfigSnapshot base, Map<String, String> overrides, Map<String, String> layers) {
+		this.values = new OverlayValues(base, overrides);
+		this.sortedKeys = null;
+		this.layers = layers;
+		this.base = base;
+		this.overrides = overrides;
+	}
+
+	/**
+	 * Flattens the given configuration into a snapshot. If the configuration is
+	 * already a snapshot it is returned directly.
+	 * 
+	 * @param config
+	 *            The configuration to flatten
+	 * @return An immutable snapshot containing the interpolated string value of
+	 *         every key in the given configuration.
+	 * @throws AlaConfigException
+	 *             If a value in the configuration could not be represented as a
+	 *             String.
+	 */
+	public static ConfigSnapshot of(ImmutableConfiguration config) throws AlaConfigException {
+		if (config instanceof ConfigSnapshot) {
+			return (ConfigSnapshot) config;
+		}
+		return new ConfigSnapshot(flatten(config), Collections.emptyMap());
+	}
+
+	/**
+	 * Flattens the given merged configuration into a snapshot, recording which of
+	 * the given layers supplied each key.
+	 * 
+	 * @param merged
+	 *            The configuration containing the merged values from all of the
+	 *            layers
+	 * @param layerNames
+	 *            The names of the layers, in the same order as the layers
+	 * @param layers
+	 *            The layers that were merged, from the highest priority to the
+	 *            lowest
+	 * @return An immutable snapshot containing the interpolated string value of
+	 *         every key in the merged configuration.
+	 * @throws AlaConfigException
+	 *             If a value in the configuration could not be represented as a
+	 *             String.
+	 */
+	public static ConfigSnapshot of(ImmutableConfiguration merged, List<String> layerNames,
+			List<? extends ImmutableConfiguration> layers) throws AlaConfigException {
+		if (layerNames.size() != layers.size()) {
+			throw new AlaConfigException("Each layer must have exactly one name");
+		}
+		Map<String, String> result = flatten(merged);
+		Map<String, String> provenance = new HashMap<>(Math.max(16, (int) (result.size() / 0.75f) + 1));
+		for (String nextKey : result.keySet()) {
+			for (int i = 0; i < layers.size(); i++) {
+				if (layers.get(i).containsKey(nextKey)) {
+					provenance.put(nextKey, layerNames.get(i));
+					break;
+				}
+			}
+		}
+		return new ConfigSnapshot(result, provenance);
+	}
+
+	private static Map<String, String> flatten(ImmutableConfiguration config) throws AlaConfigException {
+		Map<String, String> result = new HashMap<>(Math.max(16, (int) (config.size() / 0.75f) + 1));
+		try {
+			Iterator<String> keys = config.getKeys();
+			while (keys.hasNext()) {
+				String nextKey = keys.next();
+				String nextValue = config.getString(nextKey);
+				if (nextValue != null) {
+					result.put(nextKey, nextValue);
+				}
+			}
+		} catch (ConversionException e) {
+			throw new AlaConfigException(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a snapshot directly from a map of already interpolated values.
+	 * 
+	 * @param values
+	 *            The keys and values to include in the snapshot
+	 * @return An immutable snapshot containing a copy of the given values.
+	 */
+	public static ConfigSnapshot of(Map<String, String> values) {
+		return new ConfigSnapshot(new HashMap<>(values), Collections.emptyMap());
+	}
+
+	/**
+	 * Creates a snapshot over values that are not copied, such as values that
+	 * are decoded lazily from a {@link ConfigSnapshotFile}.
+	 * 
+	 * @param values
+	 *            The keys and values for the snapshot, which must not change
+	 * @param sortedKeys
+	 *            The keys from the values, in their natural String order
+	 * @return A snapshot using the given values directly.
+	 */
+	static ConfigSnapshot wrap(Map<String, String> values, String[] sortedKeys) {
+		return new ConfigSnapshot(values, sortedKeys);
+	}
+
+	/**
+	 * Creates a snapshot that uses the given values in place of the values in
+	 * the base snapshot, without copying the base. If the base is itself an
+	 * overlay, its overrides are merged with the given ones and the result is
+	 * created on its base, so lookups never need to check more than two maps.
+	 * 
+	 * @param base
+	 *            The snapshot to use for keys that are not overridden
+	 * @param overrides
+	 *            The keys and values to replace or add, which must not change
+	 *            after this call
+	 * @param layerName
+	 *            The name to return from {@link #layerOf(String)} for the
+	 *            overridden keys
+	 * @return A snapshot containing the values from the base, replaced by the
+	 *         given values.
+	 */
+	static ConfigSnapshot overlay(ConfigSnapshot base, Map<String, String> overrides, String layerName) {
+		if (base.base != null) {
+			Map<String, String> merged = new HashMap<>(base.overrides);
+			merged.putAll(overrides);
+			Map<String, String> mergedLayers = new HashMap<>(base.layers);
+			for (String nextKey : overrides.keySet()) {
+				mergedLayers.put(nextKey, layerName);
+			}
+			return new ConfigSnapshot(base.base, merged, mergedLayers);
+		}
+		Map<String, String> overlayLayers = new HashMap<>(Math.max(4, (int) (overrides.size() / 0.75f) + 1));
+		for (String nextKey : overrides.keySet()) {
+			overlayLayers.put(nextKey, layerName);
+		}
+		return new ConfigSnapshot(base, overrides, overlayLayers);
+	}
+
+	/**
+	 * @return The snapshot this overlay was created on, or this snapshot if it is
+	 *         not an overlay.
+	 */
+	ConfigSnapshot base() {
+		return base != null ? base : this;
+	}
+
+	/**
+	 * @return The values this overlay uses in place of the values from its base,
+	 *         which is empty if this is not an overlay.
+	 */
+	Map<String, String> overrides() {
+		return overrides != null ? Collections.unmodifiableMap(overrides) : Collections.emptyMap();
+	}
+
+	/**
+	 * @return The keys in this snapshot, in their natural String order.
+	 */
+	public List<String> sortedKeys() {
+		return Collections.unmodifiableList(Arrays.asList(keyArray()));
+	}
+
+	private String[] keyArray() {
+		String[] result = sortedKeys;
+		if (result == null) {
+			// Overlays only sort their keys when they are first needed, as most are
+			// only used for lookups
+			result = sortedKeys = mergeKeys(base.keyArray(), overrides.keySet(), base.values);
+		}
+		return result;
+	}
+
+	private static String[] mergeKeys(String[] baseKeys, Set<String> overlayKeys, Map<String, String> baseValues) {
+		List<String> added = new ArrayList<>();
+		for (String nextKey : overlayKeys) {
+			if (!baseValues.containsKey(nextKey)) {
+				added.add(nextKey);
+			}
+		}
+		if (added.isEmpty()) {
+			return baseKeys;
+		}
+		Collections.sort(added);
+		String[] result = new String[baseKeys.length + added.size()];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < result.length; k++) {
+			if (j == added.size() || (i < baseKeys.length && baseKeys[i].compareTo(added.get(j)) < 0)) {
+				result[k] = baseKeys[i++];
+			} else {
+				result[k] = added.get(j++);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param key
+	 *            The key to find
+	 * @return The name of the layer that supplied the value for the key, or null
+	 *         if the key is not present or the snapshot does not record which
+	 *         layers its values came from.
+	 */
+	public String layerOf(String key) {
+		String result = layers.get(key);
+		return result == null && base != null ? base.layerOf(key) : result;
+	}
+
+	/**
+	 * Finds the keys starting with the given prefix that were added, removed or
+	 * changed between the given snapshot and this one, by walking the sorted keys
+	 * of both snapshots together from the first key with the prefix.
+	 * 
+	 * @param previous
+	 *            The snapshot to compare with
+	 * @param prefix
+	 *            The prefix of the keys to compare, or the empty string to
+	 *            compare all keys
+	 * @return The keys that differ, in their natural String order.
+	 */
+	public List<String> changedKeys(ConfigSnapshot previous, String prefix) {
+		if (previous == this) {
+			return Collections.emptyList();
+		}
+		List<String> result = new ArrayList<>();
+		String[] before = previous.keyArray();
+		String[] after = keyArray();
+		int i = startOf(before, prefix);
+		int j = startOf(after, prefix);
+		while (true) {
+			String beforeKey = i < before.length && before[i].startsWith(prefix) ? before[i] : null;
+			String afterKey = j < after.length && after[j].startsWith(prefix) ? after[j] : null;
+			if (beforeKey == null && afterKey == null) {
+				return result;
+			}
+			int order = beforeKey == null ? 1 : afterKey == null ? -1 : beforeKey.compareTo(afterKey);
+			if (order < 0) {
+				result.add(beforeKey);
+				i++;
+			} else if (order > 0) {
+				result.add(afterKey);
+				j++;
+			} else {
+				if (!previous.values.get(beforeKey).equals(values.get(afterKey))) {
+					result.add(afterKey);
+				}
+				i++;
+				j++;
+			}
+		}
+	}
+
+	private static int startOf(String[] keys, String prefix) {
+		if (prefix.isEmpty()) {
+			return 0;
+		}
+		int result = Arrays.binarySearch(keys, prefix);
+		return result < 0 ? -result - 1 : result;
+	}
+
+	/**
+	 * Get the value for a key as an int, converting it on the first call and
+	 * reusing the converted value after that.
+	 * 
+	 * @param key
+	 *            The key to find
+	 * @param defaultValue
+	 *            The value to return if the key is not present
+	 * @return The int value for the key, or the default value if it is not
+	 *         present.
+	 * @throws ConversionException
+	 *             If the value could not be converted to an int
+	 */
+	@Override
+	public int getInt(String key, int defaultValue) throws ConversionException {
+		Integer cached = intCache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		String value = values.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		Integer converted = values instanceof PreconvertedValues ? ((PreconvertedValues) values).intValue(key)
+				: null;
+		if (converted == null) {
+			try {
+				converted = convert(value, Integer.class);
+			} catch (ConversionException e) {
+				malformedInts.add(key);
+				throw e;
+			}
+		}
+		intCache.putIfAbsent(key, converted);
+		return converted;
+	}
+
+	@Override
+	public int getInt(String key) throws ConversionException, NoSuchElementException {
+		Integer cached = intCache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		if (!values.containsKey(key)) {
+			throw missingKey(key);
+		}
+		return getInt(key, 0);
+	}
+
+	@Override
+	public Integer getInteger(String key, Integer defaultValue) throws ConversionException {
+		if (!values.containsKey(key)) {
+			return defaultValue;
+		}
+		return getInt(key, 0);
+	}
+
+	/**
+	 * Get the value for a key as a boolean, converting it on the first call and
+	 * reusing the converted value after that.
+	 * 
+	 * @param key
+	 *            The key to find
+	 * @param defaultValue
+	 *            The value to return if the key is not present
+	 * @return The boolean value for the key, or the default value if it is not
+	 *         present.
+	 * @throws ConversionException
+	 *             If the value could not be converted to a boolean
+	 */
+	@Override
+	public boolean getBoolean(String key, boolean defaultValue) throws ConversionException {
+		Boolean cached = booleanCache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		String value = values.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		Boolean converted = values instanceof PreconvertedValues
+				? ((PreconvertedValues) values).booleanValue(key)
+				: null;
+		if (converted == null) {
+			try {
+				converted = convert(value, Boolean.class);
+			} catch (ConversionException e) {
+				malformedBooleans.add(key);
+				throw e;
+			}
+		}
+		booleanCache.putIfAbsent(key, converted);
+		return converted;
+	}
+
+	@Override
+	public boolean getBoolean(String key) throws ConversionException, NoSuchElementException {
+		Boolean cached = booleanCache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		if (!values.containsKey(key)) {
+			throw missingKey(key);
+		}
+		return getBoolean(key, false);
+	}
+
+	@Override
+	public Boolean getBoolean(String key, Boolean defaultValue) throws ConversionException {
+		if (!values.containsKey(key)) {
+			return defaultValue;
+		}
+		return getBoolean(key, false);
+	}
+
+	/**
+	 * Find the value for a key as an int without throwing an exception if it is
+	 * missing or malformed. A value that fails to convert is remembered, so it is
+	 * only converted once.
+	 * 
+	 * @param key
+	 *            The key to find
+	 * @return The int value for the key, or empty if the key is not present or
+	 *         its value cannot be converted to an int.
+	 */
+	public OptionalInt findInt(String key) {
+		Integer cached = intCache.get(key);
+		if (cached != null) {
+			return OptionalInt.of(cached);
+		}
+		if (!values.containsKey(key) || malformedInts.contains(key)) {
+			return OptionalInt.empty();
+		}
+		try {
+			return OptionalInt.of(getInt(key, 0));
+		} catch (ConversionException e) {
+			return OptionalInt.empty();
+		}
+	}
+
+	/**
+	 * Find the value for a key as a boolean without throwing an exception if it
+	 * is missing or malformed. A value that fails to convert is remembered, so it
+	 * is only converted once.
+	 * 
+	 * @param key
+	 *            The key to find
+	 * @return The boolean value for the key, or empty if the key is not present
+	 *         or its value cannot be converted to a boolean. The non-empty
+	 *         results are shared constants, so this does not allocate.
+	 */
+	public Optional<Boolean> findBoolean(String key) {
+		Boolean cached = booleanCache.get(key);
+		if (cached == null) {
+			if (!values.containsKey(key) || malformedBooleans.contains(key)) {
+				return Optional.empty();
+			}
+			try {
+				cached = getBoolean(key, false);
+			} catch (ConversionException e) {
+				return Optional.empty();
+			}
+		}
+		return cached ? OPTIONAL_TRUE : OPTIONAL_FALSE;
+	}
+
+	/**
+	 * @param key
+	 *            The key to find
+	 * @return The value for the key, or empty if the key is not present.
+	 */
+	public Optional<String> findString(String key) {
+		return Optional.ofNullable(values.get(key));
+	}
+
+	/**
+	 * Get the value for a key split into a set of trimmed values, or the default
+	 * value split in the same way if the key is not present.
+	 * 
+	 * The value is only split the first time it is requested for each key and
+	 * separator. After that the same set instance is returned without
+	 * allocating, as long as the key is present or the same default is given.
+	 * 
+	 * @param key
+	 *            The key to find
+	 * @param defaultValue
+	 *            The value to split if the key is not present
+	 * @param splitChar
+	 *            The regular expression to split the value on
+	 * @return An immutable set of the trimmed values, which is empty if the value
+	 *         was empty.
+	 */
+	public Set<String> getSet(String key, String defaultValue, String splitChar) {
+		if (base != null && !overrides.containsKey(key)) {
+			return base.getSet(key, defaultValue, splitChar);
+		}
+		ConcurrentMap<String, SetEntry> setsForSeparator = setCache.get(splitChar);
+		if (setsForSeparator == null) {
+			setsForSeparator = setCache.computeIfAbsent(splitChar, s -> new ConcurrentHashMap<>());
+		}
+		SetEntry cached = setsForSeparator.get(key);
+		if (cached != null && (cached.defaultValue == null || cached.defaultValue.equals(defaultValue))) {
+			return cached.values;
+		}
+		String value = values.get(key);
+		SetEntry result = new SetEntry(value == null ? defaultValue : null,
+				split(value != null ? value : defaultValue, splitChar));
+		// If the key is missing and callers disagree on the default, the last one
+		// wins the cache slot, which is still correct but not allocation free
+		setsForSeparator.put(key, result);
+		return result.values;
+	}
+
+	private static ImmutableStringSet split(String toSplit, String splitChar) {
+		Pattern splitter = SPLITTERS.get(splitChar);
+		if (splitter == null) {
+			splitter = SPLITTERS.computeIfAbsent(splitChar, Pattern::compile);
+		}
+		String[] split = splitter.split(toSplit);
+		List<String> trimmed = new ArrayList<>(split.length);
+		for (String nextValue : split) {
+			trimmed.add(nextValue.trim());
+		}
+		ImmutableStringSet result = ImmutableStringSet.copyOf(trimmed);
+		if (result.size() == 1 && result.contains("")) {
+			return ImmutableStringSet.empty();
+		}
+		return result;
+	}
+
+	@Override
+	public String getString(String key) throws ConversionException {
+		return values.get(key);
+	}
+
+	@Override
+	public String getString(String key, String defaultValue) throws ConversionException {
+		String result = values.get(key);
+		return result != null ? result : defaultValue;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return values.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return values.size();
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public Object getProperty(String key) {
+		return values.get(key);
+	}
+
+	@Override
+	public Iterator<String> getKeys() {
+		return sortedKeys().iterator();
+	}
+
+	@Override
+	public Iterator<String> getKeys(String prefix) {
+		return delegate().getKeys(prefix);
+	}
+
+	@Override
+	public Properties getProperties(String key) {
+		return delegate().getProperties(key);
+	}
+
+	@Override
+	public byte getByte(String key) {
+		return delegate().getByte(key);
+	}
+
+	@Override
+	public byte getByte(String key, byte defaultValue) {
+		return delegate().getByte(key, defaultValue);
+	}
+
+	@Override
+	public Byte getByte(String key, Byte defaultValue) {
+		return delegate().getByte(key, defaultValue);
+	}
+
+	@Override
+	public double getDouble(String key) {
+		return delegate().getDouble(key);
+	}
+
+	@Override
+	public double getDouble(String key, double defaultValue) {
+		return delegate().getDouble(key, defaultValue);
+	}
+
+	@Override
+	public Double getDouble(String key, Double defaultValue) {
+		return delegate().getDouble(key, defaultValue);
+	}
+
+	@Override
+	public float getFloat(String key) {
+		return delegate().getFloat(key);
+	}
+
+	@Override
+	public float getFloat(String key, float defaultValue) {
+		return delegate().getFloat(key, defaultValue);
+	}
+
+	@Override
+	public Float getFloat(String key, Float defaultValue) {
+		return delegate().getFloat(key, defaultValue);
+	}
+
+	@Override
+	public long getLong(String key) {
+		return delegate().getLong(key);
+	}
+
+	@Override
+	public long getLong(String key, long defaultValue) {
+		return delegate().getLong(key, defaultValue);
+	}
+
+	@Override
+	public Long getLong(String key, Long defaultValue) {
+		return delegate().getLong(key, defaultValue);
+	}
+
+	@Override
+	public short getShort(String key) {
+		return delegate().getShort(key);
+	}
+
+	@Override
+	public short getShort(String key, short defaultValue) {
+		return delegate().getShort(key, defaultValue);
+	}
+
+	@Override
+	public Short getShort(String key, Short defaultValue) {
+		return delegate().getShort(key, defaultValue);
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(String key) {
+		return delegate().getBigDecimal(key);
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(String key, BigDecimal defaultValue) {
+		return delegate().getBigDecimal(key, defaultValue);
+	}
+
+	@Override
+	public BigInteger getBigInteger(String key) {
+		return delegate().getBigInteger(key);
+	}
+
+	@Override
+	public BigInteger getBigInteger(String key, BigInteger defaultValue) {
+		return delegate().getBigInteger(key, defaultValue);
+	}
+
+	@Override
+	public String getEncodedString(String key, ConfigurationDecoder decoder) {
+		return delegate().getEncodedString(key, decoder);
+	}
+
+	@Override
+	public String getEncodedString(String key) {
+		return delegate().getEncodedString(key);
+	}
+
+	@Override
+	public String[] getStringArray(String key) {
+		return delegate().getStringArray(key);
+	}
+
+	@Override
+	public List<Object> getList(String key) {
+		return delegate().getList(key);
+	}
+
+	@Override
+	public List<Object> getList(String key, List<?> defaultValue) {
+		return delegate().getList(key, defaultValue);
+	}
+
+	@Override
+	public <T> T get(Class<T> cls, String key) {
+		return delegate().get(cls, key);
+	}
+
+	@Override
+	public <T> T get(Class<T> cls, String key, T defaultValue) {
+		return delegate().get(cls, key, defaultValue);
+	}
+
+	@Override
+	public Object getArray(Class<?> cls, String key) {
+		return delegate().getArray(cls, key);
+	}
+
+	@Override
+	public Object getArray(Class<?> cls, String key, Object defaultValue) {
+		return delegate().getArray(cls, key, defaultValue);
+	}
+
+	@Override
+	public <T> List<T> getList(Class<T> cls, String key) {
+		return delegate().getList(cls, key);
+	}
+
+	@Override
+	public <T> List<T> getList(Class<T> cls, String key, List<T> defaultValue) {
+		return delegate().getList(cls, key, defaultValue);
+	}
+
+	@Override
+	public <T> Collection<T> getCollection(Class<T> cls, String key, Collection<T> target) {
+		return delegate().getCollection(cls, key, target);
+	}
+
+	@Override
+	public <T> Collection<T> getCollection(Class<T> cls, String key, Collection<T> target,
+			Collection<T> defaultValue) {
+		return delegate().getCollection(cls, key, target, defaultValue);
+	}
+
+	@Override
+	public ImmutableConfiguration immutableSubset(String prefix) {
+		return delegate().immutableSubset(prefix);
+	}
+
+	private ImmutableConfiguration delegate() {
+		ImmutableConfiguration result = delegate;
+		if (result == null) {
+			synchronized (this) {
+				result = delegate;
+				if (result == null) {
+					result = delegate = ConfigurationUtils
+							.unmodifiableConfiguration(new MapConfiguration(values));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Implemented by value maps that already know the typed form of some values,
+	 * so that the first typed lookup for those keys does not need to parse them.
+	 */
+	interface PreconvertedValues {
+
+		/**
+		 * @return The value for the key as an int, or null if it is not known to be
+		 *         a valid int.
+		 */
+		Integer intValue(String key);
+
+		/**
+		 * @return The value for the key as a boolean, or null if it is not known to
+		 *         be a valid boolean.
+		 */
+		Boolean booleanValue(String key);
+	}
+
+	/**
+	 * The values of an overlay, which checks the overrides and then the values of
+	 * the base, and reuses the typed values that the base has already converted
+	 * for keys that are not overridden.
+	 */
+	private static final class OverlayValues extends AbstractMap<String, String> implements PreconvertedValues {
+
+		private final ConfigSnapshot base;
+
+		private final Map<String, String> overrides;
+
+		private final int size;
+
+		private OverlayValues(ConfigSnapshot base, Map<String, String> overrides) {
+			this.base = base;
+			this.overrides = overrides;
+			int added = 0;
+			for (String nextKey : overrides.keySet()) {
+				if (!base.values.containsKey(nextKey)) {
+					added++;
+				}
+			}
+			this.size = base.values.size() + added;
+		}
+
+		@Override
+		public String get(Object key) {
+			String result = overrides.get(key);
+			return result != null ? result : base.values.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return overrides.containsKey(key) || base.values.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Integer intValue(String key) {
+			if (overrides.containsKey(key)) {
+				return null;
+			}
+			Integer result = base.intCache.get(key);
+			if (result == null && base.values instanceof PreconvertedValues) {
+				result = ((PreconvertedValues) base.values).intValue(key);
+			}
+			return result;
+		}
+
+		@Override
+		public Boolean booleanValue(String key) {
+			if (overrides.containsKey(key)) {
+				return null;
+			}
+			Boolean result = base.booleanCache.get(key);
+			if (result == null && base.values instanceof PreconvertedValues) {
+				result = ((PreconvertedValues) base.values).booleanValue(key);
+			}
+			return result;
+		}
+
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return new AbstractSet<Map.Entry<String, String>>() {
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					Iterator<Map.Entry<String, String>> fromOverrides = overrides.entrySet().iterator();
+					Iterator<Map.Entry<String, String>> fromBase = base.values.entrySet().iterator();
+					return new Iterator<Map.Entry<String, String>>() {
+						private Map.Entry<String, String> next;
+
+						@Override
+						public boolean hasNext() {
+							while (next == null) {
+								if (fromOverrides.hasNext()) {
+									next = fromOverrides.next();
+								} else if (fromBase.hasNext()) {
+									Map.Entry<String, String> candidate = fromBase.next();
+									if (!overrides.containsKey(candidate.getKey())) {
+										next = candidate;
+									}
+								} else {
+									return false;
+								}
+							}
+							return true;
+						}
+
+						@Override
+						public Map.Entry<String, String> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							Map.Entry<String, String> result = new SimpleImmutableEntry<>(next);
+							next = null;
+							return result;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * A parsed set, along with the default it was parsed from if the key was
+	 * missing.
+	 */
+	private static final class SetEntry {
+		private final String defaultValue;
+		private final Set<String> values;
+
+		private SetEntry(String defaultValue, Set<String> values) {
+			this.defaultValue = defaultValue;
+			this.values = values;
+		}
+	}
+
+	static <T> T convert(String value, Class<T> type) throws ConversionException {
+		// Values in a snapshot are already interpolated, so no interpolator is needed
+		return DefaultConversionHandler.INSTANCE.to(value, type, null);
+	}
+
+	private static NoSuchElementException missingKey(String key) {
+		return new NoSuchElementException("Key '" + key + "' does not map to an existing object!");
+	}
+}
@@ -0,0 +1,407 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.configuration2.ex.ConversionException;
+
+/**
+ * Reads and writes compiled, binary forms of a {@link ConfigSnapshot}, so that
+ * short lived processes can skip parsing and interpolating the properties files
+ * that the snapshot was created from.
+ * 
+ * The file contains a header with a format version and a hash of the source
+ * files, a table of entries sorted by key, and a pool of UTF-8 strings. Each
+ * entry also records whether its value is a valid int or boolean, and the
+ * converted value if it is. Files are read through a read-only
+ * {@link MappedByteBuffer}; keys are decoded when the file is opened, while
+ * values are only decoded the first time they are requested.
+ * 
+ * Files that were written by a different format version, or from sources with
+ * a different hash, are ignored by {@link #read(Path, byte[])} so that callers
+ * can fall back to parsing the sources.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConfigSnapshotFile {
+
+	private static final int MAGIC = 0x414C4143;
+
+	private static final int VERSION = 1;
+
+	private static final int HASH_LENGTH = 32;
+
+	private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + 4;
+
+	private static final int ENTRY_LENGTH = 24;
+
+	private static final byte FLAG_INT = 1;
+
+	private static final byte FLAG_BOOLEAN = 2;
+
+	private static final byte FLAG_TRUE = 4;
+
+	private ConfigSnapshotFile() {
+	}
+
+	/**
+	 * Computes the hash of the given source files that is stored in compiled
+	 * snapshots. Missing sources are included in the hash as missing, so a
+	 * source appearing or disappearing changes the hash.
+	 * 
+	 * @param sources
+	 *            The locations of the source files and the files they include,
+	 *            in the order they are layered
+	 * @return The SHA-256 hash of the sources.
+	 * @throws IOException
+	 *             If one of the sources could not be read.
+	 */
+	public static byte[] sourceHash(List<URL> sources) throws IOException {
+		MessageDigest digest = sha256();
+		byte[] buffer = new byte[8192];
+		for (URL nextSource : sources) {
+			if (nextSource == null) {
+				digest.update((byte) 0);
+				continue;
+			}
+			digest.update((byte) 1);
+			try (InputStream input = nextSource.openStream()) {
+				int read;
+				while ((read = input.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			}
+		}
+		return digest.digest();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+		}
+	}
+
+	/**
+	 * Writes the snapshot to the given file. The file is written to a temporary
+	 * file in the same directory first and then moved into place, so readers
+	 * never see a partially written file.
+	 * 
+	 * @param snapshot
+	 *            The snapshot to write
+	 * @param sourceHash
+	 *            The hash of the sources the snapshot was created from, from
+	 *            {@link #sourceHash(List)}
+	 * @param target
+	 *            The file to write
+	 * @throws IOException
+	 *             If the file could not be written.
+	 */
+	public static void write(ConfigSnapshot snapshot, byte[] sourceHash, Path target) throws IOException {
+		if (sourceHash.length != HASH_LENGTH) {
+			throw new IllegalArgumentException("Source hash must be " + HASH_LENGTH + " bytes");
+		}
+		List<String> keys = snapshot.sortedKeys();
+		byte[][] keyBytes = new byte[keys.size()][];
+		byte[][] valueBytes = new byte[keys.size()][];
+		for (int i = 0; i < keys.size(); i++) {
+			keyBytes[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+			valueBytes[i] = snapshot.getString(keys.get(i)).getBytes(StandardCharsets.UTF_8);
+		}
+
+		Path absoluteTarget = target.toAbsolutePath();
+		Path directory = absoluteTarget.getParent();
+		Files.createDirectories(directory);
+		Path temp = Files.createTempFile(directory, absoluteTarget.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream output = Files.newOutputStream(temp);
+					DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output))) {
+				data.writeInt(MAGIC);
+				data.writeInt(VERSION);
+				data.write(sourceHash);
+				data.writeInt(keys.size());
+				int poolOffset = 0;
+				for (int i = 0; i < keys.size(); i++) {
+					String value = snapshot.getString(keys.get(i));
+					data.writeInt(poolOffset);
+					data.writeInt(keyBytes[i].length);
+					poolOffset += keyBytes[i].length;
+					data.writeInt(poolOffset);
+					data.writeInt(valueBytes[i].length);
+					poolOffset += valueBytes[i].length;
+
+					byte flags = 0;
+					int intValue = 0;
+					try {
+						intValue = ConfigSnapshot.convert(value, Integer.class);
+						flags |= FLAG_INT;
+					} catch (ConversionException e) {
+						// Not an int, so it will not be preconverted
+					}
+					try {
+						if (ConfigSnapshot.convert(value, Boolean.class)) {
+							flags |= FLAG_TRUE;
+						}
+						flags |= FLAG_BOOLEAN;
+					} catch (ConversionException e) {
+						// Not a boolean, so it will not be preconverted
+					}
+					data.writeByte(flags);
+					data.write(new byte[3]);
+					data.writeInt(intValue);
+				}
+				for (int i = 0; i < keys.size(); i++) {
+					data.write(keyBytes[i]);
+					data.write(valueBytes[i]);
+				}
+			}
+			Files.move(temp, absoluteTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Maps the given file and creates a snapshot from it, if it was written by
+	 * this version of the format from sources with the expected hash.
+	 * 
+	 * @param file
+	 *            The compiled snapshot file
+	 * @param expectedSourceHash
+	 *            The hash of the current sources, from {@link #sourceHash(List)}
+	 * @return The snapshot, or empty if the file does not exist, is from another
+	 *         version of the format, was compiled from different sources, or is
+	 *         truncated or corrupt.
+	 * @throws IOException
+	 *             If the file exists but could not be read.
+	 */
+	public static Optional<ConfigSnapshot> read(Path file, byte[] expectedSourceHash) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return Optional.empty();
+		}
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_LENGTH) {
+				return Optional.empty();
+			}
+			// The mapping remains valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			return Optional.empty();
+		}
+		byte[] storedHash = new byte[HASH_LENGTH];
+		for (int i = 0; i < HASH_LENGTH; i++) {
+			storedHash[i] = buffer.get(8 + i);
+		}
+		if (!MessageDigest.isEqual(storedHash, expectedSourceHash)) {
+			return Optional.empty();
+		}
+		int entryCount = buffer.getInt(8 + HASH_LENGTH);
+		if (!entriesFit(buffer, entryCount)) {
+			return Optional.empty();
+		}
+		MappedValues values = new MappedValues(buffer, entryCount);
+		return Optional.of(ConfigSnapshot.wrap(values, values.keys));
+	}
+
+	/**
+	 * Checks that the entry table and every string it refers to are inside the
+	 * file, so that a truncated or corrupt file is ignored rather than failing
+	 * when a value is first decoded.
+	 */
+	private static boolean entriesFit(ByteBuffer buffer, int entryCount) {
+		long poolStart = HEADER_LENGTH + (long) entryCount * ENTRY_LENGTH;
+		if (entryCount < 0 || poolStart > buffer.limit()) {
+			return false;
+		}
+		for (int i = 0; i < entryCount; i++) {
+			int entry = HEADER_LENGTH + i * ENTRY_LENGTH;
+			if (!stringFits(buffer, poolStart, buffer.getInt(entry), buffer.getInt(entry + 4))
+					|| !stringFits(buffer, poolStart, buffer.getInt(entry + 8), buffer.getInt(entry + 12))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean stringFits(ByteBuffer buffer, long poolStart, int offset, int length) {
+		return offset >= 0 && length >= 0 && poolStart + offset + length <= buffer.limit();
+	}
+
+	/**
+	 * Values that are decoded from the mapped file the first time they are
+	 * requested.
+	 */
+	private static final class MappedValues extends AbstractMap<String, String>
+			implements ConfigSnapshot.PreconvertedValues {
+
+		private final ByteBuffer buffer;
+
+		private final int poolStart;
+
+		private final String[] keys;
+
+		private final Map<String, Integer> index;
+
+		private final AtomicReferenceArray<String> decoded;
+
+		private MappedValues(ByteBuffer buffer, int entryCount) {
+			this.buffer = buffer;
+			this.poolStart = HEADER_LENGTH + entryCount * ENTRY_LENGTH;
+			this.keys = new String[entryCount];
+			this.index = new HashMap<>(Math.max(16, (int) (entryCount / 0.75f) + 1));
+			this.decoded = new AtomicReferenceArray<>(entryCount);
+			for (int i = 0; i < entryCount; i++) {
+				int entry = HEADER_LENGTH + i * ENTRY_LENGTH;
+				keys[i] = decode(buffer.getInt(entry), buffer.getInt(entry + 4));
+				index.put(keys[i], i);
+			}
+		}
+
+		private String decode(int offset, int length) {
+			ByteBuffer slice = buffer.duplicate();
+			slice.position(poolStart + offset);
+			slice.limit(poolStart + offset + length);
+			return StandardCharsets.UTF_8.decode(slice).toString();
+		}
+
+		private String value(int i) {
+			String result = decoded.get(i);
+			if (result == null) {
+				int entry = HEADER_LENGTH + i * ENTRY_LENGTH;
+				result = decode(buffer.getInt(entry + 8), buffer.getInt(entry + 12));
+				decoded.lazySet(i, result);
+			}
+			return result;
+		}
+
+		@Override
+		public String get(Object key) {
+			Integer i = index.get(key);
+			return i == null ? null : value(i);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return index.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return keys.length;
+		}
+
+		@Override
+		public Integer intValue(String key) {
+			Integer i = index.get(key);
+			if (i == null) {
+				return null;
+			}
+			int entry = HEADER_LENGTH + i * ENTRY_LENGTH;
+			return (buffer.get(entry + 16) & FLAG_INT) != 0 ? buffer.getInt(entry + 20) : null;
+		}
+
+		@Override
+		public Boolean booleanValue(String key) {
+			Integer i = index.get(key);
+			if (i == null) {
+				return null;
+			}
+			byte flags = buffer.get(HEADER_LENGTH + i * ENTRY_LENGTH + 16);
+			return (flags & FLAG_BOOLEAN) != 0 ? (flags & FLAG_TRUE) != 0 : null;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					return new Iterator<Entry<String, String>>() {
+						private int next;
+
+						@Override
+						public boolean hasNext() {
+							return next < keys.length;
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							if (next >= keys.length) {
+								throw new NoSuchElementException();
+							}
+							int i = next++;
+							return new SimpleImmutableEntry<>(keys[i], value(i));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return keys.length;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Compiles the merged overrides and defaults into a snapshot file.
+	 * 
+	 * Usage: ConfigSnapshotFile &lt;overrides&gt; &lt;defaults&gt;
+	 * &lt;output&gt;
+	 * 
+	 * @param args
+	 *            The path to the overrides, the path to the defaults, and the
+	 *            file to write
+	 * @throws IOException
+	 *             If the snapshot could not be written.
+	 */
+	public static void main(String... args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("Usage: " + ConfigSnapshotFile.class.getName() + " <overrides> <defaults> <output>");
+			System.exit(1);
+		}
+		Path overrides = Paths.get(args[0]);
+		Path defaults = Paths.get(args[1]);
+		Optional<List<URL>> sources = AlaConfig.locateSourcesWithIncludes(overrides, defaults);
+		if (!sources.isPresent()) {
+			System.err.println("Cannot compile a snapshot of " + Arrays.asList(args[0], args[1])
+					+ " as an include uses interpolation");
+			System.exit(1);
+		}
+		ConfigSnapshot snapshot = ConfigSnapshot.of(AlaConfig.getConfig(overrides, defaults));
+		write(snapshot, sourceHash(sources.get()), Paths.get(args[2]));
+		System.out.println("Compiled " + snapshot.size() + " properties to " + args[2] + " from "
+				+ Arrays.asList(args[0], args[1]));
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A listener registered for changes to keys with given prefixes, created using
+ * {@link AlaConfig#subscribe(Collection, Executor, ConfigChangeListener)}.
+ * 
+ * Publishing a new configuration only marks the subscription as pending and
+ * submits a delivery to the executor if one is not already queued or running,
+ * so the publisher never waits for listeners. The delivery compares the
+ * configuration the listener last saw with the current one, so a burst of
+ * changes that arrives before the delivery runs produces a single call, and a
+ * change that is reverted before then produces none.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ConfigSubscription implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ConfigSubscription.class);
+
+	private final List<String> prefixes;
+
+	private final Executor executor;
+
+	private final ConfigChangeListener listener;
+
+	private final Supplier<ConfigSnapshot> currentConfig;
+
+	private final Collection<ConfigSubscription> registry;
+
+	/**
+	 * The configuration the listener last saw, only accessed by the delivery
+	 * loop, which never runs on more than one thread at a time.
+	 */
+	private ConfigSnapshot delivered;
+
+	private boolean pending;
+
+	private boolean scheduled;
+
+	private volatile boolean closed;
+
+	ConfigSubscription(Collection<String> prefixes, Executor executor, ConfigChangeListener listener,
+			Supplier<ConfigSnapshot> currentConfig, Collection<ConfigSubscription> registry) {
+		this.prefixes = Collections.unmodifiableList(new ArrayList<>(prefixes));
+		this.executor = executor;
+		this.listener = listener;
+		this.currentConfig = currentConfig;
+		this.registry = registry;
+		this.delivered = currentConfig.get();
+	}
+
+	/**
+	 * Called after a new configuration has been published.
+	 */
+	void published() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			pending = true;
+			if (scheduled) {
+				return;
+			}
+			scheduled = true;
+		}
+		try {
+			executor.execute(this::deliver);
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				scheduled = false;
+			}
+			log.warn("Could not deliver configuration changes to {}", listener, e);
+		}
+	}
+
+	private void deliver() {
+		while (true) {
+			synchronized (this) {
+				if (!pending || closed) {
+					scheduled = false;
+					return;
+				}
+				pending = false;
+			}
+			ConfigSnapshot current = currentConfig.get();
+			List<String> changedKeys = changedKeys(delivered, current);
+			if (changedKeys.isEmpty()) {
+				continue;
+			}
+			ConfigChange change = new ConfigChange(delivered, current, changedKeys);
+			delivered = current;
+			try {
+				listener.configChanged(change);
+			} catch (RuntimeException e) {
+				log.warn("Configuration change listener failed for {}", change, e);
+			}
+		}
+	}
+
+	private List<String> changedKeys(ConfigSnapshot previous, ConfigSnapshot current) {
+		if (prefixes.size() == 1) {
+			return Collections.unmodifiableList(current.changedKeys(previous, prefixes.get(0)));
+		}
+		// Prefixes may overlap, such as solr. and solr.batch, so remove duplicates
+		TreeSet<String> result = new TreeSet<>();
+		for (String nextPrefix : prefixes) {
+			result.addAll(current.changedKeys(previous, nextPrefix));
+		}
+		return Collections.unmodifiableList(new ArrayList<>(result));
+	}
+
+	/**
+	 * @return The key prefixes this subscription receives changes for.
+	 */
+	public List<String> prefixes() {
+		return prefixes;
+	}
+
+	/**
+	 * Stops delivering changes. A delivery that is already running is allowed
+	 * to finish.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		registry.remove(this);
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigSubscription" + prefixes;
+	}
+}
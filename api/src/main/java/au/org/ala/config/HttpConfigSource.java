@@ -0,0 +1,255 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A configuration layer that reads a properties file from a web server, so
+ * that a central copy of the configuration can be shared without deploying
+ * files to each node.
+ * 
+ * The response is kept on disk using a {@link CachedHttpResource}, so
+ * {@link #start()} loads the last good copy without waiting for the server,
+ * and the process still starts if the server cannot be reached. The file is
+ * then checked in the background at a fixed interval, using a conditional
+ * request so that an unchanged file is not downloaded again. A response that
+ * is not a valid properties file is rejected before it replaces the last good
+ * copy.
+ * 
+ * To use it, add it ahead of the overrides using
+ * {@link AlaConfig#getConfig(Path, Path, List)}, and pass it to
+ * {@link AlaConfig#enableReload(Path, Path, long, List)} to reload the
+ * configuration after each change.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class HttpConfigSource implements ConfigLayerSource, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(HttpConfigSource.class);
+
+	/**
+	 * The layer name recorded for values from the remote file.
+	 */
+	public static final String LAYER_NAME = "remote";
+
+	/**
+	 * The key for the URL of the remote file in the bootstrap configuration. If
+	 * it is not set, {@link #fromConfig(ImmutableConfiguration)} does not create
+	 * a source.
+	 */
+	public static final String URL_PROPERTY = "config.remote.url";
+
+	/**
+	 * The key for the local copy of the remote file in the bootstrap
+	 * configuration.
+	 */
+	public static final String CACHE_FILE_PROPERTY = "config.remote.cache";
+
+	/**
+	 * The key for the interval between checks for changes, in seconds, in the
+	 * bootstrap configuration.
+	 */
+	public static final String REFRESH_INTERVAL_PROPERTY = "config.remote.refresh.seconds";
+
+	private final CachedHttpResource resource;
+
+	private final long refreshIntervalMillis;
+
+	private final ScheduledExecutorService refresher;
+
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile Map<String, String> values = Collections.emptyMap();
+
+	/**
+	 * @param url
+	 *            The HTTP or HTTPS URL of the properties file
+	 * @param cacheFile
+	 *            The local file to keep a copy of the response in
+	 * @param refreshIntervalMillis
+	 *            The time between checks for changes, in milliseconds
+	 * @throws AlaConfigException
+	 *             If the URL does not use HTTP or HTTPS.
+	 */
+	public HttpConfigSource(URL url, Path cacheFile, long refreshIntervalMillis) throws AlaConfigException {
+		this.resource = new CachedHttpResource(url, cacheFile);
+		this.refreshIntervalMillis = refreshIntervalMillis;
+		this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread result = new Thread(r, "ala-config-http");
+			result.setDaemon(true);
+			return result;
+		});
+	}
+
+	/**
+	 * Creates a source using the settings in a bootstrap configuration, such as
+	 * the configuration loaded from the local files, if a remote URL is set.
+	 * 
+	 * @param bootstrap
+	 *            The configuration to read the remote settings from
+	 * @return A source that has not been started, or empty if
+	 *         {@link #URL_PROPERTY} is not set.
+	 * @throws AlaConfigException
+	 *             If the URL is not a valid HTTP or HTTPS URL.
+	 */
+	public static Optional<HttpConfigSource> fromConfig(ImmutableConfiguration bootstrap) throws AlaConfigException {
+		String url = bootstrap.getString(URL_PROPERTY, "");
+		if (url.isEmpty()) {
+			return Optional.empty();
+		}
+		String cacheFile = bootstrap.getString(CACHE_FILE_PROPERTY,
+				Paths.get(bootstrap.getString("tmp.work.dir", "/tmp"), "ala-config-remote.properties").toString());
+		try {
+			return Optional.of(new HttpConfigSource(new URL(url), Paths.get(cacheFile),
+					TimeUnit.SECONDS.toMillis(bootstrap.getLong(REFRESH_INTERVAL_PROPERTY, 300))));
+		} catch (MalformedURLException e) {
+			throw new AlaConfigException("Remote configuration URL was not valid: " + url, e);
+		}
+	}
+
+	/**
+	 * Loads the values from the local copy, if it exists, and starts checking
+	 * the remote file for changes in the background, starting immediately.
+	 * 
+	 * @return This source, so that calls can be chained.
+	 */
+	public HttpConfigSource start() {
+		if (resource.isCached()) {
+			try {
+				values = read(resource.cacheFile());
+				log.info("Loaded {} cached remote configuration values from {}", values.size(),
+						resource.cacheFile());
+			} catch (IOException e) {
+				log.warn("Could not read cached remote configuration: {}", resource.cacheFile(), e);
+			}
+		} else {
+			log.debug("No cached remote configuration found: {}", resource.cacheFile());
+		}
+		refresher.scheduleWithFixedDelay(this::refreshInBackground, 0, refreshIntervalMillis,
+				TimeUnit.MILLISECONDS);
+		return this;
+	}
+
+	/**
+	 * Checks the remote file for changes now, instead of waiting for the next
+	 * background check. For example, this can be used to make sure the first
+	 * startup of a node without a local copy uses the remote values.
+	 * 
+	 * @return True if the values changed.
+	 * @throws IOException
+	 *             If the remote file could not be fetched or read, in which case
+	 *             the values are not changed.
+	 */
+	public boolean refresh() throws IOException {
+		AtomicReference<Map<String, String>> downloaded = new AtomicReference<>();
+		CachedHttpResource.Status status = resource.refresh(file -> downloaded.set(read(file)));
+		if (status == CachedHttpResource.Status.NOT_MODIFIED && !values.isEmpty()) {
+			return false;
+		}
+		Map<String, String> next = downloaded.get();
+		if (next == null) {
+			// Not modified, or downloaded by a refresh in another thread
+			next = read(resource.cacheFile());
+		}
+		synchronized (this) {
+			if (next.equals(values)) {
+				return false;
+			}
+			values = next;
+		}
+		log.info("Remote configuration changed, {} values loaded from {}", next.size(), resource.url());
+		for (Runnable nextListener : listeners) {
+			try {
+				nextListener.run();
+			} catch (RuntimeException e) {
+				log.warn("Remote configuration change listener failed", e);
+			}
+		}
+		return true;
+	}
+
+	private void refreshInBackground() {
+		try {
+			refresh();
+		} catch (IOException e) {
+			log.warn("Could not refresh remote configuration from {}, using the last good copy: {}", resource.url(),
+					e.getMessage());
+		} catch (RuntimeException e) {
+			log.warn("Could not refresh remote configuration from {}", resource.url(), e);
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             If the file could not be read or is not a valid properties
+	 *             file.
+	 */
+	private static Map<String, String> read(Path file) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Remote configuration was not a valid properties file: " + e.getMessage(), e);
+		}
+		Map<String, String> result = new HashMap<>();
+		for (String nextKey : properties.stringPropertyNames()) {
+			result.put(nextKey, properties.getProperty(nextKey));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	@Override
+	public String name() {
+		return LAYER_NAME;
+	}
+
+	@Override
+	public Map<String, String> values() {
+		return values;
+	}
+
+	@Override
+	public void addChangeListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeChangeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void close() {
+		refresher.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "HttpConfigSource[" + resource.url() + "]";
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable set of Strings backed by an open addressing hash table that is
+ * kept at most half full, so that {@link #contains(Object)} is usually a single
+ * probe using the hash code cached inside the String. Iteration is in the order
+ * the values were first given.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+final class ImmutableStringSet extends AbstractSet<String> {
+
+	private static final ImmutableStringSet EMPTY = new ImmutableStringSet(new String[0]);
+
+	private final String[] elements;
+
+	private final String[] table;
+
+	private final int mask;
+
+	private ImmutableStringSet(String[] elements) {
+		this.elements = elements;
+		int capacity = Integer.highestOneBit(Math.max(2, elements.length) * 2 - 1) << 1;
+		this.table = new String[capacity];
+		this.mask = capacity - 1;
+		for (String nextElement : elements) {
+			int index = spread(nextElement.hashCode()) & mask;
+			while (table[index] != null) {
+				index = (index + 1) & mask;
+			}
+			table[index] = nextElement;
+		}
+	}
+
+	/**
+	 * Creates a set containing the distinct values from the given collection.
+	 * 
+	 * @param values
+	 *            The values to include in the set, which must not be null
+	 * @return An immutable set containing the values
+	 */
+	static ImmutableStringSet copyOf(Collection<String> values) {
+		if (values.isEmpty()) {
+			return EMPTY;
+		}
+		Set<String> distinct = new LinkedHashSet<>(values);
+		return new ImmutableStringSet(distinct.toArray(new String[distinct.size()]));
+	}
+
+	static ImmutableStringSet empty() {
+		return EMPTY;
+	}
+
+	private static int spread(int hashCode) {
+		return hashCode ^ (hashCode >>> 16);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof String)) {
+			return false;
+		}
+		int index = spread(o.hashCode()) & mask;
+		String next;
+		while ((next = table[index]) != null) {
+			if (next.equals(o)) {
+				return true;
+			}
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return elements.length == 0;
+	}
+
+	@Override
+	public Object[] toArray() {
+		return Arrays.copyOf(elements, elements.length, Object[].class);
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int nextIndex;
+
+			@Override
+			public boolean hasNext() {
+				return nextIndex < elements.length;
+			}
+
+			@Override
+			public String next() {
+				if (nextIndex >= elements.length) {
+					throw new NoSuchElementException();
+				}
+				return elements[nextIndex++];
+			}
+		};
+	}
+}
@@ -0,0 +1,401 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.configuration2.FileBasedConfiguration;
+import org.apache.commons.configuration2.PropertiesConfiguration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.configuration2.io.DefaultFileSystem;
+import org.apache.commons.configuration2.io.FileLocationStrategy;
+import org.apache.commons.configuration2.io.FileLocator;
+import org.apache.commons.configuration2.io.FileLocatorUtils;
+import org.apache.commons.configuration2.io.FileSystem;
+
+/**
+ * Loads the override and default properties files at the same time, on a
+ * small fork-join pool.
+ * 
+ * Each file, and every file it includes, directly or indirectly, is read into
+ * memory in parallel while Commons Configuration parses it. The files are
+ * parsed exactly as they would be when loading sequentially, except that the
+ * contents are served from memory, so the results, including any errors, are
+ * the same. Any include that could not be found ahead of time, for example
+ * because its name uses interpolation, is read by Commons Configuration as
+ * usual.
+ * 
+ * Parallel loading is off unless {@link #PARALLEL_LOAD_PROPERTY} is set to
+ * true, or it is turned on with
+ * {@link ConfigLayers#withParallelLoading(boolean)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+final class ParallelConfigLoader {
+
+	/**
+	 * The system property that can be set to true to load files in parallel by
+	 * default.
+	 */
+	static final String PARALLEL_LOAD_PROPERTY = "ala.config.parallel.load";
+
+	private static final int POOL_PARALLELISM = Math.min(8,
+			Math.max(2, 2 * Runtime.getRuntime().availableProcessors()));
+
+	private static volatile ForkJoinPool pool;
+
+	private ParallelConfigLoader() {
+	}
+
+	/**
+	 * @return True if {@link #PARALLEL_LOAD_PROPERTY} is set to true.
+	 */
+	static boolean enabledByDefault() {
+		return Boolean.parseBoolean(System.getProperty(PARALLEL_LOAD_PROPERTY, "false"));
+	}
+
+	/**
+	 * Loads the given files.
+	 * 
+	 * @param overrides
+	 *            The override files, from the highest priority to the lowest
+	 * @param defaults
+	 *            The defaults file
+	 * @param parallel
+	 *            True to load the files in parallel, and false to load them one
+	 *            after another on the calling thread
+	 * @return The loaded configurations in the same order as the overrides,
+	 *         followed by the defaults.
+	 * @throws AlaConfigException
+	 *             If any of the files could not be loaded.
+	 */
+	static List<FileBasedConfiguration> load(List<Path> overrides, Path defaults, boolean parallel)
+			throws AlaConfigException {
+		List<FileBasedConfiguration> result = new ArrayList<>(overrides.size() + 1);
+		if (!parallel) {
+			for (Path nextOverrides : overrides) {
+				result.add(AlaConfig.loadOverrides(nextOverrides, null));
+			}
+			result.add(AlaConfig.loadDefaults(defaults, null));
+			return result;
+		}
+
+		// Defaults are found using the context class loader, which must be the
+		// same on the pool threads as on the calling thread
+		ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		PrefetchedFileSystem fileSystem = new PrefetchedFileSystem(contextClassLoader);
+		List<CompletableFuture<FileBasedConfiguration>> loads = new ArrayList<>(overrides.size() + 1);
+		for (Path nextOverrides : overrides) {
+			loads.add(CompletableFuture.supplyAsync(() -> withContextClassLoader(contextClassLoader, () -> {
+				fileSystem.prefetch(nextOverrides, AlaConfig.overridesLocationStrategy());
+				return AlaConfig.loadOverrides(nextOverrides, fileSystem);
+			}), pool()));
+		}
+		loads.add(CompletableFuture.supplyAsync(() -> withContextClassLoader(contextClassLoader, () -> {
+			fileSystem.prefetch(defaults, AlaConfig.defaultsLocationStrategy());
+			return AlaConfig.loadDefaults(defaults, fileSystem);
+		}), pool()));
+
+		for (CompletableFuture<FileBasedConfiguration> nextLoad : loads) {
+			try {
+				result.add(nextLoad.join());
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof AlaConfigException) {
+					throw (AlaConfigException) e.getCause();
+				}
+				throw new AlaConfigException(e.getCause());
+			}
+		}
+		return result;
+	}
+
+	private interface Load {
+		FileBasedConfiguration load() throws AlaConfigException;
+	}
+
+	private static FileBasedConfiguration withContextClassLoader(ClassLoader contextClassLoader, Load load) {
+		Thread currentThread = Thread.currentThread();
+		ClassLoader previous = currentThread.getContextClassLoader();
+		currentThread.setContextClassLoader(contextClassLoader);
+		try {
+			return load.load();
+		} finally {
+			currentThread.setContextClassLoader(previous);
+		}
+	}
+
+	private static ForkJoinPool pool() {
+		ForkJoinPool result = pool;
+		if (result == null) {
+			synchronized (ParallelConfigLoader.class) {
+				result = pool;
+				if (result == null) {
+					result = pool = new ForkJoinPool(POOL_PARALLELISM, p -> {
+						ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+						thread.setName("ala-config-loader-" + thread.getPoolIndex());
+						thread.setDaemon(true);
+						return thread;
+					}, null, false);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the given file and every file it includes, directly or indirectly,
+	 * in the same way as when reading ahead, without parsing the files.
+	 * 
+	 * @param source
+	 *            The location of the file, or null if it could not be located
+	 * @param locationStrategy
+	 *            The strategy that was used to locate the file
+	 * @return The file followed by its includes, in the order they are found,
+	 *         with null for any include that could not be located, or empty if
+	 *         the name of an include uses interpolation, so it is not known
+	 *         until the file is parsed.
+	 * @throws IOException
+	 *             If one of the files could not be read.
+	 */
+	static Optional<List<URL>> locateWithIncludes(URL source, FileLocationStrategy locationStrategy)
+			throws IOException {
+		List<URL> result = new ArrayList<>();
+		result.add(source);
+		if (source == null) {
+			return Optional.of(result);
+		}
+		Set<String> seen = new HashSet<>();
+		seen.add(source.toExternalForm());
+		Deque<URL> remaining = new ArrayDeque<>();
+		remaining.push(source);
+		while (!remaining.isEmpty()) {
+			URL next = remaining.pop();
+			byte[] content;
+			try (InputStream in = next.openStream()) {
+				content = readFully(in);
+			}
+			List<URL> nextIncludes = new ArrayList<>();
+			for (String nextInclude : includes(content)) {
+				if (nextInclude.contains("${")) {
+					return Optional.empty();
+				}
+				URL includeUrl = locateInclude(nextInclude, next, locationStrategy, null);
+				if (includeUrl == null) {
+					result.add(null);
+				} else if (seen.add(includeUrl.toExternalForm())) {
+					result.add(includeUrl);
+					nextIncludes.add(includeUrl);
+				}
+			}
+			for (int i = nextIncludes.size() - 1; i >= 0; i--) {
+				remaining.push(nextIncludes.get(i));
+			}
+		}
+		return Optional.of(result);
+	}
+
+	/**
+	 * Finds an include in the same way as Commons Configuration, first using the
+	 * location strategy alone, then relative to the including file.
+	 */
+	private static URL locateInclude(String fileName, URL including, FileLocationStrategy locationStrategy,
+			FileSystem fileSystem) {
+		URL result = FileLocatorUtils.locate(FileLocatorUtils.fileLocator().fileName(fileName)
+				.locationStrategy(locationStrategy).fileSystem(fileSystem).create());
+		if (result == null) {
+			result = FileLocatorUtils.locate(FileLocatorUtils.fileLocator().basePath(including.toString())
+					.fileName(fileName).locationStrategy(locationStrategy).fileSystem(fileSystem).create());
+		}
+		return result;
+	}
+
+	/**
+	 * @return The names of the files included by the given properties file,
+	 *         before interpolation.
+	 */
+	private static List<String> includes(byte[] content) {
+		List<String> result = new ArrayList<>();
+		String includeKey = PropertiesConfiguration.getInclude();
+		try (PropertiesConfiguration.PropertiesReader reader = new PropertiesConfiguration.PropertiesReader(
+				new StringReader(new String(content, StandardCharsets.UTF_8)))) {
+			while (reader.nextProperty()) {
+				String value = reader.getPropertyValue();
+				if (includeKey.equalsIgnoreCase(reader.getPropertyName()) && !value.isEmpty()) {
+					result.add(value);
+				}
+			}
+		} catch (IOException e) {
+			// Parsing errors are reported when the file is parsed by Commons
+			// Configuration
+		}
+		return result;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		int length = 0;
+		int read;
+		while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+			length += read;
+			if (length == buffer.length) {
+				byte[] bigger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, bigger, 0, length);
+				buffer = bigger;
+			}
+		}
+		byte[] result = new byte[length];
+		System.arraycopy(buffer, 0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * Serves files that have been read ahead into memory, reading any other
+	 * files as usual. A file that is still being read ahead is waited for rather
+	 * than read again, so parsing can start as soon as the first file has been
+	 * read, while its includes are still being read.
+	 */
+	private static final class PrefetchedFileSystem extends DefaultFileSystem {
+
+		/**
+		 * The contents of each file that has been, or is being, read ahead, with
+		 * null for files that could not be read.
+		 */
+		private final ConcurrentMap<String, CompletableFuture<byte[]>> contents = new ConcurrentHashMap<>();
+
+		private final ConcurrentMap<String, Optional<URL>> located = new ConcurrentHashMap<>();
+
+		private final ClassLoader contextClassLoader;
+
+		PrefetchedFileSystem(ClassLoader contextClassLoader) {
+			this.contextClassLoader = contextClassLoader;
+		}
+
+		@Override
+		public InputStream getInputStream(URL url) throws ConfigurationException {
+			CompletableFuture<byte[]> prefetched = contents.get(url.toExternalForm());
+			if (prefetched != null) {
+				byte[] content = prefetched.join();
+				if (content != null) {
+					return new ByteArrayInputStream(content);
+				}
+			}
+			return super.getInputStream(url);
+		}
+
+		/**
+		 * Remembers each location, so that the includes found while reading ahead
+		 * are not searched for again while parsing.
+		 */
+		@Override
+		public URL locateFromURL(String basePath, String fileName) {
+			String key = basePath + "\u0000" + fileName;
+			Optional<URL> result = located.get(key);
+			if (result == null) {
+				result = Optional.ofNullable(super.locateFromURL(basePath, fileName));
+				located.putIfAbsent(key, result);
+			}
+			return result.orElse(null);
+		}
+
+		/**
+		 * Starts reading the given file and everything it includes in the
+		 * background. Files that cannot be found or read are skipped, so that
+		 * Commons Configuration reports the problem when parsing.
+		 */
+		void prefetch(Path path, FileLocationStrategy locationStrategy) {
+			FileLocator locator = FileLocatorUtils.fileLocator().fileName(path.toString())
+					.locationStrategy(locationStrategy).fileSystem(this).create();
+			URL result = FileLocatorUtils.locate(locator);
+			if (result != null) {
+				PrefetchTask task = newTask(result, locationStrategy);
+				if (task != null) {
+					task.fork();
+				}
+			}
+		}
+
+		/**
+		 * @return A task to read the given file, or null if it is already being
+		 *         read.
+		 */
+		private PrefetchTask newTask(URL url, FileLocationStrategy locationStrategy) {
+			CompletableFuture<byte[]> content = new CompletableFuture<>();
+			if (contents.putIfAbsent(url.toExternalForm(), content) != null) {
+				return null;
+			}
+			return new PrefetchTask(url, locationStrategy, content);
+		}
+
+		private final class PrefetchTask extends RecursiveAction {
+
+			private static final long serialVersionUID = 1L;
+
+			private final URL url;
+
+			private final FileLocationStrategy locationStrategy;
+
+			private final CompletableFuture<byte[]> content;
+
+			PrefetchTask(URL url, FileLocationStrategy locationStrategy, CompletableFuture<byte[]> content) {
+				this.url = url;
+				this.locationStrategy = locationStrategy;
+				this.content = content;
+			}
+
+			@Override
+			protected void compute() {
+				byte[] result;
+				try (InputStream in = url.openStream()) {
+					result = readFully(in);
+				} catch (IOException e) {
+					content.complete(null);
+					return;
+				}
+				content.complete(result);
+				Thread currentThread = Thread.currentThread();
+				ClassLoader previous = currentThread.getContextClassLoader();
+				currentThread.setContextClassLoader(contextClassLoader);
+				List<PrefetchTask> includes = new ArrayList<>();
+				try {
+					for (String nextInclude : includes(result)) {
+						if (nextInclude.contains("${")) {
+							continue;
+						}
+						URL includeUrl = locateInclude(nextInclude, url, locationStrategy, PrefetchedFileSystem.this);
+						if (includeUrl != null) {
+							PrefetchTask task = newTask(includeUrl, locationStrategy);
+							if (task != null) {
+								includes.add(task);
+							}
+						}
+					}
+				} finally {
+					currentThread.setContextClassLoader(previous);
+				}
+				ForkJoinTask.invokeAll(includes);
+			}
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.apache.commons.configuration2.FileBasedConfiguration;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+
+/**
+ * A registry of configurations for the tenants served by one JVM, such as data
+ * resources, that share one parsed configuration and differ in a few keys.
+ * 
+ * The shared configuration is flattened into a {@link ConfigSnapshot} once.
+ * Each tenant gets an overlay on it that only holds the keys whose values
+ * differ from the shared values, so memory grows with the number of differing
+ * keys rather than the number of tenants. Keys and values in the overlays are
+ * interned against the shared configuration and each other, so a value used by
+ * many tenants is only stored once, and values are dropped from the intern pool
+ * once no tenant uses them. Tenants without differing keys use the
+ * shared snapshot directly, and lookups for other tenants check their overlay
+ * and then the shared snapshot, reusing the typed values and sets that the
+ * shared snapshot has already converted.
+ * 
+ * Every configuration is checked using
+ * {@link AlaConfig#validate(ConfigSnapshot)} before a tenant is registered with
+ * it. Overlays are copy-on-write. Changing the keys for a tenant publishes a
+ * new snapshot to the existing tenant instance, so its subscriptions are
+ * notified in the same way as for a reload. Lookups do not lock. Changes are
+ * serialised, so concurrent updates to the same tenant are never lost.
+ * 
+ * A tenant can replace or add keys, but cannot remove a key from the shared
+ * configuration.
+ * 
+ * @param <T>
+ *            The type of configuration for each tenant
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class TenantConfigRegistry<T extends AlaConfig> {
+
+	/**
+	 * The layer name for the keys that a tenant overrides, see
+	 * {@link ConfigSnapshot#layerOf(String)}.
+	 */
+	public static final String TENANT_LAYER = "tenant";
+
+	private final ConfigSnapshot shared;
+
+	private final Function<? super ImmutableConfiguration, ? extends T> factory;
+
+	private final ConcurrentMap<String, T> tenants = new ConcurrentHashMap<>();
+
+	/**
+	 * Canonical instances of the keys and values used by the shared
+	 * configuration and the overlays, with the number of uses of each. Guarded
+	 * by {@link #writeLock}.
+	 */
+	private final Map<String, Interned> strings = new HashMap<>();
+
+	/**
+	 * The keys that each tenant overrides, for releasing their strings when
+	 * they are replaced. Guarded by {@link #writeLock}.
+	 */
+	private final Map<String, Map<String, String>> tenantOverrides = new HashMap<>();
+
+	private final Object writeLock = new Object();
+
+	/**
+	 * @param shared
+	 *            The configuration to share between the tenants, such as the
+	 *            result of {@link AlaConfig#getConfig()}. It is flattened once
+	 *            if it is not already a {@link ConfigSnapshot}.
+	 * @param factory
+	 *            Creates the configuration for a tenant from its snapshot, such
+	 *            as <code>BiocacheConfig::new</code>
+	 * @throws AlaConfigException
+	 *             If the shared configuration could not be flattened.
+	 */
+	public TenantConfigRegistry(ImmutableConfiguration shared,
+			Function<? super ImmutableConfiguration, ? extends T> factory) throws AlaConfigException {
+		this.shared = ConfigSnapshot.of(shared);
+		this.factory = factory;
+		// The shared strings are retained once and never released
+		for (String nextKey : this.shared.sortedKeys()) {
+			retain(nextKey);
+			retain(this.shared.getString(nextKey));
+		}
+	}
+
+	/**
+	 * Creates a registry that shares the defaults from
+	 * {@link AlaConfig#DEFAULTS_PROPERTIES} on the classpath, which are only
+	 * parsed once for all of the tenants.
+	 * 
+	 * @param factory
+	 *            Creates the configuration for a tenant from its snapshot, such
+	 *            as <code>BiocacheConfig::new</code>
+	 * @return A registry without any tenants.
+	 * @throws AlaConfigException
+	 *             If the defaults could not be loaded.
+	 */
+	public static <T extends AlaConfig> TenantConfigRegistry<T> withClasspathDefaults(
+			Function<? super ImmutableConfiguration, ? extends T> factory) throws AlaConfigException {
+		FileBasedConfiguration defaults = AlaConfig.loadDefaults(Paths.get(AlaConfig.DEFAULTS_PROPERTIES), null);
+		return new TenantConfigRegistry<>(ConfigSnapshot.of(defaults,
+				Collections.singletonList(AlaConfig.DEFAULTS_LAYER), Collections.singletonList(defaults)), factory);
+	}
+
+	/**
+	 * @param tenantId
+	 *            The id of the tenant
+	 * @return The configuration for the tenant, which is created using only the
+	 *         shared configuration if the tenant is not already registered.
+	 * @throws AlaConfigException
+	 *             If the tenant was not registered, and rejected the shared
+	 *             configuration in {@link AlaConfig#validate(ConfigSnapshot)}.
+	 */
+	public T tenant(String tenantId) throws AlaConfigException {
+		T result = tenants.get(tenantId);
+		if (result != null) {
+			return result;
+		}
+		synchronized (writeLock) {
+			result = tenants.get(tenantId);
+			if (result == null) {
+				result = create(shared);
+				tenants.put(tenantId, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Registers a tenant with the given keys in place of the shared values, or
+	 * replaces all of the keys for an existing tenant.
+	 * 
+	 * @param tenantId
+	 *            The id of the tenant
+	 * @param overrides
+	 *            The values to use in place of the shared values. Keys with
+	 *            null values, or values equal to the shared values, are not
+	 *            stored.
+	 * @return The configuration for the tenant, which is the existing instance if
+	 *         the tenant was already registered.
+	 * @throws AlaConfigException
+	 *             If the tenant rejected the configuration in
+	 *             {@link AlaConfig#validate(ConfigSnapshot)}, in which case a new
+	 *             tenant is not registered and an existing tenant keeps its
+	 *             previous configuration.
+	 */
+	public T tenant(String tenantId, Map<String, String> overrides) throws AlaConfigException {
+		synchronized (writeLock) {
+			Map<String, String> differing = differing(Collections.emptyMap(), overrides);
+			ConfigSnapshot next = overlay(differing);
+			T existing = tenants.get(tenantId);
+			if (existing == null) {
+				T result = create(next);
+				tenants.put(tenantId, result);
+				replaceOverrides(tenantId, differing);
+				return result;
+			}
+			if (existing.snapshot() != next) {
+				existing.publish(next);
+			}
+			replaceOverrides(tenantId, differing);
+			return existing;
+		}
+	}
+
+	/**
+	 * Changes some of the keys for a tenant, keeping its other overridden keys,
+	 * and registering the tenant if it is not already registered.
+	 * 
+	 * @param tenantId
+	 *            The id of the tenant
+	 * @param changes
+	 *            The values to use in place of the current values. A null value
+	 *            returns the key to the shared value.
+	 * @return The configuration for the tenant.
+	 * @throws AlaConfigException
+	 *             If the tenant rejected the new configuration in
+	 *             {@link AlaConfig#validate(ConfigSnapshot)}, in which case it
+	 *             keeps its previous configuration, or if the tenant is not
+	 *             using the shared configuration from this registry.
+	 */
+	public T update(String tenantId, Map<String, String> changes) throws AlaConfigException {
+		synchronized (writeLock) {
+			T existing = tenants.get(tenantId);
+			if (existing == null) {
+				return tenant(tenantId, changes);
+			}
+			ConfigSnapshot current = existing.snapshot();
+			if (current.base() != shared) {
+				throw new AlaConfigException(
+						"Tenant " + tenantId + " is not using the shared configuration from this registry");
+			}
+			Map<String, String> differing = differing(current.overrides(), changes);
+			ConfigSnapshot next = overlay(differing);
+			if (current != next) {
+				existing.publish(next);
+			}
+			replaceOverrides(tenantId, differing);
+			return existing;
+		}
+	}
+
+	/**
+	 * Creates the configuration for a new tenant, which is only returned if it
+	 * accepts the given snapshot.
+	 */
+	private T create(ConfigSnapshot snapshot) throws AlaConfigException {
+		T result = factory.apply(snapshot);
+		result.validate(snapshot);
+		return result;
+	}
+
+	/**
+	 * Applies changes to the current overrides for a tenant, only keeping the
+	 * values that differ from the shared configuration.
+	 */
+	private Map<String, String> differing(Map<String, String> current, Map<String, String> changes) {
+		Map<String, String> differing = new HashMap<>(current);
+		for (Map.Entry<String, String> nextChange : changes.entrySet()) {
+			String nextKey = nextChange.getKey();
+			String nextValue = nextChange.getValue();
+			if (nextValue == null || nextValue.equals(shared.getString(nextKey))) {
+				differing.remove(nextKey);
+			} else {
+				differing.put(intern(nextKey), intern(nextValue));
+			}
+		}
+		// Copy into a map sized for the overrides, as tenants are long lived and
+		// usually only override a few keys
+		return differing.isEmpty() ? Collections.emptyMap() : new HashMap<>(differing);
+	}
+
+	private ConfigSnapshot overlay(Map<String, String> differing) {
+		return differing.isEmpty() ? shared : ConfigSnapshot.overlay(shared, differing, TENANT_LAYER);
+	}
+
+	/**
+	 * Records the overrides now used by a tenant, releasing the strings that
+	 * were only used by its previous overrides.
+	 */
+	private void replaceOverrides(String tenantId, Map<String, String> next) {
+		Map<String, String> previous = next.isEmpty() ? tenantOverrides.remove(tenantId)
+				: tenantOverrides.put(tenantId, next);
+		for (Map.Entry<String, String> nextEntry : next.entrySet()) {
+			retain(nextEntry.getKey());
+			retain(nextEntry.getValue());
+		}
+		release(previous);
+	}
+
+	private void release(Map<String, String> overrides) {
+		if (overrides == null) {
+			return;
+		}
+		for (Map.Entry<String, String> nextEntry : overrides.entrySet()) {
+			release(nextEntry.getKey());
+			release(nextEntry.getValue());
+		}
+	}
+
+	private String intern(String value) {
+		Interned result = strings.get(value);
+		return result != null ? result.value : value;
+	}
+
+	private void retain(String value) {
+		strings.computeIfAbsent(value, Interned::new).uses++;
+	}
+
+	private void release(String value) {
+		Interned interned = strings.get(value);
+		if (interned != null && --interned.uses == 0) {
+			strings.remove(value);
+		}
+	}
+
+	/**
+	 * The canonical instance of a key or value, and the number of times it is
+	 * used by the shared configuration and the overlays.
+	 */
+	private static final class Interned {
+
+		final String value;
+
+		int uses;
+
+		Interned(String value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * @param tenantId
+	 *            The id of the tenant
+	 * @return The configuration for the tenant, or empty if it is not registered.
+	 */
+	public Optional<T> find(String tenantId) {
+		return Optional.ofNullable(tenants.get(tenantId));
+	}
+
+	/**
+	 * @param tenantId
+	 *            The id of the tenant
+	 * @return The configuration that was registered for the tenant, or empty if
+	 *         it was not registered.
+	 */
+	public Optional<T> remove(String tenantId) {
+		synchronized (writeLock) {
+			release(tenantOverrides.remove(tenantId));
+			return Optional.ofNullable(tenants.remove(tenantId));
+		}
+	}
+
+	/**
+	 * @return The number of distinct keys and values interned for the shared
+	 *         configuration and the overlays.
+	 */
+	int internedStrings() {
+		synchronized (writeLock) {
+			return strings.size();
+		}
+	}
+
+	/**
+	 * @return The ids of the registered tenants.
+	 */
+	public Set<String> tenantIds() {
+		return Collections.unmodifiableSet(tenants.keySet());
+	}
+
+	/**
+	 * @return The configuration shared by all of the tenants.
+	 */
+	public ConfigSnapshot shared() {
+		return shared;
+	}
+
+	@Override
+	public String toString() {
+		return "TenantConfigRegistry[" + tenants.size() + " tenants, " + shared.size() + " shared keys]";
+	}
+}
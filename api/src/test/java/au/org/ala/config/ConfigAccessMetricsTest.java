@@ -0,0 +1,138 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import au.org.ala.config.ConfigAccessMetrics.KeyStats;
+
+/**
+ * Tests for {@link ConfigAccessMetrics}, using an {@link AlaConfig} with a
+ * defaults layer and an overrides layer.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigAccessMetricsTest {
+
+	private AlaConfig config;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		Map<String, String> defaults = new HashMap<>();
+		defaults.put("solr.batch.size", "500");
+		defaults.put("solr.home", "/data/solr");
+		defaults.put("index.enabled", "true");
+		defaults.put("never.read", "unused");
+		Map<String, String> overrides = new HashMap<>();
+		overrides.put("solr.home", "/opt/solr");
+		overrides.put("solr.threads", "many");
+		ConfigSnapshot snapshot = ConfigSnapshot.overlay(ConfigSnapshot.overlay(
+				ConfigSnapshot.of(Collections.<String, String>emptyMap()), defaults, AlaConfig.DEFAULTS_LAYER),
+				overrides, "overrides");
+		config = new AlaConfig(snapshot) {
+		};
+	}
+
+	private void readEveryKind() {
+		config.get("solr.home");
+		config.getOrDefault("solr.home", "unused");
+		config.getInt("solr.batch.size");
+		config.getBooleanOrDefault("index.enabled", false);
+		config.getOrDefault("solr.missing", "fallback");
+		config.find("solr.missing");
+		assertFalse(config.findInt("solr.threads").isPresent());
+		assertThrows(AlaConfigException.class, () -> config.getIntOrDefault("solr.threads", 4));
+	}
+
+	@Test
+	public void testCountsPerKey() {
+		ConfigAccessMetrics metrics = config.enableAccessMetrics();
+		assertSame(metrics, config.enableAccessMetrics());
+		readEveryKind();
+
+		Map<String, KeyStats> stats = metrics.snapshot();
+		assertEquals(Arrays.asList("index.enabled", "solr.batch.size", "solr.home", "solr.missing", "solr.threads"),
+				new ArrayList<>(stats.keySet()));
+
+		KeyStats home = stats.get("solr.home");
+		assertEquals(2, home.getReads());
+		assertEquals(2, home.getOverrideHits());
+		assertEquals(0, home.getDefaultHits());
+		assertEquals(0, home.getMissing());
+
+		KeyStats batchSize = stats.get("solr.batch.size");
+		assertEquals(1, batchSize.getReads());
+		assertEquals(1, batchSize.getDefaultHits());
+		assertEquals(0, batchSize.getOverrideHits());
+		assertEquals(1, stats.get("index.enabled").getDefaultHits());
+
+		KeyStats missing = stats.get("solr.missing");
+		assertEquals(2, missing.getReads());
+		assertEquals(2, missing.getMissing());
+		assertEquals(0, missing.getOverrideHits() + missing.getDefaultHits());
+		assertEquals(0, missing.getConversionFailures());
+
+		KeyStats threads = stats.get("solr.threads");
+		assertEquals(2, threads.getReads());
+		assertEquals(2, threads.getOverrideHits());
+		assertEquals(2, threads.getConversionFailures());
+
+		assertEquals(8, metrics.getTotalReads());
+		assertEquals(Collections.singletonMap("solr.threads", 2L), metrics.getConversionFailureCounts());
+		assertEquals(Collections.singletonList("solr.missing"), metrics.getMissingKeys());
+		assertEquals("solr.home", metrics.hottest(1).get(0).getKey());
+	}
+
+	@Test
+	public void testUnusedKeysExcludeKeysThatWereRead() {
+		ConfigAccessMetrics metrics = config.enableAccessMetrics();
+		assertEquals(Arrays.asList("index.enabled", "never.read", "solr.batch.size", "solr.home", "solr.threads"),
+				metrics.unused());
+		readEveryKind();
+		// Keys that were read are excluded even if their value could not be
+		// converted, and keys that were looked up but are missing are never
+		// reported as unused
+		assertEquals(Collections.singletonList("never.read"), metrics.unused());
+		assertEquals(metrics.unused(), metrics.getUnusedKeys());
+		String report = metrics.report(10);
+		assertTrue(report.endsWith("Unused configuration keys:\n  never.read\n"), report);
+
+		metrics.reset();
+		assertEquals(5, metrics.unused().size());
+		assertEquals(0, metrics.getTotalReads());
+	}
+
+	@Test
+	public void testDisabledMetricsCountNothing() {
+		assertFalse(config.accessMetrics().isPresent());
+		readEveryKind();
+		ConfigAccessMetrics metrics = config.enableAccessMetrics();
+		assertTrue(metrics.snapshot().isEmpty(), metrics.snapshot().toString());
+		assertEquals(0, metrics.getTotalReads());
+
+		config.get("solr.home");
+		config.disableAccessMetrics();
+		assertFalse(config.accessMetrics().isPresent());
+		readEveryKind();
+		assertEquals(1, metrics.getTotalReads());
+		assertEquals(Collections.singletonMap("solr.home", 1L), metrics.getReadCounts());
+		assertTrue(metrics.getConversionFailureCounts().isEmpty());
+
+		// Enabling again starts from zero
+		assertEquals(0, config.enableAccessMetrics().getTotalReads());
+	}
+}
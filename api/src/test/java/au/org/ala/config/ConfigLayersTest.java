@@ -0,0 +1,168 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the precedence of the layers in {@link ConfigLayers}, and the
+ * names of the system properties and environment variables that override keys.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigLayersTest {
+
+	private static final Path DEFAULTS = Paths.get("/au/org/ala/config/layers-test-defaults.properties");
+
+	private Path overrides;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		overrides = Files.createTempFile("ala-config-layers-test", ".properties");
+		Files.write(overrides,
+				Arrays.asList("layerstest.b=overrides", "layerstest.c=overrides", "layerstest.d=overrides"),
+				StandardCharsets.UTF_8);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(overrides);
+		for (String nextName : new HashSet<>(System.getProperties().stringPropertyNames())) {
+			if (nextName.startsWith("layerstest.") || nextName.startsWith(ConfigLayers.SYSTEM_PROPERTY_PREFIX)) {
+				System.clearProperty(nextName);
+			}
+		}
+	}
+
+	@Test
+	public void testLayerPrecedence() {
+		System.setProperty(ConfigLayers.SYSTEM_PROPERTY_PREFIX + "layerstest.d", "system");
+		Map<String, String> remote = new HashMap<>();
+		remote.put("layerstest.c", "remote");
+		remote.put("layerstest.d", "remote");
+		ConfigSnapshot snapshot = new ConfigLayers(DEFAULTS).withSystemProperties().withLayer(source(remote))
+				.withOverrides(overrides).withParallelLoading(false).load();
+
+		assertEquals("defaults", snapshot.getString("layerstest.a"));
+		assertEquals("overrides", snapshot.getString("layerstest.b"));
+		assertEquals("remote", snapshot.getString("layerstest.c"));
+		assertEquals("system", snapshot.getString("layerstest.d"));
+		assertEquals(AlaConfig.DEFAULTS_LAYER, snapshot.layerOf("layerstest.a"));
+		assertEquals(ConfigLayers.overridesLayerName(overrides), snapshot.layerOf("layerstest.b"));
+		assertEquals("test", snapshot.layerOf("layerstest.c"));
+		assertEquals(ConfigLayers.SYSTEM_PROPERTIES_LAYER, snapshot.layerOf("layerstest.d"));
+	}
+
+	@Test
+	public void testPrefixedSystemPropertyAddsKeyMissingFromFiles() {
+		System.setProperty(ConfigLayers.SYSTEM_PROPERTY_PREFIX + "layerstest.batch.size", "500");
+		ConfigSnapshot snapshot = new ConfigLayers(DEFAULTS).withSystemProperties().withParallelLoading(false)
+				.load();
+
+		assertEquals("500", snapshot.getString("layerstest.batch.size"));
+		assertEquals(ConfigLayers.SYSTEM_PROPERTIES_LAYER, snapshot.layerOf("layerstest.batch.size"));
+	}
+
+	@Test
+	public void testSameNameSystemPropertyOnlyOverridesKnownOrDeclaredKeys() {
+		System.setProperty("layerstest.a", "system");
+		System.setProperty("layerstest.declared", "system");
+		System.setProperty("layerstest.undeclared", "system");
+		ConfigSnapshot snapshot = new ConfigLayers(DEFAULTS).withSystemProperties()
+				.withKeys(Collections.singleton("layerstest.declared")).withParallelLoading(false).load();
+
+		assertEquals("system", snapshot.getString("layerstest.a"));
+		assertEquals("system", snapshot.getString("layerstest.declared"));
+		assertFalse(snapshot.containsKey("layerstest.undeclared"));
+	}
+
+	@Test
+	public void testSystemPropertiesIgnoredUnlessEnabled() {
+		System.setProperty(ConfigLayers.SYSTEM_PROPERTY_PREFIX + "layerstest.a", "system");
+		ConfigSnapshot snapshot = new ConfigLayers(DEFAULTS).withParallelLoading(false).load();
+
+		assertEquals("defaults", snapshot.getString("layerstest.a"));
+	}
+
+	@Test
+	public void testPrefixedSystemPropertyWinsOverSameName() {
+		Properties properties = new Properties();
+		properties.setProperty("solr.home", "/same/name");
+		properties.setProperty(ConfigLayers.SYSTEM_PROPERTY_PREFIX + "solr.home", "/prefixed");
+		properties.setProperty("java.version", "1.8");
+
+		Map<String, String> result = ConfigLayers.systemPropertyOverrides(Collections.singleton("solr.home"),
+				properties);
+
+		assertEquals(Collections.singletonMap("solr.home", "/prefixed"), result);
+	}
+
+	@Test
+	public void testEnvironmentName() {
+		assertEquals("ALA_CONFIG_SOLR_HOME", ConfigLayers.environmentName("solr.home"));
+		assertEquals("ALA_CONFIG_SOLR_BATCH_SIZE", ConfigLayers.environmentName("solr.batch.size"));
+		assertEquals("ALA_CONFIG_LOAD_DIR2_X", ConfigLayers.environmentName("load-dir2/x"));
+		assertEquals("ALA_CONFIG_CAMELCASE", ConfigLayers.environmentName("camelCase"));
+	}
+
+	@Test
+	public void testEnvironmentOverridesKnownKeys() {
+		Map<String, String> environment = new HashMap<>();
+		environment.put("ALA_CONFIG_SOLR_BATCH_SIZE", "500");
+		environment.put("ALA_CONFIG_UNKNOWN_KEY", "ignored");
+		environment.put("SOLR_HOME", "ignored");
+		Set<String> knownKeys = new HashSet<>(Arrays.asList("solr.batch.size", "solr.home"));
+
+		Map<String, String> result = ConfigLayers.environmentOverrides(knownKeys, environment);
+
+		assertEquals(Collections.singletonMap("solr.batch.size", "500"), result);
+	}
+
+	@Test
+	public void testEnvironmentWithoutPrefixedVariables() {
+		Map<String, String> environment = Collections.singletonMap("SOLR_HOME", "/opt/solr");
+
+		assertTrue(ConfigLayers.environmentOverrides(Collections.singleton("solr.home"), environment).isEmpty());
+	}
+
+	private static ConfigLayerSource source(Map<String, String> values) {
+		return new ConfigLayerSource() {
+			@Override
+			public String name() {
+				return "test";
+			}
+
+			@Override
+			public Map<String, String> values() {
+				return values;
+			}
+
+			@Override
+			public void addChangeListener(Runnable listener) {
+			}
+
+			@Override
+			public void removeChangeListener(Runnable listener) {
+			}
+		};
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.ProvisionException;
+import com.google.inject.name.Names;
+
+/**
+ * Tests for the typed bindings created by {@link ConfigModule}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigModuleTest {
+
+	private Map<String, String> values;
+
+	private AlaConfig config;
+
+	private Injector injector;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		values = new HashMap<>();
+		values.put("solr.batch.size", "500");
+		values.put("solr.negative", "-7");
+		values.put("solr.int.max", Integer.toString(Integer.MAX_VALUE));
+		values.put("solr.int.min", Integer.toString(Integer.MIN_VALUE));
+		values.put("solr.past.int.max", Long.toString(Integer.MAX_VALUE + 1L));
+		values.put("solr.past.int.min", Long.toString(Integer.MIN_VALUE - 1L));
+		values.put("solr.past.long.max", "9223372036854775808");
+		values.put("index.enabled", "True");
+		values.put("index.disabled", "oFF");
+		values.put("solr.home", "/data/solr");
+		config = new AlaConfig(ConfigSnapshot.of(values)) {
+		};
+		injector = Guice.createInjector(new ConfigModule(config));
+	}
+
+	private <T> T get(Class<T> type, String key) {
+		return injector.getInstance(Key.get(type, Names.named(key)));
+	}
+
+	private boolean isBound(Class<?> type, String key) {
+		return injector.getExistingBinding(Key.get(type, Names.named(key))) != null;
+	}
+
+	@Test
+	public void testIntegerType() {
+		assertSame(Integer.class, ConfigModule.integerType("0"));
+		assertSame(Integer.class, ConfigModule.integerType("+12"));
+		assertSame(Integer.class, ConfigModule.integerType("2147483647"));
+		assertSame(Integer.class, ConfigModule.integerType("-2147483648"));
+		assertSame(Long.class, ConfigModule.integerType("2147483648"));
+		assertSame(Long.class, ConfigModule.integerType("-2147483649"));
+		assertSame(Long.class, ConfigModule.integerType("9223372036854775807"));
+		assertNull(ConfigModule.integerType("9223372036854775808"));
+		assertNull(ConfigModule.integerType("-9223372036854775809"));
+		assertNull(ConfigModule.integerType("12345678901234567890123"));
+		assertNull(ConfigModule.integerType(""));
+		assertNull(ConfigModule.integerType("-"));
+		assertNull(ConfigModule.integerType("1.5"));
+		assertNull(ConfigModule.integerType("0x10"));
+	}
+
+	@Test
+	public void testTypedBindings() {
+		assertEquals("500", get(String.class, "solr.batch.size"));
+		assertEquals(Integer.valueOf(500), get(Integer.class, "solr.batch.size"));
+		assertEquals(Long.valueOf(500), get(Long.class, "solr.batch.size"));
+		assertEquals(Integer.valueOf(-7), get(Integer.class, "solr.negative"));
+		assertEquals(Integer.valueOf(Integer.MAX_VALUE), get(Integer.class, "solr.int.max"));
+		assertEquals(Integer.valueOf(Integer.MIN_VALUE), get(Integer.class, "solr.int.min"));
+
+		// Values that do not fit in an int are only bound as Long
+		assertEquals(Long.valueOf(Integer.MAX_VALUE + 1L), get(Long.class, "solr.past.int.max"));
+		assertEquals(Long.valueOf(Integer.MIN_VALUE - 1L), get(Long.class, "solr.past.int.min"));
+		assertFalse(isBound(Integer.class, "solr.past.int.max"));
+		assertFalse(isBound(Integer.class, "solr.past.int.min"));
+
+		// Values that do not fit in a long are only bound as String
+		assertEquals("9223372036854775808", get(String.class, "solr.past.long.max"));
+		assertFalse(isBound(Integer.class, "solr.past.long.max"));
+		assertFalse(isBound(Long.class, "solr.past.long.max"));
+
+		// Booleans are matched ignoring case
+		assertEquals(Boolean.TRUE, get(Boolean.class, "index.enabled"));
+		assertEquals(Boolean.FALSE, get(Boolean.class, "index.disabled"));
+		assertFalse(isBound(Integer.class, "index.enabled"));
+
+		assertEquals("/data/solr", get(String.class, "solr.home"));
+		assertFalse(isBound(Integer.class, "solr.home"));
+		assertFalse(isBound(Boolean.class, "solr.home"));
+		assertSame(config, injector.getInstance(AlaConfig.class));
+	}
+
+	@Test
+	public void testValuesAreConvertedOncePerSnapshot() {
+		Long first = get(Long.class, "solr.past.int.max");
+		assertSame(first, get(Long.class, "solr.past.int.max"));
+
+		values.put("solr.past.int.max", "3000000000");
+		values.put("index.enabled", "FALSE");
+		config.publish(ConfigSnapshot.of(values));
+		Long reloaded = get(Long.class, "solr.past.int.max");
+		assertEquals(Long.valueOf(3000000000L), reloaded);
+		assertSame(reloaded, get(Long.class, "solr.past.int.max"));
+		assertEquals(Boolean.FALSE, get(Boolean.class, "index.enabled"));
+	}
+
+	@Test
+	public void testConversionIsDeferredUntilRequested() {
+		// A value that can no longer be converted does not affect publishing,
+		// or the other bindings for the key, until the typed value is requested
+		values.put("solr.batch.size", "many");
+		values.remove("solr.home");
+		config.publish(ConfigSnapshot.of(values));
+		assertEquals("many", get(String.class, "solr.batch.size"));
+		assertNotNull(get(Integer.class, "solr.negative"));
+		assertThrows(ProvisionException.class, () -> get(Integer.class, "solr.batch.size"));
+		assertThrows(ProvisionException.class, () -> get(String.class, "solr.home"));
+
+		values.put("solr.batch.size", "1000");
+		config.publish(ConfigSnapshot.of(values));
+		assertEquals(Integer.valueOf(1000), get(Integer.class, "solr.batch.size"));
+	}
+}
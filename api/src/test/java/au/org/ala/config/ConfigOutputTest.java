@@ -0,0 +1,305 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ConfigOutput}, which parse each format back and compare it
+ * with the original values.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigOutputTest {
+
+	/**
+	 * Keys and values that need escaping in at least one format.
+	 */
+	private static Map<String, String> awkwardValues() {
+		Map<String, String> result = new HashMap<>();
+		result.put(" leading.space", " leading space");
+		result.put("trailing.space ", "trailing space ");
+		result.put("equals=key", "a=b");
+		result.put("colon:key", "a:b");
+		result.put("#hash.key", "#not a comment");
+		result.put("!bang.key", "!not a comment");
+		result.put("new\nline", "first\nsecond\r\nthird");
+		result.put("tab\tkey", "\ttab\f");
+		result.put("back\\slash", "C:\\data\\");
+		result.put("quote\"key", "say \"hi\"");
+		result.put("control", "\u0000\u0001\u001f\u007f");
+		result.put("yaml.breaks", "a\u0085b\u2028c\u2029d");
+		result.put("surrogates", "\ud83d\udc1d lone \ud800 and \udc00 reversed \udc00\ud800");
+		result.put("unicode", "\u00c7\u00e0 et l\u00e0");
+		result.put("empty", "");
+		return result;
+	}
+
+	private static String write(Map<String, String> values, ConfigOutput options) throws Exception {
+		StringWriter result = new StringWriter();
+		options.write(ConfigSnapshot.of(values), result);
+		return result.toString();
+	}
+
+	private static Map<String, String> loadProperties(String text) throws Exception {
+		Properties properties = new Properties();
+		properties.load(new StringReader(text));
+		Map<String, String> result = new HashMap<>();
+		for (String nextKey : properties.stringPropertyNames()) {
+			result.put(nextKey, properties.getProperty(nextKey));
+		}
+		return result;
+	}
+
+	@Test
+	public void testPropertiesRoundTrip() throws Exception {
+		Map<String, String> values = awkwardValues();
+		assertEquals(values, loadProperties(write(values, new ConfigOutput())));
+	}
+
+	@Test
+	public void testPropertiesWithProvenanceRoundTrip() throws Exception {
+		Map<String, String> values = awkwardValues();
+		assertEquals(values, loadProperties(write(values, new ConfigOutput().withProvenance())));
+	}
+
+	@Test
+	public void testJsonRoundTrip() throws Exception {
+		Map<String, String> values = awkwardValues();
+		String json = write(values, new ConfigOutput().withFormat(ConfigOutput.Format.JSON));
+		assertEquals(values, new QuotedParser(json).parseJsonObject());
+	}
+
+	@Test
+	public void testEmptyJsonObject() throws Exception {
+		String json = write(Collections.<String, String>emptyMap(),
+				new ConfigOutput().withFormat(ConfigOutput.Format.JSON));
+		assertEquals(Collections.emptyMap(), new QuotedParser(json).parseJsonObject());
+	}
+
+	@Test
+	public void testYamlRoundTrip() throws Exception {
+		Map<String, String> values = awkwardValues();
+		String yaml = write(values, new ConfigOutput().withFormat(ConfigOutput.Format.YAML));
+		// YAML 1.1 parsers break lines at NEL, LS and PS as well as CR and LF, so
+		// none of them may appear unescaped inside a scalar
+		for (char nextBreak : new char[] { '\u0085', '\u2028', '\u2029', '\r' }) {
+			assertEquals(-1, yaml.indexOf(nextBreak), "Unescaped line break " + (int) nextBreak);
+		}
+		assertEquals(values, new QuotedParser(yaml).parseYamlMapping());
+	}
+
+	@Test
+	public void testPrefix() throws Exception {
+		Map<String, String> values = new HashMap<>();
+		values.put("a.first", "1");
+		values.put("solr", "2");
+		values.put("solr.batch.size", "3");
+		values.put("solr.home", "4");
+		values.put("solrx", "5");
+		values.put("z.last", "6");
+
+		// The prefix is also a key, which the binary search finds exactly
+		assertEquals(keys("solr", "solr.batch.size", "solr.home", "solrx"),
+				loadProperties(write(values, new ConfigOutput().withPrefix("solr"))).keySet());
+		// The prefix is between two keys, so the insertion point is used and the
+		// first key without the prefix stops the output
+		assertEquals(keys("solr.batch.size", "solr.home"),
+				loadProperties(write(values, new ConfigOutput().withPrefix("solr."))).keySet());
+		// The prefix sorts before every key
+		assertEquals(keys("a.first"), loadProperties(write(values, new ConfigOutput().withPrefix("a"))).keySet());
+		// The prefix sorts after every key
+		assertEquals(keys("z.last"), loadProperties(write(values, new ConfigOutput().withPrefix("z"))).keySet());
+		assertTrue(loadProperties(write(values, new ConfigOutput().withPrefix("zz"))).isEmpty());
+		// The prefix matches no keys, but sorts between them
+		assertTrue(loadProperties(write(values, new ConfigOutput().withPrefix("m"))).isEmpty());
+		assertEquals(values, loadProperties(write(values, new ConfigOutput().withPrefix(""))));
+	}
+
+	private static Set<String> keys(String... keys) {
+		return new HashSet<>(Arrays.asList(keys));
+	}
+
+	@Test
+	public void testSecretsMasked() throws Exception {
+		Map<String, String> values = new HashMap<>();
+		values.put("registry.api.key", "abc123");
+		values.put("registry.API.Key.backup", "def456");
+		values.put("db.password", "hunter2");
+		values.put("oauth.token", "xyz");
+		values.put("registry.url", "https://example.org/registry");
+		values.put("api", "not a key");
+
+		Map<String, String> masked = loadProperties(write(values, new ConfigOutput().withSecretsMasked()));
+		assertEquals(ConfigOutput.MASK, masked.get("registry.api.key"));
+		assertEquals(ConfigOutput.MASK, masked.get("registry.API.Key.backup"));
+		assertEquals(ConfigOutput.MASK, masked.get("db.password"));
+		assertEquals(ConfigOutput.MASK, masked.get("oauth.token"));
+		assertEquals("https://example.org/registry", masked.get("registry.url"));
+		assertEquals("not a key", masked.get("api"));
+
+		String json = write(values, new ConfigOutput().withSecretsMasked().withFormat(ConfigOutput.Format.JSON));
+		assertFalse(json.contains("abc123"), json);
+		assertEquals(ConfigOutput.MASK, new QuotedParser(json).parseJsonObject().get("registry.api.key"));
+
+		Map<String, String> unmasked = loadProperties(write(values, new ConfigOutput()));
+		assertEquals("abc123", unmasked.get("registry.api.key"));
+		assertEquals("def", loadProperties(write(Collections.singletonMap("custom.field", "def"),
+				new ConfigOutput().withSecretsMasked())).get("custom.field"));
+		assertEquals(ConfigOutput.MASK, loadProperties(write(Collections.singletonMap("custom.field", "def"),
+				new ConfigOutput().withMasked("CUSTOM"))).get("custom.field"));
+	}
+
+	/**
+	 * A strict parser for the subset of JSON and YAML that
+	 * {@link ConfigOutput} writes, where every key and value is a double quoted
+	 * string. Raw control characters inside a string, and escapes that are not
+	 * valid in both JSON and YAML, are rejected.
+	 */
+	private static final class QuotedParser {
+
+		private final String text;
+
+		private int position;
+
+		QuotedParser(String text) {
+			this.text = text;
+		}
+
+		Map<String, String> parseJsonObject() {
+			Map<String, String> result = new LinkedHashMap<>();
+			skipWhitespace();
+			expect('{');
+			skipWhitespace();
+			if (peek() == '}') {
+				position++;
+			} else {
+				while (true) {
+					skipWhitespace();
+					String key = parseString();
+					skipWhitespace();
+					expect(':');
+					skipWhitespace();
+					assertFalse(result.containsKey(key), "Duplicate key " + key);
+					result.put(key, parseString());
+					skipWhitespace();
+					if (peek() == ',') {
+						position++;
+					} else {
+						expect('}');
+						break;
+					}
+				}
+			}
+			skipWhitespace();
+			assertEquals(text.length(), position, "Trailing text after the JSON object");
+			return result;
+		}
+
+		Map<String, String> parseYamlMapping() {
+			Map<String, String> result = new LinkedHashMap<>();
+			while (position < text.length()) {
+				if (peek() == '#') {
+					skipLine();
+					continue;
+				}
+				String key = parseString();
+				expect(':');
+				expect(' ');
+				assertFalse(result.containsKey(key), "Duplicate key " + key);
+				result.put(key, parseString());
+				expect('\n');
+			}
+			return result;
+		}
+
+		private String parseString() {
+			expect('"');
+			StringBuilder result = new StringBuilder();
+			while (true) {
+				char nextChar = next();
+				if (nextChar == '"') {
+					return result.toString();
+				}
+				assertTrue(nextChar >= 0x20, "Raw control character " + (int) nextChar + " at " + position);
+				if (Character.isSurrogate(nextChar)) {
+					// Only valid pairs may appear unescaped
+					assertTrue(Character.isHighSurrogate(nextChar) && Character.isLowSurrogate(peek()),
+							"Raw lone surrogate at " + position);
+					result.append(nextChar).append(next());
+					continue;
+				}
+				if (nextChar != '\\') {
+					result.append(nextChar);
+					continue;
+				}
+				char escape = next();
+				switch (escape) {
+				case '"':
+				case '\\':
+					result.append(escape);
+					break;
+				case 'n':
+					result.append('\n');
+					break;
+				case 'r':
+					result.append('\r');
+					break;
+				case 't':
+					result.append('\t');
+					break;
+				case 'u':
+					assertTrue(position + 4 <= text.length(), "Truncated escape");
+					result.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+					position += 4;
+					break;
+				default:
+					throw new AssertionError("Invalid escape \\" + escape + " at " + position);
+				}
+			}
+		}
+
+		private void skipWhitespace() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+
+		private void skipLine() {
+			int end = text.indexOf('\n', position);
+			position = end < 0 ? text.length() : end + 1;
+		}
+
+		private char peek() {
+			assertTrue(position < text.length(), "Unexpected end of text");
+			return text.charAt(position);
+		}
+
+		private char next() {
+			char result = peek();
+			position++;
+			return result;
+		}
+
+		private void expect(char expected) {
+			char actual = next();
+			assertEquals(expected, actual, "At " + (position - 1));
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.inject.AbstractModule;
+
+/**
+ * Tests for {@link ConfigReloader}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigReloaderTest {
+
+	private static final long TIMEOUT_SECONDS = 10;
+
+	private static final long DEBOUNCE_MILLIS = 20;
+
+	private static final class TestConfig extends AlaConfig {
+
+		TestConfig(ImmutableConfiguration config) {
+			super(config);
+		}
+
+		@Override
+		protected AbstractModule getNewModule() {
+			return new AbstractModule() {
+			};
+		}
+	}
+
+	/**
+	 * Records the listeners that are currently registered.
+	 */
+	private static final class StubLayer implements ConfigLayerSource {
+
+		final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+		@Override
+		public String name() {
+			return "stub";
+		}
+
+		@Override
+		public Map<String, String> values() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public void addChangeListener(Runnable listener) {
+			listeners.add(listener);
+		}
+
+		@Override
+		public void removeChangeListener(Runnable listener) {
+			listeners.remove(listener);
+		}
+	}
+
+	private Path tempDir;
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	private ConfigReloader reloader;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-reloader-test");
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		if (reloader != null) {
+			reloader.close();
+		}
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private ConfigReloader start(Path watchedFile) {
+		TestConfig target = new TestConfig(new MapConfiguration(Collections.<String, Object>emptyMap()));
+		reloader = new ConfigReloader(target, () -> {
+			loads.incrementAndGet();
+			return new MapConfiguration(Collections.<String, Object>singletonMap("reloads", loads.get()));
+		}, Collections.singletonList(watchedFile), DEBOUNCE_MILLIS);
+		reloader.start();
+		return reloader;
+	}
+
+	private void awaitLoads(int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (loads.get() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(loads.get() >= expected, "Expected " + expected + " reloads: " + loads.get());
+	}
+
+	@Test
+	public void testChangedFileIsReloaded() throws Exception {
+		Path overrides = tempDir.resolve("overrides.properties");
+		start(overrides);
+		Files.write(overrides, "solr.home=/data/solr".getBytes(StandardCharsets.UTF_8));
+		awaitLoads(1);
+	}
+
+	@Test
+	public void testMissingDirectoryIsWatchedUntilCreated() throws Exception {
+		Path directory = tempDir.resolve("config").resolve("biocache");
+		Path overrides = directory.resolve("overrides.properties");
+		start(overrides);
+		Files.createDirectories(directory);
+		Files.write(overrides, "solr.home=/data/solr".getBytes(StandardCharsets.UTF_8));
+		awaitLoads(1);
+	}
+
+	@Test
+	public void testCloseRemovesLayerListeners() throws Exception {
+		StubLayer layer = new StubLayer();
+		start(tempDir.resolve("overrides.properties")).listenTo(Collections.singletonList(layer));
+		assertEquals(1, layer.listeners.size());
+		layer.listeners.get(0).run();
+		awaitLoads(1);
+		reloader.close();
+		assertTrue(layer.listeners.isEmpty());
+		// Requests after closing are ignored rather than rejected by the executor
+		reloader.requestReload();
+		Thread.sleep(DEBOUNCE_MILLIS * 5);
+		assertEquals(1, loads.get());
+	}
+}
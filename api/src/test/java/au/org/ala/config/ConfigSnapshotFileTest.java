@@ -0,0 +1,168 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ConfigSnapshotFile}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigSnapshotFileTest {
+
+	private Path tempDir;
+
+	private Path compiled;
+
+	private byte[] hash;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-snapshot-file-test");
+		compiled = tempDir.resolve("config.snapshot");
+		hash = new byte[32];
+		Arrays.fill(hash, (byte) 7);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private static ConfigSnapshot snapshot() {
+		Map<String, String> values = new LinkedHashMap<>();
+		values.put("solr.batch.size", "500");
+		values.put("solr.home", "/data/solr");
+		values.put("index.enabled", "TRUE");
+		values.put("name.unicode", "\u00c7\u00e0 et l\u00e0 \ud83d\udc1d");
+		values.put("empty", "");
+		return ConfigSnapshot.of(values);
+	}
+
+	private void write(String name, String content) throws Exception {
+		Files.write(tempDir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private byte[] sourceHash(Path overrides) throws Exception {
+		Optional<List<URL>> sources = AlaConfig.locateSourcesWithIncludes(overrides,
+				tempDir.resolve("missing-defaults.properties"));
+		assertTrue(sources.isPresent());
+		return ConfigSnapshotFile.sourceHash(sources.get());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		ConfigSnapshot expected = snapshot();
+		ConfigSnapshotFile.write(expected, hash, compiled);
+		Optional<ConfigSnapshot> read = ConfigSnapshotFile.read(compiled, hash);
+		assertTrue(read.isPresent());
+		ConfigSnapshot actual = read.get();
+		assertEquals(expected.sortedKeys(), actual.sortedKeys());
+		for (String nextKey : expected.sortedKeys()) {
+			assertEquals(expected.getString(nextKey), actual.getString(nextKey), nextKey);
+		}
+		assertEquals(500, actual.getInt("solr.batch.size"));
+		assertTrue(actual.getBoolean("index.enabled"));
+		assertFalse(actual.findInt("solr.home").isPresent());
+		assertFalse(actual.containsKey("solr.missing"));
+	}
+
+	@Test
+	public void testMissingFileIsIgnored() throws Exception {
+		assertFalse(ConfigSnapshotFile.read(compiled, hash).isPresent());
+	}
+
+	@Test
+	public void testHashMismatchIsIgnored() throws Exception {
+		ConfigSnapshotFile.write(snapshot(), hash, compiled);
+		byte[] otherHash = hash.clone();
+		otherHash[31]++;
+		assertFalse(ConfigSnapshotFile.read(compiled, otherHash).isPresent());
+	}
+
+	@Test
+	public void testWrongVersionIsIgnored() throws Exception {
+		ConfigSnapshotFile.write(snapshot(), hash, compiled);
+		try (RandomAccessFile file = new RandomAccessFile(compiled.toFile(), "rw")) {
+			file.seek(4);
+			file.writeInt(file.readInt() + 1);
+		}
+		assertFalse(ConfigSnapshotFile.read(compiled, hash).isPresent());
+	}
+
+	@Test
+	public void testTruncatedFileIsIgnored() throws Exception {
+		ConfigSnapshotFile.write(snapshot(), hash, compiled);
+		try (RandomAccessFile file = new RandomAccessFile(compiled.toFile(), "rw")) {
+			// The last value no longer fits in the string pool
+			file.setLength(file.length() - 1);
+		}
+		assertFalse(ConfigSnapshotFile.read(compiled, hash).isPresent());
+		try (RandomAccessFile file = new RandomAccessFile(compiled.toFile(), "rw")) {
+			// Shorter than the header
+			file.setLength(10);
+		}
+		assertFalse(ConfigSnapshotFile.read(compiled, hash).isPresent());
+	}
+
+	@Test
+	public void testCorruptEntryIsIgnored() throws Exception {
+		ConfigSnapshotFile.write(snapshot(), hash, compiled);
+		try (RandomAccessFile file = new RandomAccessFile(compiled.toFile(), "rw")) {
+			// The key length of the first entry, after the magic, version,
+			// hash, entry count and key offset
+			file.seek(4 + 4 + 32 + 4 + 4);
+			file.writeInt(Integer.MAX_VALUE);
+		}
+		assertFalse(ConfigSnapshotFile.read(compiled, hash).isPresent());
+	}
+
+	@Test
+	public void testIncludedFilesArePartOfTheSourceHash() throws Exception {
+		Path overrides = tempDir.resolve("overrides.properties");
+		write("overrides.properties", "solr.home=/data/solr\ninclude=first.properties\n");
+		write("first.properties", "include=second.properties\n");
+		write("second.properties", "solr.batch.size=500\n");
+		byte[] original = sourceHash(overrides);
+		assertArrayEquals(original, sourceHash(overrides));
+
+		write("second.properties", "solr.batch.size=1000\n");
+		byte[] changed = sourceHash(overrides);
+		assertFalse(Arrays.equals(original, changed));
+
+		Files.delete(tempDir.resolve("second.properties"));
+		assertFalse(Arrays.equals(changed, sourceHash(overrides)));
+	}
+
+	@Test
+	public void testInterpolatedIncludeCannotBeCompiled() throws Exception {
+		Path overrides = tempDir.resolve("overrides.properties");
+		write("overrides.properties", "include=${sys:user.home}/extra.properties\n");
+		assertFalse(AlaConfig.locateSourcesWithIncludes(overrides, tempDir.resolve("missing-defaults.properties"))
+				.isPresent());
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ConfigSnapshot#changedKeys(ConfigSnapshot, String)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigSnapshotTest {
+
+	private static ConfigSnapshot snapshot(String... keysAndValues) {
+		Map<String, String> values = new HashMap<>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			values.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return ConfigSnapshot.of(values);
+	}
+
+	@Test
+	public void testSameSnapshotHasNoChanges() {
+		ConfigSnapshot snapshot = snapshot("solr.home", "/data/solr");
+		assertTrue(snapshot.changedKeys(snapshot, "").isEmpty());
+		assertTrue(snapshot.changedKeys(snapshot("solr.home", "/data/solr"), "").isEmpty());
+	}
+
+	@Test
+	public void testAddedRemovedAndChangedKeys() {
+		ConfigSnapshot previous = snapshot("solr.batch.size", "500", "solr.home", "/data/solr", "solr.url",
+				"http://localhost");
+		ConfigSnapshot current = snapshot("solr.batch.size", "1000", "solr.home", "/data/solr", "solr.threads",
+				"4");
+		assertEquals(Arrays.asList("solr.batch.size", "solr.threads", "solr.url"),
+				current.changedKeys(previous, "solr."));
+		assertEquals(Arrays.asList("solr.batch.size", "solr.threads", "solr.url"),
+				previous.changedKeys(current, "solr."));
+		assertEquals(Arrays.asList("solr.batch.size", "solr.threads", "solr.url"), current.changedKeys(previous, ""));
+	}
+
+	@Test
+	public void testPrefixBoundary() {
+		ConfigSnapshot previous = snapshot("solr", "1", "solr.a", "1", "solra", "1", "sola", "1", "solr/", "1");
+		ConfigSnapshot current = snapshot("solr", "2", "solr.a", "2", "solra", "2", "sola", "2", "solr/", "2");
+		assertEquals(Arrays.asList("solr.a"), current.changedKeys(previous, "solr."));
+		assertEquals(Arrays.asList("solr", "solr.a", "solr/", "solra"), current.changedKeys(previous, "solr"));
+		// A prefix that matches no keys, sorting between existing keys
+		assertTrue(current.changedKeys(previous, "solr.b").isEmpty());
+		assertTrue(current.changedKeys(previous, "zzz").isEmpty());
+		// A prefix that is also a complete key
+		assertEquals(Arrays.asList("solr.a"), current.changedKeys(previous, "solr.a"));
+	}
+
+	@Test
+	public void testChangesAtTheEndsOfTheKeys() {
+		ConfigSnapshot previous = snapshot("a", "1", "m", "1");
+		ConfigSnapshot current = snapshot("m", "1", "z", "1");
+		assertEquals(Arrays.asList("a"), current.changedKeys(previous, "a"));
+		assertEquals(Arrays.asList("z"), current.changedKeys(previous, "z"));
+		assertEquals(Arrays.asList("a", "z"), current.changedKeys(previous, ""));
+		assertEquals(Arrays.asList("m", "z"),
+				current.changedKeys(ConfigSnapshot.of(Collections.<String, String>emptyMap()), ""));
+	}
+
+	@Test
+	public void testOverlayKeys() {
+		ConfigSnapshot base = snapshot("solr.batch.size", "500", "solr.home", "/data/solr", "zk.address", "zk1");
+		Map<String, String> firstOverrides = new HashMap<>();
+		firstOverrides.put("solr.batch.size", "1000");
+		firstOverrides.put("solr.added", "yes");
+		ConfigSnapshot first = ConfigSnapshot.overlay(base, firstOverrides, "tenant");
+		assertEquals(Arrays.asList("solr.added", "solr.batch.size"), first.changedKeys(base, "solr."));
+		assertEquals(Arrays.asList("solr.added", "solr.batch.size"), base.changedKeys(first, ""));
+
+		// An overlay of an overlay is created on the same base, with the
+		// overrides merged
+		Map<String, String> secondOverrides = new HashMap<>();
+		secondOverrides.put("solr.batch.size", "500");
+		secondOverrides.put("zk.address", "zk2");
+		ConfigSnapshot second = ConfigSnapshot.overlay(first, secondOverrides, "tenant");
+		assertEquals(Arrays.asList("solr.batch.size", "zk.address"), second.changedKeys(first, ""));
+		assertEquals(Arrays.asList("solr.added", "zk.address"), second.changedKeys(base, ""));
+		assertEquals(Arrays.asList("solr.added", "solr.batch.size", "solr.home", "zk.address"),
+				second.sortedKeys());
+	}
+}
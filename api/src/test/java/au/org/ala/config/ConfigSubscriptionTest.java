@@ -0,0 +1,155 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ConfigSubscription}, using an executor that only runs
+ * deliveries when asked, so that the tests control when changes are
+ * delivered.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigSubscriptionTest {
+
+	/**
+	 * Queues tasks until {@link #runAll()} is called.
+	 */
+	private static final class ManualExecutor implements Executor {
+
+		final Queue<Runnable> tasks = new ArrayDeque<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			Runnable next;
+			while ((next = tasks.poll()) != null) {
+				next.run();
+			}
+		}
+	}
+
+	private final ManualExecutor executor = new ManualExecutor();
+
+	private final List<ConfigChange> changes = new ArrayList<>();
+
+	private final Collection<ConfigSubscription> registry = new CopyOnWriteArrayList<>();
+
+	private volatile ConfigSnapshot current = snapshot("solr.batch.size", "500", "solr.home", "/data/solr",
+			"zk.address", "zk1");
+
+	private static ConfigSnapshot snapshot(String... keysAndValues) {
+		Map<String, String> values = new HashMap<>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			values.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return ConfigSnapshot.of(values);
+	}
+
+	private ConfigSubscription subscribe(String... prefixes) {
+		ConfigSubscription result = new ConfigSubscription(Arrays.asList(prefixes), executor, changes::add,
+				() -> current, registry);
+		registry.add(result);
+		return result;
+	}
+
+	private void publish(ConfigSnapshot next) {
+		current = next;
+		for (ConfigSubscription nextSubscription : registry) {
+			nextSubscription.published();
+		}
+	}
+
+	@Test
+	public void testOnlyMatchingChangesAreDelivered() {
+		subscribe("solr.");
+		publish(snapshot("solr.batch.size", "500", "solr.home", "/data/solr", "zk.address", "zk2"));
+		executor.runAll();
+		assertTrue(changes.isEmpty());
+
+		publish(snapshot("solr.batch.size", "1000", "solr.home", "/data/solr", "zk.address", "zk2"));
+		executor.runAll();
+		assertEquals(1, changes.size());
+		assertEquals(Collections.singletonList("solr.batch.size"), changes.get(0).changedKeys());
+		assertEquals("500", changes.get(0).previousValue("solr.batch.size").get());
+		assertEquals("1000", changes.get(0).currentValue("solr.batch.size").get());
+	}
+
+	@Test
+	public void testBurstIsCoalescedIntoOneCall() {
+		ConfigSnapshot initial = current;
+		subscribe("solr.");
+		publish(snapshot("solr.batch.size", "600", "solr.home", "/data/solr"));
+		publish(snapshot("solr.batch.size", "700", "solr.home", "/data/solr"));
+		publish(snapshot("solr.batch.size", "800", "solr.home", "/data/solr2", "solr.threads", "4"));
+		assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		assertEquals(1, changes.size());
+		assertEquals(Arrays.asList("solr.batch.size", "solr.home", "solr.threads"), changes.get(0).changedKeys());
+		assertEquals(initial, changes.get(0).previous());
+		assertEquals(current, changes.get(0).current());
+	}
+
+	@Test
+	public void testRevertedBurstIsNotDelivered() {
+		ConfigSnapshot initial = current;
+		subscribe("solr.");
+		publish(snapshot("solr.batch.size", "600"));
+		publish(initial);
+		executor.runAll();
+		assertTrue(changes.isEmpty());
+	}
+
+	@Test
+	public void testOverlappingPrefixesReportEachKeyOnce() {
+		subscribe("solr.", "solr.batch", "zk.");
+		publish(snapshot("solr.batch.size", "1000", "solr.home", "/data/solr", "zk.address", "zk2"));
+		executor.runAll();
+		assertEquals(1, changes.size());
+		assertEquals(Arrays.asList("solr.batch.size", "zk.address"), changes.get(0).changedKeys());
+	}
+
+	@Test
+	public void testClosedSubscriptionReceivesNothing() {
+		ConfigSubscription subscription = subscribe("solr.");
+		publish(snapshot("solr.batch.size", "1000"));
+		subscription.close();
+		executor.runAll();
+		assertTrue(changes.isEmpty());
+		assertTrue(registry.isEmpty());
+	}
+
+	@Test
+	public void testPublishBeforeRegistrationIsDelivered() {
+		// The configuration is replaced after the subscription captured it but
+		// before it was registered, as can happen in AlaConfig.subscribe
+		ConfigSubscription subscription = new ConfigSubscription(Collections.singletonList("solr."), executor,
+				changes::add, () -> current, registry);
+		publish(snapshot("solr.batch.size", "1000"));
+		registry.add(subscription);
+		subscription.published();
+		executor.runAll();
+		assertEquals(1, changes.size());
+		assertEquals(Arrays.asList("solr.batch.size", "solr.home"), changes.get(0).changedKeys());
+	}
+}
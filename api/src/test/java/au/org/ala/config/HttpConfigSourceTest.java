@@ -0,0 +1,191 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for {@link HttpConfigSource} and {@link CachedHttpResource} against an
+ * embedded HTTP server.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class HttpConfigSourceTest {
+
+	private HttpServer server;
+
+	private ExecutorService serverThreads;
+
+	private Path tempDir;
+
+	private Path cacheFile;
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final AtomicInteger conditionalRequests = new AtomicInteger();
+
+	private volatile String body = "solr.home=/data/solr\n";
+
+	private volatile String etag = "\"1\"";
+
+	private volatile CountDownLatch release = new CountDownLatch(0);
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-http-test");
+		cacheFile = tempDir.resolve("remote.properties");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/config.properties", this::handle);
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.start();
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		server.stop(0);
+		serverThreads.shutdownNow();
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			release.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		String currentEtag = etag;
+		if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			conditionalRequests.incrementAndGet();
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		byte[] response = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("ETag", currentEtag);
+		exchange.sendResponseHeaders(200, response.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(response);
+		}
+	}
+
+	private URL url() throws IOException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/config.properties");
+	}
+
+	private HttpConfigSource source() throws IOException {
+		return new HttpConfigSource(url(), cacheFile, TimeUnit.HOURS.toMillis(1));
+	}
+
+	@Test
+	public void testRefreshDownloadsThenRevalidates() throws Exception {
+		try (HttpConfigSource source = source()) {
+			assertTrue(source.refresh());
+			assertEquals("/data/solr", source.values().get("solr.home"));
+			assertFalse(source.refresh());
+			assertEquals(2, requests.get());
+			assertEquals(1, conditionalRequests.get());
+		}
+	}
+
+	@Test
+	public void testChangedFileIsReloaded() throws Exception {
+		try (HttpConfigSource source = source()) {
+			AtomicInteger changes = new AtomicInteger();
+			source.addChangeListener(changes::incrementAndGet);
+			source.refresh();
+			body = "solr.home=/opt/solr\n";
+			etag = "\"2\"";
+			assertTrue(source.refresh());
+			assertEquals("/opt/solr", source.values().get("solr.home"));
+			assertEquals(2, changes.get());
+		}
+	}
+
+	@Test
+	public void testMalformedResponseKeepsLastGoodCopy() throws Exception {
+		try (HttpConfigSource source = source()) {
+			source.refresh();
+			String goodCopy = new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8);
+			body = "solr.home=\\uZZZZ\n";
+			etag = "\"2\"";
+			assertThrows(IOException.class, source::refresh);
+			assertEquals("/data/solr", source.values().get("solr.home"));
+			assertEquals(goodCopy, new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8));
+		}
+		// The next start uses the last good copy
+		server.stop(0);
+		try (HttpConfigSource restarted = source()) {
+			restarted.start();
+			assertEquals("/data/solr", restarted.values().get("solr.home"));
+		}
+	}
+
+	@Test
+	public void testStartUsesCachedCopyWhenServerIsDown() throws Exception {
+		try (HttpConfigSource source = source()) {
+			source.refresh();
+		}
+		server.stop(0);
+		try (HttpConfigSource source = source()) {
+			source.start();
+			assertEquals("/data/solr", source.values().get("solr.home"));
+			assertThrows(IOException.class, source::refresh);
+			assertEquals("/data/solr", source.values().get("solr.home"));
+		}
+	}
+
+	@Test
+	public void testConcurrentRefreshesMakeOneRequest() throws Exception {
+		release = new CountDownLatch(1);
+		ExecutorService threads = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<CachedHttpResource.Status>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				CachedHttpResource resource = new CachedHttpResource(url(), cacheFile);
+				results.add(threads.submit(() -> resource.refresh()));
+			}
+			// Give every thread time to join the request in flight
+			Thread.sleep(500);
+			release.countDown();
+			for (Future<CachedHttpResource.Status> nextResult : results) {
+				assertEquals(CachedHttpResource.Status.MODIFIED, nextResult.get(10, TimeUnit.SECONDS));
+			}
+			assertEquals(1, requests.get());
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration2.FileBasedConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link ParallelConfigLoader} loads the same values, or fails in the
+ * same way, whether or not the files are read in parallel.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ParallelConfigLoaderTest {
+
+	private static final Path DEFAULTS = Paths.get("/au/org/ala/config/layers-test-defaults.properties");
+
+	private Path tempDir;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-parallel-loader-test");
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private Path write(String name, String... lines) throws Exception {
+		Path result = tempDir.resolve(name);
+		Files.write(result, Arrays.asList(lines), StandardCharsets.UTF_8);
+		return result;
+	}
+
+	/**
+	 * @return The values of each loaded configuration, or the type of the
+	 *         exception if loading failed.
+	 */
+	private static Object load(List<Path> overrides, boolean parallel) {
+		try {
+			List<FileBasedConfiguration> loaded = ParallelConfigLoader.load(overrides, DEFAULTS, parallel);
+			List<Map<String, Object>> result = new ArrayList<>();
+			for (FileBasedConfiguration nextConfig : loaded) {
+				Map<String, Object> values = new TreeMap<>();
+				for (Iterator<String> keys = nextConfig.getKeys(); keys.hasNext();) {
+					String nextKey = keys.next();
+					values.put(nextKey, nextConfig.getProperty(nextKey));
+				}
+				result.add(values);
+			}
+			return result;
+		} catch (AlaConfigException e) {
+			return e.getClass();
+		}
+	}
+
+	private static Object assertSameResult(Path... overrides) {
+		Object sequential = load(Arrays.asList(overrides), false);
+		Object parallel = load(Arrays.asList(overrides), true);
+		assertEquals(sequential, parallel);
+		return sequential;
+	}
+
+	@Test
+	public void testNestedIncludes() throws Exception {
+		write("second.properties", "second.value=2", "shadowed=second");
+		write("first.properties", "first.value=1", "include=second.properties", "shadowed=first");
+		Path overrides = write("overrides.properties", "top.value=0", "include=first.properties");
+		Object result = assertSameResult(overrides);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> values = ((List<Map<String, Object>>) result).get(0);
+		assertEquals("2", values.get("second.value"));
+		assertEquals("1", values.get("first.value"));
+	}
+
+	@Test
+	public void testSharedInclude() throws Exception {
+		write("shared.properties", "shared.value=shared");
+		write("left.properties", "left.value=left", "include=shared.properties");
+		write("right.properties", "right.value=right", "include=shared.properties");
+		Path first = write("first.properties", "include=left.properties", "include=right.properties");
+		Path second = write("second.properties", "include=shared.properties");
+		Object result = assertSameResult(first, second);
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> values = (List<Map<String, Object>>) result;
+		assertEquals(3, values.size());
+		assertEquals("shared", values.get(1).get("shared.value"));
+	}
+
+	@Test
+	public void testMissingInclude() throws Exception {
+		Path overrides = write("overrides.properties", "top.value=0", "include=missing.properties");
+		assertSameResult(overrides);
+	}
+
+	@Test
+	public void testInterpolatedInclude() throws Exception {
+		write("extra.properties", "extra.value=extra");
+		Path overrides = write("overrides.properties",
+				"include.dir=" + tempDir.toAbsolutePath().toString().replace('\\', '/'),
+				"include=${include.dir}/extra.properties");
+		Object result = assertSameResult(overrides);
+		assertFalse(result instanceof Class, "Could not load an interpolated include");
+		@SuppressWarnings("unchecked")
+		Map<String, Object> values = ((List<Map<String, Object>>) result).get(0);
+		assertEquals("extra", values.get("extra.value"));
+	}
+
+	@Test
+	public void testMissingOverrides() throws Exception {
+		assertSameResult(tempDir.resolve("missing.properties"), write("overrides.properties", "top.value=0"));
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * 
+ */
+package au.org.ala.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.inject.AbstractModule;
+
+/**
+ * Tests for {@link TenantConfigRegistry}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class TenantConfigRegistryTest {
+
+	/**
+	 * Rejects configurations where <code>threads</code> is not a number.
+	 */
+	private static final class TenantConfig extends AlaConfig {
+
+		TenantConfig(ImmutableConfiguration config) {
+			super(config);
+		}
+
+		@Override
+		protected void validate(ConfigSnapshot candidate) throws AlaConfigException {
+			try {
+				Integer.parseInt(candidate.getString("threads"));
+			} catch (NumberFormatException e) {
+				throw new AlaConfigException("threads must be a number: " + candidate.getString("threads"));
+			}
+		}
+
+		@Override
+		protected AbstractModule getNewModule() {
+			return new AbstractModule() {
+			};
+		}
+	}
+
+	private TenantConfigRegistry<TenantConfig> registry;
+
+	private int sharedStrings;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		Map<String, String> shared = new HashMap<>();
+		shared.put("threads", "4");
+		shared.put("solr.home", "/data/solr");
+		registry = new TenantConfigRegistry<>(ConfigSnapshot.of(shared), TenantConfig::new);
+		sharedStrings = registry.internedStrings();
+	}
+
+	private static Map<String, String> map(String key, String value) {
+		return Collections.singletonMap(key, value);
+	}
+
+	@Test
+	public void testTenantWithoutOverridesUsesSharedSnapshot() throws Exception {
+		assertSame(registry.shared(), registry.tenant("dr1").snapshot());
+		assertSame(registry.shared(), registry.tenant("dr2", map("threads", "4")).snapshot());
+		assertSame(registry.tenant("dr1"), registry.find("dr1").get());
+	}
+
+	@Test
+	public void testOverridesOnlyReplaceTheirKeys() throws Exception {
+		ConfigSnapshot snapshot = registry.tenant("dr1", map("threads", "8")).snapshot();
+		assertEquals("8", snapshot.getString("threads"));
+		assertEquals("/data/solr", snapshot.getString("solr.home"));
+		assertEquals(TenantConfigRegistry.TENANT_LAYER, snapshot.layerOf("threads"));
+		assertSame(registry.shared(), snapshot.base());
+		assertEquals(map("threads", "8"), snapshot.overrides());
+	}
+
+	@Test
+	public void testInvalidNewTenantIsNotRegistered() throws Exception {
+		assertThrows(AlaConfigException.class, () -> registry.tenant("dr1", map("threads", "many")));
+		assertFalse(registry.find("dr1").isPresent());
+		assertEquals(sharedStrings, registry.internedStrings());
+		// Registering a new tenant through an update is validated in the same way
+		assertThrows(AlaConfigException.class, () -> registry.update("dr2", map("threads", "many")));
+		assertTrue(registry.tenantIds().isEmpty());
+	}
+
+	@Test
+	public void testInvalidSharedConfigurationIsRejected() throws Exception {
+		TenantConfigRegistry<TenantConfig> invalid = new TenantConfigRegistry<>(
+				ConfigSnapshot.of(map("threads", "many")), TenantConfig::new);
+		assertThrows(AlaConfigException.class, () -> invalid.tenant("dr1"));
+		assertFalse(invalid.find("dr1").isPresent());
+	}
+
+	@Test
+	public void testInvalidUpdateKeepsPreviousConfiguration() throws Exception {
+		TenantConfig tenant = registry.tenant("dr1", map("threads", "8"));
+		ConfigSnapshot previous = tenant.snapshot();
+		assertThrows(AlaConfigException.class, () -> registry.update("dr1", map("threads", "many")));
+		assertSame(previous, tenant.snapshot());
+		assertEquals(sharedStrings + 1, registry.internedStrings());
+	}
+
+	@Test
+	public void testUpdateKeepsOtherOverridesAndNullReverts() throws Exception {
+		TenantConfig tenant = registry.tenant("dr1", map("threads", "8"));
+		assertSame(tenant, registry.update("dr1", map("solr.home", "/opt/solr")));
+		assertEquals("8", tenant.snapshot().getString("threads"));
+		assertEquals("/opt/solr", tenant.snapshot().getString("solr.home"));
+		registry.update("dr1", map("threads", null));
+		assertEquals("4", tenant.snapshot().getString("threads"));
+		registry.update("dr1", map("solr.home", null));
+		assertSame(registry.shared(), tenant.snapshot());
+	}
+
+	@Test
+	public void testValuesAreSharedBetweenTenants() throws Exception {
+		ConfigSnapshot first = registry.tenant("dr1", map("solr.home", new String("/opt/solr"))).snapshot();
+		ConfigSnapshot second = registry.tenant("dr2", map("solr.home", new String("/opt/solr"))).snapshot();
+		assertSame(first.getString("solr.home"), second.getString("solr.home"));
+	}
+
+	@Test
+	public void testUnusedValuesAreReleased() throws Exception {
+		registry.tenant("dr1", map("solr.home", "/opt/solr"));
+		registry.tenant("dr2", map("solr.home", "/opt/solr"));
+		assertEquals(sharedStrings + 1, registry.internedStrings());
+		registry.update("dr1", map("solr.home", "/srv/solr"));
+		assertEquals(sharedStrings + 2, registry.internedStrings());
+		registry.remove("dr2");
+		assertEquals(sharedStrings + 1, registry.internedStrings());
+		registry.update("dr1", map("solr.home", null));
+		assertEquals(sharedStrings, registry.internedStrings());
+		// Keys and values from the shared configuration are never released
+		registry.tenant("dr3", map("solr.home", "4"));
+		registry.remove("dr3");
+		assertEquals(sharedStrings, registry.internedStrings());
+	}
+}
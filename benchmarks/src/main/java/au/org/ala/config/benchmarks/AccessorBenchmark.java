@@ -0,0 +1,106 @@
+/**
+ * 
+ */
+package au.org.ala.config.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.org.ala.config.biocache.BiocacheConfig;
+
+/**
+ * Measures the throughput of the lookup methods used in per-record loops, both
+ * from a single thread and with every available thread sharing one
+ * configuration.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AccessorBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int keyCount;
+
+	private BenchmarkConfigFiles files;
+
+	private BiocacheConfig config;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		files = new BenchmarkConfigFiles(keyCount);
+		config = new BiocacheConfig(BiocacheConfig.getConfig(files.overrides(), files.defaults()));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		files.close();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String get() {
+		return config.get("layers.service.url");
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int getInt() {
+		return config.getInt("solr.batch.size");
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean getBooleanOrDefault() {
+		return config.getBooleanOrDefault("sds.enabled", true);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int solrBatchSize() {
+		return config.solrBatchSize();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int resolvedSolrBatchSize() {
+		return config.resolvedProperties().solrBatchSize();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public String getContended() {
+		return config.get("layers.service.url");
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public int getIntContended() {
+		return config.getInt("solr.batch.size");
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public boolean getBooleanOrDefaultContended() {
+		return config.getBooleanOrDefault("sds.enabled", true);
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * 
+ */
+package au.org.ala.config.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generates override and default properties files for benchmarks.
+ * 
+ * The defaults file is made visible on the classpath through a
+ * {@link URLClassLoader} that is set as the context class loader, as
+ * {@link au.org.ala.config.AlaConfig#getConfig(Path, Path)} only looks for
+ * defaults on the classpath.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+final class BenchmarkConfigFiles implements AutoCloseable {
+
+	static final String DEFAULTS_RESOURCE = "ala-config-benchmark-defaults.properties";
+
+	private final Path directory;
+
+	private final Path overrides;
+
+	private final ClassLoader previousContextClassLoader;
+
+	private final URLClassLoader defaultsClassLoader;
+
+	/**
+	 * Generates the files, with half of the generated keys in each file and the
+	 * common Biocache keys in both, so lookups exercise both layers.
+	 * 
+	 * @param keyCount
+	 *            The number of generated keys to add to the files
+	 */
+	BenchmarkConfigFiles(int keyCount) throws IOException {
+		this.directory = Files.createTempDirectory("ala-config-benchmark");
+		this.overrides = directory.resolve("overrides.properties");
+		writeProperties(overrides, keyCount, 0);
+		writeProperties(directory.resolve(DEFAULTS_RESOURCE), keyCount, 1);
+		this.previousContextClassLoader = Thread.currentThread().getContextClassLoader();
+		this.defaultsClassLoader = new URLClassLoader(new URL[] { directory.toUri().toURL() },
+				previousContextClassLoader);
+		Thread.currentThread().setContextClassLoader(defaultsClassLoader);
+	}
+
+	private static void writeProperties(Path file, int keyCount, int remainder) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write("solr.batch.size=" + (remainder == 0 ? 500 : 1000));
+			writer.newLine();
+			writer.write("solr.update.threads=4");
+			writer.newLine();
+			writer.write("sds.enabled=" + (remainder == 0));
+			writer.newLine();
+			writer.write("layers.service.url=http://localhost/layers");
+			writer.newLine();
+			writer.write(
+					"sensitive.field=originalSensitiveValues,originalDecimalLatitude,originalDecimalLongitude,originalLocationRemarks");
+			writer.newLine();
+			for (int i = 0; i < keyCount; i++) {
+				if (i % 2 == remainder) {
+					writer.write("generated.key." + i + "=value-" + i);
+					writer.newLine();
+				}
+			}
+		}
+	}
+
+	Path overrides() {
+		return overrides;
+	}
+
+	/**
+	 * Writes an overrides file that includes the given number of files, each of
+	 * which includes one more file, so that loading it reads many small files.
+	 * 
+	 * @param includeCount
+	 *            The number of files included directly by the overrides file
+	 * @return The path to the new overrides file.
+	 */
+	Path overridesWithIncludes(int includeCount) throws IOException {
+		Path result = directory.resolve("overrides-with-includes.properties");
+		try (BufferedWriter writer = Files.newBufferedWriter(result, StandardCharsets.UTF_8)) {
+			writer.write("include = " + overrides.getFileName());
+			writer.newLine();
+			for (int i = 0; i < includeCount; i++) {
+				writer.write("include = include-" + i + ".properties");
+				writer.newLine();
+				try (BufferedWriter includeWriter = Files.newBufferedWriter(
+						directory.resolve("include-" + i + ".properties"), StandardCharsets.UTF_8)) {
+					includeWriter.write("included.key." + i + "=value-" + i);
+					includeWriter.newLine();
+					includeWriter.write("include = nested-" + i + ".properties");
+					includeWriter.newLine();
+				}
+				try (BufferedWriter nestedWriter = Files.newBufferedWriter(
+						directory.resolve("nested-" + i + ".properties"), StandardCharsets.UTF_8)) {
+					nestedWriter.write("nested.key." + i + "=value-" + i);
+					nestedWriter.newLine();
+				}
+			}
+		}
+		return result;
+	}
+
+	Path defaults() {
+		return Paths.get(DEFAULTS_RESOURCE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		Thread.currentThread().setContextClassLoader(previousContextClassLoader);
+		defaultsClassLoader.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+}
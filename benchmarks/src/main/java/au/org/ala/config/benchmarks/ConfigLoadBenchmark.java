@@ -0,0 +1,73 @@
+/**
+ * 
+ */
+package au.org.ala.config.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.org.ala.config.AlaConfig;
+
+/**
+ * Measures {@link AlaConfig#getConfig(java.nio.file.Path, java.nio.file.Path)}
+ * as the number of keys in the configuration grows.
+ * 
+ * The cold benchmark runs a single load in each of many fresh JVMs, which is
+ * what a short lived process sees. The warm benchmark repeats the load in one
+ * JVM after warming up, which is what a long lived process that reloads its
+ * configuration sees.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfigLoadBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int keyCount;
+
+	private BenchmarkConfigFiles files;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		files = new BenchmarkConfigFiles(keyCount);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		files.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Fork(20)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public ImmutableConfiguration coldLoad() {
+		return AlaConfig.getConfig(files.overrides(), files.defaults());
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Fork(1)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 5)
+	public ImmutableConfiguration warmLoad() {
+		return AlaConfig.getConfig(files.overrides(), files.defaults());
+	}
+}
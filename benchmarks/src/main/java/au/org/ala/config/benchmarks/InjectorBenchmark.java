@@ -0,0 +1,146 @@
+/**
+ * 
+ */
+package au.org.ala.config.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Stage;
+import com.google.inject.name.Named;
+
+import au.org.ala.config.AlaConfig;
+import au.org.ala.config.ConfigModule;
+import au.org.ala.config.ConfigSnapshot;
+
+/**
+ * Measures {@link AlaConfig#getInstance(Class)}, both for the first call, which
+ * builds the injector, and for later calls that reuse it. The injector binds
+ * every key using {@link ConfigModule}, so the first call shows how the cost of
+ * creating the injector grows with the number of keys.
+ * 
+ * The version of cglib bundled with Guice needs access to java.lang on Java 9
+ * and later, so on those JVMs run with
+ * <code>-jvmArgsAppend "--add-opens=java.base/java.lang=ALL-UNNAMED"</code>
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InjectorBenchmark {
+
+	/**
+	 * A small service with injected configuration values.
+	 */
+	public static class Service {
+		@Inject
+		@Named("benchmark.string")
+		String stringValue;
+
+		@Inject
+		@Named("benchmark.int")
+		int intValue;
+
+		@Inject
+		@Named("benchmark.boolean")
+		boolean booleanValue;
+	}
+
+	/**
+	 * A configuration with the given number of keys and a module that binds
+	 * {@link Service}.
+	 */
+	static class BenchmarkConfig extends AlaConfig {
+
+		BenchmarkConfig(ConfigSnapshot config) {
+			super(config);
+		}
+
+		@Override
+		protected AbstractModule getNewModule() {
+			return new ConfigModule(this) {
+				@Override
+				protected void configure() {
+					super.configure();
+					bind(Service.class);
+				}
+			};
+		}
+
+		@Override
+		protected Stage injectorStage() {
+			return Stage.PRODUCTION;
+		}
+	}
+
+	static ConfigSnapshot benchmarkSnapshot(int keyCount) {
+		Map<String, String> values = new HashMap<>();
+		for (int i = 0; i < keyCount; i++) {
+			values.put("benchmark.key." + i, i % 3 == 0 ? Integer.toString(i) : i % 3 == 1 ? "true" : "value" + i);
+		}
+		values.put("benchmark.string", "value");
+		values.put("benchmark.int", "42");
+		values.put("benchmark.boolean", "true");
+		return ConfigSnapshot.of(values);
+	}
+
+	@State(Scope.Thread)
+	public static class FreshConfig {
+		@Param({ "100", "10000" })
+		int keyCount;
+
+		ConfigSnapshot snapshot;
+
+		BenchmarkConfig config;
+
+		@Setup(Level.Trial)
+		public void setUpTrial() {
+			snapshot = benchmarkSnapshot(keyCount);
+		}
+
+		@Setup(Level.Invocation)
+		public void setUp() {
+			config = new BenchmarkConfig(snapshot);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class WarmConfig {
+		BenchmarkConfig config;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			config = new BenchmarkConfig(benchmarkSnapshot(100));
+			config.getInstance(Service.class);
+		}
+	}
+
+	@Benchmark
+	public Service firstGetInstance(FreshConfig state) {
+		return state.config.getInstance(Service.class);
+	}
+
+	@Benchmark
+	public Service warmGetInstance(WarmConfig state) {
+		return state.config.getInstance(Service.class);
+	}
+}
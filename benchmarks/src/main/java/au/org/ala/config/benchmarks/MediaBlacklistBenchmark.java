@@ -0,0 +1,137 @@
+/**
+ * 
+ */
+package au.org.ala.config.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.org.ala.config.biocache.MediaUrlBlacklist;
+
+/**
+ * Compares the compiled {@link MediaUrlBlacklist} with scanning the same
+ * prefix and host entries one at a time for each media URL, checking a million
+ * URLs in each invocation.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MediaBlacklistBenchmark {
+
+	private static final int URL_COUNT = 1_000_000;
+
+	private static final String HOST_ENTRY = "host:";
+
+	@Param({ "100", "10000" })
+	public int entryCount;
+
+	/**
+	 * The entries for the linear scan, which are the same entries used to
+	 * compile {@link #blacklist}, with the <code>host:</code> marker removed
+	 * from host entries.
+	 */
+	private String[] linearEntries;
+
+	/**
+	 * Whether each of {@link #linearEntries} is a host rather than a prefix.
+	 */
+	private boolean[] hostEntries;
+
+	private MediaUrlBlacklist blacklist;
+
+	private String[] urls;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(42);
+		List<String> entries = new ArrayList<>(entryCount);
+		for (int i = 0; i < entryCount; i++) {
+			entries.add(i % 10 == 0 ? HOST_ENTRY + "media" + i + ".example.org"
+					: "http://media" + i + ".example.org/images/");
+		}
+		blacklist = MediaUrlBlacklist.compile(entries);
+		linearEntries = new String[entryCount];
+		hostEntries = new boolean[entryCount];
+		for (int i = 0; i < entryCount; i++) {
+			String nextEntry = entries.get(i);
+			hostEntries[i] = nextEntry.startsWith(HOST_ENTRY);
+			linearEntries[i] = hostEntries[i] ? nextEntry.substring(HOST_ENTRY.length()) : nextEntry;
+		}
+		urls = new String[URL_COUNT];
+		for (int i = 0; i < URL_COUNT; i++) {
+			// Roughly one in twenty URLs is blacklisted
+			int server = random.nextInt(entryCount * 20);
+			urls[i] = "http://media" + server + ".example.org/images/" + random.nextInt(1_000_000) + ".jpg";
+		}
+		int compiled = compiledBlacklist();
+		int linear = linearScan();
+		if (compiled != linear) {
+			throw new IllegalStateException(
+					"Compiled blacklist matched " + compiled + " URLs, but the linear scan matched " + linear);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URL_COUNT)
+	public int compiledBlacklist() {
+		int result = 0;
+		for (String nextUrl : urls) {
+			if (blacklist.isBlacklisted(nextUrl)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URL_COUNT)
+	public int linearScan() {
+		int result = 0;
+		for (String nextUrl : urls) {
+			int hostStart = nextUrl.indexOf("://") + 3;
+			int hostEnd = nextUrl.indexOf('/', hostStart);
+			if (hostEnd < 0) {
+				hostEnd = nextUrl.length();
+			}
+			for (int i = 0; i < linearEntries.length; i++) {
+				if (hostEntries[i] ? matchesHost(nextUrl, hostStart, hostEnd, linearEntries[i])
+						: nextUrl.startsWith(linearEntries[i])) {
+					result++;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return True if the host of the URL is the given host or one of its
+	 *         subdomains.
+	 */
+	private static boolean matchesHost(String url, int hostStart, int hostEnd, String host) {
+		int offset = hostEnd - host.length();
+		return offset >= hostStart && url.regionMatches(true, offset, host, 0, host.length())
+				&& (offset == hostStart || url.charAt(offset - 1) == '.');
+	}
+}
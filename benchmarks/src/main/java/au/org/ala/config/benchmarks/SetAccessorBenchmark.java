@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package au.org.ala.config.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.org.ala.config.biocache.BiocacheConfig;
+import au.org.ala.config.biocache.FieldSchema;
+import au.org.ala.config.biocache.FieldSet;
+
+/**
+ * Measures the set valued lookups used in per-record loops. Run with
+ * <code>-prof gc</code> to see the allocation rate for each call, which should
+ * be zero once the set has been parsed.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SetAccessorBenchmark {
+
+	private BenchmarkConfigFiles files;
+
+	private BiocacheConfig config;
+
+	private FieldSet sensitiveFieldSet;
+
+	private int longitudeId;
+
+	private String[] record;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		files = new BenchmarkConfigFiles(100);
+		config = new BiocacheConfig(BiocacheConfig.getConfig(files.overrides(), files.defaults()));
+		FieldSchema schema = FieldSchema.of(Arrays.asList("uuid", "scientificName", "originalSensitiveValues",
+				"originalDecimalLatitude", "originalDecimalLongitude", "originalLocationRemarks", "decimalLatitude",
+				"decimalLongitude", "eventDate", "dataResourceUid"));
+		sensitiveFieldSet = config.sensitiveFields(schema);
+		longitudeId = schema.id("originalDecimalLongitude");
+		record = new String[schema.size()];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		files.close();
+	}
+
+	@Benchmark
+	public Set<String> getSetOrDefault() {
+		return config.getSetOrDefault("sensitive.field", "", ",");
+	}
+
+	@Benchmark
+	public Set<String> getSetOrDefaultMissingKey() {
+		return config.getSetOrDefault("missing.set", "a,b,c", ",");
+	}
+
+	@Benchmark
+	public Set<String> sensitiveFields() {
+		return config.sensitiveFields();
+	}
+
+	@Benchmark
+	public boolean sensitiveFieldsContains() {
+		return config.sensitiveFields().contains("originalDecimalLongitude");
+	}
+
+	@Benchmark
+	public boolean sensitiveFieldSetContains() {
+		return sensitiveFieldSet.contains(longitudeId);
+	}
+
+	@Benchmark
+	public String[] sensitiveFieldSetMask() {
+		Arrays.fill(record, "value");
+		sensitiveFieldSet.mask(record, null);
+		return record;
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * 
+ */
+package au.org.ala.config.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.org.ala.config.AlaConfig;
+import au.org.ala.config.ConfigLayers;
+
+/**
+ * Compares loading a configuration whose overrides include many other files,
+ * reading the files one after another or in parallel.
+ * 
+ * The cold benchmark runs a single load in each of many fresh JVMs, which is
+ * what startup sees. The gain from parallel loading is largest when each file
+ * read has a high latency, such as on a networked file system, so run this
+ * with the temporary directory on that file system, using
+ * <code>-Djava.io.tmpdir</code>, to see the effect there.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int includeCount;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private BenchmarkConfigFiles files;
+
+	private Path overrides;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		files = new BenchmarkConfigFiles(1000);
+		overrides = files.overridesWithIncludes(includeCount);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		files.close();
+	}
+
+	private ImmutableConfiguration load() {
+		return AlaConfig.getConfig(
+				new ConfigLayers(files.defaults()).withOverrides(overrides).withParallelLoading(parallel));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Fork(20)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public ImmutableConfiguration coldLoad() {
+		return load();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Fork(1)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 5)
+	public ImmutableConfiguration warmLoad() {
+		return load();
+	}
+}
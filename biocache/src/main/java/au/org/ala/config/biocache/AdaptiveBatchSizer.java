@@ -0,0 +1,251 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Adjusts the size of Solr batches while indexing, based on how long each
+ * batch takes and whether it fails, instead of always using a fixed size.
+ * 
+ * The batch size follows an additive increase, multiplicative decrease
+ * policy. Each batch that completes within the target latency increases the
+ * size by a fixed step, up to {@link BiocacheProperties#solrBatchSize()}. A
+ * batch that takes longer than the target reduces the size by a quarter, and a
+ * batch that fails halves it. The first batch uses the maximum size.
+ * 
+ * Commits happen after {@link BiocacheProperties#solrHardCommitSize()}
+ * documents while batches are at the maximum size. The commit interval shrinks
+ * in proportion to the batch size, so that while Solr is struggling each
+ * commit is smaller and less work is repeated if indexing fails.
+ * 
+ * Instances are thread safe, so a single instance can be shared by threads
+ * writing to the same Solr collection.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class AdaptiveBatchSizer {
+
+	private static final double SLOW_DECREASE = 0.75;
+
+	private static final double FAILURE_DECREASE = 0.5;
+
+	private final int maxBatchSize;
+
+	private final int hardCommitSize;
+
+	private final long targetLatencyNanos;
+
+	private final int increaseStep;
+
+	private final LongSupplier nanoClock;
+
+	private int batchSize;
+
+	private long uncommitted;
+
+	/**
+	 * @param maxBatchSize
+	 *            The largest batch size to use, which is also the starting size
+	 * @param hardCommitSize
+	 *            The number of documents between commits while batches are at
+	 *            the largest size
+	 * @param targetLatencyMillis
+	 *            The time that each batch should take
+	 * @throws AlaConfigException
+	 *             If any of the values are not positive.
+	 */
+	public AdaptiveBatchSizer(int maxBatchSize, int hardCommitSize, long targetLatencyMillis)
+			throws AlaConfigException {
+		this(maxBatchSize, hardCommitSize, targetLatencyMillis, System::nanoTime);
+	}
+
+	/**
+	 * @param maxBatchSize
+	 *            The largest batch size to use, which is also the starting size
+	 * @param hardCommitSize
+	 *            The number of documents between commits while batches are at
+	 *            the largest size
+	 * @param targetLatencyMillis
+	 *            The time that each batch should take
+	 * @param nanoClock
+	 *            The clock used to time batches in
+	 *            {@link #writeAll(Iterator, BatchSink, int)}, in nanoseconds,
+	 *            such as <code>System::nanoTime</code>
+	 * @throws AlaConfigException
+	 *             If any of the values are not positive.
+	 */
+	public AdaptiveBatchSizer(int maxBatchSize, int hardCommitSize, long targetLatencyMillis, LongSupplier nanoClock)
+			throws AlaConfigException {
+		if (maxBatchSize < 1) {
+			throw new AlaConfigException("Solr batch size must be at least 1: " + maxBatchSize);
+		}
+		if (hardCommitSize < 1) {
+			throw new AlaConfigException("Solr hard commit size must be at least 1: " + hardCommitSize);
+		}
+		if (targetLatencyMillis < 1) {
+			throw new AlaConfigException("Solr batch target latency must be at least 1ms: " + targetLatencyMillis);
+		}
+		this.maxBatchSize = maxBatchSize;
+		this.hardCommitSize = hardCommitSize;
+		this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+		this.increaseStep = Math.max(1, maxBatchSize / 20);
+		this.nanoClock = nanoClock;
+		this.batchSize = maxBatchSize;
+	}
+
+	/**
+	 * Creates a sizer using the Solr batch settings from the configuration.
+	 * 
+	 * @param config
+	 *            The configuration to read the settings from
+	 * @return A new sizer, starting at the configured batch size.
+	 * @throws AlaConfigException
+	 *             If the configured values are not valid.
+	 */
+	public static AdaptiveBatchSizer forConfig(BiocacheProperties config) throws AlaConfigException {
+		return new AdaptiveBatchSizer(config.solrBatchSize(), config.solrHardCommitSize(),
+				config.solrBatchTargetLatencyMillis());
+	}
+
+	/**
+	 * @return The number of documents to put in the next batch.
+	 */
+	public synchronized int batchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return The number of uncommitted documents that should trigger a commit at
+	 *         the current batch size, which is never less than one batch.
+	 */
+	public synchronized long commitInterval() {
+		return Math.max(batchSize, (long) hardCommitSize * batchSize / maxBatchSize);
+	}
+
+	/**
+	 * Records a batch that was written successfully, and adjusts the batch size
+	 * based on how long it took.
+	 * 
+	 * @param documents
+	 *            The number of documents in the batch
+	 * @param latencyNanos
+	 *            The time the batch took to write, in nanoseconds
+	 * @return True if enough documents have been written since the last commit
+	 *         that the caller should commit now.
+	 */
+	public synchronized boolean recordSuccess(int documents, long latencyNanos) {
+		if (latencyNanos > targetLatencyNanos) {
+			batchSize = Math.max(1, (int) (batchSize * SLOW_DECREASE));
+		} else if (documents >= batchSize) {
+			// Only grow when the batch was full, as a small final batch says nothing
+			// about how a larger batch would perform
+			batchSize = Math.min(maxBatchSize, batchSize + increaseStep);
+		}
+		uncommitted += documents;
+		return uncommitted >= commitInterval();
+	}
+
+	/**
+	 * Records a batch that failed, and reduces the batch size.
+	 * 
+	 * @param documents
+	 *            The number of documents in the batch
+	 */
+	public synchronized void recordFailure(int documents) {
+		batchSize = Math.max(1, (int) (Math.min(batchSize, documents) * FAILURE_DECREASE));
+	}
+
+	/**
+	 * @return The number of documents written since the last commit.
+	 */
+	public synchronized long uncommitted() {
+		return uncommitted;
+	}
+
+	/**
+	 * Records that the documents written so far have been committed.
+	 */
+	public synchronized void recordCommit() {
+		uncommitted = 0;
+	}
+
+	/**
+	 * Writes all of the given documents to the sink, using this sizer to choose
+	 * the size of each batch and when to commit, and commits once all of the
+	 * documents have been written if any are not yet committed. A batch that
+	 * fails is retried, in smaller batches, until the given number of
+	 * consecutive failures is reached.
+	 * 
+	 * @param <T>
+	 *            The type of the documents
+	 * @param documents
+	 *            The documents to write
+	 * @param sink
+	 *            The destination for the documents
+	 * @param maxAttempts
+	 *            The number of consecutive failed writes allowed before giving
+	 *            up
+	 * @return The number of documents written.
+	 * @throws IOException
+	 *             If a batch still failed after the given number of attempts, or
+	 *             a commit failed.
+	 */
+	public <T> long writeAll(Iterator<? extends T> documents, BatchSink<T> sink, int maxAttempts)
+			throws IOException {
+		Deque<T> pending = new ArrayDeque<>();
+		long written = 0;
+		int failures = 0;
+		while (!pending.isEmpty() || documents.hasNext()) {
+			int size = batchSize();
+			while (pending.size() < size && documents.hasNext()) {
+				pending.addLast(documents.next());
+			}
+			List<T> batch = new ArrayList<>(Math.min(size, pending.size()));
+			Iterator<T> pendingIterator = pending.iterator();
+			while (batch.size() < size && pendingIterator.hasNext()) {
+				batch.add(pendingIterator.next());
+			}
+			long start = nanoClock.getAsLong();
+			try {
+				sink.write(batch);
+			} catch (IOException e) {
+				recordFailure(batch.size());
+				if (++failures >= maxAttempts) {
+					throw e;
+				}
+				continue;
+			}
+			failures = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				pending.removeFirst();
+			}
+			written += batch.size();
+			if (recordSuccess(batch.size(), nanoClock.getAsLong() - start)) {
+				sink.commit();
+				recordCommit();
+			}
+		}
+		if (uncommitted() > 0) {
+			sink.commit();
+			recordCommit();
+		}
+		return written;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AdaptiveBatchSizer[batchSize=" + batchSize + ", maxBatchSize=" + maxBatchSize
+				+ ", commitInterval=" + commitInterval() + ", uncommitted=" + uncommitted + "]";
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The destination for batches written using an {@link AdaptiveBatchSizer},
+ * such as a Solr client.
+ * 
+ * @param <T>
+ *            The type of the documents in each batch
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public interface BatchSink<T> {
+
+	/**
+	 * Writes a batch of documents. If this throws an exception, the whole batch
+	 * may be written again.
+	 * 
+	 * @param batch
+	 *            The documents to write
+	 * @throws IOException
+	 *             If the batch could not be written
+	 */
+	void write(List<T> batch) throws IOException;
+
+	/**
+	 * Makes the documents written so far durable.
+	 * 
+	 * @throws IOException
+	 *             If the commit failed
+	 */
+	void commit() throws IOException;
+}
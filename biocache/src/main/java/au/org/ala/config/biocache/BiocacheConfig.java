@@ -3,14 +3,24 @@
  */
 package au.org.ala.config.biocache;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.configuration2.ImmutableConfiguration;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Stage;
 
 import au.org.ala.config.AlaConfig;
+import au.org.ala.config.AlaConfigException;
+import au.org.ala.config.ConfigLayers;
+import au.org.ala.config.ConfigModule;
+import au.org.ala.config.ConfigSnapshot;
+import au.org.ala.config.TenantConfigRegistry;
 
 /**
  * The class for instances of {@link AlaConfig} that are used by Biocache
@@ -18,14 +28,39 @@ import au.org.ala.config.AlaConfig;
  * 
  * @author Peter Ansell p_ansell@yahoo.com
  */
-public class BiocacheConfig extends AlaConfig {
+public class BiocacheConfig extends AlaConfig implements BiocacheProperties {
+
+	/**
+	 * The name of the executor for Solr updates in {@link #executors()}.
+	 */
+	public static final String SOLR_EXECUTOR = "solr";
+
+	/**
+	 * The name of the executor for Cassandra updates in {@link #executors()}.
+	 */
+	public static final String CASSANDRA_EXECUTOR = "cassandra";
+
+	/**
+	 * The keys read by this class that are not in {@link BiocacheProperties}.
+	 */
+	private static final List<String> OTHER_KEYS = Collections.unmodifiableList(Arrays.asList("vocab.index.dir",
+			"blacklist.media.urls", "blacklist.media.file", "sampling.cache.precision", "sampling.batch.size",
+			"reference.data.dir"));
+
+	private volatile ResolvedHolder resolvedProperties;
+
+	private volatile ExecutorRegistry executors;
+
+	private volatile BlacklistHolder mediaBlacklist;
 
 	/**
 	 * Create a new instance of BiocacheConfig using the default locations to
-	 * discover the configuration properties.
+	 * discover the configuration properties. System properties and environment
+	 * variables can override any of the keys in {@link #declaredKeys()}, even if
+	 * the keys are not set in a file.
 	 */
 	public BiocacheConfig() {
-		this(getConfig());
+		this(getConfig(ConfigLayers.standard().withKeys(declaredKeys())));
 	}
 
 	/**
@@ -40,19 +75,136 @@ public class BiocacheConfig extends AlaConfig {
 		super(config);
 	}
 
+	/**
+	 * @return Every key read by BiocacheConfig, including the keys that only have
+	 *         defaults in code.
+	 */
+	public static List<String> declaredKeys() {
+		List<String> result = new ArrayList<>(ResolvedBiocacheProperties.KEYS);
+		result.addAll(OTHER_KEYS);
+		for (ReferenceDataCache.Source nextSource : ReferenceDataCache.Source.values()) {
+			result.add(nextSource.ttlKey());
+		}
+		return result;
+	}
+
+	/**
+	 * Create a registry of BiocacheConfig instances for the data resources
+	 * served by one JVM, which parses the defaults once and shares them between
+	 * all of the tenants.
+	 * 
+	 * @return A registry without any tenants, sharing the classpath defaults.
+	 * @throws AlaConfigException
+	 *             If the defaults could not be loaded.
+	 */
+	public static TenantConfigRegistry<BiocacheConfig> newTenantRegistry() throws AlaConfigException {
+		return TenantConfigRegistry.withClasspathDefaults(BiocacheConfig::new);
+	}
+
+	/**
+	 * Binds each configuration key using {@link ConfigModule}, along with this
+	 * instance as {@link BiocacheConfig} and {@link BiocacheProperties}.
+	 */
 	@Override
 	protected AbstractModule getNewModule() {
-		// {
-		// return new AbstractModule() {
-		//
-		// @Override
-		// protected void configure() {
-		// Names.bindProperties(binder(),
-		// ConfigurationConverter.getProperties(immutableConfig));
-		// }
-		// };
-		// }
-		throw new UnsupportedOperationException("TODO: Implement BiocacheConfig.getNewModule");
+		return new ConfigModule(this) {
+			@Override
+			protected void configure() {
+				super.configure();
+				bind(BiocacheConfig.class).toInstance(BiocacheConfig.this);
+				bind(BiocacheProperties.class).toInstance(BiocacheConfig.this);
+			}
+		};
+	}
+
+	/**
+	 * The module only contains instance and lazy provider bindings, so creating
+	 * the Injector in the production stage does not convert any values early.
+	 */
+	@Override
+	protected Stage injectorStage() {
+		return Stage.PRODUCTION;
+	}
+
+	/**
+	 * Get a view of this configuration with every property in
+	 * {@link BiocacheProperties} validated, converted and stored in a final field
+	 * the first time this method is called, and again after each reload. Use this
+	 * in place of the lookup methods on this class inside tight loops.
+	 * 
+	 * @return A pre-resolved implementation of {@link BiocacheProperties}
+	 * @throws AlaConfigException
+	 *             If any of the properties are missing or cannot be converted.
+	 */
+	public BiocacheProperties resolvedProperties() throws AlaConfigException {
+		ConfigSnapshot current = snapshot();
+		ResolvedHolder result = resolvedProperties;
+		if (result == null || result.source != current) {
+			synchronized (this) {
+				result = resolvedProperties;
+				if (result == null || result.source != current) {
+					result = resolvedProperties = new ResolvedHolder(current,
+							new ResolvedBiocacheProperties(current));
+				}
+			}
+		}
+		return result.properties;
+	}
+
+	/**
+	 * Get the executors shared by the Biocache applications using this
+	 * configuration, which include {@link #SOLR_EXECUTOR} and
+	 * {@link #CASSANDRA_EXECUTOR}, sized from {@link #solrUpdateThreads()} and
+	 * {@link #cassandraUpdateThreads()}. The executors are resized after each
+	 * reload.
+	 * 
+	 * @return The shared executor registry for this configuration
+	 */
+	public ExecutorRegistry executors() {
+		ExecutorRegistry result = executors;
+		if (result == null) {
+			synchronized (this) {
+				result = executors;
+				if (result == null) {
+					result = executors = new ExecutorRegistry(this).define(SOLR_EXECUTOR, "solr.update", "4", 1000)
+							.define(CASSANDRA_EXECUTOR, "cassandra.update", "8", 1000);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Resizes the shared executors to match the new configuration.
+	 */
+	@Override
+	protected void reloaded(ConfigSnapshot current) {
+		ExecutorRegistry registry = executors;
+		if (registry != null) {
+			registry.refresh();
+		}
+	}
+
+	/**
+	 * Rejects reloaded configurations that would not be able to be used by
+	 * {@link #resolvedProperties()} or {@link #executors()}.
+	 */
+	@Override
+	protected void validate(ConfigSnapshot candidate) throws AlaConfigException {
+		List<String> errors = new ArrayList<>(ResolvedBiocacheProperties.validate(candidate));
+		if (errors.isEmpty()) {
+			BiocacheProperties resolved = new ResolvedBiocacheProperties(candidate);
+			if (resolved.solrUpdateQueueSize() < 0) {
+				errors.add("solr.update.queue.size: must not be negative: " + resolved.solrUpdateQueueSize());
+			}
+			if (resolved.cassandraUpdateQueueSize() < 0) {
+				errors.add("cassandra.update.queue.size: must not be negative: "
+						+ resolved.cassandraUpdateQueueSize());
+			}
+		}
+		if (!errors.isEmpty()) {
+			throw new AlaConfigException("Invalid configuration for BiocacheProperties: " + String.join(", ", errors));
+		}
 	}
 
 	public String remoteMediaStoreUrl() {
@@ -63,12 +215,36 @@ public class BiocacheConfig extends AlaConfig {
 		return getBooleanOrDefault("hash.image.filenames", false);
 	}
 
+	public String solrUpdateThreadsSpec() {
+		return getOrDefault("solr.update.threads", "4");
+	}
+
 	public int solrUpdateThreads() {
-		return getIntOrDefault("solr.update.threads", 4);
+		return ExecutorRegistry.threadCount(solrUpdateThreadsSpec());
+	}
+
+	public int solrUpdateQueueSize() {
+		return getIntOrDefault("solr.update.queue.size", 1000);
+	}
+
+	public boolean solrUpdateVirtualThreads() {
+		return getBooleanOrDefault("solr.update.virtual.threads", false);
+	}
+
+	public String cassandraUpdateThreadsSpec() {
+		return getOrDefault("cassandra.update.threads", "8");
 	}
 
 	public int cassandraUpdateThreads() {
-		return getIntOrDefault("cassandra.update.threads", 8);
+		return ExecutorRegistry.threadCount(cassandraUpdateThreadsSpec());
+	}
+
+	public int cassandraUpdateQueueSize() {
+		return getIntOrDefault("cassandra.update.queue.size", 1000);
+	}
+
+	public boolean cassandraUpdateVirtualThreads() {
+		return getBooleanOrDefault("cassandra.update.virtual.threads", false);
 	}
 
 	public String volunteerHubUid() {
@@ -87,6 +263,15 @@ public class BiocacheConfig extends AlaConfig {
 		return getOrDefault("vocab.dir", "/data/biocache/vocab/");
 	}
 
+	/**
+	 * @return The directory for the indexes built by {@link VocabularyStore},
+	 *         or empty to use a <code>.index</code> directory inside
+	 *         {@link #vocabDirectory()}
+	 */
+	public String vocabIndexDirectory() {
+		return getOrDefault("vocab.index.dir", "");
+	}
+
 	public String layersDirectory() {
 		return getOrDefault("layers.dir", "/data/biocache/layers/");
 	}
@@ -107,6 +292,20 @@ public class BiocacheConfig extends AlaConfig {
 		return getOrDefault("exclude.sensitive.values", "");
 	}
 
+	/**
+	 * Get the fields from {@link #excludeSensitiveValuesFor()} as a bitset over
+	 * the given schema. Call this once for each schema, outside of per-record
+	 * loops.
+	 * 
+	 * @param schema
+	 *            The schema of the records being processed
+	 * @return The fields to exclude that are in the schema
+	 */
+	public FieldSet excludeSensitiveValuesFor(FieldSchema schema) {
+		String fields = excludeSensitiveValuesFor();
+		return schema.fieldSet(fields.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(fields.split(",")));
+	}
+
 	public String allowCollectoryUpdates() {
 		return getOrDefault("allow.registry.updates", "false");
 	}
@@ -131,8 +330,48 @@ public class BiocacheConfig extends AlaConfig {
 		return getOrDefault("national.checklist.guid.pattern", "biodiversity.org.au");
 	}
 
-	public List<String> blacklistedMediaUrls() {
-		return null;
+	/**
+	 * Get the media URL blacklist, compiled from {@link #blacklistMediaUrlsSpec()}
+	 * and {@link #blacklistMediaFile()} the first time this method is called, and
+	 * again after each reload.
+	 * 
+	 * @return The compiled blacklist, which checks each URL in time proportional
+	 *         to its length
+	 * @throws AlaConfigException
+	 *             If the blacklist file could not be read or contains an invalid
+	 *             pattern, or {@link #blacklistMediaUrlsSpec()} contains a
+	 *             pattern.
+	 */
+	public MediaUrlBlacklist blacklistedMediaUrls() throws AlaConfigException {
+		ConfigSnapshot current = snapshot();
+		BlacklistHolder result = mediaBlacklist;
+		if (result == null || result.source != current) {
+			synchronized (this) {
+				result = mediaBlacklist;
+				if (result == null || result.source != current) {
+					result = mediaBlacklist = new BlacklistHolder(current,
+							MediaUrlBlacklist.load(blacklistMediaUrlsSpec(), Paths.get(blacklistMediaFile())));
+				}
+			}
+		}
+		return result.blacklist;
+	}
+
+	/**
+	 * @return Blacklisted media URL prefixes and hosts, separated by commas, in
+	 *         the formats described by {@link MediaUrlBlacklist}. Patterns must
+	 *         be in {@link #blacklistMediaFile()} instead.
+	 */
+	public String blacklistMediaUrlsSpec() {
+		return getOrDefault("blacklist.media.urls", "");
+	}
+
+	/**
+	 * @return The file containing blacklisted media URL prefixes, hosts and
+	 *         patterns, one on each line, which is ignored if it does not exist.
+	 */
+	public String blacklistMediaFile() {
+		return getOrDefault("blacklist.media.file", "/data/biocache/config/blacklistMediaUrls.txt");
 	}
 
 	public String speciesSubgroupsUrl() {
@@ -151,10 +390,34 @@ public class BiocacheConfig extends AlaConfig {
 		return getOrDefault("registry.url", "http://collections.ala.org.au/ws");
 	}
 
+	/**
+	 * @return The directory that {@link ReferenceDataCache} keeps downloaded
+	 *         reference data in
+	 */
+	public String referenceDataDirectory() {
+		return getOrDefault("reference.data.dir", Paths.get(tmpWorkDir(), "ala-reference-data").toString());
+	}
+
 	public String persistPointsFile() {
 		return getOrDefault("persist.points.file", "");
 	}
 
+	/**
+	 * @return The number of decimal places that points are rounded to in the
+	 *         {@link SamplingCache}
+	 */
+	public int samplingCachePrecision() {
+		return getIntOrDefault("sampling.cache.precision", 4);
+	}
+
+	/**
+	 * @return The maximum number of points sent to the layers service in a
+	 *         single call by the {@link SamplingCache}
+	 */
+	public int samplingBatchSize() {
+		return getIntOrDefault("sampling.batch.size", 1000);
+	}
+
 	public String flickrUsersUrl() {
 		return getOrDefault("flickr.users.url", "http://auth.ala.org.au/userdetails/external/flickr");
 	}
@@ -195,6 +458,10 @@ public class BiocacheConfig extends AlaConfig {
 		return getIntOrDefault("solr.hardcommit.size", 10000);
 	}
 
+	public int solrBatchTargetLatencyMillis() {
+		return getIntOrDefault("solr.batch.target.latency.ms", 2000);
+	}
+
 	public Set<String> stateProvincePrefixFields() {
 		return getSetOrDefault("species.list.prefix", "stateProvince", ",");
 	}
@@ -281,6 +548,18 @@ public class BiocacheConfig extends AlaConfig {
 				",");
 	}
 
+	/**
+	 * Get the fields from {@link #sensitiveFields()} as a bitset over the given
+	 * schema. Call this once for each schema, outside of per-record loops.
+	 * 
+	 * @param schema
+	 *            The schema of the records being processed
+	 * @return The sensitive fields that are in the schema
+	 */
+	public FieldSet sensitiveFields(FieldSchema schema) {
+		return schema.fieldSet(sensitiveFields());
+	}
+
 	public String exportIndexAsCsvPath() {
 		return getOrDefault("export.index.as.csv.path", "");
 	}
@@ -289,4 +568,32 @@ public class BiocacheConfig extends AlaConfig {
 		return getOrDefault("export.index.as.csv.path.sensitive", "");
 	}
 
+	/**
+	 * Pairs the compiled media blacklist with the snapshot it was compiled from,
+	 * so it can be replaced after a reload.
+	 */
+	private static final class BlacklistHolder {
+		private final ConfigSnapshot source;
+		private final MediaUrlBlacklist blacklist;
+
+		private BlacklistHolder(ConfigSnapshot source, MediaUrlBlacklist blacklist) {
+			this.source = source;
+			this.blacklist = blacklist;
+		}
+	}
+
+	/**
+	 * Pairs the resolved properties with the snapshot they were resolved from, so
+	 * they can be replaced after a reload.
+	 */
+	private static final class ResolvedHolder {
+		private final ConfigSnapshot source;
+		private final BiocacheProperties properties;
+
+		private ResolvedHolder(ConfigSnapshot source, BiocacheProperties properties) {
+			this.source = source;
+			this.properties = properties;
+		}
+	}
+
 }
@@ -0,0 +1,237 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.util.Set;
+
+import au.org.ala.config.ConfigProperties;
+import au.org.ala.config.ConfigProperty;
+
+/**
+ * The keys and defaults for the properties used by Biocache applications.
+ * 
+ * {@link BiocacheConfig} looks up each of these on every call, while
+ * {@link ResolvedBiocacheProperties}, which is generated from this interface at
+ * compile time, resolves them all once and returns them from final fields.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@ConfigProperties
+public interface BiocacheProperties {
+
+	@ConfigProperty(key = "media.store.url", defaultValue = "")
+	String remoteMediaStoreUrl();
+
+	@ConfigProperty(key = "hash.image.filenames", defaultValue = "false")
+	boolean hashImageFileNames();
+
+	/**
+	 * @return The number of Solr update threads, as a number or relative to the
+	 *         number of processors. See {@link ExecutorRegistry#threadCount(String)}.
+	 */
+	@ConfigProperty(key = "solr.update.threads", defaultValue = "4")
+	String solrUpdateThreadsSpec();
+
+	/**
+	 * @return The number of Solr update threads, after resolving values that are
+	 *         relative to the number of processors.
+	 */
+	@ConfigProperty(key = "solr.update.threads", defaultValue = "4", parser = "ExecutorRegistry.threadCount")
+	int solrUpdateThreads();
+
+	@ConfigProperty(key = "solr.update.queue.size", defaultValue = "1000")
+	int solrUpdateQueueSize();
+
+	@ConfigProperty(key = "solr.update.virtual.threads", defaultValue = "false")
+	boolean solrUpdateVirtualThreads();
+
+	/**
+	 * @return The number of Cassandra update threads, as a number or relative to
+	 *         the number of processors. See
+	 *         {@link ExecutorRegistry#threadCount(String)}.
+	 */
+	@ConfigProperty(key = "cassandra.update.threads", defaultValue = "8")
+	String cassandraUpdateThreadsSpec();
+
+	/**
+	 * @return The number of Cassandra update threads, after resolving values
+	 *         that are relative to the number of processors.
+	 */
+	@ConfigProperty(key = "cassandra.update.threads", defaultValue = "8", parser = "ExecutorRegistry.threadCount")
+	int cassandraUpdateThreads();
+
+	@ConfigProperty(key = "cassandra.update.queue.size", defaultValue = "1000")
+	int cassandraUpdateQueueSize();
+
+	@ConfigProperty(key = "cassandra.update.virtual.threads", defaultValue = "false")
+	boolean cassandraUpdateVirtualThreads();
+
+	@ConfigProperty(key = "volunteer.hub.uid", defaultValue = "")
+	String volunteerHubUid();
+
+	@ConfigProperty(key = "registry.api.key", defaultValue = "xxxxxxxxxxxxxxxxx")
+	String collectoryApiKey();
+
+	@ConfigProperty(key = "load.dir", defaultValue = "/data/biocache-load/")
+	String loadFileStore();
+
+	@ConfigProperty(key = "vocab.dir", defaultValue = "/data/biocache/vocab/")
+	String vocabDirectory();
+
+	@ConfigProperty(key = "layers.dir", defaultValue = "/data/biocache/layers/")
+	String layersDirectory();
+
+	@ConfigProperty(key = "deleted.file.store", defaultValue = "/data/biocache-delete/")
+	String deletedFileStore();
+
+	@ConfigProperty(key = "media.dir", defaultValue = "/data/biocache-media/")
+	String mediaFileStore();
+
+	@ConfigProperty(key = "media.url", defaultValue = "http://biocache.ala.org.au/biocache-media")
+	String mediaBaseUrl();
+
+	@ConfigProperty(key = "exclude.sensitive.values", defaultValue = "")
+	String excludeSensitiveValuesFor();
+
+	@ConfigProperty(key = "allow.registry.updates", defaultValue = "false")
+	String allowCollectoryUpdates();
+
+	@ConfigProperty(key = "extra.misc.fields", defaultValue = "")
+	String extraMiscFields();
+
+	@ConfigProperty(key = "technical.contact", defaultValue = "support@ala.org.au")
+	String technicalContact();
+
+	@ConfigProperty(key = "irmng.archive.url",
+			defaultValue = "http://www.cmar.csiro.au/datacentre/downloads/IRMNG_DWC.zip")
+	String irmngDwcArchiveUrl();
+
+	@ConfigProperty(key = "obey.sds.is.loadable", defaultValue = "true")
+	boolean obeySDSIsLoadable();
+
+	@ConfigProperty(key = "national.checklist.guid.pattern", defaultValue = "biodiversity.org.au")
+	String nationalChecklistIdentifierPattern();
+
+	@ConfigProperty(key = "species.subgroups.url", defaultValue = "http://bie.ala.org.au/subgroups.json")
+	String speciesSubgroupsUrl();
+
+	@ConfigProperty(key = "list.tool.url", defaultValue = "http://lists.ala.org.au")
+	String listToolUrl();
+
+	@ConfigProperty(key = "volunteer.url", defaultValue = "http://volunteer.ala.org.au")
+	String volunteerUrl();
+
+	@ConfigProperty(key = "registry.url", defaultValue = "http://collections.ala.org.au/ws")
+	String registryUrl();
+
+	@ConfigProperty(key = "persist.points.file", defaultValue = "")
+	String persistPointsFile();
+
+	@ConfigProperty(key = "flickr.users.url", defaultValue = "http://auth.ala.org.au/userdetails/external/flickr")
+	String flickrUsersUrl();
+
+	@ConfigProperty(key = "reindex.url")
+	String reindexUrl();
+
+	@ConfigProperty(key = "reindex.data")
+	String reindexData();
+
+	@ConfigProperty(key = "reindex.data.resource.url")
+	String reindexViewDataResourceUrl();
+
+	@ConfigProperty(key = "layers.service.url")
+	String layersServiceUrl();
+
+	@ConfigProperty(key = "layers.service.sampling", defaultValue = "true")
+	boolean layersServiceSampling();
+
+	@ConfigProperty(key = "layers.service.retries", defaultValue = "10")
+	int layerServiceRetries();
+
+	@ConfigProperty(key = "webservices.root", defaultValue = "http://biocache.ala.org.au/ws")
+	String biocacheServiceUrl();
+
+	@ConfigProperty(key = "solr.batch.size", defaultValue = "1000")
+	int solrBatchSize();
+
+	@ConfigProperty(key = "solr.hardcommit.size", defaultValue = "10000")
+	int solrHardCommitSize();
+
+	/**
+	 * @return The time that a Solr batch should take, which
+	 *         {@link AdaptiveBatchSizer} tries to stay under.
+	 */
+	@ConfigProperty(key = "solr.batch.target.latency.ms", defaultValue = "2000")
+	int solrBatchTargetLatencyMillis();
+
+	@ConfigProperty(key = "species.list.prefix", defaultValue = "stateProvince")
+	Set<String> stateProvincePrefixFields();
+
+	@ConfigProperty(key = "species.list.index.keys", defaultValue = "category,status,sourceStatus")
+	Set<String> speciesListIndexValues();
+
+	@ConfigProperty(key = "include.species.lists", defaultValue = "false")
+	boolean loadSpeciesLists();
+
+	@ConfigProperty(key = "taxon.profiles.enabled", defaultValue = "true")
+	boolean taxonProfilesEnabled();
+
+	@ConfigProperty(key = "local.node.ip", defaultValue = "127.0.0.1")
+	String localNodeIp();
+
+	@ConfigProperty(key = "zookeeper.address", defaultValue = "127.0.0.1:2181")
+	String zookeeperAddress();
+
+	@ConfigProperty(key = "zookeeper.updates.enabled", defaultValue = "false")
+	boolean zookeeperUpdatesEnabled();
+
+	@ConfigProperty(key = "node.number", defaultValue = "0")
+	int nodeNumber();
+
+	@ConfigProperty(key = "cassandra.token.split", defaultValue = "1")
+	int cassandraTokenSplit();
+
+	@ConfigProperty(key = "cluster.size", defaultValue = "1")
+	int clusterSize();
+
+	@ConfigProperty(key = "layer.state.province", defaultValue = "cl927")
+	String stateProvinceLayerID();
+
+	@ConfigProperty(key = "layer.terrestrial", defaultValue = "cl1048")
+	String terrestrialLayerID();
+
+	@ConfigProperty(key = "layer.marine", defaultValue = "cl21")
+	String marineLayerID();
+
+	@ConfigProperty(key = "layer.countries", defaultValue = "cl932")
+	String countriesLayerID();
+
+	@ConfigProperty(key = "layer.localgov", defaultValue = "cl959")
+	String localGovLayerID();
+
+	@ConfigProperty(key = "gridref.indexing.enabled", defaultValue = "false")
+	boolean gridRefIndexingEnabled();
+
+	@ConfigProperty(key = "default.country", defaultValue = "Australia")
+	String defaultCountry();
+
+	@ConfigProperty(key = "additional.fields.to.index", defaultValue = "")
+	Set<String> additionalFieldsToIndex();
+
+	@ConfigProperty(key = "sds.url", defaultValue = "http://sds.ala.org.au")
+	String sdsUrl();
+
+	@ConfigProperty(key = "sds.enabled", defaultValue = "true")
+	boolean sdsEnabled();
+
+	@ConfigProperty(key = "sensitive.field",
+			defaultValue = "originalSensitiveValues,originalDecimalLatitude,originalDecimalLongitude,originalLocationRemarks,originalVerbatimLatitude,originalVerbatimLongitude")
+	Set<String> sensitiveFields();
+
+	@ConfigProperty(key = "export.index.as.csv.path", defaultValue = "")
+	String exportIndexAsCsvPath();
+
+	@ConfigProperty(key = "export.index.as.csv.path.sensitive", defaultValue = "")
+	String exportIndexAsCsvPathSensitive();
+}
@@ -0,0 +1,232 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An executor from an {@link ExecutorRegistry}, which limits the number of
+ * tasks that have been submitted but not completed. Once the limit is reached,
+ * threads submitting tasks block until a task completes, which pushes back on
+ * producers instead of letting the queue grow without bound.
+ * 
+ * For a pool of platform threads the limit is the number of threads plus the
+ * queue capacity. Virtual threads are not pooled, so the limit is the number of
+ * threads, and tasks waiting for a permit are counted as queued.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+final class BoundedExecutor extends AbstractExecutorService {
+
+	private final String name;
+
+	private final ExecutorService delegate;
+
+	/**
+	 * The platform thread pool, or null if tasks run on virtual threads.
+	 */
+	private final ThreadPoolExecutor pool;
+
+	private final ResizableSemaphore permits = new ResizableSemaphore();
+
+	private int threads;
+
+	private int queueCapacity;
+
+	private int limit;
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final LongAdder completed = new LongAdder();
+
+	private final LongAdder queueWaitNanos = new LongAdder();
+
+	private final LongAdder runNanos = new LongAdder();
+
+	BoundedExecutor(String name, ExecutorService delegate, ThreadPoolExecutor pool, int threads,
+			int queueCapacity) {
+		this.name = name;
+		this.delegate = delegate;
+		this.pool = pool;
+		resize(threads, queueCapacity);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (delegate.isShutdown()) {
+			throw new RejectedExecutionException("Executor has been shut down: " + name);
+		}
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while waiting to submit to executor: " + name, e);
+		}
+		long submitted = System.nanoTime();
+		queued.incrementAndGet();
+		try {
+			delegate.execute(new Task(command, submitted));
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * A submitted task, which records its timings and releases its permit when
+	 * it completes.
+	 */
+	private final class Task implements Runnable {
+		private final Runnable command;
+		private final long submitted;
+
+		Task(Runnable command, long submitted) {
+			this.command = command;
+			this.submitted = submitted;
+		}
+
+		@Override
+		public void run() {
+			long started = System.nanoTime();
+			queued.decrementAndGet();
+			active.incrementAndGet();
+			queueWaitNanos.add(started - submitted);
+			try {
+				command.run();
+			} finally {
+				active.decrementAndGet();
+				runNanos.add(System.nanoTime() - started);
+				completed.increment();
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * Changes the number of threads and the queue capacity. Tasks that are
+	 * already running or queued are not affected.
+	 * 
+	 * @param newThreads
+	 *            The number of threads, or the number of concurrent tasks for
+	 *            virtual threads
+	 * @param newQueueCapacity
+	 *            The number of tasks that can wait for a platform thread
+	 */
+	synchronized void resize(int newThreads, int newQueueCapacity) {
+		if (pool != null) {
+			// The core size can never be above the maximum size, so order the
+			// changes based on whether the pool is growing or shrinking
+			if (newThreads > pool.getMaximumPoolSize()) {
+				pool.setMaximumPoolSize(newThreads);
+				pool.setCorePoolSize(newThreads);
+			} else {
+				pool.setCorePoolSize(newThreads);
+				pool.setMaximumPoolSize(newThreads);
+			}
+		}
+		int newLimit = pool != null ? newThreads + newQueueCapacity : newThreads;
+		if (newLimit > limit) {
+			permits.release(newLimit - limit);
+		} else if (newLimit < limit) {
+			permits.reduce(limit - newLimit);
+		}
+		this.threads = newThreads;
+		this.queueCapacity = newQueueCapacity;
+		this.limit = newLimit;
+	}
+
+	/**
+	 * @return The current counts and timings for this executor.
+	 */
+	synchronized ExecutorMetrics metrics() {
+		long completedTasks = completed.sum();
+		return new ExecutorMetrics(name, pool == null, threads, pool != null ? queueCapacity : 0,
+				queued.get() + permits.getQueueLength(), active.get(), completedTasks,
+				meanMillis(queueWaitNanos.sum(), completedTasks), meanMillis(runNanos.sum(), completedTasks));
+	}
+
+	private static double meanMillis(long totalNanos, long count) {
+		return count == 0 ? 0 : totalNanos / (double) count / 1000000.0;
+	}
+
+	boolean isVirtual() {
+		return pool == null;
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	/**
+	 * Releases the permits for the tasks that never started, so that threads
+	 * waiting to submit are rejected instead of waiting forever.
+	 * 
+	 * @return The tasks that were submitted but never started, as they were
+	 *         given to {@link #execute(Runnable)}.
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> drained = delegate.shutdownNow();
+		List<Runnable> result = new ArrayList<>(drained.size());
+		for (Runnable nextTask : drained) {
+			if (nextTask instanceof Task) {
+				queued.decrementAndGet();
+				permits.release();
+				result.add(((Task) nextTask).command);
+			} else {
+				result.add(nextTask);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public String toString() {
+		return "BoundedExecutor[" + name + "]";
+	}
+
+	/**
+	 * Exposes {@link Semaphore#reducePermits(int)} so that the limit can be
+	 * lowered without waiting for tasks to complete.
+	 */
+	private static final class ResizableSemaphore extends Semaphore {
+		private static final long serialVersionUID = -3460911513717564707L;
+
+		ResizableSemaphore() {
+			super(0, true);
+		}
+
+		void reduce(int reduction) {
+			reducePermits(reduction);
+		}
+	}
+}
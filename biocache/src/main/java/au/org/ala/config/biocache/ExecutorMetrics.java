@@ -0,0 +1,111 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+/**
+ * The counts and timings for one of the executors in an
+ * {@link ExecutorRegistry} at a point in time.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ExecutorMetrics {
+
+	private final String name;
+	private final boolean virtual;
+	private final int threads;
+	private final int queueCapacity;
+	private final int queueDepth;
+	private final int activeTasks;
+	private final long completedTasks;
+	private final double meanQueueWaitMillis;
+	private final double meanRunMillis;
+
+	ExecutorMetrics(String name, boolean virtual, int threads, int queueCapacity, int queueDepth, int activeTasks,
+			long completedTasks, double meanQueueWaitMillis, double meanRunMillis) {
+		this.name = name;
+		this.virtual = virtual;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		this.queueDepth = queueDepth;
+		this.activeTasks = activeTasks;
+		this.completedTasks = completedTasks;
+		this.meanQueueWaitMillis = meanQueueWaitMillis;
+		this.meanRunMillis = meanRunMillis;
+	}
+
+	/**
+	 * @return The name of the executor.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return True if tasks run on virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * @return The configured number of threads, or the number of concurrent
+	 *         tasks for virtual threads.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return The number of tasks that can wait for a thread before submitters
+	 *         block, which is zero for virtual threads.
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * @return The number of tasks waiting to start, including tasks whose
+	 *         submitters are blocked because the executor is full.
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return The number of tasks that are running.
+	 */
+	public int getActiveTasks() {
+		return activeTasks;
+	}
+
+	/**
+	 * @return The number of tasks that have completed, including tasks that
+	 *         threw exceptions.
+	 */
+	public long getCompletedTasks() {
+		return completedTasks;
+	}
+
+	/**
+	 * @return The mean time completed tasks waited between being accepted and
+	 *         starting, in milliseconds.
+	 */
+	public double getMeanQueueWaitMillis() {
+		return meanQueueWaitMillis;
+	}
+
+	/**
+	 * @return The mean time completed tasks took to run, in milliseconds.
+	 */
+	public double getMeanRunMillis() {
+		return meanRunMillis;
+	}
+
+	@Override
+	public String toString() {
+		return name + " [virtual=" + virtual + ", threads=" + threads + ", queueCapacity=" + queueCapacity
+				+ ", queueDepth=" + queueDepth + ", activeTasks=" + activeTasks + ", completedTasks=" + completedTasks
+				+ ", meanQueueWaitMillis=" + meanQueueWaitMillis + ", meanRunMillis=" + meanRunMillis + "]";
+	}
+}
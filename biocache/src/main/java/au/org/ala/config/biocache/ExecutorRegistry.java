@@ -0,0 +1,342 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ala.config.AlaConfig;
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Shared, named executors that are sized from the configuration, so that each
+ * consumer does not need to create its own thread pool.
+ * 
+ * Each executor is defined with a key prefix, and is configured using:
+ * <ul>
+ * <li><code>prefix.threads</code>: The number of threads, either as a number or
+ * relative to the number of processors, such as <code>2x cores</code>. See
+ * {@link #threadCount(String)}.</li>
+ * <li><code>prefix.queue.size</code>: The number of tasks that can wait for a
+ * thread. Once the queue is full, threads submitting tasks block until there is
+ * space.</li>
+ * <li><code>prefix.virtual.threads</code>: If true, each task runs on its own
+ * virtual thread, with the number of threads limiting the number of tasks
+ * running at once. This is intended for tasks that spend most of their time
+ * waiting for Solr or Cassandra, and falls back to platform threads if the JVM
+ * does not support virtual threads.</li>
+ * </ul>
+ * 
+ * Executors are created the first time they are requested. Call
+ * {@link #refresh()} after the configuration changes to resize them.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ExecutorRegistry implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ExecutorRegistry.class);
+
+	private static final String CORES_SUFFIX = "cores";
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor, which is looked up by name as it
+	 * is not available on all of the JVMs this library supports.
+	 */
+	private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutorFactory();
+
+	private final AlaConfig config;
+
+	private final ConcurrentMap<String, Definition> definitions = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, BoundedExecutor> executors = new ConcurrentHashMap<>();
+
+	private volatile boolean closed;
+
+	/**
+	 * @param config
+	 *            The configuration to read the executor settings from
+	 */
+	public ExecutorRegistry(AlaConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * Defines an executor, which is created the first time it is requested.
+	 * 
+	 * @param name
+	 *            The name to request the executor by
+	 * @param keyPrefix
+	 *            The prefix for the configuration keys for the executor
+	 * @param defaultThreads
+	 *            The number of threads if the configuration does not specify it,
+	 *            in the same format as the configuration
+	 * @param defaultQueueSize
+	 *            The queue size if the configuration does not specify it
+	 * @return This registry, so that calls can be chained.
+	 */
+	public ExecutorRegistry define(String name, String keyPrefix, String defaultThreads, int defaultQueueSize) {
+		definitions.put(name, new Definition(name, keyPrefix, defaultThreads, defaultQueueSize));
+		return this;
+	}
+
+	/**
+	 * Gets the executor with the given name, creating it if this is the first
+	 * request for it.
+	 * 
+	 * @param name
+	 *            The name of the executor
+	 * @return The shared executor, which must not be shut down by callers.
+	 * @throws AlaConfigException
+	 *             If no executor has been defined with the name, its
+	 *             configuration is not valid, or the registry has been closed.
+	 */
+	public ExecutorService executor(String name) throws AlaConfigException {
+		if (closed) {
+			throw new AlaConfigException("Executor registry has been closed");
+		}
+		BoundedExecutor result = executors.get(name);
+		if (result == null) {
+			Definition definition = definitions.get(name);
+			if (definition == null) {
+				throw new AlaConfigException("No executor has been defined with the name: " + name);
+			}
+			// Creating is serialised with close, so an executor is never created
+			// after the registry has shut the others down
+			synchronized (this) {
+				if (closed) {
+					throw new AlaConfigException("Executor registry has been closed");
+				}
+				result = executors.computeIfAbsent(name, n -> create(definition));
+			}
+		}
+		return result;
+	}
+
+	private BoundedExecutor create(Definition definition) {
+		int threads = definition.threads(config);
+		int queueSize = definition.queueSize(config);
+		if (definition.virtual(config)) {
+			ExecutorService virtual = newVirtualExecutor();
+			if (virtual != null) {
+				log.info("Creating executor {} using virtual threads, with at most {} tasks running", definition.name,
+						threads);
+				return new BoundedExecutor(definition.name, virtual, null, threads, queueSize);
+			}
+			log.warn("Virtual threads are not supported by this JVM, using platform threads for executor {}",
+					definition.name);
+		}
+		log.info("Creating executor {} with {} threads and a queue of {}", definition.name, threads, queueSize);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), threadFactory(definition.name));
+		return new BoundedExecutor(definition.name, pool, pool, threads, queueSize);
+	}
+
+	/**
+	 * Reads the settings for each executor that has been created again, and
+	 * resizes the executors to match. Switching between platform and virtual
+	 * threads requires a restart.
+	 * 
+	 * @throws AlaConfigException
+	 *             If the configuration for any executor is not valid, in which
+	 *             case none of the executors are changed.
+	 */
+	public void refresh() throws AlaConfigException {
+		// Every setting is read before any executor is resized, so an invalid
+		// setting does not leave some executors resized and others not
+		List<Resize> resizes = new ArrayList<>();
+		List<String> errors = new ArrayList<>();
+		for (Map.Entry<String, BoundedExecutor> nextEntry : executors.entrySet()) {
+			Definition definition = definitions.get(nextEntry.getKey());
+			BoundedExecutor executor = nextEntry.getValue();
+			try {
+				resizes.add(new Resize(executor, definition.threads(config), definition.queueSize(config)));
+				if (definition.virtual(config) != executor.isVirtual() && NEW_VIRTUAL_EXECUTOR != null) {
+					log.warn("Changing between platform and virtual threads for executor {} requires a restart",
+							definition.name);
+				}
+			} catch (AlaConfigException e) {
+				errors.add(definition.name + ": " + e.getMessage());
+			}
+		}
+		if (!errors.isEmpty()) {
+			throw new AlaConfigException("Invalid configuration for executors: " + String.join(", ", errors));
+		}
+		for (Resize nextResize : resizes) {
+			nextResize.executor.resize(nextResize.threads, nextResize.queueSize);
+		}
+	}
+
+	/**
+	 * @return The current counts and timings for each executor that has been
+	 *         created, sorted by name.
+	 */
+	public Map<String, ExecutorMetrics> metrics() {
+		Map<String, ExecutorMetrics> result = new TreeMap<>();
+		executors.forEach((name, executor) -> result.put(name, executor.metrics()));
+		return result;
+	}
+
+	/**
+	 * Shuts down each executor, allowing tasks that have already been submitted
+	 * to complete.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (BoundedExecutor nextExecutor : executors.values()) {
+			nextExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Parses a number of threads, which is either a positive integer, or a
+	 * multiple of the number of available processors such as
+	 * <code>2x cores</code>, <code>0.5x cores</code> or <code>cores</code>.
+	 * 
+	 * @param spec
+	 *            The number of threads
+	 * @return The number of threads, which is always at least one.
+	 * @throws AlaConfigException
+	 *             If the number of threads could not be parsed.
+	 */
+	public static int threadCount(String spec) throws AlaConfigException {
+		return threadCount(spec, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Parses a number of threads as for {@link #threadCount(String)}, using the
+	 * given number of processors.
+	 * 
+	 * @param spec
+	 *            The number of threads
+	 * @param cores
+	 *            The number of processors
+	 * @return The number of threads, which is always at least one.
+	 * @throws AlaConfigException
+	 *             If the number of threads could not be parsed.
+	 */
+	public static int threadCount(String spec, int cores) throws AlaConfigException {
+		String normalised = spec.trim().toLowerCase(Locale.ROOT);
+		try {
+			if (normalised.endsWith(CORES_SUFFIX)) {
+				String multiplier = normalised.substring(0, normalised.length() - CORES_SUFFIX.length()).trim();
+				if (multiplier.isEmpty()) {
+					return Math.max(1, cores);
+				}
+				if (!multiplier.endsWith("x")) {
+					throw new AlaConfigException("Invalid thread count: " + spec);
+				}
+				double factor = Double.parseDouble(multiplier.substring(0, multiplier.length() - 1).trim());
+				if (!(factor > 0) || Double.isInfinite(factor)) {
+					throw new AlaConfigException("Invalid thread count: " + spec);
+				}
+				return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(factor * cores)));
+			}
+			int result = Integer.parseInt(normalised);
+			if (result < 1) {
+				throw new AlaConfigException("Thread count must be at least 1: " + spec);
+			}
+			return result;
+		} catch (NumberFormatException e) {
+			throw new AlaConfigException("Invalid thread count: " + spec, e);
+		}
+	}
+
+	private static ThreadFactory threadFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread result = new Thread(r, "ala-" + name + "-" + count.incrementAndGet());
+			result.setDaemon(true);
+			return result;
+		};
+	}
+
+	private static Method findVirtualExecutorFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return A virtual thread executor, or null if the JVM does not support
+	 *         them, including JVMs that only support them as a preview feature.
+	 */
+	private static ExecutorService newVirtualExecutor() {
+		if (NEW_VIRTUAL_EXECUTOR == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			log.debug("Could not create virtual thread executor", e);
+			return null;
+		}
+	}
+
+	/**
+	 * The new size for an executor, which is applied once the sizes for all of
+	 * the executors have been read.
+	 */
+	private static final class Resize {
+		private final BoundedExecutor executor;
+		private final int threads;
+		private final int queueSize;
+
+		Resize(BoundedExecutor executor, int threads, int queueSize) {
+			this.executor = executor;
+			this.threads = threads;
+			this.queueSize = queueSize;
+		}
+	}
+
+	private static final class Definition {
+		private final String name;
+		private final String keyPrefix;
+		private final String defaultThreads;
+		private final int defaultQueueSize;
+
+		Definition(String name, String keyPrefix, String defaultThreads, int defaultQueueSize) {
+			this.name = name;
+			this.keyPrefix = keyPrefix;
+			this.defaultThreads = defaultThreads;
+			this.defaultQueueSize = defaultQueueSize;
+		}
+
+		int threads(AlaConfig config) {
+			return threadCount(config.getOrDefault(keyPrefix + ".threads", defaultThreads));
+		}
+
+		int queueSize(AlaConfig config) {
+			int result = config.getIntOrDefault(keyPrefix + ".queue.size", defaultQueueSize);
+			if (result < 0) {
+				throw new AlaConfigException("Queue size must not be negative for executor " + name + ": " + result);
+			}
+			return result;
+		}
+
+		boolean virtual(AlaConfig config) {
+			return config.getBooleanOrDefault(keyPrefix + ".virtual.threads", false);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Assigns each known record field name an int id, so that per-record code can
+ * refer to fields by their position in an array of values instead of hashing
+ * their names.
+ * 
+ * Ids are the positions of the fields in the list the schema was created from,
+ * so an array of field values in that order can be masked directly using a
+ * {@link FieldSet} from this schema.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class FieldSchema {
+
+	private final List<String> fields;
+
+	private final Map<String, Integer> ids;
+
+	private FieldSchema(List<String> fields, Map<String, Integer> ids) {
+		this.fields = fields;
+		this.ids = ids;
+	}
+
+	/**
+	 * Creates a schema from the given field names.
+	 * 
+	 * @param fields
+	 *            The field names, in the order of their ids
+	 * @return A schema where the id of each field is its position in the list
+	 * @throws AlaConfigException
+	 *             If a field name is repeated.
+	 */
+	public static FieldSchema of(List<String> fields) throws AlaConfigException {
+		Map<String, Integer> ids = new HashMap<>(Math.max(16, (int) (fields.size() / 0.75f) + 1));
+		for (int i = 0; i < fields.size(); i++) {
+			if (ids.put(fields.get(i), i) != null) {
+				throw new AlaConfigException("Field is repeated in schema: " + fields.get(i));
+			}
+		}
+		return new FieldSchema(Collections.unmodifiableList(new ArrayList<>(fields)), ids);
+	}
+
+	/**
+	 * @param field
+	 *            The field name to find
+	 * @return The id for the field, or -1 if it is not in this schema.
+	 */
+	public int id(String field) {
+		Integer result = ids.get(field);
+		return result == null ? -1 : result;
+	}
+
+	/**
+	 * @param id
+	 *            The id of a field in this schema
+	 * @return The name of the field.
+	 */
+	public String field(int id) {
+		return fields.get(id);
+	}
+
+	/**
+	 * @return The field names, in the order of their ids.
+	 */
+	public List<String> fields() {
+		return fields;
+	}
+
+	/**
+	 * @return The number of fields in this schema.
+	 */
+	public int size() {
+		return fields.size();
+	}
+
+	/**
+	 * Creates the set of the given fields that are in this schema. Fields that
+	 * are not in this schema are ignored, as no record using this schema can
+	 * contain them.
+	 * 
+	 * @param fieldNames
+	 *            The field names to include
+	 * @return An immutable set of the ids of the fields.
+	 */
+	public FieldSet fieldSet(Collection<String> fieldNames) {
+		long[] words = new long[(fields.size() + 63) >>> 6];
+		for (String nextField : fieldNames) {
+			int nextId = id(nextField.trim());
+			if (nextId >= 0) {
+				words[nextId >>> 6] |= 1L << nextId;
+			}
+		}
+		return new FieldSet(this, words);
+	}
+
+	@Override
+	public String toString() {
+		return "FieldSchema" + fields;
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable set of fields from a {@link FieldSchema}, stored as a bitset
+ * over the field ids, so that checking whether a field is in the set is a
+ * single bit test.
+ * 
+ * Create instances using {@link FieldSchema#fieldSet(java.util.Collection)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class FieldSet {
+
+	private final FieldSchema schema;
+
+	private final long[] words;
+
+	FieldSet(FieldSchema schema, long[] words) {
+		this.schema = schema;
+		this.words = words;
+	}
+
+	/**
+	 * @param id
+	 *            The id of a field in the schema for this set
+	 * @return True if the field is in this set.
+	 */
+	public boolean contains(int id) {
+		int word = id >>> 6;
+		return word < words.length && (words[word] & (1L << id)) != 0;
+	}
+
+	/**
+	 * Checks whether a field is in this set by name, which needs a lookup in the
+	 * schema. Use {@link #contains(int)} in per-record code.
+	 * 
+	 * @param field
+	 *            The field name
+	 * @return True if the field is in this set.
+	 */
+	public boolean contains(String field) {
+		int id = schema.id(field);
+		return id >= 0 && contains(id);
+	}
+
+	/**
+	 * @param fromId
+	 *            The id to start from
+	 * @return The lowest id in this set that is at least the given id, or -1 if
+	 *         there is none.
+	 */
+	public int nextId(int fromId) {
+		int word = fromId >>> 6;
+		if (word >= words.length) {
+			return -1;
+		}
+		long bits = words[word] & (-1L << fromId);
+		while (true) {
+			if (bits != 0) {
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+			if (++word == words.length) {
+				return -1;
+			}
+			bits = words[word];
+		}
+	}
+
+	/**
+	 * Replaces the values for the fields in this set with the given replacement,
+	 * without allocating.
+	 * 
+	 * @param values
+	 *            The field values for a record, in the order of the ids in the
+	 *            schema for this set. Values past the end of the array are
+	 *            ignored.
+	 * @param replacement
+	 *            The value to use in place of each value in this set, such as
+	 *            null or an empty string
+	 * @return The number of values that were replaced.
+	 */
+	public <T> int mask(T[] values, T replacement) {
+		int result = 0;
+		for (int nextId = nextId(0); nextId >= 0 && nextId < values.length; nextId = nextId(nextId + 1)) {
+			values[nextId] = replacement;
+			result++;
+		}
+		return result;
+	}
+
+	/**
+	 * @param other
+	 *            Another set from the same schema
+	 * @return A set containing the fields in either set.
+	 * @throws IllegalArgumentException
+	 *             If the other set is from a different schema.
+	 */
+	public FieldSet union(FieldSet other) {
+		if (other.schema != schema) {
+			throw new IllegalArgumentException("Field sets are from different schemas");
+		}
+		long[] result = words.clone();
+		for (int i = 0; i < result.length; i++) {
+			result[i] |= other.words[i];
+		}
+		return new FieldSet(schema, result);
+	}
+
+	/**
+	 * @return The number of fields in this set.
+	 */
+	public int size() {
+		int result = 0;
+		for (long nextWord : words) {
+			result += Long.bitCount(nextWord);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The schema the ids in this set are from.
+	 */
+	public FieldSchema schema() {
+		return schema;
+	}
+
+	/**
+	 * @return The names of the fields in this set, in the order of their ids.
+	 */
+	public List<String> fields() {
+		List<String> result = new ArrayList<>(size());
+		for (int nextId = nextId(0); nextId >= 0; nextId = nextId(nextId + 1)) {
+			result.add(schema.field(nextId));
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "FieldSet" + fields();
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Samples points against environmental and contextual layers, such as the
+ * layers service at {@link BiocacheConfig#layersServiceUrl()}.
+ * 
+ * {@link SamplingCache} only calls this for points that it has not sampled
+ * before.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+@FunctionalInterface
+public interface LayerSampler {
+
+	/**
+	 * Samples the given points against the given layers.
+	 * 
+	 * @param latitudes
+	 *            The latitudes of the points
+	 * @param longitudes
+	 *            The longitudes of the points, in the same order as the
+	 *            latitudes
+	 * @param layerIds
+	 *            The layers to sample, such as
+	 *            {@link BiocacheConfig#stateProvinceLayerID()}
+	 * @return The values for each point, with one value for each layer in the
+	 *         same order as the layer ids, and null where the point has no value
+	 *         for a layer.
+	 * @throws IOException
+	 *             If the points could not be sampled. The call may be retried.
+	 */
+	String[][] sample(double[] latitudes, double[] longitudes, List<String> layerIds) throws IOException;
+}
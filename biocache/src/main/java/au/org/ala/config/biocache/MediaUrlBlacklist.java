@@ -0,0 +1,380 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Decides whether media URLs are blacklisted, using entries that are compiled
+ * once so that each check takes time proportional to the length of the URL,
+ * regardless of the number of entries.
+ * 
+ * Each entry is one of:
+ * <ul>
+ * <li><code>host:example.org</code>: Matches URLs on the given host, or on any
+ * subdomain of it, such as <code>http://images.example.org/a.jpg</code>.</li>
+ * <li><code>regex:.*\.tif</code>: Matches URLs that match the given regular
+ * expression in full. Patterns are checked one at a time after the other
+ * entries, so they should only be used where a prefix or host cannot be.</li>
+ * <li>Anything else is a URL prefix, such as
+ * <code>http://example.org/images/</code>.</li>
+ * </ul>
+ * 
+ * Prefixes match both <code>http</code> and <code>https</code> URLs, and the
+ * scheme and host are matched ignoring case. The rest of the URL is matched
+ * exactly.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class MediaUrlBlacklist {
+
+	/**
+	 * A blacklist without any entries.
+	 */
+	public static final MediaUrlBlacklist EMPTY = compile(Collections.<String>emptyList());
+
+	private static final String HOST_ENTRY = "host:";
+
+	private static final String REGEX_ENTRY = "regex:";
+
+	/**
+	 * The prefixes, after removing the scheme and converting the host to lower
+	 * case.
+	 */
+	private final CharTrie prefixes;
+
+	/**
+	 * The hosts, stored with their characters reversed, so that a single walk
+	 * from the end of a host finds the host and all of its parent domains.
+	 */
+	private final CharTrie reversedHosts;
+
+	private final Pattern[] patterns;
+
+	private final int size;
+
+	private MediaUrlBlacklist(CharTrie prefixes, CharTrie reversedHosts, Pattern[] patterns, int size) {
+		this.prefixes = prefixes;
+		this.reversedHosts = reversedHosts;
+		this.patterns = patterns;
+		this.size = size;
+	}
+
+	/**
+	 * Compiles the given entries into a blacklist.
+	 * 
+	 * @param entries
+	 *            The entries, in the formats described for this class. Blank
+	 *            entries and entries starting with <code>#</code> are ignored.
+	 * @return The compiled blacklist.
+	 * @throws AlaConfigException
+	 *             If a regular expression is not valid.
+	 */
+	public static MediaUrlBlacklist compile(Collection<String> entries) throws AlaConfigException {
+		CharTrie.Builder prefixes = new CharTrie.Builder();
+		CharTrie.Builder reversedHosts = new CharTrie.Builder();
+		List<Pattern> patterns = new ArrayList<>();
+		int size = 0;
+		for (String nextEntry : entries) {
+			String entry = nextEntry.trim();
+			if (entry.isEmpty() || entry.startsWith("#")) {
+				continue;
+			}
+			if (entry.startsWith(HOST_ENTRY)) {
+				String host = entry.substring(HOST_ENTRY.length()).trim().toLowerCase(Locale.ROOT);
+				if (host.startsWith(".")) {
+					host = host.substring(1);
+				}
+				reversedHosts.add(new StringBuilder(host).reverse().toString());
+			} else if (entry.startsWith(REGEX_ENTRY)) {
+				try {
+					patterns.add(Pattern.compile(entry.substring(REGEX_ENTRY.length())));
+				} catch (PatternSyntaxException e) {
+					throw new AlaConfigException("Invalid media URL blacklist pattern: " + entry, e);
+				}
+			} else {
+				prefixes.add(normalisePrefix(entry));
+			}
+			size++;
+		}
+		return new MediaUrlBlacklist(prefixes.build(), reversedHosts.build(),
+				patterns.toArray(new Pattern[patterns.size()]), size);
+	}
+
+	/**
+	 * Compiles the entries from the given comma separated list and from the given
+	 * file, which has one entry on each line.
+	 * 
+	 * Regular expressions are only accepted in the file, as they can contain
+	 * commas, such as in <code>{1,3}</code>.
+	 * 
+	 * @param inlineEntries
+	 *            Prefix and host entries separated by commas, which may be empty
+	 * @param file
+	 *            The file containing more entries, which is ignored if it does
+	 *            not exist
+	 * @return The compiled blacklist.
+	 * @throws AlaConfigException
+	 *             If the file could not be read, a regular expression is not
+	 *             valid, or a regular expression is in the inline entries.
+	 */
+	public static MediaUrlBlacklist load(String inlineEntries, Path file) throws AlaConfigException {
+		List<String> entries = new ArrayList<>();
+		if (!inlineEntries.trim().isEmpty()) {
+			for (String nextEntry : inlineEntries.split(",")) {
+				if (nextEntry.trim().startsWith(REGEX_ENTRY)) {
+					throw new AlaConfigException(
+							"Media URL blacklist patterns must be in the blacklist file, not the comma separated list: "
+									+ nextEntry.trim());
+				}
+				entries.add(nextEntry);
+			}
+		}
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String nextLine;
+			while ((nextLine = reader.readLine()) != null) {
+				entries.add(nextLine);
+			}
+		} catch (NoSuchFileException e) {
+			// The file is optional
+		} catch (IOException e) {
+			throw new AlaConfigException("Could not read media URL blacklist: " + file, e);
+		}
+		return compile(entries);
+	}
+
+	/**
+	 * @param url
+	 *            The media URL to check
+	 * @return True if the URL matches any of the entries.
+	 */
+	public boolean isBlacklisted(String url) {
+		int start = schemeEnd(url);
+		int hostEnd = hostEnd(url, start);
+		if (prefixes.matchesPrefixOf(url, start, hostEnd)) {
+			return true;
+		}
+		if (reversedHosts.matchesDomainOf(url, hostStart(url, start, hostEnd), hostEnd)) {
+			return true;
+		}
+		for (Pattern nextPattern : patterns) {
+			if (nextPattern.matcher(url).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The number of entries in this blacklist.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return True if this blacklist does not have any entries.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private static String normalisePrefix(String prefix) {
+		int start = schemeEnd(prefix);
+		int hostEnd = hostEnd(prefix, start);
+		return prefix.substring(start, hostEnd).toLowerCase(Locale.ROOT) + prefix.substring(hostEnd);
+	}
+
+	/**
+	 * @return The index after the <code>://</code> following the scheme, or 0 if
+	 *         the URL does not start with a scheme.
+	 */
+	private static int schemeEnd(String url) {
+		for (int i = 0; i < url.length(); i++) {
+			char nextChar = url.charAt(i);
+			if (nextChar == ':') {
+				return url.startsWith("//", i + 1) ? i + 3 : 0;
+			}
+			if (!Character.isLetterOrDigit(nextChar) && nextChar != '+' && nextChar != '-' && nextChar != '.') {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The index of the end of the authority, including any user info and
+	 *         port, which is the part of the URL that is matched ignoring case.
+	 */
+	private static int hostEnd(String url, int start) {
+		for (int i = start; i < url.length(); i++) {
+			char nextChar = url.charAt(i);
+			if (nextChar == '/' || nextChar == '?' || nextChar == '#') {
+				return i;
+			}
+		}
+		return url.length();
+	}
+
+	/**
+	 * @return The index of the start of the host, after any user info.
+	 */
+	private static int hostStart(String url, int start, int hostEnd) {
+		int at = url.lastIndexOf('@', hostEnd - 1);
+		return at >= start ? at + 1 : start;
+	}
+
+	@Override
+	public String toString() {
+		return "MediaUrlBlacklist[" + size + " entries]";
+	}
+
+	/**
+	 * An immutable character trie, stored in arrays so that a lookup does not
+	 * allocate. The children of each node are sorted by character and found by
+	 * binary search.
+	 */
+	private static final class CharTrie {
+
+		private final char[][] labels;
+
+		private final int[][] children;
+
+		private final boolean[] terminal;
+
+		private CharTrie(char[][] labels, int[][] children, boolean[] terminal) {
+			this.labels = labels;
+			this.children = children;
+			this.terminal = terminal;
+		}
+
+		private int child(int node, char label) {
+			int index = Arrays.binarySearch(labels[node], label);
+			return index < 0 ? -1 : children[node][index];
+		}
+
+		/**
+		 * Checks whether any entry is a prefix of the URL from the given start,
+		 * with characters before the end of the host converted to lower case.
+		 */
+		boolean matchesPrefixOf(String url, int start, int hostEnd) {
+			int node = 0;
+			for (int i = start; i < url.length(); i++) {
+				if (terminal[node]) {
+					return true;
+				}
+				char nextChar = url.charAt(i);
+				node = child(node, i < hostEnd ? Character.toLowerCase(nextChar) : nextChar);
+				if (node < 0) {
+					return false;
+				}
+			}
+			return terminal[node];
+		}
+
+		/**
+		 * Checks whether the host between the given indexes, ignoring any port,
+		 * is an entry or a subdomain of an entry, walking the host backwards.
+		 */
+		boolean matchesDomainOf(String url, int hostStart, int hostEnd) {
+			int end = hostEnd;
+			for (int i = hostStart; i < hostEnd; i++) {
+				if (url.charAt(i) == ':') {
+					end = i;
+					break;
+				}
+			}
+			int node = 0;
+			for (int i = end - 1; i >= hostStart; i--) {
+				node = child(node, Character.toLowerCase(url.charAt(i)));
+				if (node < 0) {
+					return false;
+				}
+				if (terminal[node] && (i == hostStart || url.charAt(i - 1) == '.')) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Collects entries into linked nodes, which are then packed into arrays.
+		 */
+		private static final class Builder {
+
+			private final List<StringBuilder> labels = new ArrayList<>();
+
+			private final List<List<Integer>> children = new ArrayList<>();
+
+			private final List<Boolean> terminal = new ArrayList<>();
+
+			private Builder() {
+				newNode();
+			}
+
+			private int newNode() {
+				labels.add(new StringBuilder());
+				children.add(new ArrayList<>());
+				terminal.add(Boolean.FALSE);
+				return terminal.size() - 1;
+			}
+
+			void add(String entry) {
+				int node = 0;
+				for (int i = 0; i < entry.length(); i++) {
+					char nextChar = entry.charAt(i);
+					int index = labels.get(node).indexOf(String.valueOf(nextChar));
+					if (index < 0) {
+						int next = newNode();
+						labels.get(node).append(nextChar);
+						children.get(node).add(next);
+						node = next;
+					} else {
+						node = children.get(node).get(index);
+					}
+				}
+				terminal.set(node, Boolean.TRUE);
+			}
+
+			CharTrie build() {
+				int nodeCount = terminal.size();
+				char[][] packedLabels = new char[nodeCount][];
+				int[][] packedChildren = new int[nodeCount][];
+				boolean[] packedTerminal = new boolean[nodeCount];
+				for (int node = 0; node < nodeCount; node++) {
+					StringBuilder nodeLabels = labels.get(node);
+					List<Integer> nodeChildren = children.get(node);
+					Integer[] order = new Integer[nodeLabels.length()];
+					for (int i = 0; i < order.length; i++) {
+						order[i] = i;
+					}
+					Arrays.sort(order, (a, b) -> Character.compare(nodeLabels.charAt(a), nodeLabels.charAt(b)));
+					packedLabels[node] = new char[order.length];
+					packedChildren[node] = new int[order.length];
+					for (int i = 0; i < order.length; i++) {
+						packedLabels[node][i] = nodeLabels.charAt(order[i]);
+						packedChildren[node][i] = nodeChildren.get(order[i]);
+					}
+					packedTerminal[node] = terminal.get(node);
+				}
+				return new CharTrie(packedLabels, packedChildren, packedTerminal);
+			}
+		}
+	}
+}
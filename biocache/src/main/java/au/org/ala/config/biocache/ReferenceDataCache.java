@@ -0,0 +1,278 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ala.config.AlaConfigException;
+import au.org.ala.config.CachedHttpResource;
+
+/**
+ * A shared, on-disk cache of the reference data that Biocache jobs download
+ * from other services, such as {@link BiocacheConfig#speciesSubgroupsUrl()}
+ * and {@link BiocacheConfig#irmngDwcArchiveUrl()}.
+ * 
+ * Each download is kept in {@link BiocacheConfig#referenceDataDirectory()}
+ * using a {@link CachedHttpResource}, so downloads are streamed to disk, are
+ * revalidated using conditional requests, and concurrent downloads of the same
+ * URL in a JVM only make one request. Each source has its own time to live:
+ * <ul>
+ * <li>A copy that is younger than its time to live is used without contacting
+ * the server.</li>
+ * <li>An older copy is used immediately, and revalidated in the background, so
+ * a slow or unavailable server never delays a job that has a copy from an
+ * earlier run. Each source is revalidated on its own thread, so a slow
+ * download, such as a changed IRMNG archive, does not delay revalidating the
+ * other sources.</li>
+ * <li>Only a missing copy waits for the server.</li>
+ * </ul>
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ReferenceDataCache implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ReferenceDataCache.class);
+
+	/**
+	 * The sources of reference data, each with a key for its time to live, in
+	 * seconds, and a default time to live.
+	 */
+	public enum Source {
+		/**
+		 * {@link BiocacheConfig#speciesSubgroupsUrl()}
+		 */
+		SPECIES_SUBGROUPS("species.subgroups.ttl.seconds", TimeUnit.DAYS.toSeconds(1)),
+
+		/**
+		 * Resources under {@link BiocacheConfig#listToolUrl()}
+		 */
+		LIST_TOOL("list.tool.ttl.seconds", TimeUnit.HOURS.toSeconds(1)),
+
+		/**
+		 * Resources under {@link BiocacheConfig#registryUrl()}
+		 */
+		REGISTRY("registry.ttl.seconds", TimeUnit.HOURS.toSeconds(1)),
+
+		/**
+		 * {@link BiocacheConfig#irmngDwcArchiveUrl()}
+		 */
+		IRMNG("irmng.archive.ttl.seconds", TimeUnit.DAYS.toSeconds(7));
+
+		private final String ttlKey;
+
+		private final long defaultTtlSeconds;
+
+		Source(String ttlKey, long defaultTtlSeconds) {
+			this.ttlKey = ttlKey;
+			this.defaultTtlSeconds = defaultTtlSeconds;
+		}
+
+		/**
+		 * @return The key for the time to live of this source, in seconds.
+		 */
+		public String ttlKey() {
+			return ttlKey;
+		}
+	}
+
+	private final BiocacheConfig config;
+
+	private final Path directory;
+
+	private final Map<Source, ExecutorService> revalidators = new EnumMap<>(Source.class);
+
+	/**
+	 * The cache files being revalidated in the background, so a file that is
+	 * requested often while it is stale is only revalidated once at a time.
+	 */
+	private final Set<Path> revalidating = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param config
+	 *            The configuration to find the URLs, times to live and cache
+	 *            directory in
+	 */
+	public ReferenceDataCache(BiocacheConfig config) {
+		this.config = config;
+		this.directory = Paths.get(config.referenceDataDirectory()).toAbsolutePath();
+		for (Source nextSource : Source.values()) {
+			String threadName = "ala-config-reference-data-" + nextSource.name().toLowerCase(Locale.ROOT);
+			revalidators.put(nextSource, Executors.newSingleThreadExecutor(r -> {
+				Thread result = new Thread(r, threadName);
+				result.setDaemon(true);
+				return result;
+			}));
+		}
+	}
+
+	/**
+	 * @return The cached copy of {@link BiocacheConfig#speciesSubgroupsUrl()}.
+	 * @throws IOException
+	 *             If there is no cached copy and it could not be downloaded.
+	 */
+	public Path speciesSubgroups() throws IOException {
+		return fetch(Source.SPECIES_SUBGROUPS, config.speciesSubgroupsUrl());
+	}
+
+	/**
+	 * @return The cached copy of {@link BiocacheConfig#irmngDwcArchiveUrl()}.
+	 * @throws IOException
+	 *             If there is no cached copy and it could not be downloaded.
+	 */
+	public Path irmngArchive() throws IOException {
+		return fetch(Source.IRMNG, config.irmngDwcArchiveUrl());
+	}
+
+	/**
+	 * @param path
+	 *            The path and query of the resource, relative to
+	 *            {@link BiocacheConfig#listToolUrl()}
+	 * @return The cached copy of the resource.
+	 * @throws IOException
+	 *             If there is no cached copy and it could not be downloaded.
+	 */
+	public Path listTool(String path) throws IOException {
+		return fetch(Source.LIST_TOOL, resolve(config.listToolUrl(), path));
+	}
+
+	/**
+	 * @param path
+	 *            The path and query of the resource, relative to
+	 *            {@link BiocacheConfig#registryUrl()}
+	 * @return The cached copy of the resource.
+	 * @throws IOException
+	 *             If there is no cached copy and it could not be downloaded.
+	 */
+	public Path registry(String path) throws IOException {
+		return fetch(Source.REGISTRY, resolve(config.registryUrl(), path));
+	}
+
+	private static String resolve(String baseUrl, String path) {
+		if (baseUrl.endsWith("/") && path.startsWith("/")) {
+			return baseUrl + path.substring(1);
+		}
+		if (!baseUrl.endsWith("/") && !path.startsWith("/")) {
+			return baseUrl + "/" + path;
+		}
+		return baseUrl + path;
+	}
+
+	/**
+	 * Gets the cached copy of the given URL, downloading it if there is no
+	 * cached copy, and revalidating it in the background if it is older than the
+	 * time to live for the source.
+	 * 
+	 * @param source
+	 *            The source the URL belongs to
+	 * @param url
+	 *            The HTTP or HTTPS URL to download
+	 * @return The cached copy of the URL, which is replaced atomically when it
+	 *         changes, so it should be opened again rather than kept open.
+	 * @throws IOException
+	 *             If there is no cached copy and it could not be downloaded.
+	 * @throws AlaConfigException
+	 *             If the URL is not a valid HTTP or HTTPS URL.
+	 */
+	public Path fetch(Source source, String url) throws IOException, AlaConfigException {
+		CachedHttpResource resource;
+		try {
+			resource = new CachedHttpResource(new URL(url), directory.resolve(fileName(source, url)));
+		} catch (MalformedURLException e) {
+			throw new AlaConfigException("Reference data URL was not valid: " + url, e);
+		}
+		if (!resource.isCached()) {
+			log.info("Downloading {} reference data from {}", source, url);
+			resource.refresh();
+			return resource.cacheFile();
+		}
+		long ageMillis = System.currentTimeMillis() - resource.lastValidatedMillis();
+		if (ageMillis > TimeUnit.SECONDS.toMillis(ttlSeconds(source))) {
+			revalidateInBackground(source, resource);
+		}
+		return resource.cacheFile();
+	}
+
+	private long ttlSeconds(Source source) {
+		return config.getIntOrDefault(source.ttlKey, (int) source.defaultTtlSeconds);
+	}
+
+	private void revalidateInBackground(Source source, CachedHttpResource resource) {
+		if (!revalidating.add(resource.cacheFile())) {
+			return;
+		}
+		try {
+			revalidators.get(source).execute(() -> {
+				try {
+					if (resource.refresh() == CachedHttpResource.Status.MODIFIED) {
+						log.info("Reference data changed: {}", resource.url());
+					}
+				} catch (IOException | RuntimeException e) {
+					log.warn("Could not revalidate reference data from {}, using the cached copy: {}",
+							resource.url(), e.getMessage());
+				} finally {
+					revalidating.remove(resource.cacheFile());
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			revalidating.remove(resource.cacheFile());
+		}
+	}
+
+	/**
+	 * Names the cache file after the source, a hash of the URL so that
+	 * different URLs never share a file, and the last part of the path so the
+	 * file is recognisable.
+	 */
+	private static String fileName(Source source, String url) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+		}
+		byte[] hash = digest.digest(url.getBytes(StandardCharsets.UTF_8));
+		StringBuilder result = new StringBuilder(source.name().toLowerCase(Locale.ROOT)).append('-');
+		for (int i = 0; i < 8; i++) {
+			result.append(String.format("%02x", hash[i]));
+		}
+		String path = url.replaceFirst("[?#].*$", "");
+		String lastPart = path.substring(path.lastIndexOf('/') + 1).replaceAll("[^A-Za-z0-9._-]", "_");
+		if (!lastPart.isEmpty()) {
+			result.append('-').append(lastPart.length() > 64 ? lastPart.substring(0, 64) : lastPart);
+		}
+		return result.toString();
+	}
+
+	@Override
+	public void close() {
+		for (ExecutorService nextRevalidator : revalidators.values()) {
+			nextRevalidator.shutdownNow();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ReferenceDataCache[" + directory + "]";
+	}
+}
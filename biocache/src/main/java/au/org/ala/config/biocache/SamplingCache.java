@@ -0,0 +1,774 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent cache of the values sampled from layers for points, so that
+ * reprocessing the same coordinates does not sample them against the layers
+ * service again.
+ * 
+ * Points are rounded to a fixed number of decimal places, and each sampled
+ * value is keyed by the rounded point and the layer id, such as
+ * {@link BiocacheConfig#stateProvinceLayerID()}. Values are appended to a file
+ * through a {@link MappedByteBuffer}, with an index in memory from each point
+ * to the position of its value in the file, so values are only decoded when
+ * they are looked up. The file grows in chunks of {@link #GROWTH_CHUNK} bytes,
+ * and is only mapped again when it grows. The header records the end of the
+ * last complete batch, which is only updated after the batch has been written,
+ * so a partially written batch at the end of the file, from a process that
+ * stopped while appending, is ignored when the file is opened and overwritten
+ * by the next batch. A value that is sampled again replaces the previous one,
+ * which stays in the file until {@link #compact()} is called.
+ * 
+ * Points that have no value for a layer are cached as the empty string, so
+ * that they are not sampled again. The file is limited to 2GB, after which it
+ * must be compacted or moved aside.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class SamplingCache implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(SamplingCache.class);
+
+	/**
+	 * The file name used inside {@link BiocacheConfig#layersDirectory()} if
+	 * {@link BiocacheConfig#persistPointsFile()} is not set.
+	 */
+	public static final String DEFAULT_FILE_NAME = "sampling-cache.bin";
+
+	private static final int MAGIC = 0x414C4150;
+
+	private static final int VERSION = 2;
+
+	/**
+	 * The position in the header of the end of the last complete batch.
+	 */
+	private static final int END_OFFSET = 4 + 4 + 4;
+
+	private static final int HEADER_LENGTH = END_OFFSET + 4;
+
+	private static final byte LAYER_RECORD = 1;
+
+	private static final byte SAMPLE_RECORD = 2;
+
+	private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+	/**
+	 * The number of bytes the file grows by when it is full, so that it is not
+	 * mapped again after every batch.
+	 */
+	static final int GROWTH_CHUNK = 16 << 20;
+
+	/**
+	 * The largest size the file can grow to, which is lowered by tests to
+	 * simulate running out of space.
+	 */
+	long maxFileSize = Integer.MAX_VALUE;
+
+	private final Path file;
+
+	private final int precision;
+
+	private final double scale;
+
+	private final int batchSize;
+
+	private final int retries;
+
+	private final boolean samplingEnabled;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final List<String> layers = new ArrayList<>();
+
+	private final Map<String, Integer> layerIndexes = new HashMap<>();
+
+	/**
+	 * The position of the value for each point, with one index for each layer
+	 * in {@link #layers}.
+	 */
+	private final List<PointIndex> indexes = new ArrayList<>();
+
+	private FileChannel channel;
+
+	private MappedByteBuffer buffer;
+
+	private int end;
+
+	private int sampleRecords;
+
+	private SamplingCache(Path file, int precision, int batchSize, int retries, boolean samplingEnabled) {
+		if (precision < 0 || precision > 7) {
+			throw new IllegalArgumentException("Precision must be between 0 and 7 decimal places: " + precision);
+		}
+		this.file = file.toAbsolutePath();
+		this.precision = precision;
+		this.scale = Math.pow(10, precision);
+		this.batchSize = Math.max(1, batchSize);
+		this.retries = Math.max(0, retries);
+		this.samplingEnabled = samplingEnabled;
+	}
+
+	/**
+	 * Opens the cache configured by the given configuration. The file is
+	 * {@link BiocacheConfig#persistPointsFile()}, or {@link #DEFAULT_FILE_NAME}
+	 * inside {@link BiocacheConfig#layersDirectory()} if that is not set.
+	 * 
+	 * @param config
+	 *            The configuration
+	 * @return The opened cache, which must be closed.
+	 * @throws IOException
+	 *             If the file could not be opened.
+	 */
+	public static SamplingCache open(BiocacheConfig config) throws IOException {
+		String persistPointsFile = config.persistPointsFile();
+		Path file = persistPointsFile.isEmpty() ? Paths.get(config.layersDirectory(), DEFAULT_FILE_NAME)
+				: Paths.get(persistPointsFile);
+		return open(file, config.samplingCachePrecision(), config.samplingBatchSize(), config.layerServiceRetries(),
+				config.layersServiceSampling());
+	}
+
+	/**
+	 * Opens the cache in the given file, creating it if it does not exist.
+	 * 
+	 * @param file
+	 *            The file to store the cache in
+	 * @param precision
+	 *            The number of decimal places to round points to, which must
+	 *            match the precision the file was created with
+	 * @param batchSize
+	 *            The maximum number of points to send to the layers service in a
+	 *            single call
+	 * @param retries
+	 *            The number of times to retry a failed call to the layers
+	 *            service
+	 * @param samplingEnabled
+	 *            False to only return cached values from
+	 *            {@link #sample(double[], double[], List, LayerSampler)},
+	 *            without calling the layers service
+	 * @return The opened cache, which must be closed.
+	 * @throws IOException
+	 *             If the file could not be opened, or was created with another
+	 *             precision.
+	 */
+	public static SamplingCache open(Path file, int precision, int batchSize, int retries, boolean samplingEnabled)
+			throws IOException {
+		SamplingCache result = new SamplingCache(file, precision, batchSize, retries, samplingEnabled);
+		result.load();
+		int live = result.liveRecords();
+		if (result.sampleRecords > 2 * live) {
+			log.info("Compacting sampling cache {} with {} values of which {} are current", result.file,
+					result.sampleRecords, live);
+			try {
+				result.compact();
+			} catch (IOException e) {
+				log.warn("Failed to compact sampling cache {}, continuing to use it without compacting", result.file,
+						e);
+			}
+		}
+		return result;
+	}
+
+	private void load() throws IOException {
+		Files.createDirectories(file.getParent());
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE);
+		if (channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.putInt(MAGIC).putInt(VERSION).putInt(precision).putInt(HEADER_LENGTH).flip();
+			writeFully(header, 0);
+			channel.force(false);
+		}
+		try {
+			index();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps the file from {@link #channel} and indexes all of its records.
+	 */
+	private void index() throws IOException {
+		remap();
+		if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a sampling cache, or from another version: " + file);
+		}
+		if (buffer.getInt(8) != precision) {
+			throw new IOException("Sampling cache " + file + " was created with a precision of "
+					+ buffer.getInt(8) + " decimal places, not " + precision);
+		}
+		end = HEADER_LENGTH;
+		scan();
+	}
+
+	private void remap() throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Sampling cache is larger than 2GB and must be compacted: " + file);
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Grows the file so that it holds at least the given number of bytes,
+	 * rounded up to a multiple of {@link #GROWTH_CHUNK}, and maps it again.
+	 */
+	private void grow(long required) throws IOException {
+		if (required > maxFileSize) {
+			throw new IOException("Sampling cache would be larger than " + maxFileSize
+					+ " bytes and must be compacted: " + file);
+		}
+		long capacity = Math.min(maxFileSize, (required + GROWTH_CHUNK - 1) / GROWTH_CHUNK * GROWTH_CHUNK);
+		// Writing the last byte extends the file without writing the zeros before it
+		writeFully(ByteBuffer.allocate(1), capacity - 1);
+		remap();
+	}
+
+	/**
+	 * Indexes the records from {@link #end} to the end of the last complete
+	 * batch recorded in the header.
+	 */
+	private void scan() throws IOException {
+		int limit = buffer.getInt(END_OFFSET);
+		if (limit < HEADER_LENGTH || limit > buffer.limit()) {
+			throw new IOException("Sampling cache is corrupt, its header has an end of " + limit + ": " + file);
+		}
+		int position = end;
+		while (position < limit) {
+			byte type = buffer.get(position);
+			int length;
+			if (type == LAYER_RECORD && position + 5 <= limit) {
+				int index = buffer.getShort(position + 1);
+				length = buffer.getShort(position + 3);
+				if (length < 0 || position + 5 + length > limit || index != layers.size()) {
+					break;
+				}
+				addLayer(decode(position + 5, length));
+				position += 5 + length;
+			} else if (type == SAMPLE_RECORD && position + 15 <= limit) {
+				int index = buffer.getShort(position + 1);
+				long point = point(buffer.getInt(position + 3), buffer.getInt(position + 7));
+				length = buffer.getInt(position + 11);
+				if (length < 0 || position + 15 + length > limit || index < 0 || index >= layers.size()) {
+					break;
+				}
+				indexes.get(index).put(point, position + 11);
+				sampleRecords++;
+				position += 15 + length;
+			} else {
+				break;
+			}
+		}
+		if (position < limit) {
+			throw new IOException("Sampling cache is corrupt at " + position + ": " + file);
+		}
+		if (limit < buffer.limit() && buffer.get(limit) != 0) {
+			log.warn("Ignoring an incomplete batch at the end of sampling cache {}", file);
+		}
+		end = position;
+	}
+
+	private void addLayer(String layerId) {
+		layerIndexes.put(layerId, layers.size());
+		layers.add(layerId);
+		indexes.add(new PointIndex());
+	}
+
+	private String decode(int offset, int length) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset);
+		slice.limit(offset + length);
+		return StandardCharsets.UTF_8.decode(slice).toString();
+	}
+
+	private static long point(int latitude, int longitude) {
+		return ((long) latitude << 32) | (longitude & 0xFFFFFFFFL);
+	}
+
+	private long round(double latitude, double longitude) {
+		return point((int) Math.round(latitude * scale), (int) Math.round(longitude * scale));
+	}
+
+	/**
+	 * Looks up the cached values for the given points, without sampling any
+	 * that are missing.
+	 * 
+	 * @param latitudes
+	 *            The latitudes of the points
+	 * @param longitudes
+	 *            The longitudes of the points
+	 * @param layerIds
+	 *            The layers to look up
+	 * @return The values for each point, with one value for each layer, and null
+	 *         where the value is not cached or the point is not a number.
+	 */
+	public String[][] lookup(double[] latitudes, double[] longitudes, List<String> layerIds) {
+		String[][] result = new String[latitudes.length][layerIds.size()];
+		lock.readLock().lock();
+		try {
+			int[] layerIndex = new int[layerIds.size()];
+			for (int j = 0; j < layerIndex.length; j++) {
+				Integer index = layerIndexes.get(layerIds.get(j));
+				layerIndex[j] = index == null ? -1 : index;
+			}
+			for (int i = 0; i < latitudes.length; i++) {
+				if (Double.isNaN(latitudes[i]) || Double.isNaN(longitudes[i])) {
+					continue;
+				}
+				long point = round(latitudes[i], longitudes[i]);
+				for (int j = 0; j < layerIndex.length; j++) {
+					if (layerIndex[j] >= 0) {
+						int offset = indexes.get(layerIndex[j]).get(point);
+						if (offset > 0) {
+							result[i][j] = decode(offset + 4, buffer.getInt(offset));
+						}
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up the cached values for the given points, and samples the points
+	 * that are missing any of the values using the given sampler, unless
+	 * sampling is disabled. Missing points are rounded and de-duplicated, then
+	 * sampled in batches, with each batch retried up to the configured number of
+	 * times, and the results are added to the cache as each batch completes.
+	 * 
+	 * @param latitudes
+	 *            The latitudes of the points
+	 * @param longitudes
+	 *            The longitudes of the points
+	 * @param layerIds
+	 *            The layers to sample
+	 * @param sampler
+	 *            The sampler for points that are not cached
+	 * @return The values for each point, with one value for each layer, and null
+	 *         only where the point is not a number, or where sampling is
+	 *         disabled and the value is not cached.
+	 * @throws IOException
+	 *             If a batch could not be sampled after retrying, or the cache
+	 *             could not be written. Batches that were sampled before the
+	 *             failure are kept in the cache.
+	 */
+	public String[][] sample(double[] latitudes, double[] longitudes, List<String> layerIds, LayerSampler sampler)
+			throws IOException {
+		String[][] result = lookup(latitudes, longitudes, layerIds);
+		if (!samplingEnabled) {
+			return result;
+		}
+		// The positions of the input points for each missing rounded point
+		Map<Long, List<Integer>> missing = new LinkedHashMap<>();
+		for (int i = 0; i < result.length; i++) {
+			if (Double.isNaN(latitudes[i]) || Double.isNaN(longitudes[i])) {
+				continue;
+			}
+			for (String nextValue : result[i]) {
+				if (nextValue == null) {
+					missing.computeIfAbsent(round(latitudes[i], longitudes[i]), p -> new ArrayList<>(1)).add(i);
+					break;
+				}
+			}
+		}
+		if (missing.isEmpty()) {
+			return result;
+		}
+		log.debug("Sampling {} points that are not cached against {} layers", missing.size(), layerIds.size());
+		long[] points = new long[missing.size()];
+		int next = 0;
+		for (Long nextPoint : missing.keySet()) {
+			points[next++] = nextPoint;
+		}
+		for (int start = 0; start < points.length; start += batchSize) {
+			long[] batch = Arrays.copyOfRange(points, start, Math.min(points.length, start + batchSize));
+			String[][] sampled = sampleWithRetries(batch, layerIds, sampler);
+			append(batch, layerIds, sampled);
+			for (int b = 0; b < batch.length; b++) {
+				for (int nextIndex : missing.get(batch[b])) {
+					for (int j = 0; j < layerIds.size(); j++) {
+						if (result[nextIndex][j] == null) {
+							result[nextIndex][j] = sampled[b][j] == null ? "" : sampled[b][j];
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private String[][] sampleWithRetries(long[] batch, List<String> layerIds, LayerSampler sampler)
+			throws IOException {
+		double[] latitudes = new double[batch.length];
+		double[] longitudes = new double[batch.length];
+		for (int i = 0; i < batch.length; i++) {
+			latitudes[i] = (int) (batch[i] >> 32) / scale;
+			longitudes[i] = (int) batch[i] / scale;
+		}
+		for (int attempt = 0;; attempt++) {
+			try {
+				String[][] result = sampler.sample(latitudes, longitudes, layerIds);
+				if (result.length != batch.length) {
+					throw new IOException(
+							"Layer sampler returned " + result.length + " results for " + batch.length + " points");
+				}
+				for (String[] nextResult : result) {
+					if (nextResult == null || nextResult.length != layerIds.size()) {
+						throw new IOException("Layer sampler returned " + (nextResult == null ? 0 : nextResult.length)
+								+ " values for a point instead of one for each of " + layerIds.size() + " layers");
+					}
+				}
+				return result;
+			} catch (IOException e) {
+				if (attempt >= retries) {
+					throw e;
+				}
+				long delay = Math.min(MAX_RETRY_DELAY_MILLIS, 100L << Math.min(attempt, 20));
+				log.warn("Failed to sample {} points, retrying in {}ms: {}", batch.length, delay, e.getMessage());
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to retry sampling");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends the sampled values to the end of the file and indexes them. Layers
+	 * that are new in this batch are only added to the index once the batch has
+	 * been committed, so a failed append never leaves a layer in memory that the
+	 * file does not declare.
+	 */
+	private void append(long[] batch, List<String> layerIds, String[][] sampled) throws IOException {
+		lock.writeLock().lock();
+		try {
+			ByteBufferOutput output = new ByteBufferOutput();
+			List<String> newLayers = new ArrayList<>();
+			int[] layerIndex = new int[layerIds.size()];
+			for (int j = 0; j < layerIndex.length; j++) {
+				Integer index = layerIndexes.get(layerIds.get(j));
+				if (index == null) {
+					int newIndex = newLayers.indexOf(layerIds.get(j));
+					if (newIndex >= 0) {
+						index = layers.size() + newIndex;
+					} else {
+						index = layers.size() + newLayers.size();
+						byte[] name = layerIds.get(j).getBytes(StandardCharsets.UTF_8);
+						if (index > Short.MAX_VALUE || name.length > Short.MAX_VALUE) {
+							throw new IOException("Too many layers, or layer id too long: " + layerIds.get(j));
+						}
+						output.put(LAYER_RECORD).putShort(index).putShort(name.length).put(name);
+						newLayers.add(layerIds.get(j));
+					}
+				}
+				layerIndex[j] = index;
+			}
+			int[] offsets = new int[batch.length * layerIndex.length];
+			for (int b = 0; b < batch.length; b++) {
+				for (int j = 0; j < layerIndex.length; j++) {
+					String value = sampled[b][j] == null ? "" : sampled[b][j];
+					byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+					output.put(SAMPLE_RECORD).putShort(layerIndex[j]).putInt((int) (batch[b] >> 32))
+							.putInt((int) batch[b]);
+					offsets[b * layerIndex.length + j] = end + output.size();
+					output.putInt(bytes.length).put(bytes);
+				}
+			}
+			long required = (long) end + output.size();
+			if (required > buffer.limit()) {
+				grow(required);
+			}
+			ByteBuffer target = buffer.duplicate();
+			target.position(end);
+			target.put(output.toByteBuffer());
+			buffer.force();
+			// Only include the batch when the file is opened again once all of it
+			// has been written
+			buffer.putInt(END_OFFSET, end + output.size());
+			buffer.force();
+			end += output.size();
+			for (String nextLayer : newLayers) {
+				addLayer(nextLayer);
+			}
+			for (int b = 0; b < batch.length; b++) {
+				for (int j = 0; j < layerIndex.length; j++) {
+					indexes.get(layerIndex[j]).put(batch[b], offsets[b * layerIndex.length + j]);
+					sampleRecords++;
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void writeFully(ByteBuffer source, long position) throws IOException {
+		while (source.hasRemaining()) {
+			position += channel.write(source, position);
+		}
+	}
+
+	/**
+	 * Rewrites the file with only the current value for each point and layer.
+	 * The new file is written next to the current one and then moved into
+	 * place.
+	 * 
+	 * @throws IOException
+	 *             If the file could not be rewritten, in which case the current
+	 *             file is still used.
+	 */
+	public void compact() throws IOException {
+		lock.writeLock().lock();
+		try {
+			Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			FileChannel output = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				ByteBufferOutput records = new ByteBufferOutput();
+				records.putInt(MAGIC).putInt(VERSION).putInt(precision).putInt(HEADER_LENGTH);
+				long compactedEnd = 0;
+				for (int i = 0; i < layers.size(); i++) {
+					byte[] name = layers.get(i).getBytes(StandardCharsets.UTF_8);
+					records.put(LAYER_RECORD).putShort(i).putShort(name.length).put(name);
+				}
+				for (int i = 0; i < layers.size(); i++) {
+					PointIndex index = indexes.get(i);
+					for (int slot = 0; slot < index.offsets.length; slot++) {
+						int offset = index.offsets[slot];
+						if (offset == 0) {
+							continue;
+						}
+						int length = buffer.getInt(offset);
+						records.put(SAMPLE_RECORD).putShort(i).putInt((int) (index.points[slot] >> 32))
+								.putInt((int) index.points[slot]).putInt(length);
+						ByteBuffer value = buffer.duplicate();
+						value.position(offset + 4);
+						value.limit(offset + 4 + length);
+						records.put(value);
+						if (records.size() > (1 << 20)) {
+							compactedEnd += records.size();
+							records.writeTo(output);
+						}
+					}
+				}
+				compactedEnd += records.size();
+				records.writeTo(output);
+				ByteBuffer header = ByteBuffer.allocate(4);
+				header.putInt(0, (int) compactedEnd);
+				output.write(header, END_OFFSET);
+				output.force(true);
+				// The compacted file stays open when it is moved, and the current file
+				// is only closed once it has been replaced
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException | RuntimeException e) {
+				output.close();
+				Files.deleteIfExists(temp);
+				throw e;
+			}
+			FileChannel previous = channel;
+			channel = output;
+			previous.close();
+			layers.clear();
+			layerIndexes.clear();
+			indexes.clear();
+			sampleRecords = 0;
+			index();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The number of points and layers with a cached value.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return liveRecords();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private int liveRecords() {
+		int result = 0;
+		for (PointIndex nextIndex : indexes) {
+			result += nextIndex.size;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The file the cache is stored in.
+	 */
+	public Path file() {
+		return file;
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			channel.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SamplingCache[" + file + ", precision=" + precision + "]";
+	}
+
+	/**
+	 * An open addressing hash table from rounded points to the position of their
+	 * value in the file, which avoids boxing each point. Positions are never 0,
+	 * as that is inside the header, so 0 marks an empty slot.
+	 */
+	private static final class PointIndex {
+
+		private long[] points = new long[16];
+
+		private int[] offsets = new int[16];
+
+		private int size;
+
+		int get(long point) {
+			int mask = points.length - 1;
+			for (int slot = spread(point) & mask;; slot = (slot + 1) & mask) {
+				if (offsets[slot] == 0) {
+					return 0;
+				}
+				if (points[slot] == point) {
+					return offsets[slot];
+				}
+			}
+		}
+
+		void put(long point, int offset) {
+			if (size * 2 >= points.length) {
+				resize();
+			}
+			int mask = points.length - 1;
+			for (int slot = spread(point) & mask;; slot = (slot + 1) & mask) {
+				if (offsets[slot] == 0) {
+					points[slot] = point;
+					offsets[slot] = offset;
+					size++;
+					return;
+				}
+				if (points[slot] == point) {
+					offsets[slot] = offset;
+					return;
+				}
+			}
+		}
+
+		private void resize() {
+			long[] oldPoints = points;
+			int[] oldOffsets = offsets;
+			points = new long[oldPoints.length * 2];
+			offsets = new int[oldOffsets.length * 2];
+			size = 0;
+			for (int i = 0; i < oldPoints.length; i++) {
+				if (oldOffsets[i] != 0) {
+					put(oldPoints[i], oldOffsets[i]);
+				}
+			}
+		}
+
+		private static int spread(long point) {
+			long result = point * 0x9E3779B97F4A7C15L;
+			return (int) (result ^ (result >>> 32));
+		}
+	}
+
+	/**
+	 * A growable buffer for building records before they are written.
+	 */
+	private static final class ByteBufferOutput {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+		private ByteBufferOutput ensure(int length) {
+			if (buffer.remaining() < length) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+			return this;
+		}
+
+		ByteBufferOutput put(byte value) {
+			ensure(1).buffer.put(value);
+			return this;
+		}
+
+		ByteBufferOutput putShort(int value) {
+			ensure(2).buffer.putShort((short) value);
+			return this;
+		}
+
+		ByteBufferOutput putInt(int value) {
+			ensure(4).buffer.putInt(value);
+			return this;
+		}
+
+		ByteBufferOutput put(byte[] value) {
+			ensure(value.length).buffer.put(value);
+			return this;
+		}
+
+		ByteBufferOutput put(ByteBuffer value) {
+			ensure(value.remaining()).buffer.put(value);
+			return this;
+		}
+
+		int size() {
+			return buffer.position();
+		}
+
+		ByteBuffer toByteBuffer() {
+			ByteBuffer result = buffer.duplicate();
+			result.flip();
+			return result;
+		}
+
+		void writeTo(FileChannel output) throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				output.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
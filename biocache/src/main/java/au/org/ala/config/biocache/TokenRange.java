@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.math.BigInteger;
+
+/**
+ * A range of Cassandra Murmur3 tokens, which excludes the start token and
+ * includes the end token, following the Cassandra convention for token ranges.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class TokenRange {
+
+	private final long start;
+
+	private final long end;
+
+	/**
+	 * @param start
+	 *            The token before the first token in the range
+	 * @param end
+	 *            The last token in the range
+	 */
+	public TokenRange(long start, long end) {
+		if (end < start) {
+			throw new IllegalArgumentException("Token range end must not be before its start: " + start + " " + end);
+		}
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return The token before the first token in the range, which is not in
+	 *         the range.
+	 */
+	public long start() {
+		return start;
+	}
+
+	/**
+	 * @return The last token in the range.
+	 */
+	public long end() {
+		return end;
+	}
+
+	/**
+	 * @return The number of tokens in the range.
+	 */
+	public BigInteger size() {
+		return BigInteger.valueOf(end).subtract(BigInteger.valueOf(start));
+	}
+
+	/**
+	 * @param token
+	 *            The token to check
+	 * @return True if the token is in this range.
+	 */
+	public boolean contains(long token) {
+		return token > start && token <= end;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TokenRange)) {
+			return false;
+		}
+		TokenRange other = (TokenRange) obj;
+		return start == other.start && end == other.end;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Long.hashCode(start) + Long.hashCode(end);
+	}
+
+	@Override
+	public String toString() {
+		return "(" + start + ", " + end + "]";
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Divides the Cassandra Murmur3 token space between the nodes in a cluster,
+ * and divides the range for each node into smaller ranges that can be scanned
+ * in parallel.
+ * 
+ * The full token space is split into {@link BiocacheProperties#clusterSize()}
+ * contiguous ranges, which differ in size by at most one token, and this node
+ * takes the range at {@link BiocacheProperties#nodeNumber()}, counting from
+ * zero. That range is split in the same way into
+ * {@link BiocacheProperties#cassandraTokenSplit()} sub-ranges. The plan only
+ * depends on those three values, so every node computes the same plan
+ * without coordinating.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class TokenRangePlanner {
+
+	/**
+	 * The lowest Murmur3 token, which is never assigned to a partition key and so
+	 * is only used as the exclusive start of the first range.
+	 */
+	public static final long MIN_TOKEN = Long.MIN_VALUE;
+
+	/**
+	 * The highest Murmur3 token.
+	 */
+	public static final long MAX_TOKEN = Long.MAX_VALUE;
+
+	private final int nodeNumber;
+
+	private final int clusterSize;
+
+	private final int splitsPerNode;
+
+	private final TokenRange nodeRange;
+
+	private final List<TokenRange> subRanges;
+
+	/**
+	 * @param nodeNumber
+	 *            The number of this node, from zero to one less than the cluster
+	 *            size
+	 * @param clusterSize
+	 *            The number of nodes sharing the token space
+	 * @param splitsPerNode
+	 *            The number of sub-ranges to split the range for this node into
+	 * @throws AlaConfigException
+	 *             If the values do not describe a valid plan.
+	 */
+	public TokenRangePlanner(int nodeNumber, int clusterSize, int splitsPerNode) throws AlaConfigException {
+		if (clusterSize < 1) {
+			throw new AlaConfigException("Cluster size must be at least 1: " + clusterSize);
+		}
+		if (nodeNumber < 0 || nodeNumber >= clusterSize) {
+			throw new AlaConfigException(
+					"Node number must be from 0 to " + (clusterSize - 1) + " for cluster size " + clusterSize + ": "
+							+ nodeNumber);
+		}
+		if (splitsPerNode < 1) {
+			throw new AlaConfigException("Cassandra token split must be at least 1: " + splitsPerNode);
+		}
+		this.nodeNumber = nodeNumber;
+		this.clusterSize = clusterSize;
+		this.splitsPerNode = splitsPerNode;
+		this.nodeRange = split(new TokenRange(MIN_TOKEN, MAX_TOKEN), clusterSize).get(nodeNumber);
+		this.subRanges = Collections.unmodifiableList(split(nodeRange, splitsPerNode));
+	}
+
+	/**
+	 * Creates the plan for this node from its configuration.
+	 * 
+	 * @param config
+	 *            The configuration to read the node number, cluster size and
+	 *            token split from
+	 * @return The plan for the node described by the configuration.
+	 * @throws AlaConfigException
+	 *             If the configuration does not describe a valid plan.
+	 */
+	public static TokenRangePlanner forConfig(BiocacheProperties config) throws AlaConfigException {
+		return new TokenRangePlanner(config.nodeNumber(), config.clusterSize(), config.cassandraTokenSplit());
+	}
+
+	/**
+	 * Splits a range into the given number of contiguous ranges, which differ in
+	 * size by at most one token. If the range has fewer tokens than the number
+	 * of parts, some of the ranges will be empty.
+	 * 
+	 * @param range
+	 *            The range to split
+	 * @param parts
+	 *            The number of ranges to split it into
+	 * @return The ranges, in token order.
+	 */
+	public static List<TokenRange> split(TokenRange range, int parts) {
+		if (parts < 1) {
+			throw new IllegalArgumentException("Must split into at least one part: " + parts);
+		}
+		BigInteger start = BigInteger.valueOf(range.start());
+		BigInteger size = range.size();
+		BigInteger divisor = BigInteger.valueOf(parts);
+		List<TokenRange> result = new ArrayList<>(parts);
+		long previous = range.start();
+		for (int i = 1; i <= parts; i++) {
+			long next = i == parts ? range.end()
+					: start.add(size.multiply(BigInteger.valueOf(i)).divide(divisor)).longValueExact();
+			result.add(new TokenRange(previous, next));
+			previous = next;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The range of tokens assigned to this node.
+	 */
+	public TokenRange nodeRange() {
+		return nodeRange;
+	}
+
+	/**
+	 * @return The range for this node split into
+	 *         {@link BiocacheProperties#cassandraTokenSplit()} sub-ranges, in
+	 *         token order.
+	 */
+	public List<TokenRange> subRanges() {
+		return subRanges;
+	}
+
+	/**
+	 * Creates a queue that hands out the sub-ranges for this node to the given
+	 * number of worker threads.
+	 * 
+	 * @param workers
+	 *            The number of worker threads that will take sub-ranges
+	 * @return A new work-stealing queue containing each sub-range once.
+	 */
+	public TokenRangeWorkQueue workQueue(int workers) {
+		return new TokenRangeWorkQueue(subRanges, workers);
+	}
+
+	public int nodeNumber() {
+		return nodeNumber;
+	}
+
+	public int clusterSize() {
+		return clusterSize;
+	}
+
+	public int splitsPerNode() {
+		return splitsPerNode;
+	}
+
+	@Override
+	public String toString() {
+		return "TokenRangePlanner[node " + nodeNumber + " of " + clusterSize + ", " + splitsPerNode + " splits, "
+				+ nodeRange + "]";
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Hands out token ranges to a fixed number of worker threads, allowing workers
+ * that finish their own ranges to take ranges from slower workers.
+ * 
+ * Each worker starts with a contiguous block of the ranges in its own deque, and
+ * takes ranges from the front of it. A worker with an empty deque steals from
+ * the back of the other deques, so it takes the ranges the owner would have
+ * reached last and workers rarely compete for the same range.
+ * 
+ * Create instances using {@link TokenRangePlanner#workQueue(int)}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class TokenRangeWorkQueue {
+
+	private final List<Deque<TokenRange>> deques;
+
+	TokenRangeWorkQueue(List<TokenRange> ranges, int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("Must have at least one worker: " + workers);
+		}
+		this.deques = new ArrayList<>(workers);
+		for (int i = 0; i < workers; i++) {
+			int from = (int) ((long) ranges.size() * i / workers);
+			int to = (int) ((long) ranges.size() * (i + 1) / workers);
+			deques.add(new ConcurrentLinkedDeque<>(ranges.subList(from, to)));
+		}
+	}
+
+	/**
+	 * Takes the next range for the given worker, stealing from another worker if
+	 * the worker has no ranges left.
+	 * 
+	 * @param worker
+	 *            The index of the worker, from zero to one less than the number
+	 *            of workers
+	 * @return The next range to process, or empty if all of the ranges have been
+	 *         taken.
+	 */
+	public Optional<TokenRange> next(int worker) {
+		TokenRange result = deques.get(worker).pollFirst();
+		for (int i = 1; result == null && i < deques.size(); i++) {
+			result = deques.get((worker + i) % deques.size()).pollLast();
+		}
+		return Optional.ofNullable(result);
+	}
+
+	/**
+	 * @return The number of ranges that have not been taken yet.
+	 */
+	public int remaining() {
+		int result = 0;
+		for (Deque<TokenRange> nextDeque : deques) {
+			result += nextDeque.size();
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of workers this queue was created for.
+	 */
+	public int workers() {
+		return deques.size();
+	}
+}
@@ -0,0 +1,461 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Loads the vocabularies in {@link BiocacheConfig#vocabDirectory()} lazily, so
+ * that a process only pays for the vocabularies it uses.
+ * 
+ * Each vocabulary file has one canonical term on each line, followed by its
+ * variants, separated by commas or tabs. Blank lines and lines starting with
+ * <code>#</code> are ignored. The first time a vocabulary is used, a hashed
+ * index of its terms is written to the index directory, and the index is read
+ * through a read-only {@link MappedByteBuffer} from then on. The index records
+ * the SHA-256 hash of the vocabulary file it was built from, and is only
+ * rebuilt when the contents of the file change.
+ * 
+ * Lookups ignore case and leading and trailing whitespace, and do not allocate
+ * once the canonical term has been found the first time. Canonical terms are
+ * interned, so they can be compared by identity.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class VocabularyStore {
+
+	private static final Logger log = LoggerFactory.getLogger(VocabularyStore.class);
+
+	/**
+	 * The suffix added to the vocabulary file name to name its index.
+	 */
+	public static final String INDEX_SUFFIX = ".idx";
+
+	private static final int MAGIC = 0x414C4156;
+
+	private static final int VERSION = 1;
+
+	private static final int HASH_LENGTH = 32;
+
+	private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + 4 + 4;
+
+	private static final int SLOT_LENGTH = 12;
+
+	private static final int TERM_LENGTH = 8;
+
+	private final Path vocabDirectory;
+
+	private final Path indexDirectory;
+
+	private final ConcurrentMap<String, Vocabulary> vocabularies = new ConcurrentHashMap<>();
+
+	/**
+	 * @param vocabDirectory
+	 *            The directory containing the vocabulary files
+	 * @param indexDirectory
+	 *            The directory to write the indexes to
+	 */
+	public VocabularyStore(Path vocabDirectory, Path indexDirectory) {
+		this.vocabDirectory = vocabDirectory;
+		this.indexDirectory = indexDirectory;
+	}
+
+	/**
+	 * Creates a store for {@link BiocacheConfig#vocabDirectory()}, with the
+	 * indexes in {@link BiocacheConfig#vocabIndexDirectory()}.
+	 * 
+	 * @param config
+	 *            The configuration
+	 * @return A store that has not loaded any vocabularies yet.
+	 */
+	public static VocabularyStore of(BiocacheConfig config) {
+		Path vocabDirectory = Paths.get(config.vocabDirectory());
+		String indexDirectory = config.vocabIndexDirectory();
+		return new VocabularyStore(vocabDirectory,
+				indexDirectory.isEmpty() ? vocabDirectory.resolve(".index") : Paths.get(indexDirectory));
+	}
+
+	/**
+	 * Gets a vocabulary, building or checking its index the first time it is
+	 * requested from this store.
+	 * 
+	 * @param fileName
+	 *            The name of the vocabulary file in the vocabulary directory
+	 * @return The vocabulary.
+	 * @throws AlaConfigException
+	 *             If the vocabulary file could not be read, or its index could
+	 *             not be read or written.
+	 */
+	public Vocabulary vocabulary(String fileName) throws AlaConfigException {
+		Vocabulary result = vocabularies.get(fileName);
+		if (result == null) {
+			result = vocabularies.computeIfAbsent(fileName, this::open);
+		}
+		return result;
+	}
+
+	/**
+	 * Forgets the loaded vocabularies, so that each one is checked against its
+	 * file again the next time it is requested.
+	 */
+	public void clear() {
+		vocabularies.clear();
+	}
+
+	private Vocabulary open(String fileName) throws AlaConfigException {
+		Path source = vocabDirectory.resolve(fileName);
+		Path index = indexDirectory.resolve(fileName + INDEX_SUFFIX);
+		try {
+			byte[] sourceHash = hash(source);
+			MappedByteBuffer buffer = map(index, sourceHash);
+			if (buffer == null) {
+				long start = System.nanoTime();
+				writeIndex(source, sourceHash, index);
+				buffer = map(index, sourceHash);
+				if (buffer == null) {
+					throw new IOException("Index was not readable after it was written: " + index);
+				}
+				log.info("Indexed vocabulary {} in {}ms", source, (System.nanoTime() - start) / 1000000);
+			}
+			return new Vocabulary(fileName, buffer);
+		} catch (IOException e) {
+			throw new AlaConfigException("Could not load vocabulary: " + source, e);
+		}
+	}
+
+	private static byte[] hash(Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+		}
+		byte[] buffer = new byte[8192];
+		try (InputStream input = Files.newInputStream(file)) {
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * @return The mapped index, or null if it does not exist, is from another
+	 *         version, was built from different contents, or is not consistent
+	 *         with its size.
+	 */
+	private static MappedByteBuffer map(Path index, byte[] sourceHash) throws IOException {
+		if (!Files.isRegularFile(index)) {
+			return null;
+		}
+		MappedByteBuffer result;
+		try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_LENGTH) {
+				return null;
+			}
+			// The mapping remains valid after the channel is closed
+			result = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (result.getInt(0) != MAGIC || result.getInt(4) != VERSION) {
+			return null;
+		}
+		for (int i = 0; i < HASH_LENGTH; i++) {
+			if (result.get(8 + i) != sourceHash[i]) {
+				return null;
+			}
+		}
+		if (!isConsistent(result)) {
+			log.warn("Vocabulary index is corrupt and will be rebuilt: {}", index);
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Checks that the counts in the header fit in the index, and that every slot
+	 * and term points inside the pool, so that lookups never read past the end
+	 * of the mapping. At least one slot must be empty, as lookups stop at the
+	 * first empty slot.
+	 */
+	private static boolean isConsistent(ByteBuffer index) {
+		int slotCount = index.getInt(8 + HASH_LENGTH);
+		int termCount = index.getInt(8 + HASH_LENGTH + 4);
+		if (slotCount < 2 || Integer.bitCount(slotCount) != 1 || termCount < 0) {
+			return false;
+		}
+		long termsStart = HEADER_LENGTH + (long) slotCount * SLOT_LENGTH;
+		long poolStart = termsStart + (long) termCount * TERM_LENGTH;
+		if (poolStart > index.capacity() || (index.capacity() - poolStart) % 2 != 0) {
+			return false;
+		}
+		long poolChars = (index.capacity() - poolStart) / 2;
+		boolean emptySlot = false;
+		for (int slot = 0; slot < slotCount; slot++) {
+			int position = HEADER_LENGTH + slot * SLOT_LENGTH;
+			int termIndex = index.getInt(position + 8);
+			if (termIndex < 0) {
+				emptySlot = true;
+			} else if (termIndex >= termCount
+					|| !inPool(index.getInt(position), index.getInt(position + 4), poolChars)) {
+				return false;
+			}
+		}
+		if (!emptySlot) {
+			return false;
+		}
+		for (int i = 0; i < termCount; i++) {
+			int position = (int) termsStart + i * TERM_LENGTH;
+			if (!inPool(index.getInt(position), index.getInt(position + 4), poolChars)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean inPool(int offset, int length, long poolChars) {
+		return offset >= 0 && length >= 0 && (long) offset + length <= poolChars;
+	}
+
+	/**
+	 * Parses the vocabulary file and writes its index, using a temporary file
+	 * that is moved into place so that readers never see a partial index.
+	 */
+	private static void writeIndex(Path source, byte[] sourceHash, Path index) throws IOException {
+		List<String> canonicalTerms = new ArrayList<>();
+		// Keys are normalised, and the first canonical term for a key wins
+		Map<String, Integer> keys = new LinkedHashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+			String nextLine;
+			while ((nextLine = reader.readLine()) != null) {
+				String line = nextLine.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] terms = line.split("[,\t]");
+				String canonical = terms[0].trim();
+				if (canonical.isEmpty()) {
+					continue;
+				}
+				int canonicalIndex = canonicalTerms.size();
+				canonicalTerms.add(canonical);
+				for (String nextTerm : terms) {
+					String key = normalise(nextTerm);
+					if (!key.isEmpty()) {
+						keys.putIfAbsent(key, canonicalIndex);
+					}
+				}
+			}
+		}
+
+		int slotCount = Integer.highestOneBit(Math.max(2, keys.size()) * 2 - 1) << 1;
+		int[] slotKeys = new int[slotCount];
+		int[] slotKeyLengths = new int[slotCount];
+		int[] slotTerms = new int[slotCount];
+		Arrays.fill(slotTerms, -1);
+		StringBuilder pool = new StringBuilder();
+		int[] termOffsets = new int[canonicalTerms.size()];
+		for (int i = 0; i < canonicalTerms.size(); i++) {
+			termOffsets[i] = pool.length();
+			pool.append(canonicalTerms.get(i));
+		}
+		for (Map.Entry<String, Integer> nextKey : keys.entrySet()) {
+			String key = nextKey.getKey();
+			int slot = hash(key, 0, key.length()) & (slotCount - 1);
+			while (slotTerms[slot] >= 0) {
+				slot = (slot + 1) & (slotCount - 1);
+			}
+			slotKeys[slot] = pool.length();
+			slotKeyLengths[slot] = key.length();
+			slotTerms[slot] = nextKey.getValue();
+			pool.append(key);
+		}
+
+		Files.createDirectories(index.toAbsolutePath().getParent());
+		Path temp = Files.createTempFile(index.toAbsolutePath().getParent(), index.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream output = Files.newOutputStream(temp);
+					DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output))) {
+				data.writeInt(MAGIC);
+				data.writeInt(VERSION);
+				data.write(sourceHash);
+				data.writeInt(slotCount);
+				data.writeInt(canonicalTerms.size());
+				for (int slot = 0; slot < slotCount; slot++) {
+					data.writeInt(slotKeys[slot]);
+					data.writeInt(slotKeyLengths[slot]);
+					data.writeInt(slotTerms[slot]);
+				}
+				for (int i = 0; i < canonicalTerms.size(); i++) {
+					data.writeInt(termOffsets[i]);
+					data.writeInt(canonicalTerms.get(i).length());
+				}
+				data.writeChars(pool.toString());
+			}
+			Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static String normalise(String term) {
+		int start = trimStart(term);
+		int end = trimEnd(term, start);
+		StringBuilder result = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			result.append(Character.toLowerCase(term.charAt(i)));
+		}
+		return result.toString();
+	}
+
+	private static int trimStart(CharSequence term) {
+		int result = 0;
+		while (result < term.length() && term.charAt(result) <= ' ') {
+			result++;
+		}
+		return result;
+	}
+
+	private static int trimEnd(CharSequence term, int start) {
+		int result = term.length();
+		while (result > start && term.charAt(result - 1) <= ' ') {
+			result--;
+		}
+		return result;
+	}
+
+	/**
+	 * Hashes the characters in the given range after converting them to lower
+	 * case, so that lookups do not need to normalise the term first.
+	 */
+	private static int hash(CharSequence term, int start, int end) {
+		int result = 0;
+		for (int i = start; i < end; i++) {
+			result = 31 * result + Character.toLowerCase(term.charAt(i));
+		}
+		return result ^ (result >>> 16);
+	}
+
+	/**
+	 * A vocabulary read from a mapped index.
+	 */
+	public static final class Vocabulary {
+
+		private final String name;
+
+		private final ByteBuffer buffer;
+
+		private final int slotCount;
+
+		private final int termsStart;
+
+		private final int poolStart;
+
+		private final AtomicReferenceArray<Optional<String>> canonicalTerms;
+
+		private Vocabulary(String name, ByteBuffer buffer) {
+			this.name = name;
+			this.buffer = buffer;
+			this.slotCount = buffer.getInt(8 + HASH_LENGTH);
+			int termCount = buffer.getInt(8 + HASH_LENGTH + 4);
+			this.termsStart = HEADER_LENGTH + slotCount * SLOT_LENGTH;
+			this.poolStart = termsStart + termCount * TERM_LENGTH;
+			this.canonicalTerms = new AtomicReferenceArray<>(termCount);
+		}
+
+		/**
+		 * @param term
+		 *            The term to find, which may be any of the variants for a
+		 *            canonical term, in any case
+		 * @return The canonical term, or empty if the term is not in this
+		 *         vocabulary.
+		 */
+		public Optional<String> find(String term) {
+			int start = trimStart(term);
+			int end = trimEnd(term, start);
+			if (start == end) {
+				return Optional.empty();
+			}
+			int mask = slotCount - 1;
+			for (int slot = hash(term, start, end) & mask;; slot = (slot + 1) & mask) {
+				int position = HEADER_LENGTH + slot * SLOT_LENGTH;
+				int termIndex = buffer.getInt(position + 8);
+				if (termIndex < 0) {
+					return Optional.empty();
+				}
+				if (buffer.getInt(position + 4) == end - start && keyMatches(buffer.getInt(position), term, start, end)) {
+					return canonical(termIndex);
+				}
+			}
+		}
+
+		private boolean keyMatches(int offset, String term, int start, int end) {
+			int position = poolStart + offset * 2;
+			for (int i = start; i < end; i++, position += 2) {
+				if (buffer.getChar(position) != Character.toLowerCase(term.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private Optional<String> canonical(int termIndex) {
+			Optional<String> result = canonicalTerms.get(termIndex);
+			if (result == null) {
+				int position = termsStart + termIndex * TERM_LENGTH;
+				int offset = poolStart + buffer.getInt(position) * 2;
+				int length = buffer.getInt(position + 4);
+				char[] chars = new char[length];
+				for (int i = 0; i < length; i++) {
+					chars[i] = buffer.getChar(offset + i * 2);
+				}
+				result = Optional.of(new String(chars).intern());
+				canonicalTerms.lazySet(termIndex, result);
+			}
+			return result;
+		}
+
+		/**
+		 * @return The number of canonical terms in this vocabulary.
+		 */
+		public int size() {
+			return canonicalTerms.length();
+		}
+
+		@Override
+		public String toString() {
+			return "Vocabulary[" + name + ", " + size() + " terms]";
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Tests for {@link AdaptiveBatchSizer} using a stub {@link BatchSink} and a
+ * clock that only moves when the sink writes a batch.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class AdaptiveBatchSizerTest {
+
+	private static final long TARGET_MILLIS = 100;
+
+	private long now;
+
+	/**
+	 * Records the batches and commits, taking the given time for each batch and
+	 * failing the given number of writes first.
+	 */
+	private final class StubSink implements BatchSink<Integer> {
+
+		final List<Integer> written = new ArrayList<>();
+
+		final List<Integer> batchSizes = new ArrayList<>();
+
+		final List<Integer> commitsAfter = new ArrayList<>();
+
+		long batchMillis = 1;
+
+		int failures;
+
+		@Override
+		public void write(List<Integer> batch) throws IOException {
+			now += TimeUnit.MILLISECONDS.toNanos(batchMillis);
+			batchSizes.add(batch.size());
+			if (failures > 0) {
+				failures--;
+				throw new IOException("Solr unavailable");
+			}
+			written.addAll(batch);
+		}
+
+		@Override
+		public void commit() {
+			commitsAfter.add(written.size());
+		}
+	}
+
+	private AdaptiveBatchSizer sizer(int maxBatchSize, int hardCommitSize) {
+		return new AdaptiveBatchSizer(maxBatchSize, hardCommitSize, TARGET_MILLIS, () -> now);
+	}
+
+	private static List<Integer> documents(int count) {
+		return IntStream.range(0, count).boxed().collect(Collectors.toList());
+	}
+
+	@Test
+	public void testFastBatchesKeepMaximumSizeAndCommitAtHardCommitSize() throws Exception {
+		AdaptiveBatchSizer sizer = sizer(100, 300);
+		StubSink sink = new StubSink();
+		assertEquals(1000, sizer.writeAll(documents(1000).iterator(), sink, 3));
+		assertEquals(documents(1000), sink.written);
+		for (int nextSize : sink.batchSizes) {
+			assertEquals(100, nextSize);
+		}
+		assertEquals(Arrays.asList(300, 600, 900, 1000), sink.commitsAfter);
+		assertEquals(0, sizer.uncommitted());
+	}
+
+	@Test
+	public void testNoFinalCommitWhenEverythingIsCommitted() throws Exception {
+		AdaptiveBatchSizer sizer = sizer(100, 300);
+		StubSink sink = new StubSink();
+		sizer.writeAll(documents(600).iterator(), sink, 3);
+		assertEquals(Arrays.asList(300, 600), sink.commitsAfter);
+		StubSink empty = new StubSink();
+		assertEquals(0, sizer.writeAll(documents(0).iterator(), empty, 3));
+		assertTrue(empty.commitsAfter.isEmpty());
+	}
+
+	@Test
+	public void testSlowBatchesShrinkAndRecover() throws Exception {
+		AdaptiveBatchSizer sizer = sizer(100, 1000);
+		StubSink sink = new StubSink();
+		sink.batchMillis = TARGET_MILLIS + 1;
+		sizer.writeAll(documents(175).iterator(), sink, 3);
+		assertEquals(Arrays.asList(100, 75), sink.batchSizes);
+		assertEquals(56, sizer.batchSize());
+		// The commit interval shrinks with the batch size
+		assertEquals(560, sizer.commitInterval());
+		sizer.writeAll(documents(56).iterator(), new StubSink(), 3);
+		assertEquals(61, sizer.batchSize());
+	}
+
+	@Test
+	public void testFailedBatchIsRetriedInSmallerBatches() throws Exception {
+		AdaptiveBatchSizer sizer = sizer(100, 1000);
+		StubSink sink = new StubSink();
+		sink.failures = 2;
+		assertEquals(100, sizer.writeAll(documents(100).iterator(), sink, 3));
+		assertEquals(Arrays.asList(100, 50, 25, 30, 35, 10), sink.batchSizes);
+		// Every document is written once, in order
+		assertEquals(documents(100), sink.written);
+	}
+
+	@Test
+	public void testGivesUpAfterConsecutiveFailures() throws Exception {
+		AdaptiveBatchSizer sizer = sizer(100, 1000);
+		StubSink sink = new StubSink();
+		sink.failures = 3;
+		assertThrows(IOException.class, () -> sizer.writeAll(documents(100).iterator(), sink, 3));
+		assertTrue(sink.written.isEmpty());
+		assertTrue(sink.commitsAfter.isEmpty());
+	}
+
+	@Test
+	public void testInvalidSettingsAreRejected() {
+		assertThrows(AlaConfigException.class, () -> new AdaptiveBatchSizer(0, 100, 100));
+		assertThrows(AlaConfigException.class, () -> new AdaptiveBatchSizer(100, 0, 100));
+		assertThrows(AlaConfigException.class, () -> new AdaptiveBatchSizer(100, 100, 0));
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link BoundedExecutor} using a pool of platform threads.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class BoundedExecutorTest {
+
+	private static final long TIMEOUT_SECONDS = 10;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private ThreadPoolExecutor pool;
+
+	private BoundedExecutor executor;
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		release.countDown();
+		if (executor != null) {
+			executor.shutdownNow();
+			executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
+	private BoundedExecutor create(int threads, int queueCapacity) {
+		pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		executor = new BoundedExecutor("test", pool, pool, threads, queueCapacity);
+		return executor;
+	}
+
+	/**
+	 * @return A task that blocks until {@link #release} is counted down, after
+	 *         counting down the given latch.
+	 */
+	private Runnable blocker(CountDownLatch started) {
+		return () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+	}
+
+	/**
+	 * Submits the given task from a new thread, recording any exception.
+	 */
+	private Thread submitInBackground(Runnable task, AtomicReference<Throwable> failure) {
+		Thread result = new Thread(() -> {
+			try {
+				executor.execute(task);
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		result.setDaemon(true);
+		result.start();
+		return result;
+	}
+
+	private static void awaitBlocked(Thread thread) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(Thread.State.WAITING, thread.getState());
+	}
+
+	@Test
+	public void testSubmittersBlockWhenFull() throws Exception {
+		create(1, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		executor.execute(blocker(started));
+		assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		CountDownLatch queuedRan = new CountDownLatch(1);
+		executor.execute(queuedRan::countDown);
+		assertEquals(1, executor.metrics().getQueueDepth());
+
+		CountDownLatch blockedRan = new CountDownLatch(1);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread submitter = submitInBackground(blockedRan::countDown, failure);
+		awaitBlocked(submitter);
+		assertEquals(2, executor.metrics().getQueueDepth());
+
+		release.countDown();
+		submitter.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+		assertFalse(submitter.isAlive());
+		assertNull(failure.get());
+		assertTrue(queuedRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertTrue(blockedRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testResizeGrowsAndShrinksThePool() throws Exception {
+		create(2, 0);
+		// Growing must raise the maximum before the core size, and shrinking
+		// must lower the core size first, or the pool rejects the change
+		executor.resize(4, 0);
+		assertEquals(4, pool.getCorePoolSize());
+		assertEquals(4, pool.getMaximumPoolSize());
+		assertEquals(4, executor.metrics().getThreads());
+		executor.resize(1, 0);
+		assertEquals(1, pool.getCorePoolSize());
+		assertEquals(1, pool.getMaximumPoolSize());
+		assertEquals(1, executor.metrics().getThreads());
+	}
+
+	@Test
+	public void testShrinkingWaitsForRunningTasks() throws Exception {
+		create(2, 0);
+		CountDownLatch started = new CountDownLatch(2);
+		executor.execute(blocker(started));
+		executor.execute(blocker(started));
+		assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		executor.resize(1, 0);
+
+		// Both running tasks must complete before the single permit is free
+		CountDownLatch nextRan = new CountDownLatch(1);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread submitter = submitInBackground(nextRan::countDown, failure);
+		awaitBlocked(submitter);
+		release.countDown();
+		assertTrue(nextRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertNull(failure.get());
+
+		// Only one task can be outstanding after shrinking
+		CountDownLatch secondStarted = new CountDownLatch(1);
+		CountDownLatch secondRelease = new CountDownLatch(1);
+		executor.execute(() -> {
+			secondStarted.countDown();
+			try {
+				secondRelease.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertTrue(secondStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		Thread another = submitInBackground(() -> {
+		}, failure);
+		awaitBlocked(another);
+		secondRelease.countDown();
+		another.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+		assertFalse(another.isAlive());
+	}
+
+	@Test
+	public void testShutdownNowReleasesPermits() throws Exception {
+		create(1, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		executor.execute(blocker(started));
+		assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		Runnable queued = () -> {
+		};
+		executor.execute(queued);
+
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread submitter = submitInBackground(() -> {
+		}, failure);
+		awaitBlocked(submitter);
+
+		List<Runnable> neverStarted = executor.shutdownNow();
+		assertEquals(1, neverStarted.size());
+		assertSame(queued, neverStarted.get(0));
+		// The released permit wakes the blocked submitter, which is then
+		// rejected rather than waiting forever
+		submitter.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+		assertFalse(submitter.isAlive());
+		assertTrue(failure.get() instanceof RejectedExecutionException, String.valueOf(failure.get()));
+		assertTrue(executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(0, executor.metrics().getQueueDepth());
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.configuration2.MapConfiguration;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link FieldSet}, using schemas that need more than one and more
+ * than two words, so that ids either side of each word boundary are covered.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class FieldSetTest {
+
+	private static FieldSchema schema(int size) {
+		List<String> fields = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			fields.add("field" + i);
+		}
+		return FieldSchema.of(fields);
+	}
+
+	private static FieldSet fieldSet(FieldSchema schema, int... ids) {
+		List<String> fields = new ArrayList<>(ids.length);
+		for (int nextId : ids) {
+			fields.add(schema.field(nextId));
+		}
+		return schema.fieldSet(fields);
+	}
+
+	private static List<Integer> ids(FieldSet set) {
+		List<Integer> result = new ArrayList<>();
+		for (int nextId = set.nextId(0); nextId >= 0; nextId = set.nextId(nextId + 1)) {
+			result.add(nextId);
+		}
+		return result;
+	}
+
+	@Test
+	public void testWordBoundaries() {
+		// One schema needs two words and the other four, with the last word
+		// only partly used
+		int[][] cases = { { 100, 0, 63, 64, 99 }, { 200, 0, 63, 64, 127, 128, 199 } };
+		for (int[] nextCase : cases) {
+			FieldSchema schema = schema(nextCase[0]);
+			int[] expected = Arrays.copyOfRange(nextCase, 1, nextCase.length);
+			FieldSet set = fieldSet(schema, expected);
+			assertEquals(expected.length, set.size(), set.toString());
+			for (int nextId = 0; nextId < schema.size(); nextId++) {
+				assertEquals(Arrays.binarySearch(expected, nextId) >= 0, set.contains(nextId), "Id " + nextId);
+			}
+			List<Integer> expectedIds = new ArrayList<>();
+			for (int nextId : expected) {
+				expectedIds.add(nextId);
+			}
+			assertEquals(expectedIds, ids(set));
+		}
+	}
+
+	@Test
+	public void testNextId() {
+		FieldSchema schema = schema(200);
+		FieldSet set = fieldSet(schema, 63, 64, 127, 199);
+		assertEquals(63, set.nextId(0));
+		assertEquals(63, set.nextId(63));
+		assertEquals(64, set.nextId(64));
+		assertEquals(127, set.nextId(65));
+		assertEquals(127, set.nextId(127));
+		assertEquals(199, set.nextId(128));
+		assertEquals(199, set.nextId(199));
+		assertEquals(-1, set.nextId(200));
+		assertEquals(-1, set.nextId(Integer.MAX_VALUE));
+
+		// Whole words with nothing set are skipped
+		FieldSet last = fieldSet(schema, 199);
+		assertEquals(199, last.nextId(0));
+		assertEquals(-1, fieldSet(schema).nextId(0));
+	}
+
+	@Test
+	public void testContainsOutOfRange() {
+		FieldSchema schema = schema(129);
+		FieldSet set = fieldSet(schema, 0, 63, 64, 127, 128);
+		assertFalse(set.contains(-1));
+		assertFalse(set.contains(-64));
+		assertFalse(set.contains(Integer.MIN_VALUE));
+		assertFalse(set.contains(129));
+		assertFalse(set.contains(192));
+		assertFalse(set.contains(Integer.MAX_VALUE));
+		assertTrue(set.contains("field127"));
+		assertFalse(set.contains("field126"));
+		assertFalse(set.contains("missing"));
+	}
+
+	@Test
+	public void testMask() {
+		FieldSchema schema = schema(130);
+		FieldSet set = fieldSet(schema, 1, 63, 64, 127, 129);
+		String[] values = new String[130];
+		Arrays.fill(values, "value");
+		assertEquals(5, set.mask(values, null));
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(set.contains(i) ? null : "value", values[i], "Value " + i);
+		}
+
+		// Ids past the end of a shorter array are ignored
+		String[] shorter = { "a", "b", "c" };
+		assertEquals(1, set.mask(shorter, ""));
+		assertArrayEquals(new String[] { "a", "", "c" }, shorter);
+		String[] toWordBoundary = new String[64];
+		Arrays.fill(toWordBoundary, "value");
+		assertEquals(2, set.mask(toWordBoundary, ""));
+		assertEquals("", toWordBoundary[63]);
+		assertEquals(0, set.mask(new String[0], ""));
+		assertEquals(0, fieldSet(schema).mask(values, "unused"));
+	}
+
+	@Test
+	public void testUnion() {
+		FieldSchema schema = schema(129);
+		FieldSet first = fieldSet(schema, 0, 64);
+		FieldSet second = fieldSet(schema, 63, 64, 128);
+		FieldSet union = first.union(second);
+		assertEquals(Arrays.asList(0, 63, 64, 128), ids(union));
+		assertEquals(Arrays.asList("field0", "field63", "field64", "field128"), union.fields());
+		// The original sets are unchanged
+		assertEquals(Arrays.asList(0, 64), ids(first));
+		assertEquals(Arrays.asList(63, 64, 128), ids(second));
+		assertEquals(ids(union), ids(second.union(first)));
+
+		assertThrows(IllegalArgumentException.class, () -> first.union(schema(129).fieldSet(Arrays.asList("field0"))));
+	}
+
+	@Test
+	public void testExcludeSensitiveValuesFor() {
+		FieldSchema schema = FieldSchema.of(Arrays.asList("scientificName", "decimalLatitude", "decimalLongitude",
+				"eventDate", "locality"));
+		BiocacheConfig config = new BiocacheConfig(new MapConfiguration(Collections
+				.<String, Object>singletonMap("exclude.sensitive.values", " decimalLatitude , locality,,unknown ,")));
+		FieldSet excluded = config.excludeSensitiveValuesFor(schema);
+		assertEquals(Arrays.asList("decimalLatitude", "locality"), excluded.fields());
+		assertTrue(excluded.contains(schema.id("decimalLatitude")));
+		assertFalse(excluded.contains(schema.id("decimalLongitude")));
+
+		BiocacheConfig defaults = new BiocacheConfig(
+				new MapConfiguration(Collections.<String, Object>emptyMap()));
+		assertEquals(0, defaults.excludeSensitiveValuesFor(schema).size());
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Tests for {@link MediaUrlBlacklist}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class MediaUrlBlacklistTest {
+
+	private Path tempDir;
+
+	private Path file;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-blacklist-test");
+		file = tempDir.resolve("blacklistMediaUrls.txt");
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testEntryFormats() {
+		MediaUrlBlacklist blacklist = MediaUrlBlacklist.compile(Arrays.asList("http://Example.org/images/",
+				"host:flickr.com", "regex:.*\\.tif", "# comment", ""));
+		assertEquals(3, blacklist.size());
+		assertTrue(blacklist.isBlacklisted("https://EXAMPLE.org/images/a.jpg"));
+		assertFalse(blacklist.isBlacklisted("http://example.org/Images/a.jpg"));
+		assertTrue(blacklist.isBlacklisted("http://farm1.static.flickr.com/a.jpg"));
+		assertFalse(blacklist.isBlacklisted("http://notflickr.com/a.jpg"));
+		assertTrue(blacklist.isBlacklisted("http://other.org/a.tif"));
+		assertFalse(blacklist.isBlacklisted("http://other.org/a.jpg"));
+	}
+
+	@Test
+	public void testPatternsWithCommasAreReadFromFile() throws Exception {
+		Files.write(file, Arrays.asList("regex:.*/[0-9]{1,3}\\.jpg", "host:flickr.com"), StandardCharsets.UTF_8);
+		MediaUrlBlacklist blacklist = MediaUrlBlacklist.load("http://example.org/images/", file);
+		assertEquals(3, blacklist.size());
+		assertTrue(blacklist.isBlacklisted("http://other.org/12.jpg"));
+		assertFalse(blacklist.isBlacklisted("http://other.org/1234.jpg"));
+		assertTrue(blacklist.isBlacklisted("http://example.org/images/1234.jpg"));
+	}
+
+	@Test
+	public void testPatternsAreRejectedInline() {
+		assertThrows(AlaConfigException.class,
+				() -> MediaUrlBlacklist.load("host:flickr.com, regex:.*\\.tif", file));
+	}
+
+	@Test
+	public void testMissingFileIsIgnored() {
+		MediaUrlBlacklist blacklist = MediaUrlBlacklist.load("host:flickr.com,http://example.org/", file);
+		assertEquals(2, blacklist.size());
+		assertTrue(MediaUrlBlacklist.load(" ", file).isEmpty());
+	}
+}
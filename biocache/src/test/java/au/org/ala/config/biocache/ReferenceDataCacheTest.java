@@ -0,0 +1,283 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration2.MapConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import au.org.ala.config.biocache.ReferenceDataCache.Source;
+
+/**
+ * Tests for {@link ReferenceDataCache} against an embedded HTTP server.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ReferenceDataCacheTest {
+
+	private static final long TIMEOUT_SECONDS = 10;
+
+	/**
+	 * The size of the large download, which is streamed by the server in
+	 * chunks.
+	 */
+	private static final int LARGE_BODY_BYTES = 48 << 20;
+
+	private HttpServer server;
+
+	private ExecutorService serverThreads;
+
+	private Path tempDir;
+
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+	private final Map<String, AtomicInteger> notModified = new ConcurrentHashMap<>();
+
+	private volatile String body = "[\"Birds\"]";
+
+	private volatile String etag = "\"1\"";
+
+	/**
+	 * Requests for the IRMNG archive wait for this before responding.
+	 */
+	private volatile CountDownLatch irmngRelease = new CountDownLatch(0);
+
+	/**
+	 * Requests for the species subgroups wait for this before responding.
+	 */
+	private volatile CountDownLatch subgroupsRelease = new CountDownLatch(0);
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-reference-data-test");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/subgroups.json", exchange -> handle(exchange, subgroupsRelease));
+		server.createContext("/irmng.zip", exchange -> handle(exchange, irmngRelease));
+		server.createContext("/large.bin", this::handleLarge);
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.start();
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		irmngRelease.countDown();
+		subgroupsRelease.countDown();
+		server.stop(0);
+		serverThreads.shutdownNow();
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private void handle(HttpExchange exchange, CountDownLatch release) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+		try {
+			release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		String currentEtag = etag;
+		if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			notModified.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		byte[] response = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("ETag", currentEtag);
+		exchange.sendResponseHeaders(200, response.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(response);
+		}
+	}
+
+	private void handleLarge(HttpExchange exchange) throws IOException {
+		requests.computeIfAbsent("/large.bin", p -> new AtomicInteger()).incrementAndGet();
+		exchange.getResponseHeaders().add("ETag", "\"large\"");
+		// A length of zero sends the body in chunks, without a Content-Length
+		exchange.sendResponseHeaders(200, 0);
+		byte[] chunk = new byte[64 * 1024];
+		try (OutputStream output = exchange.getResponseBody()) {
+			for (int written = 0; written < LARGE_BODY_BYTES; written += chunk.length) {
+				fill(chunk, written);
+				output.write(chunk);
+			}
+		}
+	}
+
+	private static void fill(byte[] chunk, int offset) {
+		for (int i = 0; i < chunk.length; i++) {
+			chunk[i] = (byte) ((offset + i) * 31 >>> 8);
+		}
+	}
+
+	private String url(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+	private int requests(String path) {
+		AtomicInteger result = requests.get(path);
+		return result == null ? 0 : result.get();
+	}
+
+	private int notModified(String path) {
+		AtomicInteger result = notModified.get(path);
+		return result == null ? 0 : result.get();
+	}
+
+	private ReferenceDataCache cache(long ttlSeconds) {
+		Map<String, Object> values = new HashMap<>();
+		values.put("reference.data.dir", tempDir.toString());
+		for (Source nextSource : Source.values()) {
+			values.put(nextSource.ttlKey(), Long.toString(ttlSeconds));
+		}
+		return new ReferenceDataCache(new BiocacheConfig(new MapConfiguration(values)));
+	}
+
+	private static void awaitEquals(int expected, IntSupplier actual) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (actual.getAsInt() != expected && System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(expected, actual.getAsInt());
+	}
+
+	@Test
+	public void testCopyWithinTimeToLiveIsUsedWithoutRequest() throws Exception {
+		try (ReferenceDataCache cache = cache(3600)) {
+			Path first = cache.fetch(Source.SPECIES_SUBGROUPS, url("/subgroups.json"));
+			assertEquals(body, new String(Files.readAllBytes(first), StandardCharsets.UTF_8));
+			Path second = cache.fetch(Source.SPECIES_SUBGROUPS, url("/subgroups.json"));
+			assertEquals(first, second);
+			Thread.sleep(100);
+			assertEquals(1, requests("/subgroups.json"));
+		}
+	}
+
+	@Test
+	public void testStaleCopyIsRevalidatedInBackground() throws Exception {
+		try (ReferenceDataCache cache = cache(0)) {
+			Path cached = cache.fetch(Source.SPECIES_SUBGROUPS, url("/subgroups.json"));
+			Thread.sleep(10);
+			// The stale copy is returned while the server is still responding
+			subgroupsRelease = new CountDownLatch(1);
+			assertEquals(cached, cache.fetch(Source.SPECIES_SUBGROUPS, url("/subgroups.json")));
+			subgroupsRelease.countDown();
+			awaitEquals(1, () -> notModified("/subgroups.json"));
+			assertEquals(2, requests("/subgroups.json"));
+			// A changed copy replaces the cached copy in the background
+			body = "[\"Fish\"]";
+			etag = "\"2\"";
+			Thread.sleep(10);
+			cache.fetch(Source.SPECIES_SUBGROUPS, url("/subgroups.json"));
+			awaitEquals(3, () -> requests("/subgroups.json"));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+			while (!body.equals(new String(Files.readAllBytes(cached), StandardCharsets.UTF_8))
+					&& System.nanoTime() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(body, new String(Files.readAllBytes(cached), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testConcurrentFetchesOfMissingCopyMakeOneRequest() throws Exception {
+		subgroupsRelease = new CountDownLatch(1);
+		ExecutorService threads = Executors.newFixedThreadPool(4);
+		try (ReferenceDataCache cache = cache(3600)) {
+			List<Future<Path>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				results.add(threads.submit(() -> cache.fetch(Source.SPECIES_SUBGROUPS, url("/subgroups.json"))));
+			}
+			// Give every thread time to join the request in flight
+			Thread.sleep(500);
+			subgroupsRelease.countDown();
+			Path first = results.get(0).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			for (Future<Path> nextResult : results) {
+				assertEquals(first, nextResult.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			}
+			assertEquals(1, requests("/subgroups.json"));
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSlowRevalidationDoesNotBlockOtherSources() throws Exception {
+		try (ReferenceDataCache cache = cache(0)) {
+			cache.fetch(Source.IRMNG, url("/irmng.zip"));
+			cache.fetch(Source.SPECIES_SUBGROUPS, url("/subgroups.json"));
+			Thread.sleep(10);
+			irmngRelease = new CountDownLatch(1);
+			cache.fetch(Source.IRMNG, url("/irmng.zip"));
+			awaitEquals(2, () -> requests("/irmng.zip"));
+			// The IRMNG revalidation is still waiting for the server
+			cache.fetch(Source.SPECIES_SUBGROUPS, url("/subgroups.json"));
+			awaitEquals(1, () -> notModified("/subgroups.json"));
+			assertEquals(0, notModified("/irmng.zip"));
+			irmngRelease.countDown();
+			awaitEquals(1, () -> notModified("/irmng.zip"));
+		}
+	}
+
+	@Test
+	public void testLargeBodyIsStreamedToDisk() throws Exception {
+		try (ReferenceDataCache cache = cache(3600)) {
+			Path downloaded = cache.fetch(Source.IRMNG, url("/large.bin"));
+			assertEquals(LARGE_BODY_BYTES, Files.size(downloaded));
+			MessageDigest expected = MessageDigest.getInstance("SHA-256");
+			byte[] chunk = new byte[64 * 1024];
+			for (int written = 0; written < LARGE_BODY_BYTES; written += chunk.length) {
+				fill(chunk, written);
+				expected.update(chunk);
+			}
+			MessageDigest actual = MessageDigest.getInstance("SHA-256");
+			try (InputStream input = Files.newInputStream(downloaded)) {
+				int read;
+				while ((read = input.read(chunk)) > 0) {
+					actual.update(chunk, 0, read);
+				}
+			}
+			assertArrayEquals(expected.digest(), actual.digest());
+			try (Stream<Path> files = Files.list(tempDir)) {
+				assertFalse(files.anyMatch(p -> p.getFileName().toString().endsWith(".tmp")));
+			}
+			assertTrue(Files.isRegularFile(downloaded));
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.configuration2.MapConfiguration;
+import org.junit.jupiter.api.Test;
+
+import au.org.ala.config.AlaConfigException;
+import au.org.ala.config.ConfigSnapshot;
+
+/**
+ * Tests for the generated {@link ResolvedBiocacheProperties}, and that the
+ * lookups in {@link BiocacheConfig} use the same keys and defaults.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ResolvedBiocachePropertiesTest {
+
+	private static MapConfiguration config(String solrThreads, String cassandraThreads) {
+		Map<String, Object> values = new HashMap<>();
+		values.put("solr.update.threads", solrThreads);
+		values.put("cassandra.update.threads", cassandraThreads);
+		return new MapConfiguration(values);
+	}
+
+	@Test
+	public void testThreadCountsAreResolvedOnce() {
+		BiocacheProperties properties = new ResolvedBiocacheProperties(config("2x cores", "3"));
+		int cores = Runtime.getRuntime().availableProcessors();
+		assertEquals("2x cores", properties.solrUpdateThreadsSpec());
+		assertEquals(ExecutorRegistry.threadCount("2x cores", cores), properties.solrUpdateThreads());
+		assertEquals(3, properties.cassandraUpdateThreads());
+	}
+
+	@Test
+	public void testDefaultThreadCounts() {
+		BiocacheProperties properties = new ResolvedBiocacheProperties(
+				new MapConfiguration(Collections.<String, Object>emptyMap()));
+		assertEquals(4, properties.solrUpdateThreads());
+		assertEquals(8, properties.cassandraUpdateThreads());
+	}
+
+	@Test
+	public void testInvalidThreadCountsAreReportedOnce() {
+		List<String> errors = ResolvedBiocacheProperties.validate(config("many", "0"));
+		assertEquals(2, errors.size(), errors.toString());
+		assertTrue(errors.get(0).startsWith("solr.update.threads: "), errors.toString());
+		assertTrue(errors.get(1).startsWith("cassandra.update.threads: "), errors.toString());
+		assertThrows(AlaConfigException.class, () -> new ResolvedBiocacheProperties(config("many", "4")));
+	}
+
+	/**
+	 * @return The value of every method in {@link BiocacheProperties}, by method
+	 *         name.
+	 */
+	private static Map<String, Object> values(BiocacheProperties properties) throws Exception {
+		Map<String, Object> result = new TreeMap<>();
+		for (Method nextMethod : BiocacheProperties.class.getMethods()) {
+			result.put(nextMethod.getName(), nextMethod.invoke(properties));
+		}
+		return result;
+	}
+
+	/**
+	 * Finds a different, valid value for every key, by trying values until one
+	 * changes the result of at least one method. Each key is given a different
+	 * number, so reading the value of the wrong key is also detected.
+	 */
+	private static Map<String, Object> overrideEveryKey() throws Exception {
+		Map<String, Object> defaults = values(
+				new ResolvedBiocacheProperties(new MapConfiguration(Collections.<String, Object>emptyMap())));
+		Map<String, Object> result = new HashMap<>();
+		for (int i = 0; i < ResolvedBiocacheProperties.KEYS.size(); i++) {
+			String nextKey = ResolvedBiocacheProperties.KEYS.get(i);
+			String value = null;
+			for (String nextCandidate : Arrays.asList(Integer.toString(100 + i), "true", "false")) {
+				MapConfiguration candidate = new MapConfiguration(
+						Collections.<String, Object>singletonMap(nextKey, nextCandidate));
+				if (ResolvedBiocacheProperties.validate(candidate).isEmpty()
+						&& !values(new ResolvedBiocacheProperties(candidate)).equals(defaults)) {
+					value = nextCandidate;
+					break;
+				}
+			}
+			assertNotNull(value, "No value changes the result for " + nextKey);
+			result.put(nextKey, value);
+		}
+		return result;
+	}
+
+	private static void assertSameValues(Map<String, Object> config) throws Exception {
+		BiocacheConfig biocacheConfig = new BiocacheConfig(new MapConfiguration(config));
+		BiocacheProperties resolved = new ResolvedBiocacheProperties(new MapConfiguration(config));
+		Map<String, Object> expected = values(resolved);
+		Map<String, Object> actual = values(biocacheConfig);
+		for (String nextMethod : expected.keySet()) {
+			assertEquals(expected.get(nextMethod), actual.get(nextMethod), nextMethod);
+		}
+
+		try (ExecutorRegistry executors = biocacheConfig.executors()) {
+			executors.executor(BiocacheConfig.SOLR_EXECUTOR);
+			executors.executor(BiocacheConfig.CASSANDRA_EXECUTOR);
+			ExecutorMetrics solr = executors.metrics().get(BiocacheConfig.SOLR_EXECUTOR);
+			assertEquals(resolved.solrUpdateThreads(), solr.getThreads());
+			assertEquals(resolved.solrUpdateQueueSize(), solr.getQueueCapacity());
+			ExecutorMetrics cassandra = executors.metrics().get(BiocacheConfig.CASSANDRA_EXECUTOR);
+			assertEquals(resolved.cassandraUpdateThreads(), cassandra.getThreads());
+			assertEquals(resolved.cassandraUpdateQueueSize(), cassandra.getQueueCapacity());
+		}
+	}
+
+	@Test
+	public void testBiocacheConfigMatchesDefaults() throws Exception {
+		assertSameValues(Collections.<String, Object>emptyMap());
+	}
+
+	@Test
+	public void testBiocacheConfigMatchesOverrides() throws Exception {
+		assertSameValues(overrideEveryKey());
+	}
+
+	@Test
+	public void testNegativeQueueSizesAreRejected() throws Exception {
+		BiocacheConfig biocacheConfig = new BiocacheConfig(
+				new MapConfiguration(Collections.<String, Object>emptyMap()));
+		Map<String, String> values = new HashMap<>();
+		values.put("solr.update.queue.size", "-1");
+		values.put("cassandra.update.queue.size", "-2");
+		AlaConfigException e = assertThrows(AlaConfigException.class,
+				() -> biocacheConfig.validate(ConfigSnapshot.of(values)));
+		assertTrue(e.getMessage().contains("solr.update.queue.size"), e.getMessage());
+		assertTrue(e.getMessage().contains("cassandra.update.queue.size"), e.getMessage());
+		values.put("solr.update.queue.size", "0");
+		values.put("cassandra.update.queue.size", "0");
+		biocacheConfig.validate(ConfigSnapshot.of(values));
+	}
+}
@@ -0,0 +1,304 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link SamplingCache} using a stub {@link LayerSampler}.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class SamplingCacheTest {
+
+	private static final List<String> LAYERS = Arrays.asList("cl22", "cl23");
+
+	private Path tempDir;
+
+	private Path cacheFile;
+
+	private StubSampler sampler;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-sampling-test");
+		cacheFile = tempDir.resolve(SamplingCache.DEFAULT_FILE_NAME);
+		sampler = new StubSampler();
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private SamplingCache open() throws IOException {
+		return SamplingCache.open(cacheFile, 3, 2, 2, true);
+	}
+
+	/**
+	 * Returns a value made from the layer and the point, and records the points
+	 * it was called with.
+	 */
+	private static final class StubSampler implements LayerSampler {
+
+		final List<double[]> calls = new ArrayList<>();
+
+		int failures;
+
+		int valuesPerPoint = -1;
+
+		String padding = "";
+
+		@Override
+		public String[][] sample(double[] latitudes, double[] longitudes, List<String> layerIds) throws IOException {
+			if (failures > 0) {
+				failures--;
+				throw new IOException("Layers service unavailable");
+			}
+			calls.add(latitudes.clone());
+			String[][] result = new String[latitudes.length][];
+			for (int i = 0; i < latitudes.length; i++) {
+				result[i] = new String[valuesPerPoint < 0 ? layerIds.size() : valuesPerPoint];
+				for (int j = 0; j < result[i].length; j++) {
+					result[i][j] = value(layerIds.get(j), latitudes[i], longitudes[i]) + padding;
+				}
+			}
+			return result;
+		}
+
+		int sampledPoints() {
+			int result = 0;
+			for (double[] nextCall : calls) {
+				result += nextCall.length;
+			}
+			return result;
+		}
+	}
+
+	private static String value(String layer, double latitude, double longitude) {
+		return String.format("%s:%.3f,%.3f", layer, latitude, longitude);
+	}
+
+	@Test
+	public void testCachedPointsAreNotSampledAgain() throws Exception {
+		double[] latitudes = { -35.1, -36.2, -37.3 };
+		double[] longitudes = { 149.1, 148.2, 147.3 };
+		try (SamplingCache cache = open()) {
+			String[][] first = cache.sample(latitudes, longitudes, LAYERS, sampler);
+			assertEquals(value("cl23", -36.2, 148.2), first[1][1]);
+			// Three points in batches of two
+			assertEquals(2, sampler.calls.size());
+			assertArrayEquals(first, cache.sample(latitudes, longitudes, LAYERS, sampler));
+			assertEquals(3, sampler.sampledPoints());
+			assertEquals(6, cache.size());
+		}
+	}
+
+	@Test
+	public void testRoundedPointsAreSampledOnce() throws Exception {
+		double[] latitudes = { -35.10001, -35.10002, Double.NaN };
+		double[] longitudes = { 149.1, 149.1, 149.1 };
+		try (SamplingCache cache = open()) {
+			String[][] result = cache.sample(latitudes, longitudes, LAYERS, sampler);
+			assertEquals(1, sampler.sampledPoints());
+			assertEquals(result[0][0], result[1][0]);
+			assertNull(result[2][0]);
+		}
+	}
+
+	@Test
+	public void testValuesAreKeptWhenReopened() throws Exception {
+		double[] latitudes = { -35.1, -36.2 };
+		double[] longitudes = { 149.1, 148.2 };
+		String[][] sampled;
+		try (SamplingCache cache = open()) {
+			sampled = cache.sample(latitudes, longitudes, LAYERS, sampler);
+		}
+		try (SamplingCache cache = open()) {
+			assertArrayEquals(sampled, cache.lookup(latitudes, longitudes, LAYERS));
+			assertArrayEquals(sampled, cache.sample(latitudes, longitudes, LAYERS, sampler));
+			assertEquals(2, sampler.sampledPoints());
+		}
+	}
+
+	@Test
+	public void testFileGrowsInChunks() throws Exception {
+		// Values large enough to need more than one chunk
+		sampler.padding = new String(new char[64 * 1024]).replace('\0', 'x');
+		double[] latitudes = new double[300];
+		double[] longitudes = new double[latitudes.length];
+		for (int i = 0; i < latitudes.length; i++) {
+			latitudes[i] = -30 - i / 100.0;
+			longitudes[i] = 140;
+		}
+		try (SamplingCache cache = open()) {
+			cache.sample(latitudes, longitudes, LAYERS, sampler);
+			assertEquals(0, Files.size(cacheFile) % SamplingCache.GROWTH_CHUNK);
+			assertTrue(Files.size(cacheFile) > SamplingCache.GROWTH_CHUNK);
+		}
+		try (SamplingCache cache = open()) {
+			String[][] result = cache.lookup(latitudes, longitudes, LAYERS);
+			assertEquals(value("cl22", latitudes[299], 140) + sampler.padding, result[299][0]);
+			assertEquals(600, cache.size());
+		}
+	}
+
+	@Test
+	public void testFailedGrowthDoesNotDeclareLayers() throws Exception {
+		double[] latitudes = { -35.1 };
+		double[] longitudes = { 149.1 };
+		try (SamplingCache cache = open()) {
+			// The first batch needs the file to grow past its header
+			cache.maxFileSize = Files.size(cacheFile);
+			assertThrows(IOException.class, () -> cache.sample(latitudes, longitudes, LAYERS, sampler));
+			assertEquals(0, cache.size());
+			cache.maxFileSize = Integer.MAX_VALUE;
+			cache.sample(new double[] { -36.2 }, new double[] { 148.2 }, LAYERS, sampler);
+		}
+		try (SamplingCache cache = open()) {
+			assertEquals(2, cache.size());
+			assertEquals(value("cl23", -36.2, 148.2),
+					cache.lookup(new double[] { -36.2 }, new double[] { 148.2 }, LAYERS)[0][1]);
+		}
+	}
+
+	@Test
+	public void testRejectedLayerDoesNotDeclareEarlierLayers() throws Exception {
+		String longLayer = new String(new char[Short.MAX_VALUE + 1]).replace('\0', 'x');
+		try (SamplingCache cache = open()) {
+			assertThrows(IOException.class, () -> cache.sample(new double[] { -35.1 }, new double[] { 149.1 },
+					Arrays.asList("cl22", longLayer), sampler));
+			cache.sample(new double[] { -36.2 }, new double[] { 148.2 }, Arrays.asList("cl23", "cl23"), sampler);
+		}
+		try (SamplingCache cache = open()) {
+			assertEquals(1, cache.size());
+			assertEquals(value("cl23", -36.2, 148.2),
+					cache.lookup(new double[] { -36.2 }, new double[] { 148.2 }, LAYERS)[0][1]);
+		}
+	}
+
+	@Test
+	public void testFailedCallsAreRetried() throws Exception {
+		sampler.failures = 2;
+		try (SamplingCache cache = open()) {
+			String[][] result = cache.sample(new double[] { -35.1 }, new double[] { 149.1 }, LAYERS, sampler);
+			assertEquals(value("cl22", -35.1, 149.1), result[0][0]);
+		}
+	}
+
+	@Test
+	public void testFailureAfterRetriesKeepsEarlierBatches() throws Exception {
+		double[] latitudes = { -35.1, -36.2, -37.3 };
+		double[] longitudes = { 149.1, 148.2, 147.3 };
+		try (SamplingCache cache = open()) {
+			LayerSampler failAfterFirstBatch = (lats, lons, layers) -> {
+				if (!sampler.calls.isEmpty()) {
+					throw new IOException("Layers service unavailable");
+				}
+				return sampler.sample(lats, lons, layers);
+			};
+			assertThrows(IOException.class, () -> cache.sample(latitudes, longitudes, LAYERS, failAfterFirstBatch));
+			assertEquals(4, cache.size());
+		}
+	}
+
+	@Test
+	public void testWrongNumberOfValuesIsRejected() throws Exception {
+		sampler.valuesPerPoint = 1;
+		try (SamplingCache cache = open()) {
+			assertThrows(IOException.class,
+					() -> cache.sample(new double[] { -35.1 }, new double[] { 149.1 }, LAYERS, sampler));
+			assertEquals(0, cache.size());
+		}
+	}
+
+	@Test
+	public void testCompactKeepsCurrentValues() throws Exception {
+		double[] latitudes = { -35.1, -36.2 };
+		double[] longitudes = { 149.1, 148.2 };
+		try (SamplingCache cache = open()) {
+			cache.sample(latitudes, longitudes, LAYERS.subList(0, 1), sampler);
+			// Sampling the second layer samples the first layer again
+			String[][] sampled = cache.sample(latitudes, longitudes, LAYERS, sampler);
+			cache.compact();
+			assertEquals(4, cache.size());
+			assertArrayEquals(sampled, cache.lookup(latitudes, longitudes, LAYERS));
+			// The compacted file is still written to
+			cache.sample(new double[] { -37.3 }, new double[] { 147.3 }, LAYERS, sampler);
+			assertEquals(6, cache.size());
+		}
+		try (SamplingCache cache = open()) {
+			assertEquals(6, cache.size());
+			assertEquals(value("cl23", -37.3, 147.3),
+					cache.lookup(new double[] { -37.3 }, new double[] { 147.3 }, LAYERS)[0][1]);
+		}
+		try (Stream<Path> files = Files.list(tempDir)) {
+			assertEquals(1, files.count());
+		}
+	}
+
+	@Test
+	public void testIncompleteBatchAtEndIsIgnored() throws Exception {
+		double[] latitudes = { -35.1 };
+		double[] longitudes = { 149.1 };
+		try (SamplingCache cache = open()) {
+			cache.sample(latitudes, longitudes, LAYERS, sampler);
+		}
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(16);
+			channel.read(header, 0);
+			// A sample record header after the last complete batch, without its value
+			channel.write(ByteBuffer.wrap(new byte[] { 2, 0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 0, 0, 0, 9 }),
+					header.getInt(12));
+		}
+		try (SamplingCache cache = open()) {
+			assertEquals(2, cache.size());
+			assertEquals(value("cl22", -35.1, 149.1), cache.lookup(latitudes, longitudes, LAYERS)[0][0]);
+			// The next batch replaces the incomplete batch
+			cache.sample(new double[] { -36.2 }, new double[] { 148.2 }, LAYERS, sampler);
+		}
+		try (SamplingCache cache = open()) {
+			assertEquals(4, cache.size());
+			assertEquals(value("cl23", -36.2, 148.2),
+					cache.lookup(new double[] { -36.2 }, new double[] { 148.2 }, LAYERS)[0][1]);
+		}
+	}
+
+	@Test
+	public void testDifferentPrecisionIsRejected() throws Exception {
+		open().close();
+		assertThrows(IOException.class, () -> SamplingCache.open(cacheFile, 4, 2, 2, true));
+	}
+
+	@Test
+	public void testSamplingDisabledOnlyReturnsCachedValues() throws Exception {
+		try (SamplingCache cache = SamplingCache.open(cacheFile, 3, 2, 2, false)) {
+			String[][] result = cache.sample(new double[] { -35.1 }, new double[] { 149.1 }, LAYERS, sampler);
+			assertNull(result[0][0]);
+			assertTrue(sampler.calls.isEmpty());
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import au.org.ala.config.AlaConfigException;
+
+/**
+ * Simulates the plans for clusters of different sizes, checking that the token
+ * space is covered exactly once and evenly.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class TokenRangePlannerTest {
+
+	private static final int[] CLUSTER_SIZES = { 1, 2, 3, 5, 7, 16, 31, 100 };
+
+	private static final int[] SPLITS = { 1, 2, 3, 8, 13, 64 };
+
+	/**
+	 * @return The sub-ranges for every node in the cluster, in token order.
+	 */
+	private static List<TokenRange> clusterPlan(int clusterSize, int splitsPerNode) {
+		List<TokenRange> result = new ArrayList<>();
+		for (int node = 0; node < clusterSize; node++) {
+			result.addAll(new TokenRangePlanner(node, clusterSize, splitsPerNode).subRanges());
+		}
+		return result;
+	}
+
+	@Test
+	public void testPlansCoverTokenSpaceExactlyOnce() {
+		for (int clusterSize : CLUSTER_SIZES) {
+			for (int splits : SPLITS) {
+				List<TokenRange> plan = clusterPlan(clusterSize, splits);
+				assertEquals(clusterSize * splits, plan.size());
+				long previous = TokenRangePlanner.MIN_TOKEN;
+				BigInteger total = BigInteger.ZERO;
+				for (TokenRange nextRange : plan) {
+					// Each range starts where the previous one ended, so ranges neither
+					// overlap nor leave gaps
+					assertEquals(previous, nextRange.start(), clusterSize + " nodes, " + splits + " splits");
+					previous = nextRange.end();
+					total = total.add(nextRange.size());
+				}
+				assertEquals(TokenRangePlanner.MAX_TOKEN, previous);
+				assertEquals(BigInteger.valueOf(TokenRangePlanner.MAX_TOKEN)
+						.subtract(BigInteger.valueOf(TokenRangePlanner.MIN_TOKEN)), total);
+			}
+		}
+	}
+
+	@Test
+	public void testRangeSizesDifferByAtMostOneToken() {
+		for (int clusterSize : CLUSTER_SIZES) {
+			for (int splits : SPLITS) {
+				BigInteger smallestNode = null;
+				BigInteger largestNode = null;
+				for (int node = 0; node < clusterSize; node++) {
+					BigInteger size = new TokenRangePlanner(node, clusterSize, splits).nodeRange().size();
+					smallestNode = smallestNode == null ? size : smallestNode.min(size);
+					largestNode = largestNode == null ? size : largestNode.max(size);
+				}
+				assertTrue(largestNode.subtract(smallestNode).compareTo(BigInteger.ONE) <= 0,
+						clusterSize + " nodes: " + smallestNode + " to " + largestNode);
+				BigInteger smallest = null;
+				BigInteger largest = null;
+				for (TokenRange nextRange : clusterPlan(clusterSize, splits)) {
+					smallest = smallest == null ? nextRange.size() : smallest.min(nextRange.size());
+					largest = largest == null ? nextRange.size() : largest.max(nextRange.size());
+				}
+				assertTrue(largest.subtract(smallest).compareTo(BigInteger.ONE) <= 0,
+						clusterSize + " nodes, " + splits + " splits: " + smallest + " to " + largest);
+			}
+		}
+	}
+
+	@Test
+	public void testPlansAreDeterministic() {
+		for (int clusterSize : CLUSTER_SIZES) {
+			for (int splits : SPLITS) {
+				for (int node = 0; node < clusterSize; node++) {
+					TokenRangePlanner first = new TokenRangePlanner(node, clusterSize, splits);
+					TokenRangePlanner second = new TokenRangePlanner(node, clusterSize, splits);
+					assertEquals(first.nodeRange(), second.nodeRange());
+					assertEquals(first.subRanges(), second.subRanges());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSmallRangeSplitsIntoEmptyRanges() {
+		List<TokenRange> parts = TokenRangePlanner.split(new TokenRange(10, 12), 4);
+		assertEquals(4, parts.size());
+		assertEquals(12, parts.get(3).end());
+		BigInteger total = BigInteger.ZERO;
+		for (TokenRange nextPart : parts) {
+			assertTrue(nextPart.size().compareTo(BigInteger.ONE) <= 0);
+			total = total.add(nextPart.size());
+		}
+		assertEquals(BigInteger.valueOf(2), total);
+	}
+
+	@Test
+	public void testInvalidPlansAreRejected() {
+		assertThrows(AlaConfigException.class, () -> new TokenRangePlanner(0, 0, 1));
+		assertThrows(AlaConfigException.class, () -> new TokenRangePlanner(3, 3, 1));
+		assertThrows(AlaConfigException.class, () -> new TokenRangePlanner(-1, 3, 1));
+		assertThrows(AlaConfigException.class, () -> new TokenRangePlanner(0, 3, 0));
+	}
+
+	@Test
+	public void testWorkQueueHandsOutEachRangeOnce() throws Exception {
+		TokenRangePlanner planner = new TokenRangePlanner(1, 3, 64);
+		int workers = 4;
+		TokenRangeWorkQueue queue = planner.workQueue(workers);
+		assertEquals(64, queue.remaining());
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService threads = Executors.newFixedThreadPool(workers);
+		try {
+			List<Future<List<TokenRange>>> results = new ArrayList<>();
+			for (int i = 0; i < workers; i++) {
+				int worker = i;
+				results.add(threads.submit(() -> {
+					start.await();
+					List<TokenRange> taken = new ArrayList<>();
+					for (Optional<TokenRange> next = queue.next(worker); next.isPresent(); next = queue
+							.next(worker)) {
+						taken.add(next.get());
+						// Worker 0 is slow, so the others take its ranges
+						if (worker == 0) {
+							Thread.sleep(20);
+						}
+					}
+					return taken;
+				}));
+			}
+			start.countDown();
+			List<TokenRange> taken = new ArrayList<>();
+			List<TokenRange> slowWorker = null;
+			for (Future<List<TokenRange>> nextResult : results) {
+				List<TokenRange> next = nextResult.get(30, TimeUnit.SECONDS);
+				if (slowWorker == null) {
+					slowWorker = next;
+				}
+				taken.addAll(next);
+			}
+			assertEquals(64, taken.size());
+			Set<TokenRange> unique = new HashSet<>(taken);
+			assertEquals(new HashSet<>(planner.subRanges()), unique);
+			assertTrue(slowWorker.size() < 16, "Slow worker processed " + slowWorker.size() + " ranges");
+			assertEquals(0, queue.remaining());
+			assertFalse(queue.next(0).isPresent());
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testWorkersStartWithContiguousBlocks() {
+		TokenRangePlanner planner = new TokenRangePlanner(0, 1, 10);
+		TokenRangeWorkQueue queue = planner.workQueue(3);
+		List<TokenRange> firsts = new ArrayList<>();
+		for (int worker = 0; worker < 3; worker++) {
+			firsts.add(queue.next(worker).get());
+		}
+		List<TokenRange> ranges = planner.subRanges();
+		assertEquals(ranges.get(0), firsts.get(0));
+		assertEquals(ranges.get(3), firsts.get(1));
+		assertEquals(ranges.get(6), firsts.get(2));
+		// Worker 2 finishes the rest of its own block, then steals from the end of
+		// the block for worker 0, which it would have reached last
+		assertEquals(ranges.subList(7, 10), toList(queue, 2, 3));
+		assertEquals(ranges.get(2), queue.next(2).get());
+		assertEquals(ranges.get(1), queue.next(0).get());
+	}
+
+	private static List<TokenRange> toList(TokenRangeWorkQueue queue, int worker, int count) {
+		List<TokenRange> result = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			result.add(queue.next(worker).get());
+		}
+		return result;
+	}
+}
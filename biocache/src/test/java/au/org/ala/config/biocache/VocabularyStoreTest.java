@@ -0,0 +1,121 @@
+/**
+ * 
+ */
+package au.org.ala.config.biocache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import au.org.ala.config.biocache.VocabularyStore.Vocabulary;
+
+/**
+ * Tests for {@link VocabularyStore}, including indexes that have been
+ * corrupted on disk.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class VocabularyStoreTest {
+
+	private static final String FILE_NAME = "basisOfRecord.txt";
+
+	/**
+	 * The offset of the slot count in the index header, after the magic number,
+	 * the version and the SHA-256 hash of the vocabulary file.
+	 */
+	private static final int SLOT_COUNT_OFFSET = 4 + 4 + 32;
+
+	private static final int TERM_COUNT_OFFSET = SLOT_COUNT_OFFSET + 4;
+
+	private Path tempDir;
+
+	private Path indexDir;
+
+	private Path index;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-vocabulary-test");
+		indexDir = tempDir.resolve("index");
+		index = indexDir.resolve(FILE_NAME + VocabularyStore.INDEX_SUFFIX);
+		Files.write(tempDir.resolve(FILE_NAME), Arrays.asList("# Basis of record", "PreservedSpecimen, specimen, S",
+				"HumanObservation\tobservation\tO", "", "MachineObservation, machine"), StandardCharsets.UTF_8);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private Vocabulary load() {
+		return new VocabularyStore(tempDir, indexDir).vocabulary(FILE_NAME);
+	}
+
+	private static void assertLookups(Vocabulary vocabulary) {
+		assertEquals(3, vocabulary.size());
+		assertEquals(Optional.of("PreservedSpecimen"), vocabulary.find(" Specimen "));
+		assertEquals(Optional.of("HumanObservation"), vocabulary.find("o"));
+		assertEquals(Optional.of("MachineObservation"), vocabulary.find("MACHINEOBSERVATION"));
+		assertFalse(vocabulary.find("FossilSpecimen").isPresent());
+		assertFalse(vocabulary.find("  ").isPresent());
+	}
+
+	private void writeHeaderInt(int offset, int value) throws Exception {
+		try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(4);
+			buffer.putInt(0, value);
+			channel.write(buffer, offset);
+		}
+	}
+
+	@Test
+	public void testLookupsIgnoreCaseAndWhitespace() {
+		Vocabulary vocabulary = load();
+		assertLookups(vocabulary);
+		assertSame(vocabulary.find("specimen").get(), load().find("S").get());
+	}
+
+	@Test
+	public void testSlotCountThatIsNotAPowerOfTwoRebuildsIndex() throws Exception {
+		load();
+		writeHeaderInt(SLOT_COUNT_OFFSET, 3);
+		assertLookups(load());
+	}
+
+	@Test
+	public void testCountsLargerThanIndexRebuildIndex() throws Exception {
+		load();
+		writeHeaderInt(SLOT_COUNT_OFFSET, 1 << 30);
+		assertLookups(load());
+		writeHeaderInt(TERM_COUNT_OFFSET, Integer.MAX_VALUE);
+		assertLookups(load());
+		writeHeaderInt(TERM_COUNT_OFFSET, -1);
+		assertLookups(load());
+	}
+
+	@Test
+	public void testTruncatedIndexIsRebuilt() throws Exception {
+		load();
+		try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 6);
+		}
+		assertLookups(load());
+	}
+}
@@ -0,0 +1,485 @@
+/**
+ * 
+ */
+package au.org.ala.config.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import au.org.ala.config.ConfigProperties;
+import au.org.ala.config.ConfigProperty;
+
+/**
+ * Generates field-backed implementations of interfaces annotated with
+ * {@link ConfigProperties}.
+ * 
+ * The generated class resolves and converts every property in its constructor,
+ * after running a validation pass that reports every invalid property at once.
+ * Each accessor is then a read of a final field.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigPropertiesProcessor extends AbstractProcessor {
+
+	private static final String SET_OF_STRING = "java.util.Set<java.lang.String>";
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(ConfigProperties.class.getName());
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element nextElement : roundEnv.getElementsAnnotatedWith(ConfigProperties.class)) {
+			if (nextElement.getKind() != ElementKind.INTERFACE) {
+				error(nextElement, "@ConfigProperties can only be used on interfaces");
+				continue;
+			}
+			TypeElement nextInterface = (TypeElement) nextElement;
+			List<PropertyMethod> properties = collectProperties(nextInterface);
+			if (properties != null) {
+				try {
+					writeImplementation(nextInterface, properties);
+				} catch (IOException e) {
+					error(nextInterface, "Could not write generated class: " + e.getMessage());
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks every abstract method on the interface, including those inherited
+	 * from other interfaces, and converts them to {@link PropertyMethod}s.
+	 * 
+	 * @return The properties, or null if any of the methods were not valid, after
+	 *         reporting all of the errors.
+	 */
+	private List<PropertyMethod> collectProperties(TypeElement nextInterface) {
+		List<PropertyMethod> result = new ArrayList<>();
+		boolean valid = true;
+		DeclaredType interfaceType = (DeclaredType) nextInterface.asType();
+		for (ExecutableElement nextMethod : ElementFilter
+				.methodsIn(processingEnv.getElementUtils().getAllMembers(nextInterface))) {
+			if (!nextMethod.getModifiers().contains(Modifier.ABSTRACT)
+					|| nextMethod.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+				continue;
+			}
+			ConfigProperty property = nextMethod.getAnnotation(ConfigProperty.class);
+			if (property == null) {
+				error(nextMethod, "Abstract methods on a @ConfigProperties interface must have @ConfigProperty");
+				valid = false;
+				continue;
+			}
+			if (!nextMethod.getParameters().isEmpty()) {
+				error(nextMethod, "@ConfigProperty methods must not take parameters");
+				valid = false;
+				continue;
+			}
+			// Resolve type variables from generic super-interfaces
+			TypeMirror returnType = ((ExecutableType) processingEnv.getTypeUtils().asMemberOf(interfaceType,
+					nextMethod)).getReturnType();
+			PropertyType type = PropertyType.of(returnType);
+			if (type == null) {
+				error(nextMethod, "Unsupported return type for @ConfigProperty: " + returnType);
+				valid = false;
+				continue;
+			}
+			boolean hasDefault = !ConfigProperty.NO_DEFAULT.equals(property.defaultValue());
+			String parser = null;
+			if (!property.parser().isEmpty()) {
+				parser = resolveParser(nextInterface, property.parser(), returnType);
+				if (parser == null) {
+					error(nextMethod, "Parser must be a static method taking a String and returning " + returnType
+							+ ": " + property.parser());
+					valid = false;
+					continue;
+				}
+			} else if (hasDefault && !type.isValidDefault(property.defaultValue())) {
+				error(nextMethod, "Default value '" + property.defaultValue() + "' is not a valid " + type.javaType);
+				valid = false;
+				continue;
+			}
+			result.add(new PropertyMethod(nextMethod.getSimpleName().toString(), type, property.key(),
+					hasDefault ? property.defaultValue() : null, property.separator(), parser));
+		}
+		return valid ? result : null;
+	}
+
+	/**
+	 * Finds the static method named by {@link ConfigProperty#parser()}, looking
+	 * in the package of the interface if the class is not qualified.
+	 * 
+	 * @return The qualified name of the method, or null if there is no static
+	 *         method with that name that takes a String and returns the type of
+	 *         the property.
+	 */
+	private String resolveParser(TypeElement nextInterface, String parser, TypeMirror returnType) {
+		int split = parser.lastIndexOf('.');
+		if (split < 1) {
+			return null;
+		}
+		String className = parser.substring(0, split);
+		String methodName = parser.substring(split + 1);
+		Elements elements = processingEnv.getElementUtils();
+		TypeElement parserType = elements.getTypeElement(className);
+		if (parserType == null) {
+			parserType = elements.getTypeElement(
+					elements.getPackageOf(nextInterface).getQualifiedName() + "." + className);
+		}
+		if (parserType == null) {
+			return null;
+		}
+		Types types = processingEnv.getTypeUtils();
+		TypeMirror string = elements.getTypeElement(String.class.getName()).asType();
+		for (ExecutableElement nextMethod : ElementFilter.methodsIn(parserType.getEnclosedElements())) {
+			if (nextMethod.getSimpleName().contentEquals(methodName)
+					&& nextMethod.getModifiers().contains(Modifier.STATIC)
+					&& !nextMethod.getModifiers().contains(Modifier.PRIVATE)
+					&& nextMethod.getParameters().size() == 1
+					&& types.isSameType(string, nextMethod.getParameters().get(0).asType())
+					&& types.isAssignable(nextMethod.getReturnType(), returnType)) {
+				return parserType.getQualifiedName() + "." + methodName;
+			}
+		}
+		return null;
+	}
+
+	private void writeImplementation(TypeElement nextInterface, List<PropertyMethod> properties)
+			throws IOException {
+		ConfigProperties annotation = nextInterface.getAnnotation(ConfigProperties.class);
+		String packageName = ((PackageElement) processingEnv.getElementUtils().getPackageOf(nextInterface))
+				.getQualifiedName().toString();
+		String interfaceName = nextInterface.getSimpleName().toString();
+		String generatedName = annotation.generatedName().isEmpty() ? "Resolved" + interfaceName
+				: annotation.generatedName();
+		String qualifiedName = packageName.isEmpty() ? generatedName : packageName + "." + generatedName;
+
+		JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedName, nextInterface);
+		try (Writer writer = sourceFile.openWriter(); PrintWriter out = new PrintWriter(writer)) {
+			if (!packageName.isEmpty()) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+			out.println("import java.util.ArrayList;");
+			out.println("import java.util.Arrays;");
+			out.println("import java.util.Collections;");
+			out.println("import java.util.List;");
+			if (properties.stream().anyMatch(p -> p.type == PropertyType.SET)) {
+				out.println("import java.util.Set;");
+			}
+			out.println();
+			out.println("import org.apache.commons.configuration2.ImmutableConfiguration;");
+			out.println();
+			out.println("import au.org.ala.config.AlaConfigException;");
+			out.println("import au.org.ala.config.ConfigSnapshot;");
+			out.println();
+			out.println("/**");
+			out.println(" * Pre-resolved implementation of {@link " + interfaceName + "}.");
+			out.println(" * ");
+			out.println(" * Generated by " + getClass().getName() + ". Do not edit.");
+			out.println(" */");
+			out.println("public final class " + generatedName + " implements " + interfaceName + " {");
+			out.println();
+			out.println("\t/**");
+			out.println("\t * The keys of the properties in {@link " + interfaceName + "}.");
+			out.println("\t */");
+			// A key can back more than one method, such as a raw and a parsed form
+			Set<String> uniqueKeys = new LinkedHashSet<>();
+			for (PropertyMethod nextProperty : properties) {
+				uniqueKeys.add(nextProperty.key);
+			}
+			StringBuilder keys = new StringBuilder();
+			for (String nextKey : uniqueKeys) {
+				keys.append(keys.length() == 0 ? "" : ", ").append(literal(nextKey));
+			}
+			out.println("\tpublic static final List<String> KEYS = Collections.unmodifiableList(Arrays.asList("
+					+ keys + "));");
+			out.println();
+			for (PropertyMethod nextProperty : properties) {
+				out.println("\tprivate final " + nextProperty.type.javaType + " " + nextProperty.name + ";");
+				out.println();
+			}
+
+			out.println("\t/**");
+			out.println("\t * Validates the given configuration and then resolves every property from it.");
+			out.println("\t * ");
+			out.println("\t * @param config");
+			out.println("\t *            The configuration to resolve the properties from");
+			out.println("\t * @throws AlaConfigException");
+			out.println("\t *             If any of the properties are missing or cannot be converted");
+			out.println("\t */");
+			out.println("\tpublic " + generatedName + "(ImmutableConfiguration config) throws AlaConfigException {");
+			out.println("\t\tConfigSnapshot snapshot = ConfigSnapshot.of(config);");
+			out.println("\t\tList<String> errors = validate(snapshot);");
+			out.println("\t\tif (!errors.isEmpty()) {");
+			out.println("\t\t\tthrow new AlaConfigException(\"Invalid configuration for " + interfaceName
+					+ ": \" + String.join(\", \", errors));");
+			out.println("\t\t}");
+			for (PropertyMethod nextProperty : properties) {
+				out.println("\t\tthis." + nextProperty.name + " = " + nextProperty.lookupExpression() + ";");
+			}
+			out.println("\t}");
+			out.println();
+
+			out.println("\t/**");
+			out.println("\t * Checks that every property in the given configuration can be resolved.");
+			out.println("\t * ");
+			out.println("\t * @param config");
+			out.println("\t *            The configuration to check");
+			out.println("\t * @return A description of each property that is missing or invalid, or an");
+			out.println("\t *         empty list if all of the properties are valid.");
+			out.println("\t */");
+			out.println("\tpublic static List<String> validate(ImmutableConfiguration config) {");
+			out.println("\t\tConfigSnapshot snapshot = ConfigSnapshot.of(config);");
+			out.println("\t\tList<String> errors = new ArrayList<>();");
+			for (PropertyMethod nextProperty : properties) {
+				if (nextProperty.isRequired()) {
+					out.println("\t\tif (!snapshot.containsKey(" + literal(nextProperty.key) + ")) {");
+					out.println("\t\t\terrors.add(" + literal(nextProperty.key + ": required property is missing")
+							+ ");");
+					out.println("\t\t} else {");
+					writeConversionCheck(out, nextProperty, "\t\t\t");
+					out.println("\t\t}");
+				} else if (nextProperty.needsConversion()) {
+					writeConversionCheck(out, nextProperty, "\t\t");
+				}
+			}
+			out.println("\t\treturn errors;");
+			out.println("\t}");
+
+			for (PropertyMethod nextProperty : properties) {
+				out.println();
+				out.println("\t@Override");
+				out.println("\tpublic " + nextProperty.type.javaType + " " + nextProperty.name + "() {");
+				out.println("\t\treturn " + nextProperty.name + ";");
+				out.println("\t}");
+			}
+			out.println("}");
+		}
+	}
+
+	private void writeConversionCheck(PrintWriter out, PropertyMethod nextProperty, String indent) {
+		out.println(indent + "try {");
+		out.println(indent + "\t" + nextProperty.lookupExpression() + ";");
+		out.println(indent + "} catch (RuntimeException e) {");
+		out.println(indent + "\terrors.add(" + literal(nextProperty.key + ": ") + " + e.getMessage());");
+		out.println(indent + "}");
+	}
+
+	private void error(Element element, String message) {
+		Messager messager = processingEnv.getMessager();
+		messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	static String literal(String value) {
+		StringBuilder result = new StringBuilder(value.length() + 2);
+		result.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				result.append("\\\"");
+				break;
+			case '\\':
+				result.append("\\\\");
+				break;
+			case '\n':
+				result.append("\\n");
+				break;
+			case '\r':
+				result.append("\\r");
+				break;
+			case '\t':
+				result.append("\\t");
+				break;
+			default:
+				if (c < 0x20 || c > 0x7e) {
+					result.append(String.format("\\u%04x", (int) c));
+				} else {
+					result.append(c);
+				}
+			}
+		}
+		return result.append('"').toString();
+	}
+
+	/**
+	 * The return types supported on {@link ConfigProperty} methods.
+	 */
+	enum PropertyType {
+		STRING("String"), INT("int"), LONG("long"), BOOLEAN("boolean"), DOUBLE("double"), SET("Set<String>");
+
+		final String javaType;
+
+		PropertyType(String javaType) {
+			this.javaType = javaType;
+		}
+
+		static PropertyType of(TypeMirror returnType) {
+			switch (returnType.getKind()) {
+			case INT:
+				return INT;
+			case LONG:
+				return LONG;
+			case BOOLEAN:
+				return BOOLEAN;
+			case DOUBLE:
+				return DOUBLE;
+			case DECLARED:
+				String typeName = returnType.toString();
+				if (String.class.getName().equals(typeName)) {
+					return STRING;
+				} else if (SET_OF_STRING.equals(typeName)) {
+					return SET;
+				}
+				return null;
+			default:
+				return null;
+			}
+		}
+
+		boolean needsConversion() {
+			return this != STRING && this != SET;
+		}
+
+		boolean isValidDefault(String defaultValue) {
+			try {
+				switch (this) {
+				case INT:
+					Integer.parseInt(defaultValue);
+					return true;
+				case LONG:
+					Long.parseLong(defaultValue);
+					return true;
+				case DOUBLE:
+					Double.parseDouble(defaultValue);
+					return true;
+				case BOOLEAN:
+					return "true".equalsIgnoreCase(defaultValue) || "false".equalsIgnoreCase(defaultValue);
+				default:
+					return true;
+				}
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * @return The Java source for the default value, suitable for passing to the
+		 *         matching ConfigSnapshot method. Numbers are written in their
+		 *         canonical form, as some of the forms that can be parsed, such as
+		 *         NaN or leading zeros, are not valid or do not mean the same
+		 *         thing as Java literals.
+		 */
+		String defaultLiteral(String defaultValue) {
+			switch (this) {
+			case INT:
+				return Integer.toString(Integer.parseInt(defaultValue));
+			case LONG:
+				return Long.toString(Long.parseLong(defaultValue)) + "L";
+			case BOOLEAN:
+				return Boolean.toString(Boolean.parseBoolean(defaultValue));
+			case DOUBLE:
+				double value = Double.parseDouble(defaultValue);
+				if (Double.isNaN(value)) {
+					return "Double.NaN";
+				} else if (Double.isInfinite(value)) {
+					return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+				}
+				return Double.toString(value);
+			default:
+				return defaultValue == null ? "null" : literal(defaultValue);
+			}
+		}
+	}
+
+	/**
+	 * A single {@link ConfigProperty} method on an interface.
+	 */
+	private static final class PropertyMethod {
+		final String name;
+		final PropertyType type;
+		final String key;
+		final String defaultValue;
+		final String separator;
+		final String parser;
+
+		PropertyMethod(String name, PropertyType type, String key, String defaultValue, String separator,
+				String parser) {
+			this.name = name;
+			this.type = type;
+			this.key = key;
+			this.defaultValue = defaultValue;
+			this.separator = separator;
+			this.parser = parser;
+		}
+
+		boolean needsConversion() {
+			return parser != null || type.needsConversion();
+		}
+
+		boolean isRequired() {
+			return defaultValue == null && needsConversion();
+		}
+
+		String lookupExpression() {
+			String key = literal(this.key);
+			if (parser != null) {
+				return parser + "(snapshot.getString(" + key + ", "
+						+ (defaultValue == null ? "null" : literal(defaultValue)) + "))";
+			}
+			switch (type) {
+			case STRING:
+				return "snapshot.getString(" + key + ", " + type.defaultLiteral(defaultValue) + ")";
+			case SET:
+				return "snapshot.getSet(" + key + ", " + literal(defaultValue == null ? "" : defaultValue) + ", "
+						+ literal(separator) + ")";
+			case INT:
+				return isRequired() ? "snapshot.getInt(" + key + ")"
+						: "snapshot.getInt(" + key + ", " + type.defaultLiteral(defaultValue) + ")";
+			case LONG:
+				return isRequired() ? "snapshot.getLong(" + key + ")"
+						: "snapshot.getLong(" + key + ", " + type.defaultLiteral(defaultValue) + ")";
+			case BOOLEAN:
+				return isRequired() ? "snapshot.getBoolean(" + key + ")"
+						: "snapshot.getBoolean(" + key + ", " + type.defaultLiteral(defaultValue) + ")";
+			case DOUBLE:
+				return isRequired() ? "snapshot.getDouble(" + key + ")"
+						: "snapshot.getDouble(" + key + ", " + type.defaultLiteral(defaultValue) + ")";
+			default:
+				throw new IllegalStateException("Unknown property type: " + type);
+			}
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * 
+ */
+package au.org.ala.config.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ConfigPropertiesProcessor}, which compile small interfaces
+ * with the processor and then load the generated classes.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ConfigPropertiesProcessorTest {
+
+	private static final String HEADER = "package test;\n" + "import java.util.Set;\n"
+			+ "import au.org.ala.config.ConfigProperties;\n" + "import au.org.ala.config.ConfigProperty;\n";
+
+	private Path tempDir;
+
+	private DiagnosticCollector<JavaFileObject> diagnostics;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-processor-test");
+		diagnostics = new DiagnosticCollector<>();
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private static JavaFileObject source(String className, String body) {
+		return new SimpleJavaFileObject(URI.create("string:///test/" + className + ".java"),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return HEADER + body;
+			}
+		};
+	}
+
+	/**
+	 * Runs the processor on the given sources and compiles the generated
+	 * classes.
+	 * 
+	 * @return True if there were no errors.
+	 */
+	private boolean compile(JavaFileObject... sources) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		List<String> options = Arrays.asList("-d", tempDir.toString(), "-classpath",
+				System.getProperty("java.class.path"));
+		JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+				Arrays.asList(sources));
+		task.setProcessors(Collections.singletonList(new ConfigPropertiesProcessor()));
+		return task.call();
+	}
+
+	private List<String> errors() {
+		return diagnostics.getDiagnostics().stream().filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+				.map(d -> d.getMessage(null)).collect(Collectors.toList());
+	}
+
+	private Object resolve(String className, Map<String, Object> values) throws Exception {
+		URLClassLoader loader = new URLClassLoader(new URL[] { tempDir.toUri().toURL() },
+				getClass().getClassLoader());
+		Class<?> generated = loader.loadClass("test.Resolved" + className);
+		try {
+			return generated.getConstructor(ImmutableConfiguration.class).newInstance(new MapConfiguration(values));
+		} catch (InvocationTargetException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+
+	private static Object get(Object properties, String methodName) throws Exception {
+		Method method = properties.getClass().getMethod(methodName);
+		return method.invoke(properties);
+	}
+
+	@Test
+	public void testEveryTypeIsResolved() throws Exception {
+		assertTrue(compile(source("Typed",
+				"@ConfigProperties public interface Typed {\n"
+						+ "@ConfigProperty(key = \"a.string\", defaultValue = \"x \\\"y\\\"\\n\") String string();\n"
+						+ "@ConfigProperty(key = \"a.int\", defaultValue = \"-5\") int integer();\n"
+						+ "@ConfigProperty(key = \"a.long\", defaultValue = \"5000000000\") long longValue();\n"
+						+ "@ConfigProperty(key = \"a.boolean\", defaultValue = \"TRUE\") boolean flag();\n"
+						+ "@ConfigProperty(key = \"a.double\", defaultValue = \"1e3\") double number();\n"
+						+ "@ConfigProperty(key = \"a.set\", defaultValue = \"p,q\") Set<String> set();\n"
+						+ "@ConfigProperty(key = \"a.missing\") String missing();\n" + "}\n")),
+				errors().toString());
+		Object defaults = resolve("Typed", Collections.<String, Object>emptyMap());
+		assertEquals("x \"y\"\n", get(defaults, "string"));
+		assertEquals(-5, get(defaults, "integer"));
+		assertEquals(5000000000L, get(defaults, "longValue"));
+		assertEquals(true, get(defaults, "flag"));
+		assertEquals(1000.0, get(defaults, "number"));
+		assertEquals(new HashSet<>(Arrays.asList("p", "q")), get(defaults, "set"));
+		assertEquals(null, get(defaults, "missing"));
+
+		Map<String, Object> values = new HashMap<>();
+		values.put("a.int", "7");
+		values.put("a.boolean", "false");
+		values.put("a.set", "r");
+		Object overridden = resolve("Typed", values);
+		assertEquals(7, get(overridden, "integer"));
+		assertEquals(false, get(overridden, "flag"));
+		assertEquals(Collections.singleton("r"), get(overridden, "set"));
+	}
+
+	@Test
+	public void testNumericDefaultsAreWrittenAsValidLiterals() throws Exception {
+		assertTrue(compile(source("Numbers",
+				"@ConfigProperties public interface Numbers {\n"
+						+ "@ConfigProperty(key = \"nan\", defaultValue = \"NaN\") double nan();\n"
+						+ "@ConfigProperty(key = \"inf\", defaultValue = \"Infinity\") double inf();\n"
+						+ "@ConfigProperty(key = \"neg.inf\", defaultValue = \"-Infinity\") double negInf();\n"
+						+ "@ConfigProperty(key = \"suffix\", defaultValue = \"2f\") double suffix();\n"
+						+ "@ConfigProperty(key = \"zeros\", defaultValue = \"08\") int zeros();\n"
+						+ "@ConfigProperty(key = \"plus\", defaultValue = \"+09\") long plus();\n" + "}\n")),
+				errors().toString());
+		Object defaults = resolve("Numbers", Collections.<String, Object>emptyMap());
+		assertTrue(Double.isNaN((Double) get(defaults, "nan")));
+		assertEquals(Double.POSITIVE_INFINITY, get(defaults, "inf"));
+		assertEquals(Double.NEGATIVE_INFINITY, get(defaults, "negInf"));
+		assertEquals(2.0, get(defaults, "suffix"));
+		assertEquals(8, get(defaults, "zeros"));
+		assertEquals(9L, get(defaults, "plus"));
+	}
+
+	@Test
+	public void testInheritedPropertiesAreGenerated() throws Exception {
+		assertTrue(compile(source("Base", "public interface Base<T> {\n"
+				+ "@ConfigProperty(key = \"base.value\", defaultValue = \"base\") T value();\n" + "}\n"),
+				source("Child", "@ConfigProperties public interface Child extends Base<String> {\n"
+						+ "@ConfigProperty(key = \"child.value\", defaultValue = \"child\") String child();\n"
+						+ "}\n")),
+				errors().toString());
+		Object defaults = resolve("Child", Collections.<String, Object>emptyMap());
+		assertEquals("base", get(defaults, "value"));
+		assertEquals("child", get(defaults, "child"));
+	}
+
+	@Test
+	public void testInvalidDeclarationsAreAllReported() throws Exception {
+		assertFalse(compile(source("Invalid",
+				"@ConfigProperties public interface Invalid {\n"
+						+ "@ConfigProperty(key = \"bad.int\", defaultValue = \"many\") int badInt();\n"
+						+ "@ConfigProperty(key = \"bad.boolean\", defaultValue = \"yes\") boolean badBoolean();\n"
+						+ "@ConfigProperty(key = \"bad.type\") Object badType();\n"
+						+ "@ConfigProperty(key = \"bad.parser\", parser = \"Missing.parse\") int badParser();\n"
+						+ "String unannotated();\n" + "}\n")));
+		List<String> errors = errors();
+		assertEquals(5, errors.size(), errors.toString());
+		assertTrue(errors.stream().anyMatch(e -> e.contains("'many' is not a valid int")), errors.toString());
+		assertTrue(errors.stream().anyMatch(e -> e.contains("'yes' is not a valid boolean")), errors.toString());
+	}
+
+	@Test
+	public void testMissingAndInvalidValuesAreReportedTogether() throws Exception {
+		assertTrue(compile(source("Required",
+				"@ConfigProperties public interface Required {\n"
+						+ "@ConfigProperty(key = \"required.int\") int requiredInt();\n"
+						+ "@ConfigProperty(key = \"checked.int\", defaultValue = \"1\") int checkedInt();\n"
+						+ "@ConfigProperty(key = \"parsed\", defaultValue = \"1\", parser = \"Parsers.parse\")\n"
+						+ "int parsed();\n"
+						+ "}\n"),
+				source("Parsers", "public class Parsers {\n" + "public static int parse(String value) {\n"
+						+ "return Integer.parseInt(value) * 10;\n" + "}\n" + "}\n")),
+				errors().toString());
+		Map<String, Object> values = new HashMap<>();
+		values.put("checked.int", "one");
+		try {
+			resolve("Required", values);
+			throw new AssertionError("Expected the invalid configuration to be rejected");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains("required.int: required property is missing"), e.getMessage());
+			assertTrue(e.getMessage().contains("checked.int: "), e.getMessage());
+		}
+		values.put("required.int", "2");
+		values.put("checked.int", "3");
+		Object resolved = resolve("Required", values);
+		assertEquals(2, get(resolved, "requiredInt"));
+		assertEquals(10, get(resolved, "parsed"));
+	}
+}
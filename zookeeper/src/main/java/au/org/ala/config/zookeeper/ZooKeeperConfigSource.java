@@ -0,0 +1,456 @@
+/**
+ * 
+ */
+package au.org.ala.config.zookeeper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.ImmutableConfiguration;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ala.config.AlaConfig;
+import au.org.ala.config.ConfigLayerSource;
+
+/**
+ * A configuration layer that reads its values from the children of a znode in
+ * ZooKeeper, so that a cluster of nodes can share configuration without
+ * redeploying files to each node.
+ * 
+ * Each child of the root znode is a key, and the data for the child is the
+ * value, encoded as UTF-8. Changes are pushed to this source by ZooKeeper
+ * watches, and only the keys that changed are read again. The values are held
+ * in memory and written to a local cache file after each change, so
+ * {@link #values()} never waits for ZooKeeper, and the last known values are
+ * still available if ZooKeeper cannot be reached when the process starts.
+ * 
+ * To use it, add it ahead of the overrides using
+ * {@link AlaConfig#getConfig(Path, Path, List)}, and pass it to
+ * {@link AlaConfig#enableReload(Path, Path, long, List)} to reload the
+ * configuration after each change.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public final class ZooKeeperConfigSource implements ConfigLayerSource, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ZooKeeperConfigSource.class);
+
+	/**
+	 * The layer name recorded for values from ZooKeeper.
+	 */
+	public static final String LAYER_NAME = "zookeeper";
+
+	/**
+	 * The key for the ZooKeeper connection string in the bootstrap
+	 * configuration.
+	 */
+	public static final String ADDRESS_PROPERTY = "zookeeper.address";
+
+	/**
+	 * The key in the bootstrap configuration that must be true for
+	 * {@link #fromConfig(ImmutableConfiguration)} to create a source.
+	 */
+	public static final String UPDATES_ENABLED_PROPERTY = "zookeeper.updates.enabled";
+
+	/**
+	 * The key for the znode containing the configuration in the bootstrap
+	 * configuration.
+	 */
+	public static final String ROOT_PATH_PROPERTY = "zookeeper.config.path";
+
+	/**
+	 * The key for the local cache file in the bootstrap configuration.
+	 */
+	public static final String CACHE_FILE_PROPERTY = "zookeeper.config.cache";
+
+	/**
+	 * The key for the ZooKeeper session timeout, in milliseconds, in the
+	 * bootstrap configuration.
+	 */
+	public static final String SESSION_TIMEOUT_PROPERTY = "zookeeper.session.timeout.ms";
+
+	private final String connectString;
+
+	private final String rootPath;
+
+	private final Path cacheFile;
+
+	private final int sessionTimeoutMillis;
+
+	/**
+	 * All ZooKeeper calls and changes to {@link #current} happen on this thread,
+	 * so that watch events are applied in the order they arrive.
+	 */
+	private final ExecutorService worker;
+
+	private final Watcher watcher = this::process;
+
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	private final CountDownLatch initialLoad = new CountDownLatch(1);
+
+	/**
+	 * The values as last read from ZooKeeper, only used on the worker thread.
+	 */
+	private final Map<String, String> current = new HashMap<>();
+
+	private volatile Map<String, String> values = Collections.emptyMap();
+
+	private ZooKeeper zooKeeper;
+
+	/**
+	 * True until every key has been read, and watched, using the current
+	 * session. Watches do not survive the session expiring.
+	 */
+	private boolean sessionWatchesMissing = true;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param connectString
+	 *            The ZooKeeper connection string
+	 * @param rootPath
+	 *            The znode whose children contain the configuration
+	 * @param cacheFile
+	 *            The local file to keep a copy of the values in
+	 * @param sessionTimeoutMillis
+	 *            The ZooKeeper session timeout, in milliseconds
+	 */
+	public ZooKeeperConfigSource(String connectString, String rootPath, Path cacheFile, int sessionTimeoutMillis) {
+		this.connectString = connectString;
+		this.rootPath = rootPath;
+		this.cacheFile = cacheFile;
+		this.sessionTimeoutMillis = sessionTimeoutMillis;
+		this.worker = Executors.newSingleThreadExecutor(r -> {
+			Thread result = new Thread(r, "ala-config-zookeeper");
+			result.setDaemon(true);
+			return result;
+		});
+	}
+
+	/**
+	 * Creates a source using the settings in a bootstrap configuration, such as
+	 * the configuration loaded from the local files, if ZooKeeper updates are
+	 * enabled.
+	 * 
+	 * @param bootstrap
+	 *            The configuration to read the ZooKeeper settings from
+	 * @return A source that has not been started, or empty if
+	 *         {@link #UPDATES_ENABLED_PROPERTY} is not true.
+	 */
+	public static Optional<ZooKeeperConfigSource> fromConfig(ImmutableConfiguration bootstrap) {
+		if (!bootstrap.getBoolean(UPDATES_ENABLED_PROPERTY, false)) {
+			return Optional.empty();
+		}
+		String cacheFile = bootstrap.getString(CACHE_FILE_PROPERTY,
+				Paths.get(bootstrap.getString("tmp.work.dir", "/tmp"), "ala-config-zookeeper.properties")
+						.toString());
+		return Optional.of(new ZooKeeperConfigSource(bootstrap.getString(ADDRESS_PROPERTY, "127.0.0.1:2181"),
+				bootstrap.getString(ROOT_PATH_PROPERTY, "/ala-config"), Paths.get(cacheFile),
+				bootstrap.getInt(SESSION_TIMEOUT_PROPERTY, 30000)));
+	}
+
+	/**
+	 * Loads the values from the local cache file, if it exists, and starts
+	 * connecting to ZooKeeper in the background.
+	 * 
+	 * @return This source, so that calls can be chained.
+	 */
+	public ZooKeeperConfigSource start() {
+		try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+			Properties cached = new Properties();
+			cached.load(reader);
+			Map<String, String> cachedValues = new HashMap<>();
+			for (String nextKey : cached.stringPropertyNames()) {
+				cachedValues.put(nextKey, cached.getProperty(nextKey));
+			}
+			values = Collections.unmodifiableMap(cachedValues);
+			log.info("Loaded {} cached ZooKeeper configuration values from {}", cachedValues.size(), cacheFile);
+		} catch (NoSuchFileException e) {
+			log.debug("No cached ZooKeeper configuration found: {}", cacheFile);
+		} catch (IOException e) {
+			log.warn("Could not read cached ZooKeeper configuration: {}", cacheFile, e);
+		}
+		submit(this::connect);
+		return this;
+	}
+
+	/**
+	 * Waits for the values to be read from ZooKeeper for the first time.
+	 * 
+	 * @param timeout
+	 *            The maximum time to wait
+	 * @param unit
+	 *            The unit for the timeout
+	 * @return True if the values have been read from ZooKeeper, or the root
+	 *         znode was found not to exist, in which case the cached values are
+	 *         kept. False if the timeout expired first, in which case
+	 *         {@link #values()} returns the cached values.
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting
+	 */
+	public boolean awaitInitialLoad(long timeout, TimeUnit unit) throws InterruptedException {
+		return initialLoad.await(timeout, unit);
+	}
+
+	@Override
+	public String name() {
+		return LAYER_NAME;
+	}
+
+	@Override
+	public Map<String, String> values() {
+		return values;
+	}
+
+	@Override
+	public void addChangeListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeChangeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		submit(() -> {
+			closeZooKeeper();
+			worker.shutdown();
+		});
+	}
+
+	private void submit(Runnable task) {
+		try {
+			worker.execute(task);
+		} catch (RejectedExecutionException e) {
+			// Already closed
+		}
+	}
+
+	/**
+	 * Called by ZooKeeper on its event thread, so the work is passed to the
+	 * worker thread.
+	 */
+	private void process(WatchedEvent event) {
+		if (closed) {
+			return;
+		}
+		switch (event.getType()) {
+		case None:
+			if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+				submit(this::loadAll);
+			} else if (event.getState() == Watcher.Event.KeeperState.Expired) {
+				log.warn("ZooKeeper session expired, reconnecting");
+				submit(this::connect);
+			}
+			break;
+		case NodeDataChanged:
+			submit(() -> loadKey(event.getPath()));
+			break;
+		case NodeDeleted:
+			submit(() -> removeKey(event.getPath()));
+			break;
+		case NodeCreated:
+		case NodeChildrenChanged:
+			submit(this::loadAll);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void connect() {
+		if (closed) {
+			return;
+		}
+		closeZooKeeper();
+		sessionWatchesMissing = true;
+		try {
+			zooKeeper = new ZooKeeper(connectString, sessionTimeoutMillis, watcher);
+		} catch (IOException e) {
+			log.warn("Could not connect to ZooKeeper at {}, using cached configuration", connectString, e);
+		}
+	}
+
+	private void closeZooKeeper() {
+		if (zooKeeper != null) {
+			try {
+				zooKeeper.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			zooKeeper = null;
+		}
+	}
+
+	/**
+	 * Lists the keys, reading the values for keys that are not already known and
+	 * removing keys that are no longer present. The values for known keys are
+	 * kept up to date by their own watches.
+	 * 
+	 * If the root znode does not exist, such as when connecting to a new
+	 * ensemble that has not been populated, the last known values and the cache
+	 * file are kept, and the values are loaded when the root znode is created.
+	 */
+	private void loadAll() {
+		if (closed || zooKeeper == null) {
+			return;
+		}
+		try {
+			if (zooKeeper.exists(rootPath, watcher) == null) {
+				log.warn("ZooKeeper configuration node does not exist yet, keeping the last known values: {}",
+						rootPath);
+				initialLoad.countDown();
+				return;
+			}
+			List<String> children = zooKeeper.getChildren(rootPath, watcher);
+			Map<String, String> next = new HashMap<>();
+			for (String nextKey : children) {
+				String value = sessionWatchesMissing ? null : current.get(nextKey);
+				if (value == null) {
+					value = readValue(nextKey);
+				}
+				if (value != null) {
+					next.put(nextKey, value);
+				}
+			}
+			sessionWatchesMissing = false;
+			replace(next);
+		} catch (KeeperException e) {
+			// Connection problems are retried when the connection is restored
+			log.warn("Could not read configuration from ZooKeeper: {}", e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void loadKey(String path) {
+		if (closed || zooKeeper == null) {
+			return;
+		}
+		String key = keyFor(path);
+		if (key == null) {
+			return;
+		}
+		try {
+			String value = readValue(key);
+			Map<String, String> next = new HashMap<>(current);
+			if (value == null) {
+				next.remove(key);
+			} else {
+				next.put(key, value);
+			}
+			replace(next);
+		} catch (KeeperException e) {
+			log.warn("Could not read configuration key from ZooKeeper: {} {}", key, e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void removeKey(String path) {
+		String key = keyFor(path);
+		if (key != null && current.containsKey(key)) {
+			Map<String, String> next = new HashMap<>(current);
+			next.remove(key);
+			replace(next);
+		} else if (rootPath.equals(path)) {
+			submit(this::loadAll);
+		}
+	}
+
+	/**
+	 * @return The value for the key, also setting a watch on it, or null if the
+	 *         key has been removed.
+	 */
+	private String readValue(String key) throws KeeperException, InterruptedException {
+		try {
+			byte[] data = zooKeeper.getData(rootPath + "/" + key, watcher, null);
+			return data == null ? "" : new String(data, StandardCharsets.UTF_8);
+		} catch (KeeperException.NoNodeException e) {
+			return null;
+		}
+	}
+
+	private String keyFor(String path) {
+		String prefix = rootPath + "/";
+		if (path == null || !path.startsWith(prefix)) {
+			return null;
+		}
+		return path.substring(prefix.length());
+	}
+
+	private void replace(Map<String, String> next) {
+		initialLoad.countDown();
+		if (next.equals(current)) {
+			return;
+		}
+		Set<String> changedKeys = new HashSet<>(current.keySet());
+		changedKeys.addAll(next.keySet());
+		current.clear();
+		current.putAll(next);
+		values = Collections.unmodifiableMap(new HashMap<>(next));
+		log.info("ZooKeeper configuration changed, {} keys affected", changedKeys.size());
+		writeCache();
+		for (Runnable nextListener : listeners) {
+			try {
+				nextListener.run();
+			} catch (RuntimeException e) {
+				log.warn("ZooKeeper configuration change listener failed", e);
+			}
+		}
+	}
+
+	private void writeCache() {
+		Properties toWrite = new Properties();
+		toWrite.putAll(current);
+		try {
+			Path parent = cacheFile.toAbsolutePath().getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			Path tempFile = Files.createTempFile(parent, cacheFile.getFileName().toString(), ".tmp");
+			try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+				toWrite.store(writer, "Cached from ZooKeeper " + connectString + rootPath);
+			}
+			Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Could not write cached ZooKeeper configuration: {}", cacheFile, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ZooKeeperConfigSource[" + connectString + rootPath + "]";
+	}
+}
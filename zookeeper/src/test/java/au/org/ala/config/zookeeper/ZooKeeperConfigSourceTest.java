@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package au.org.ala.config.zookeeper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ZooKeeperConfigSource} against a ZooKeeper server running
+ * in the same process.
+ * 
+ * @author Peter Ansell p_ansell@yahoo.com
+ */
+public class ZooKeeperConfigSourceTest {
+
+	private static final String ROOT = "/ala-config";
+
+	private static final long TIMEOUT_SECONDS = 10;
+
+	private Path tempDir;
+
+	private Path cacheFile;
+
+	private ZooKeeperServer server;
+
+	private ServerCnxnFactory connections;
+
+	private ZooKeeper client;
+
+	private ZooKeeperConfigSource source;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		tempDir = Files.createTempDirectory("ala-config-zookeeper-test");
+		cacheFile = tempDir.resolve("cache").resolve("zookeeper.properties");
+		server = new ZooKeeperServer(tempDir.resolve("snapshots").toFile(), tempDir.resolve("logs").toFile(), 500);
+		connections = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 10);
+		connections.startup(server);
+		CountDownLatch connected = new CountDownLatch(1);
+		client = new ZooKeeper(connectString(), 10000, event -> {
+			if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+				connected.countDown();
+			}
+		});
+		assertTrue(connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		if (source != null) {
+			source.close();
+		}
+		client.close();
+		connections.shutdown();
+		server.shutdown();
+		try (Stream<Path> files = Files.walk(tempDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private String connectString() {
+		return "127.0.0.1:" + connections.getLocalPort();
+	}
+
+	private ZooKeeperConfigSource start() throws Exception {
+		source = new ZooKeeperConfigSource(connectString(), ROOT, cacheFile, 10000).start();
+		return source;
+	}
+
+	private void create(String path, String value) throws Exception {
+		client.create(path, value == null ? null : value.getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+				CreateMode.PERSISTENT);
+	}
+
+	private void writeCache(Map<String, String> values) throws Exception {
+		Properties properties = new Properties();
+		properties.putAll(values);
+		Files.createDirectories(cacheFile.getParent());
+		try (Writer writer = Files.newBufferedWriter(cacheFile, StandardCharsets.UTF_8)) {
+			properties.store(writer, null);
+		}
+	}
+
+	private Map<String, String> readCache() throws Exception {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		Map<String, String> result = new HashMap<>();
+		for (String nextKey : properties.stringPropertyNames()) {
+			result.put(nextKey, properties.getProperty(nextKey));
+		}
+		return result;
+	}
+
+	private static <T> void awaitEquals(T expected, Supplier<T> actual) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (!expected.equals(actual.get()) && System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(expected, actual.get());
+	}
+
+	@Test
+	public void testInitialLoadReadsEveryKeyAndWritesCache() throws Exception {
+		create(ROOT, null);
+		create(ROOT + "/solr.home", "/data/solr");
+		create(ROOT + "/empty", null);
+		start();
+		assertTrue(source.awaitInitialLoad(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		Map<String, String> expected = new HashMap<>();
+		expected.put("solr.home", "/data/solr");
+		expected.put("empty", "");
+		assertEquals(expected, source.values());
+		assertEquals(expected, readCache());
+	}
+
+	@Test
+	public void testChangesArePushed() throws Exception {
+		create(ROOT, null);
+		create(ROOT + "/solr.home", "/data/solr");
+		AtomicInteger changes = new AtomicInteger();
+		start().addChangeListener(changes::incrementAndGet);
+		assertTrue(source.awaitInitialLoad(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		client.setData(ROOT + "/solr.home", "/opt/solr".getBytes(StandardCharsets.UTF_8), -1);
+		awaitEquals("/opt/solr", () -> source.values().get("solr.home"));
+		create(ROOT + "/solr.batch.size", "500");
+		awaitEquals("500", () -> source.values().get("solr.batch.size"));
+		client.delete(ROOT + "/solr.home", -1);
+		awaitEquals(Collections.singletonMap("solr.batch.size", "500"), () -> source.values());
+		awaitEquals(Collections.singletonMap("solr.batch.size", "500"), () -> {
+			try {
+				return readCache();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		assertTrue(changes.get() >= 4, "Expected a change for each update: " + changes.get());
+	}
+
+	@Test
+	public void testMissingRootKeepsCachedValues() throws Exception {
+		writeCache(Collections.singletonMap("solr.home", "/data/solr"));
+		AtomicInteger changes = new AtomicInteger();
+		start().addChangeListener(changes::incrementAndGet);
+		assertTrue(source.awaitInitialLoad(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		// Give the worker time to process anything else it was sent
+		Thread.sleep(200);
+		assertEquals(Collections.singletonMap("solr.home", "/data/solr"), source.values());
+		assertEquals(Collections.singletonMap("solr.home", "/data/solr"), readCache());
+		assertEquals(0, changes.get());
+		// The values are loaded once the root is created
+		create(ROOT, null);
+		create(ROOT + "/solr.home", "/opt/solr");
+		awaitEquals(Collections.singletonMap("solr.home", "/opt/solr"), () -> source.values());
+	}
+
+	@Test
+	public void testUnreachableServerUsesCachedValues() throws Exception {
+		writeCache(Collections.singletonMap("solr.home", "/data/solr"));
+		int unusedPort;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			unusedPort = socket.getLocalPort();
+		}
+		source = new ZooKeeperConfigSource("127.0.0.1:" + unusedPort, ROOT, cacheFile, 10000).start();
+		assertFalse(source.awaitInitialLoad(500, TimeUnit.MILLISECONDS));
+		assertEquals(Collections.singletonMap("solr.home", "/data/solr"), source.values());
+	}
+}